@@ -7,12 +7,14 @@ package javax.jmdns.impl;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.PriorityQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import javax.jmdns.impl.constants.DNSConstants;
 import javax.jmdns.impl.constants.DNSRecordClass;
 import javax.jmdns.impl.constants.DNSRecordType;
 
@@ -38,6 +40,10 @@ import javax.jmdns.impl.constants.DNSRecordType;
  *           ...do something with entry...
  *       }
  * </pre>
+ * <p/>
+ * Lookups by name and type go through a second table holding an array per name and type, which is replaced rather than changed. Readers never lock: only the threads changing the entries of a name lock its list.
+ * <p/>
+ * The records are also kept in order of their next deadline, either the point they go stale or the point they expire, so {@link #pollDueRecords(long)} hands the reaper only the records it has to act on instead of the whole cache.
  *
  * @author Arthur van Hoff, Werner Randelshofer, Rick Blair, Pierre Frisch
  */
@@ -52,6 +58,60 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
      */
     public static final DNSCache EmptyCache       = new _EmptyCache();
 
+    /**
+     * The entries of each name and type, lower case names as in the main table. The arrays are never changed once published.
+     */
+    private final Map<TypedName, DNSEntry[]> _index;
+
+    /**
+     * Next deadline of every record in the cache, earliest first. A record whose deadline changes gets a new one and the old one is left behind, only the deadline in {@link #_scheduled} counts.
+     */
+    private final PriorityQueue<Deadline>    _deadlines;
+
+    /**
+     * The current deadline of each record, by identity as records with the same name, type and class are not equal for this.
+     */
+    private final Map<DNSRecord, Deadline>   _scheduled;
+
+    private static final class TypedName {
+        final String        _name;
+        final DNSRecordType _type;
+
+        TypedName(String name, DNSRecordType type) {
+            _name = name;
+            _type = type;
+        }
+
+        @Override
+        public int hashCode() {
+            return _name.hashCode() * 31 + _type.ordinal();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof TypedName)) {
+                return false;
+            }
+            TypedName other = (TypedName) obj;
+            return (_type == other._type) && _name.equals(other._name);
+        }
+    }
+
+    private static final class Deadline implements Comparable<Deadline> {
+        final long      _time;
+        final DNSRecord _record;
+
+        Deadline(long time, DNSRecord record) {
+            _time = time;
+            _record = record;
+        }
+
+        @Override
+        public int compareTo(Deadline other) {
+            return (_time < other._time ? -1 : (_time == other._time ? 0 : 1));
+        }
+    }
+
     static final class _EmptyCache extends DNSCache {
 
         private static final long serialVersionUID = 8487377323074567224L;
@@ -96,14 +156,6 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
             return null;
         }
 
-        /**
-         * {@inheritDoc}
-         */
-        @Override
-        public Set<String> keySet() {
-            return Collections.emptySet();
-        }
-
         /**
          * {@inheritDoc}
          */
@@ -151,7 +203,9 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
     public DNSCache(DNSCache map) {
         this(map != null ? map.size() : 1024);
         if (map != null) {
-            this.putAll(map);
+            for (DNSEntry entry : map.allValues()) {
+                this.addDNSEntry(entry);
+            }
         }
     }
 
@@ -162,6 +216,9 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
      */
     public DNSCache(int initialCapacity) {
         super(initialCapacity);
+        _index = new ConcurrentHashMap<TypedName, DNSEntry[]>(initialCapacity);
+        _deadlines = new PriorityQueue<Deadline>();
+        _scheduled = new IdentityHashMap<DNSRecord, Deadline>();
     }
 
     // ====================================================================
@@ -175,6 +232,19 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
         return new DNSCache(this);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        super.clear();
+        _index.clear();
+        synchronized (_deadlines) {
+            _deadlines.clear();
+            _scheduled.clear();
+        }
+    }
+
     // ====================================================================
 
     /**
@@ -199,19 +269,30 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
      * @return list of DNSEntries
      */
     public Collection<? extends DNSEntry> getDNSEntryList(String name) {
-        Collection<? extends DNSEntry> entryList = this._getDNSEntryList(name);
+        Collection<? extends DNSEntry> entryList = this.get(name != null ? toKey(name) : null);
         if (entryList != null) {
-            synchronized (entryList) {
-                entryList = new ArrayList<DNSEntry>(entryList);
-            }
+            entryList = new ArrayList<DNSEntry>(entryList);
         } else {
             entryList = Collections.emptyList();
         }
         return entryList;
     }
 
-    private Collection<? extends DNSEntry> _getDNSEntryList(String name) {
-        return this.get(name != null ? name.toLowerCase() : null);
+    /**
+     * Lower cases a name the way entry keys are. Names are almost always lower case already, those are returned as they are.
+     */
+    private static String toKey(String name) {
+        for (int i = 0, n = name.length(); i < n; i++) {
+            char c = name.charAt(i);
+            if (((c >= 'A') && (c <= 'Z')) || (c >= 0x80)) {
+                return name.toLowerCase();
+            }
+        }
+        return name;
+    }
+
+    private DNSEntry[] _getDNSEntries(String key, DNSRecordType type) {
+        return ((key != null) && (type != null) ? _index.get(new TypedName(key, type)) : null);
     }
 
     /**
@@ -223,14 +304,12 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
     public DNSEntry getDNSEntry(DNSEntry dnsEntry) {
         DNSEntry result = null;
         if (dnsEntry != null) {
-            Collection<? extends DNSEntry> entryList = this._getDNSEntryList(dnsEntry.getKey());
-            if (entryList != null) {
-                synchronized (entryList) {
-                    for (DNSEntry testDNSEntry : entryList) {
-                        if (testDNSEntry.isSameEntry(dnsEntry)) {
-                            result = testDNSEntry;
-                            break;
-                        }
+            DNSEntry[] entries = this._getDNSEntries(dnsEntry.getKey(), dnsEntry.getRecordType());
+            if (entries != null) {
+                for (DNSEntry testDNSEntry : entries) {
+                    if (testDNSEntry.isSameEntry(dnsEntry)) {
+                        result = testDNSEntry;
+                        break;
                     }
                 }
             }
@@ -248,14 +327,12 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
      */
     public DNSEntry getDNSEntry(String name, DNSRecordType type, DNSRecordClass recordClass) {
         DNSEntry result = null;
-        Collection<? extends DNSEntry> entryList = this._getDNSEntryList(name);
-        if (entryList != null) {
-            synchronized (entryList) {
-                for (DNSEntry testDNSEntry : entryList) {
-                    if (testDNSEntry.matchRecordType(type) && testDNSEntry.matchRecordClass(recordClass)) {
-                        result = testDNSEntry;
-                        break;
-                    }
+        DNSEntry[] entries = this._getDNSEntries(name != null ? toKey(name) : null, type);
+        if (entries != null) {
+            for (DNSEntry testDNSEntry : entries) {
+                if (testDNSEntry.matchRecordClass(recordClass)) {
+                    result = testDNSEntry;
+                    break;
                 }
             }
         }
@@ -271,19 +348,15 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
      * @return list of entries
      */
     public Collection<? extends DNSEntry> getDNSEntryList(String name, DNSRecordType type, DNSRecordClass recordClass) {
-        Collection<? extends DNSEntry> entryList = this._getDNSEntryList(name);
-        if (entryList != null) {
-            synchronized (entryList) {
-                entryList = new ArrayList<DNSEntry>(entryList);
-                for (Iterator<? extends DNSEntry> i = entryList.iterator(); i.hasNext();) {
-                    DNSEntry testDNSEntry = i.next();
-                    if (!testDNSEntry.matchRecordType(type) || (!testDNSEntry.matchRecordClass(recordClass))) {
-                        i.remove();
-                    }
-                }
+        DNSEntry[] entries = this._getDNSEntries(name != null ? toKey(name) : null, type);
+        if (entries == null) {
+            return Collections.emptyList();
+        }
+        List<DNSEntry> entryList = new ArrayList<DNSEntry>(entries.length);
+        for (DNSEntry testDNSEntry : entries) {
+            if (testDNSEntry.matchRecordClass(recordClass)) {
+                entryList.add(testDNSEntry);
             }
-        } else {
-            entryList = Collections.emptyList();
         }
         return entryList;
     }
@@ -299,12 +372,14 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
         if (dnsEntry != null) {
             List<DNSEntry> entryList = this.get(dnsEntry.getKey());
             if (entryList == null) {
-                this.putIfAbsent(dnsEntry.getKey(), new ArrayList<DNSEntry>());
+                this.putIfAbsent(dnsEntry.getKey(), new CopyOnWriteArrayList<DNSEntry>());
                 entryList = this.get(dnsEntry.getKey());
             }
             synchronized (entryList) {
                 entryList.add(dnsEntry);
+                this.index(dnsEntry);
             }
+            this.schedule(dnsEntry);
             // This is probably not very informative
             result = true;
         }
@@ -322,9 +397,15 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
         if (dnsEntry != null) {
             List<DNSEntry> entryList = this.get(dnsEntry.getKey());
             if (entryList != null) {
+                DNSEntry removed = null;
                 synchronized (entryList) {
-                    entryList.remove(dnsEntry);
+                    int index = entryList.indexOf(dnsEntry);
+                    if (index >= 0) {
+                        removed = entryList.remove(index);
+                        this.unindex(removed);
+                    }
                 }
+                this.unschedule(removed);
             }
         }
         return result;
@@ -343,19 +424,143 @@ public class DNSCache extends ConcurrentHashMap<String, List<DNSEntry>> {
         if ((newDNSEntry != null) && (existingDNSEntry != null) && (newDNSEntry.getKey().equals(existingDNSEntry.getKey()))) {
             List<DNSEntry> entryList = this.get(newDNSEntry.getKey());
             if (entryList == null) {
-                this.putIfAbsent(newDNSEntry.getKey(), new ArrayList<DNSEntry>());
+                this.putIfAbsent(newDNSEntry.getKey(), new CopyOnWriteArrayList<DNSEntry>());
                 entryList = this.get(newDNSEntry.getKey());
             }
+            DNSEntry removed = null;
             synchronized (entryList) {
-                entryList.remove(existingDNSEntry);
+                int index = entryList.indexOf(existingDNSEntry);
+                if (index >= 0) {
+                    removed = entryList.remove(index);
+                    this.unindex(removed);
+                }
                 entryList.add(newDNSEntry);
+                this.index(newDNSEntry);
             }
+            this.unschedule(removed);
+            this.schedule(newDNSEntry);
             // This is probably not very informative
             result = true;
         }
         return result;
     }
 
+    /**
+     * Publishes a new array with the entry added. Called with the list of the entry's name locked.
+     */
+    private void index(DNSEntry dnsEntry) {
+        TypedName typedName = new TypedName(dnsEntry.getKey(), dnsEntry.getRecordType());
+        DNSEntry[] entries = _index.get(typedName);
+        DNSEntry[] added;
+        if (entries == null) {
+            added = new DNSEntry[] { dnsEntry };
+        } else {
+            added = new DNSEntry[entries.length + 1];
+            System.arraycopy(entries, 0, added, 0, entries.length);
+            added[entries.length] = dnsEntry;
+        }
+        _index.put(typedName, added);
+    }
+
+    /**
+     * Publishes a new array without the entry. Called with the list of the entry's name locked.
+     */
+    private void unindex(DNSEntry dnsEntry) {
+        TypedName typedName = new TypedName(dnsEntry.getKey(), dnsEntry.getRecordType());
+        DNSEntry[] entries = _index.get(typedName);
+        if (entries == null) {
+            return;
+        }
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i] == dnsEntry) {
+                if (entries.length == 1) {
+                    _index.remove(typedName);
+                } else {
+                    DNSEntry[] removed = new DNSEntry[entries.length - 1];
+                    System.arraycopy(entries, 0, removed, 0, i);
+                    System.arraycopy(entries, i + 1, removed, i, entries.length - i - 1);
+                    _index.put(typedName, removed);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Takes the records whose deadline has passed. Each one returned has gone stale or expired, and is looked at again one reaper interval later for as long as it stays in the cache in that state, the same as when the whole cache was
+     * scanned. A record whose TTL was refreshed in the meantime is not returned but moved to its new deadline.
+     *
+     * @param now
+     *            reaping date
+     * @return the stale and expired records
+     */
+    public List<DNSRecord> pollDueRecords(long now) {
+        List<DNSRecord> due = new ArrayList<DNSRecord>();
+        synchronized (_deadlines) {
+            Deadline deadline;
+            while (((deadline = _deadlines.peek()) != null) && (deadline._time <= now)) {
+                _deadlines.poll();
+                DNSRecord record = deadline._record;
+                if (_scheduled.get(record) != deadline) {
+                    continue;
+                }
+                long next;
+                if (record.isExpired(now)) {
+                    due.add(record);
+                    next = now + DNSConstants.RECORD_REAPER_INTERVAL;
+                } else if (record.isStale(now)) {
+                    due.add(record);
+                    next = Math.min(record.getExpirationTime(100), now + DNSConstants.RECORD_REAPER_INTERVAL);
+                } else {
+                    next = record.getExpirationTime(50);
+                }
+                this.enqueue(record, next);
+            }
+        }
+        return due;
+    }
+
+    /**
+     * Moves an entry to its new deadline after its TTL was reset or shortened.
+     *
+     * @param dnsEntry
+     */
+    public void rescheduleDNSEntry(DNSEntry dnsEntry) {
+        synchronized (_deadlines) {
+            if (_scheduled.containsKey(dnsEntry)) {
+                this.schedule(dnsEntry);
+            }
+        }
+    }
+
+    private void schedule(DNSEntry dnsEntry) {
+        if (dnsEntry instanceof DNSRecord) {
+            DNSRecord record = (DNSRecord) dnsEntry;
+            synchronized (_deadlines) {
+                this.enqueue(record, record.getExpirationTime(50));
+            }
+        }
+    }
+
+    private void unschedule(DNSEntry dnsEntry) {
+        if (dnsEntry != null) {
+            synchronized (_deadlines) {
+                _scheduled.remove(dnsEntry);
+            }
+        }
+    }
+
+    private void enqueue(DNSRecord record, long time) {
+        Deadline deadline = new Deadline(time, record);
+        _scheduled.put(record, deadline);
+        _deadlines.add(deadline);
+        // deadlines left behind by removed and rescheduled records would otherwise only go once their time comes
+        if (_deadlines.size() > 2 * _scheduled.size() + 64) {
+            _deadlines.clear();
+            _deadlines.addAll(_scheduled.values());
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -44,13 +44,45 @@ public abstract class DNSEntry {
         _recordType = type;
         _dnsClass = recordClass;
         _unique = unique;
-        _qualifiedNameMap = ServiceInfoImpl.decodeQualifiedNameMapForType(this.getName());
-        String domain = _qualifiedNameMap.get(Fields.Domain);
-        String protocol = _qualifiedNameMap.get(Fields.Protocol);
-        String application = _qualifiedNameMap.get(Fields.Application);
-        String instance = _qualifiedNameMap.get(Fields.Instance).toLowerCase();
-        _type = (application.length() > 0 ? "_" + application + "." : "") + (protocol.length() > 0 ? "_" + protocol + "." : "") + domain + ".";
-        _key = ((instance.length() > 0 ? instance + "." : "") + _type).toLowerCase();
+        NameParts parts = NameParts.forName(this.getName());
+        _qualifiedNameMap = parts._qualifiedNameMap;
+        _type = parts._type;
+        _key = parts._key;
+    }
+
+    /**
+     * What a name breaks down into. Every record and question of a name needs the same, names come out of DNSIncoming interned, so the last few are kept rather than decoded again for each entry.
+     */
+    private static final class NameParts {
+        private static final NameParts[] RECENT = new NameParts[256];
+
+        final String                     _name;
+        final Map<Fields, String>        _qualifiedNameMap;
+        final String                     _type;
+        final String                     _key;
+
+        private NameParts(String name) {
+            _name = name;
+            // shared between entries, nothing may change it
+            _qualifiedNameMap = Collections.unmodifiableMap(ServiceInfoImpl.decodeQualifiedNameMapForType(name));
+            String domain = _qualifiedNameMap.get(Fields.Domain);
+            String protocol = _qualifiedNameMap.get(Fields.Protocol);
+            String application = _qualifiedNameMap.get(Fields.Application);
+            String instance = _qualifiedNameMap.get(Fields.Instance).toLowerCase();
+            _type = (application.length() > 0 ? "_" + application + "." : "") + (protocol.length() > 0 ? "_" + protocol + "." : "") + domain + ".";
+            _key = ((instance.length() > 0 ? instance + "." : "") + _type).toLowerCase();
+        }
+
+        static NameParts forName(String name) {
+            int hash = name.hashCode();
+            int slot = (hash ^ (hash >>> 16)) & (RECENT.length - 1);
+            NameParts parts = RECENT[slot];
+            if (parts == null || (parts._name != name && !parts._name.equals(name))) {
+                parts = new NameParts(name);
+                RECENT[slot] = parts;
+            }
+            return parts;
+        }
     }
 
     /*
@@ -164,7 +196,7 @@ public abstract class DNSEntry {
     }
 
     public Map<Fields, String> getQualifiedNameMap() {
-        return Collections.unmodifiableMap(_qualifiedNameMap);
+        return _qualifiedNameMap;
     }
 
     public boolean isServicesDiscoveryMetaQuery() {
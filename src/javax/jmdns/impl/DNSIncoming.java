@@ -8,8 +8,6 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -35,7 +33,33 @@ public final class DNSIncoming extends DNSMessage {
     public static class MessageInputStream extends ByteArrayInputStream {
         private static Logger      logger1 = Logger.getLogger(MessageInputStream.class.getName());
 
-        final Map<Integer, String> _names;
+        /**
+         * Most compression pointers followed for one name. Real names point back once or twice, a longer chain is a crafted packet.
+         */
+        private static final int   MAX_POINTERS    = 16;
+
+        /**
+         * Longest name on the wire, RFC 1035 section 3.1.
+         */
+        private static final int   MAX_NAME_LENGTH = 255;
+
+        /**
+         * Names compression pointers of this message led to and their length on the wire, hashed by the offset they start at plus one, zero marks a free slot. Filled in as pointers are followed.
+         */
+        private int[]              _nameOffsets;
+        private String[]           _nameValues;
+        private int[]              _nameLengths;
+        private int                _nameCount;
+
+        /**
+         * Start, end of labels and label bytes of each piece of the name being decoded, one piece per pointer followed.
+         */
+        private int[]              _segments;
+
+        /**
+         * Where the name last decoded by {@link #nameAt(int)} ended.
+         */
+        private int                _nameEnd;
 
         public MessageInputStream(byte[] buffer, int length) {
             this(buffer, 0, length);
@@ -48,7 +72,6 @@ public final class DNSIncoming extends DNSMessage {
          */
         public MessageInputStream(byte[] buffer, int offset, int length) {
             super(buffer, offset, length);
-            _names = new HashMap<Integer, String>();
         }
 
         public int readByte() {
@@ -71,8 +94,19 @@ public final class DNSIncoming extends DNSMessage {
 
         public String readUTF(int len) {
             StringBuilder buffer = new StringBuilder(len);
+            pos = this.appendUTF(buffer, pos, len);
+            return buffer.toString();
+        }
+
+        /**
+         * Decodes len bytes of the message starting at offset onto the buffer, without moving the read position.
+         *
+         * @return offset of the first byte after the decoded ones
+         */
+        private int appendUTF(StringBuilder buffer, int offset, int len) {
+            int p = offset;
             for (int index = 0; index < len; index++) {
-                int ch = this.read();
+                int ch = this.byteAt(p++);
                 switch (ch >> 4) {
                     case 0:
                     case 1:
@@ -87,24 +121,28 @@ public final class DNSIncoming extends DNSMessage {
                     case 12:
                     case 13:
                         // 110x xxxx 10xx xxxx
-                        ch = ((ch & 0x1F) << 6) | (this.read() & 0x3F);
+                        ch = ((ch & 0x1F) << 6) | (this.byteAt(p++) & 0x3F);
                         index++;
                         break;
                     case 14:
                         // 1110 xxxx 10xx xxxx 10xx xxxx
-                        ch = ((ch & 0x0f) << 12) | ((this.read() & 0x3F) << 6) | (this.read() & 0x3F);
+                        ch = ((ch & 0x0f) << 12) | ((this.byteAt(p++) & 0x3F) << 6) | (this.byteAt(p++) & 0x3F);
                         index++;
                         index++;
                         break;
                     default:
                         // 10xx xxxx, 1111 xxxx
-                        ch = ((ch & 0x3F) << 4) | (this.read() & 0x0f);
+                        ch = ((ch & 0x3F) << 4) | (this.byteAt(p++) & 0x0f);
                         index++;
                         break;
                 }
                 buffer.append((char) ch);
             }
-            return buffer.toString();
+            return Math.min(p, count);
+        }
+
+        private int byteAt(int offset) {
+            return (offset < count) ? (buf[offset] & 0xff) : -1;
         }
 
         protected synchronized int peek() {
@@ -112,51 +150,179 @@ public final class DNSIncoming extends DNSMessage {
         }
 
         public String readName() {
-            Map<Integer, StringBuilder> names = new HashMap<Integer, StringBuilder>();
-            StringBuilder buffer = new StringBuilder();
-            boolean finished = false;
-            while (!finished) {
-                int len = this.read();
-                if (len == 0) {
-                    finished = true;
+            String name = this.nameAt(pos);
+            pos = _nameEnd;
+            return name;
+        }
+
+        /**
+         * Decodes the name starting at offset, following compression pointers through the names table, and leaves where it ended in _nameEnd.
+         * <p>
+         * The pointers are followed in a loop, at most {@link #MAX_POINTERS} of them and no further than {@link #MAX_NAME_LENGTH} bytes. A name breaking either limit keeps the labels read up to there.
+         * </p>
+         */
+        private String nameAt(int offset) {
+            if (_segments == null) {
+                _segments = new int[3 * (MAX_POINTERS + 1)];
+            }
+            int segments = 0;
+            int length = 0;
+            int start = offset;
+            int p = offset;
+            String suffix = "";
+            int suffixLength = 0;
+            while (true) {
+                int labelsEnd = count;
+                int labels = 0;
+                int next = -1;
+                scan: while (p < count) {
+                    int len = buf[p] & 0xff;
+                    if (len == 0) {
+                        labelsEnd = p++;
+                        break;
+                    }
+                    switch (DNSLabel.labelForByte(len)) {
+                        case Standard:
+                            labels += 1 + len;
+                            p = Math.min(p + 1 + len, count);
+                            break;
+                        case Compressed:
+                            labelsEnd = p;
+                            int index = (DNSLabel.labelValue(len) << 8) | (this.byteAt(p + 1) & 0xff);
+                            p = Math.min(p + 2, count);
+                            // a pointer has to lead back before the piece of name it is part of, anything else could loop
+                            if (index < start) {
+                                next = index;
+                            } else {
+                                logger1.severe("bad domain name: possible circular name detected. Bad offset: 0x" + Integer.toHexString(index) + " at 0x" + Integer.toHexString(labelsEnd));
+                            }
+                            break scan;
+                        case Extended:
+                            // int extendedLabelClass = DNSLabel.labelValue(len);
+                            logger1.severe("Extended label are not currently supported.");
+                            p++;
+                            break;
+                        case Unknown:
+                        default:
+                            logger1.severe("unsupported dns label type: '" + Integer.toHexString(len & 0xC0) + "'");
+                            p++;
+                    }
+                }
+                if (segments == 0) {
+                    _nameEnd = p;
+                }
+                length += labels;
+                if (length > MAX_NAME_LENGTH) {
+                    logger1.severe("bad domain name: longer than " + MAX_NAME_LENGTH + " bytes at 0x" + Integer.toHexString(start));
                     break;
                 }
-                switch (DNSLabel.labelForByte(len)) {
-                    case Standard:
-                        int offset = pos - 1;
-                        String label = this.readUTF(len) + ".";
-                        buffer.append(label);
-                        for (StringBuilder previousLabel : names.values()) {
-                            previousLabel.append(label);
-                        }
-                        names.put(Integer.valueOf(offset), new StringBuilder(label));
-                        break;
-                    case Compressed:
-                        int index = (DNSLabel.labelValue(len) << 8) | this.read();
-                        String compressedLabel = _names.get(Integer.valueOf(index));
-                        if (compressedLabel == null) {
-                            logger1.severe("bad domain name: possible circular name detected. Bad offset: 0x" + Integer.toHexString(index) + " at 0x" + Integer.toHexString(pos - 2));
-                            compressedLabel = "";
-                        }
-                        buffer.append(compressedLabel);
-                        for (StringBuilder previousLabel : names.values()) {
-                            previousLabel.append(compressedLabel);
-                        }
-                        finished = true;
-                        break;
-                    case Extended:
-                        // int extendedLabelClass = DNSLabel.labelValue(len);
-                        logger1.severe("Extended label are not currently supported.");
-                        break;
-                    case Unknown:
-                    default:
-                        logger1.severe("unsupported dns label type: '" + Integer.toHexString(len & 0xC0) + "'");
+                _segments[3 * segments] = start;
+                _segments[3 * segments + 1] = Math.min(labelsEnd, p);
+                _segments[3 * segments + 2] = labels;
+                segments++;
+                if (next < 0) {
+                    break;
+                }
+                int slot = this.nameSlot(next);
+                if (_nameOffsets != null && _nameOffsets[slot] == next + 1) {
+                    if (length + _nameLengths[slot] > MAX_NAME_LENGTH) {
+                        logger1.severe("bad domain name: longer than " + MAX_NAME_LENGTH + " bytes at 0x" + Integer.toHexString(next));
+                    } else {
+                        suffix = _nameValues[slot];
+                        suffixLength = _nameLengths[slot];
+                    }
+                    break;
                 }
+                if (segments > MAX_POINTERS) {
+                    logger1.severe("bad domain name: more than " + MAX_POINTERS + " compression pointers at 0x" + Integer.toHexString(offset));
+                    break;
+                }
+                start = p = next;
             }
-            for (Integer index : names.keySet()) {
-                _names.put(index, names.get(index).toString());
+            // build the name from its last piece back, remembering every piece a pointer led to
+            for (int i = segments - 1; i >= 0; i--) {
+                suffix = this.name(_segments[3 * i], _segments[3 * i + 1], suffix);
+                suffixLength += _segments[3 * i + 2];
+                if (i > 0) {
+                    this.rememberName(_segments[3 * i], suffix, suffixLength);
+                }
+            }
+            return suffix;
+        }
+
+        private int nameSlot(int offset) {
+            if (_nameOffsets == null) {
+                return 0;
+            }
+            int mask = _nameOffsets.length - 1;
+            int slot = (offset * 0x9E3779B1 >>> 16) & mask;
+            while (_nameOffsets[slot] != 0 && _nameOffsets[slot] != offset + 1) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void rememberName(int offset, String name, int length) {
+            if (_nameOffsets == null) {
+                _nameOffsets = new int[16];
+                _nameValues = new String[16];
+                _nameLengths = new int[16];
+            } else if (2 * (_nameCount + 1) > _nameOffsets.length) {
+                int[] offsets = _nameOffsets;
+                String[] values = _nameValues;
+                int[] lengths = _nameLengths;
+                _nameOffsets = new int[offsets.length * 2];
+                _nameValues = new String[offsets.length * 2];
+                _nameLengths = new int[offsets.length * 2];
+                for (int i = 0; i < offsets.length; i++) {
+                    if (offsets[i] != 0) {
+                        int slot = this.nameSlot(offsets[i] - 1);
+                        _nameOffsets[slot] = offsets[i];
+                        _nameValues[slot] = values[i];
+                        _nameLengths[slot] = lengths[i];
+                    }
+                }
+            }
+            int slot = this.nameSlot(offset);
+            if (_nameOffsets[slot] == 0) {
+                _nameOffsets[slot] = offset + 1;
+                _nameValues[slot] = name;
+                _nameLengths[slot] = length;
+                _nameCount++;
             }
-            return buffer.toString();
+        }
+
+        /**
+         * Returns the name made of the labels between offset and end followed by suffix, the instance decoded last time these bytes came in if there is one.
+         */
+        private String name(int offset, int end, String suffix) {
+            if (end <= offset) {
+                return suffix;
+            }
+            int hash = suffix.hashCode();
+            for (int i = offset; i < end; i++) {
+                hash = 31 * hash + buf[i];
+            }
+            int slot = (hash ^ (hash >>> 16)) & (NAMES.length - 1);
+            InternedName interned = NAMES[slot];
+            if (interned != null && interned.matches(hash, buf, offset, end - offset, suffix)) {
+                return interned._name;
+            }
+
+            StringBuilder buffer = new StringBuilder(end - offset + suffix.length());
+            int p = offset;
+            while (p < end) {
+                int len = buf[p++] & 0xff;
+                if (DNSLabel.labelForByte(len) == DNSLabel.Standard) {
+                    p = this.appendUTF(buffer, p, Math.min(len, end - p));
+                    buffer.append('.');
+                }
+            }
+            String name = buffer.append(suffix).toString();
+            byte[] raw = new byte[end - offset];
+            System.arraycopy(buf, offset, raw, 0, raw.length);
+            NAMES[slot] = new InternedName(hash, raw, suffix, name);
+            return name;
         }
 
         public String readNonNameString() {
@@ -166,6 +332,37 @@ public final class DNSIncoming extends DNSMessage {
 
     }
 
+    /**
+     * Recently decoded names, shared by every message. Service, host and domain names repeat in nearly every packet on the network, decoding them again each time only made garbage. Slots are overwritten on collision.
+     */
+    private static final InternedName[] NAMES = new InternedName[512];
+
+    private static final class InternedName {
+        final int    _hash;
+        final byte[] _labels;
+        final String _suffix;
+        final String _name;
+
+        InternedName(int hash, byte[] labels, String suffix, String name) {
+            this._hash = hash;
+            this._labels = labels;
+            this._suffix = suffix;
+            this._name = name;
+        }
+
+        boolean matches(int hash, byte[] data, int offset, int length, String suffix) {
+            if (_hash != hash || _labels.length != length || (_suffix != suffix && !_suffix.equals(suffix))) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (_labels[i] != data[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
     private final DatagramPacket     _packet;
 
     private final long               _receivedTime;
@@ -4,9 +4,11 @@
 
 package javax.jmdns.impl;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.jmdns.impl.constants.DNSConstants;
@@ -19,13 +21,18 @@ import javax.jmdns.impl.constants.DNSRecordClass;
  */
 public final class DNSOutgoing extends DNSMessage {
 
-    public static class MessageOutputStream extends ByteArrayOutputStream {
+    public static class MessageOutputStream {
         private final DNSOutgoing _out;
 
-        private final int         _offset;
+        private ByteBuffer        _buffer;
 
         /**
-         * Creates a new message stream, with a buffer capacity of the specified size, in bytes.
+         * Names this stream registered for compression, kept only while measuring so a record that does not fit can take them back out.
+         */
+        private List<String>      _registered;
+
+        /**
+         * Creates a new message stream, with a buffer capacity of the specified size, in bytes. The buffer grows when more is written.
          *
          * @param size
          *            the initial size.
@@ -33,22 +40,42 @@ public final class DNSOutgoing extends DNSMessage {
          *                if size is negative.
          */
         MessageOutputStream(int size, DNSOutgoing out) {
-            this(size, out, 0);
+            _buffer = ByteBuffer.allocate(size);
+            _out = out;
         }
 
-        MessageOutputStream(int size, DNSOutgoing out, int offset) {
-            super(size);
-            _out = out;
-            _offset = offset;
+        int size() {
+            return _buffer.position();
+        }
+
+        void reset() {
+            _buffer.clear();
+        }
+
+        byte[] toByteArray() {
+            byte[] bytes = new byte[_buffer.position()];
+            System.arraycopy(_buffer.array(), 0, bytes, 0, bytes.length);
+            return bytes;
+        }
+
+        private void ensure(int length) {
+            if (_buffer.remaining() < length) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(_buffer.capacity() * 2, _buffer.position() + length));
+                _buffer.flip();
+                grown.put(_buffer);
+                _buffer = grown;
+            }
         }
 
         void writeByte(int value) {
-            this.write(value & 0xFF);
+            this.ensure(1);
+            _buffer.put((byte) value);
         }
 
         void writeBytes(String str, int off, int len) {
+            this.ensure(len);
             for (int i = 0; i < len; i++) {
-                writeByte(str.charAt(off + i));
+                _buffer.put((byte) str.charAt(off + i));
             }
         }
 
@@ -59,19 +86,18 @@ public final class DNSOutgoing extends DNSMessage {
         }
 
         void writeBytes(byte data[], int off, int len) {
-            for (int i = 0; i < len; i++) {
-                writeByte(data[off + i]);
-            }
+            this.ensure(len);
+            _buffer.put(data, off, len);
         }
 
         void writeShort(int value) {
-            writeByte(value >> 8);
-            writeByte(value);
+            this.ensure(2);
+            _buffer.putShort((short) value);
         }
 
         void writeInt(int value) {
-            writeShort(value >> 16);
-            writeShort(value);
+            this.ensure(4);
+            _buffer.putInt(value);
         }
 
         void writeUTF(String str, int off, int len) {
@@ -89,21 +115,22 @@ public final class DNSOutgoing extends DNSMessage {
                     }
                 }
             }
+            this.ensure(1 + utflen);
             // write utf length
-            writeByte(utflen);
+            _buffer.put((byte) utflen);
             // write utf data
             for (int i = 0; i < len; i++) {
                 int ch = str.charAt(off + i);
                 if ((ch >= 0x0001) && (ch <= 0x007F)) {
-                    writeByte(ch);
+                    _buffer.put((byte) ch);
                 } else {
                     if (ch > 0x07FF) {
-                        writeByte(0xE0 | ((ch >> 12) & 0x0F));
-                        writeByte(0x80 | ((ch >> 6) & 0x3F));
-                        writeByte(0x80 | ((ch >> 0) & 0x3F));
+                        _buffer.put((byte) (0xE0 | ((ch >> 12) & 0x0F)));
+                        _buffer.put((byte) (0x80 | ((ch >> 6) & 0x3F)));
+                        _buffer.put((byte) (0x80 | ((ch >> 0) & 0x3F)));
                     } else {
-                        writeByte(0xC0 | ((ch >> 6) & 0x1F));
-                        writeByte(0x80 | ((ch >> 0) & 0x3F));
+                        _buffer.put((byte) (0xC0 | ((ch >> 6) & 0x1F)));
+                        _buffer.put((byte) (0x80 | ((ch >> 0) & 0x3F)));
                     }
                 }
             }
@@ -114,17 +141,9 @@ public final class DNSOutgoing extends DNSMessage {
         }
 
         void writeName(String name, boolean useCompression) {
-            String aName = name;
-            while (true) {
-                int n = aName.indexOf('.');
-                if (n < 0) {
-                    n = aName.length();
-                }
-                if (n <= 0) {
-                    writeByte(0);
-                    return;
-                }
-                String label = aName.substring(0, n);
+            EncodedName encoded = EncodedName.forName(name);
+            for (int i = 0; i < encoded._suffixes.length; i++) {
+                String aName = encoded._suffixes[i];
                 if (useCompression && USE_DOMAIN_NAME_COMPRESSION) {
                     Integer offset = _out._names.get(aName);
                     if (offset != null) {
@@ -133,16 +152,15 @@ public final class DNSOutgoing extends DNSMessage {
                         writeByte(val & 0xFF);
                         return;
                     }
-                    _out._names.put(aName, Integer.valueOf(this.size() + _offset));
-                    writeUTF(label, 0, label.length());
-                } else {
-                    writeUTF(label, 0, label.length());
-                }
-                aName = aName.substring(n);
-                if (aName.startsWith(".")) {
-                    aName = aName.substring(1);
+                    _out._names.put(aName, Integer.valueOf(this.size()));
+                    if (_registered != null) {
+                        _registered.add(aName);
+                    }
                 }
+                int start = encoded._starts[i];
+                writeBytes(encoded._labels, start, encoded._starts[i + 1] - start);
             }
+            writeByte(0);
         }
 
         void writeQuestion(DNSQuestion question) {
@@ -157,15 +175,80 @@ public final class DNSOutgoing extends DNSMessage {
             writeShort(rec.getRecordClass().indexValue() | ((rec.isUnique() && _out.isMulticast()) ? DNSRecordClass.CLASS_UNIQUE : 0));
             writeInt((now == 0) ? rec.getTTL() : rec.getRemainingTTL(now));
 
-            // We need to take into account the 2 size bytes
-            MessageOutputStream record = new MessageOutputStream(512, _out, _offset + this.size() + 2);
-            rec.write(record);
-            byte[] byteArray = record.toByteArray();
+            // write the data in place and fill in its length once it is known
+            writeShort(0);
+            int start = this.size();
+            rec.write(this);
+            _buffer.putShort(start - 2, (short) (this.size() - start));
+        }
+
+    }
+
+    /**
+     * The labels of a name as they go on the wire, and the name left at each label for compression. Our own host and service names go out in every announcement and response, so the last few are kept instead of being cut up and
+     * encoded again each time.
+     */
+    private static final class EncodedName {
+        private static final EncodedName[] RECENT = new EncodedName[256];
+
+        final String                       _name;
+
+        /**
+         * Every label, length byte first, back to back.
+         */
+        final byte[]                       _labels;
 
-            writeShort(byteArray.length);
-            write(byteArray, 0, byteArray.length);
+        /**
+         * Where each label starts in _labels, with the total length last.
+         */
+        final int[]                        _starts;
+
+        /**
+         * The name from each label on, what compression looks up.
+         */
+        final String[]                     _suffixes;
+
+        private EncodedName(String name) {
+            _name = name;
+            List<String> suffixes = new ArrayList<String>();
+            MessageOutputStream labels = new MessageOutputStream(name.length() + 8, null);
+            List<Integer> starts = new ArrayList<Integer>();
+            String aName = name;
+            while (true) {
+                int n = aName.indexOf('.');
+                if (n < 0) {
+                    n = aName.length();
+                }
+                if (n <= 0) {
+                    break;
+                }
+                suffixes.add(aName);
+                starts.add(Integer.valueOf(labels.size()));
+                labels.writeUTF(aName, 0, n);
+                aName = aName.substring(n);
+                if (aName.startsWith(".")) {
+                    aName = aName.substring(1);
+                }
+            }
+            _labels = labels.toByteArray();
+            _suffixes = suffixes.toArray(new String[suffixes.size()]);
+            _starts = new int[_suffixes.length + 1];
+            for (int i = 0; i < _suffixes.length; i++) {
+                _starts[i] = starts.get(i).intValue();
+            }
+            _starts[_suffixes.length] = _labels.length;
         }
 
+        static EncodedName forName(String name) {
+            int hash = name.hashCode();
+            int slot = (hash ^ (hash >>> 16)) & (RECENT.length - 1);
+            EncodedName encoded = RECENT[slot];
+            if (encoded == null || (encoded._name != name && !encoded._name.equals(name))) {
+                encoded = new EncodedName(name);
+                RECENT[slot] = encoded;
+            }
+            return encoded;
+        }
     }
 
     /**
@@ -177,13 +260,15 @@ public final class DNSOutgoing extends DNSMessage {
 
     private int                       _maxUDPPayload;
 
-    private final MessageOutputStream _questionsBytes;
-
-    private final MessageOutputStream _answersBytes;
-
-    private final MessageOutputStream _authoritativeAnswersBytes;
+    /**
+     * Entries are encoded here first to see whether they fit, the message itself is only put together by {@link #data()}.
+     */
+    private final MessageOutputStream _measure;
 
-    private final MessageOutputStream _additionalsAnswersBytes;
+    /**
+     * Bytes the entries added so far take up.
+     */
+    private int                       _used;
 
     private final static int          HEADER_SIZE                 = 12;
 
@@ -218,10 +303,8 @@ public final class DNSOutgoing extends DNSMessage {
         super(flags, 0, multicast);
         _names = new HashMap<String, Integer>();
         _maxUDPPayload = (senderUDPPayload > 0 ? senderUDPPayload : DNSConstants.MAX_MSG_TYPICAL);
-        _questionsBytes = new MessageOutputStream(senderUDPPayload, this);
-        _answersBytes = new MessageOutputStream(senderUDPPayload, this);
-        _authoritativeAnswersBytes = new MessageOutputStream(senderUDPPayload, this);
-        _additionalsAnswersBytes = new MessageOutputStream(senderUDPPayload, this);
+        _measure = new MessageOutputStream(512, this);
+        _measure._registered = new ArrayList<String>();
     }
 
     /**
@@ -230,27 +313,45 @@ public final class DNSOutgoing extends DNSMessage {
      * @return available space
      */
     public int availableSpace() {
-        return _maxUDPPayload - HEADER_SIZE - _questionsBytes.size() - _answersBytes.size() - _authoritativeAnswersBytes.size() - _additionalsAnswersBytes.size();
+        return _maxUDPPayload - HEADER_SIZE - _used;
     }
 
     /**
-     * Add a question to the message.
+     * Counts the entry just written to the measuring stream against the space left, or takes it back out if it does not fit.
      *
-     * @param rec
      * @exception IOException
+     *                if the message is full
      */
-    public void addQuestion(DNSQuestion rec) throws IOException {
-        MessageOutputStream record = new MessageOutputStream(512, this);
-        record.writeQuestion(rec);
-        byte[] byteArray = record.toByteArray();
-        if (byteArray.length < this.availableSpace()) {
-            _questions.add(rec);
-            _questionsBytes.write(byteArray, 0, byteArray.length);
+    private void fit() throws IOException {
+        int size = _measure.size();
+        if (size < this.availableSpace()) {
+            _used += size;
         } else {
+            for (String name : _measure._registered) {
+                _names.remove(name);
+            }
             throw new IOException("message full");
         }
     }
 
+    private MessageOutputStream measure() {
+        _measure.reset();
+        _measure._registered.clear();
+        return _measure;
+    }
+
+    /**
+     * Add a question to the message.
+     *
+     * @param rec
+     * @exception IOException
+     */
+    public void addQuestion(DNSQuestion rec) throws IOException {
+        this.measure().writeQuestion(rec);
+        this.fit();
+        _questions.add(rec);
+    }
+
     /**
      * Add an answer if it is not suppressed.
      *
@@ -274,15 +375,9 @@ public final class DNSOutgoing extends DNSMessage {
     public void addAnswer(DNSRecord rec, long now) throws IOException {
         if (rec != null) {
             if ((now == 0) || !rec.isExpired(now)) {
-                MessageOutputStream record = new MessageOutputStream(512, this);
-                record.writeRecord(rec, now);
-                byte[] byteArray = record.toByteArray();
-                if (byteArray.length < this.availableSpace()) {
-                    _answers.add(rec);
-                    _answersBytes.write(byteArray, 0, byteArray.length);
-                } else {
-                    throw new IOException("message full");
-                }
+                this.measure().writeRecord(rec, now);
+                this.fit();
+                _answers.add(rec);
             }
         }
     }
@@ -294,15 +389,9 @@ public final class DNSOutgoing extends DNSMessage {
      * @exception IOException
      */
     public void addAuthorativeAnswer(DNSRecord rec) throws IOException {
-        MessageOutputStream record = new MessageOutputStream(512, this);
-        record.writeRecord(rec, 0);
-        byte[] byteArray = record.toByteArray();
-        if (byteArray.length < this.availableSpace()) {
-            _authoritativeAnswers.add(rec);
-            _authoritativeAnswersBytes.write(byteArray, 0, byteArray.length);
-        } else {
-            throw new IOException("message full");
-        }
+        this.measure().writeRecord(rec, 0);
+        this.fit();
+        _authoritativeAnswers.add(rec);
     }
 
     /**
@@ -313,15 +402,9 @@ public final class DNSOutgoing extends DNSMessage {
      * @exception IOException
      */
     public void addAdditionalAnswer(DNSIncoming in, DNSRecord rec) throws IOException {
-        MessageOutputStream record = new MessageOutputStream(512, this);
-        record.writeRecord(rec, 0);
-        byte[] byteArray = record.toByteArray();
-        if (byteArray.length < this.availableSpace()) {
-            _additionals.add(rec);
-            _additionalsAnswersBytes.write(byteArray, 0, byteArray.length);
-        } else {
-            throw new IOException("message full");
-        }
+        this.measure().writeRecord(rec, 0);
+        this.fit();
+        _additionals.add(rec);
     }
 
     /**
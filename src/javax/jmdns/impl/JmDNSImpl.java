@@ -28,6 +28,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -304,6 +305,11 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
 
     private Thread                                        _incomingListener;
 
+    /**
+     * Packets received while the listener workers were too far behind to queue them.
+     */
+    private final AtomicLong                              _droppedPackets = new AtomicLong();
+
     /**
      * Throttle count. This is used to count the overall number of probes sent by JmDNS. When the last throttle increment happened .
      */
@@ -1339,6 +1345,7 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
                 for (DNSEntry entry : this.getCache().getDNSEntryList(newRecord.getKey())) {
                     if (newRecord.getRecordType().equals(entry.getRecordType()) && newRecord.getRecordClass().equals(entry.getRecordClass()) && (entry != cachedRecord)) {
                         ((DNSRecord) entry).setWillExpireSoon(now);
+                        this.getCache().rescheduleDNSEntry(entry);
                     }
                 }
             }
@@ -1348,6 +1355,7 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
                     if (newRecord.getTTL() == 0) {
                         cacheOperation = Operation.Noop;
                         cachedRecord.setWillExpireSoon(now);
+                        this.getCache().rescheduleDNSEntry(cachedRecord);
                         // the actual record will be disposed of by the record reaper.
                     } else {
                         cacheOperation = Operation.Remove;
@@ -1366,6 +1374,7 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
                         }
                     } else {
                         cachedRecord.resetTTL(newRecord);
+                        this.getCache().rescheduleDNSEntry(cachedRecord);
                         newRecord = cachedRecord;
                     }
                 }
@@ -1771,9 +1780,8 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
 
     public void cleanCache() {
         long now = System.currentTimeMillis();
-        for (DNSEntry entry : this.getCache().allValues()) {
+        for (DNSRecord record : this.getCache().pollDueRecords(now)) {
             try {
-                DNSRecord record = (DNSRecord) entry;
                 if (record.isExpired(now)) {
                     this.updateRecord(now, record, Operation.Remove);
                     this.getCache().removeDNSEntry(record);
@@ -1782,7 +1790,7 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
                     this.renewServiceCollector(record);
                 }
             } catch (Exception exception) {
-                logger.log(Level.SEVERE, this.getName() + ".Error while reaping records: " + entry, exception);
+                logger.log(Level.SEVERE, this.getName() + ".Error while reaping records: " + record, exception);
                 logger.severe(this.toString());
             }
         }
@@ -2201,6 +2209,19 @@ public class JmDNSImpl extends JmDNS implements DNSStatefulObject, DNSTaskStarte
         return _serviceTypes;
     }
 
+    /**
+     * Returns how many received packets were dropped because processing could not keep up.
+     *
+     * @return dropped packet count since this instance was created
+     */
+    public long getDroppedPacketCount() {
+        return _droppedPackets.get();
+    }
+
+    long packetDropped() {
+        return _droppedPackets.incrementAndGet();
+    }
+
     public MulticastSocket getSocket() {
         return _socket;
     }
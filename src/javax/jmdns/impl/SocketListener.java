@@ -6,6 +6,9 @@ package javax.jmdns.impl;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -13,14 +16,30 @@ import javax.jmdns.impl.constants.DNSConstants;
 
 /**
  * Listen for multicast packets.
+ * <p>
+ * This thread only receives: each datagram is read into a pooled buffer and handed to a worker, which parses it and runs the query or response handling. Packets from one source always go to the same worker, so they are handled in the
+ * order they arrived. When a worker's queue is full the packet is dropped and counted, see {@link JmDNSImpl#getDroppedPacketCount()}, rather than leaving the socket buffer to overflow while a query storm is answered.
+ * </p>
  */
 class SocketListener extends Thread {
-    static Logger           logger = Logger.getLogger(SocketListener.class.getName());
+    static Logger                               logger = Logger.getLogger(SocketListener.class.getName());
+
+    /**
+     * Handed to each worker when receiving stops.
+     */
+    private static final DatagramPacket         STOP   = new DatagramPacket(new byte[0], 0);
 
     /**
      *
      */
-    private final JmDNSImpl _jmDNSImpl;
+    private final JmDNSImpl                     _jmDNSImpl;
+
+    private final Worker[]                      _workers;
+
+    /**
+     * Packets whose buffers can be received into again. Only grows under load, at most one packet per queue slot plus the one being received into.
+     */
+    private final BlockingQueue<DatagramPacket> _pool;
 
     /**
      * @param jmDNSImpl
@@ -29,44 +48,37 @@ class SocketListener extends Thread {
         super("SocketListener(" + (jmDNSImpl != null ? jmDNSImpl.getName() : "") + ")");
         this.setDaemon(true);
         this._jmDNSImpl = jmDNSImpl;
+        int workers = Math.max(1, DNSConstants.LISTENER_WORKERS);
+        int capacity = Math.max(1, DNSConstants.LISTENER_QUEUE);
+        this._workers = new Worker[workers];
+        for (int i = 0; i < workers; i++) {
+            _workers[i] = new Worker(this.getName() + ".Worker(" + i + ")", capacity);
+        }
+        this._pool = new ArrayBlockingQueue<DatagramPacket>(workers * capacity + 1);
     }
 
     @Override
     public void run() {
+        for (Worker worker : _workers) {
+            worker.start();
+        }
         try {
-            byte buf[] = new byte[DNSConstants.MAX_MSG_ABSOLUTE];
-            DatagramPacket packet = new DatagramPacket(buf, buf.length);
             while (!this._jmDNSImpl.isCanceling() && !this._jmDNSImpl.isCanceled()) {
-                packet.setLength(buf.length);
+                DatagramPacket packet = this.obtain();
                 this._jmDNSImpl.getSocket().receive(packet);
                 if (this._jmDNSImpl.isCanceling() || this._jmDNSImpl.isCanceled() || this._jmDNSImpl.isClosing() || this._jmDNSImpl.isClosed()) {
                     break;
                 }
-                try {
-                    if (this._jmDNSImpl.getLocalHost().shouldIgnorePacket(packet)) {
-                        continue;
-                    }
-
-                    DNSIncoming msg = new DNSIncoming(packet);
-                    if (msg.isValidResponseCode()) {
-                        if (logger.isLoggable(Level.FINEST)) {
-                            logger.finest(this.getName() + ".run() JmDNS in:" + msg.print(true));
-                        }
-                        if (msg.isQuery()) {
-                            if (packet.getPort() != DNSConstants.MDNS_PORT) {
-                                this._jmDNSImpl.handleQuery(msg, packet.getAddress(), packet.getPort());
-                            }
-                            this._jmDNSImpl.handleQuery(msg, this._jmDNSImpl.getGroup(), DNSConstants.MDNS_PORT);
-                        } else {
-                            this._jmDNSImpl.handleResponse(msg);
-                        }
-                    } else {
-                        if (logger.isLoggable(Level.FINE)) {
-                            logger.fine(this.getName() + ".run() JmDNS in message with error code:" + msg.print(true));
-                        }
+                if (this._jmDNSImpl.getLocalHost().shouldIgnorePacket(packet)) {
+                    this.recycle(packet);
+                    continue;
+                }
+                if (!this.workerFor(packet.getAddress())._queue.offer(packet)) {
+                    this.recycle(packet);
+                    long dropped = this._jmDNSImpl.packetDropped();
+                    if (logger.isLoggable(Level.FINE)) {
+                        logger.fine(this.getName() + ".run() processing is behind, dropped packet from " + packet.getAddress() + " (" + dropped + " dropped so far)");
                     }
-                } catch (IOException e) {
-                    logger.log(Level.WARNING, this.getName() + ".run() exception ", e);
                 }
             }
         } catch (IOException e) {
@@ -74,14 +86,108 @@ class SocketListener extends Thread {
                 logger.log(Level.WARNING, this.getName() + ".run() exception ", e);
                 this._jmDNSImpl.recover();
             }
+        } finally {
+            for (Worker worker : _workers) {
+                worker.stopProcessing();
+            }
         }
         if (logger.isLoggable(Level.FINEST)) {
             logger.finest(this.getName() + ".run() exiting.");
         }
     }
 
+    private DatagramPacket obtain() {
+        DatagramPacket packet = _pool.poll();
+        if (packet == null) {
+            byte buf[] = new byte[DNSConstants.MAX_MSG_ABSOLUTE];
+            packet = new DatagramPacket(buf, buf.length);
+        } else {
+            packet.setLength(packet.getData().length);
+        }
+        return packet;
+    }
+
+    private void recycle(DatagramPacket packet) {
+        _pool.offer(packet);
+    }
+
+    private Worker workerFor(InetAddress source) {
+        if (_workers.length == 1 || source == null) {
+            return _workers[0];
+        }
+        return _workers[(source.hashCode() & 0x7fffffff) % _workers.length];
+    }
+
+    void process(DatagramPacket packet, String name) throws IOException {
+        DNSIncoming msg = new DNSIncoming(packet);
+        if (msg.isValidResponseCode()) {
+            if (logger.isLoggable(Level.FINEST)) {
+                logger.finest(name + ".run() JmDNS in:" + msg.print(true));
+            }
+            if (msg.isQuery()) {
+                if (packet.getPort() != DNSConstants.MDNS_PORT) {
+                    this._jmDNSImpl.handleQuery(msg, packet.getAddress(), packet.getPort());
+                }
+                this._jmDNSImpl.handleQuery(msg, this._jmDNSImpl.getGroup(), DNSConstants.MDNS_PORT);
+            } else {
+                this._jmDNSImpl.handleResponse(msg);
+            }
+        } else {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine(name + ".run() JmDNS in message with error code:" + msg.print(true));
+            }
+        }
+        // a truncated query is kept as the planned answer and still points at its packet, leave that buffer to the garbage collector
+        if (!msg.isTruncated()) {
+            this.recycle(packet);
+        }
+    }
+
     public JmDNSImpl getDns() {
         return _jmDNSImpl;
     }
 
+    /**
+     * Parses and handles the packets of the sources assigned to it, one at a time in arrival order.
+     */
+    private class Worker extends Thread {
+
+        final BlockingQueue<DatagramPacket> _queue;
+
+        Worker(String name, int capacity) {
+            super(name);
+            this.setDaemon(true);
+            this._queue = new ArrayBlockingQueue<DatagramPacket>(capacity);
+        }
+
+        void stopProcessing() {
+            _queue.clear();
+            _queue.offer(STOP);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                DatagramPacket packet;
+                try {
+                    packet = _queue.take();
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (packet == STOP) {
+                    break;
+                }
+                try {
+                    SocketListener.this.process(packet, this.getName());
+                } catch (Throwable e) {
+                    // one bad packet must not take the worker, and every source assigned to it, down, not even by overflowing the stack or running out of memory
+                    logger.log(Level.WARNING, this.getName() + ".run() exception ", e);
+                }
+            }
+            if (logger.isLoggable(Level.FINEST)) {
+                logger.finest(this.getName() + ".run() exiting.");
+            }
+        }
+    }
+
 }
@@ -23,6 +23,9 @@ public final class DNSConstants {
     public static final int    MAX_MSG_TYPICAL                = 1460;
     public static final int    MAX_MSG_ABSOLUTE               = 8972;
 
+    public static final int    LISTENER_WORKERS               = Integer.parseInt(System.getProperty("net.mdns.listener.workers", "1")); // threads parsing and handling received packets
+    public static final int    LISTENER_QUEUE                 = Integer.parseInt(System.getProperty("net.mdns.listener.queue", "32")); // packets waiting per worker before new ones are dropped
+
     public static final int    FLAGS_QR_MASK                  = 0x8000;                                                       // Query response mask
     public static final int    FLAGS_QR_QUERY                 = 0x0000;                                                       // Query
     public static final int    FLAGS_QR_RESPONSE              = 0x8000;                                                       // Response
@@ -32,6 +32,8 @@ public enum DNSLabel {
     static final int     LABEL_MASK     = 0xC0;
     static final int     LABEL_NOT_MASK = 0x3F;
 
+    private static final DNSLabel[] BY_TOP_BITS = { Standard, Extended, Unknown, Compressed };
+
     private final String _externalName;
 
     private final int    _index;
@@ -64,11 +66,8 @@ public enum DNSLabel {
      * @return label
      */
     public static DNSLabel labelForByte(int index) {
-        int maskedIndex = index & LABEL_MASK;
-        for (DNSLabel aLabel : DNSLabel.values()) {
-            if (aLabel._index == maskedIndex) return aLabel;
-        }
-        return Unknown;
+        // called for every label read, values() would copy the array each time
+        return BY_TOP_BITS[(index & LABEL_MASK) >> 6];
     }
 
     /**
@@ -43,6 +43,9 @@ public enum DNSRecordClass {
 
     private static Logger       logger       = Logger.getLogger(DNSRecordClass.class.getName());
 
+    // looked up for every record read, values() would copy the array each time
+    private static final DNSRecordClass[] VALUES = values();
+
     /**
      * Multicast DNS uses the bottom 15 bits to identify the record class...<br/>
      * Except for pseudo records like OPT.
@@ -109,7 +112,7 @@ public enum DNSRecordClass {
     public static DNSRecordClass classForName(String name) {
         if (name != null) {
             String aName = name.toLowerCase();
-            for (DNSRecordClass aClass : DNSRecordClass.values()) {
+            for (DNSRecordClass aClass : VALUES) {
                 if (aClass._externalName.equals(aName)) return aClass;
             }
         }
@@ -123,7 +126,7 @@ public enum DNSRecordClass {
      */
     public static DNSRecordClass classForIndex(int index) {
         int maskedIndex = index & CLASS_MASK;
-        for (DNSRecordClass aClass : DNSRecordClass.values()) {
+        for (DNSRecordClass aClass : VALUES) {
             if (aClass._index == maskedIndex) return aClass;
         }
         logger.log(Level.WARNING, "Could not find record class for index: " + index);
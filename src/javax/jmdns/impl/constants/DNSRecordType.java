@@ -250,6 +250,9 @@ public enum DNSRecordType {
 
     private static Logger logger = Logger.getLogger(DNSRecordType.class.getName());
 
+    // looked up for every record read, values() would copy the array each time
+    private static final DNSRecordType[] VALUES = values();
+
     private final String  _externalName;
 
     private final int     _index;
@@ -284,7 +287,7 @@ public enum DNSRecordType {
     public static DNSRecordType typeForName(String name) {
         if (name != null) {
             String aName = name.toLowerCase();
-            for (DNSRecordType aType : DNSRecordType.values()) {
+            for (DNSRecordType aType : VALUES) {
                 if (aType._externalName.equals(aName)) return aType;
             }
         }
@@ -297,7 +300,7 @@ public enum DNSRecordType {
      * @return type for name
      */
     public static DNSRecordType typeForIndex(int index) {
-        for (DNSRecordType aType : DNSRecordType.values()) {
+        for (DNSRecordType aType : VALUES) {
             if (aType._index == index) return aType;
         }
         logger.severe("Could not find record type for index: " + index);
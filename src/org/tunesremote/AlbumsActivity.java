@@ -30,11 +30,9 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.*;
 import android.util.DisplayMetrics;
 import android.util.Log;
-import android.util.SparseArray;
 import android.view.*;
 import android.view.MenuItem.OnMenuItemClickListener;
 import android.view.animation.Animation;
@@ -42,15 +40,12 @@ import android.view.animation.AnimationUtils;
 import android.widget.*;
 import android.widget.AdapterView.OnItemClickListener;
 import org.tunesremote.daap.Library;
-import org.tunesremote.daap.RequestHelper;
 import org.tunesremote.daap.Response;
+import org.tunesremote.daap.ResultTable;
 import org.tunesremote.daap.Session;
+import org.tunesremote.util.ArtworkCache;
 import org.tunesremote.util.ThreadExecutor;
 
-import java.lang.ref.SoftReference;
-import java.util.LinkedList;
-import java.util.List;
-
 public class AlbumsActivity extends BaseBrowseActivity {
 
 	public final static String TAG = AlbumsActivity.class.toString();
@@ -63,6 +58,7 @@ public class AlbumsActivity extends BaseBrowseActivity {
 	protected String artist;
 	protected Bitmap blank;
 	protected Animation fadeUp;
+	protected ArtworkCache artwork;
 
 	protected int imageSize = 55;
 
@@ -144,6 +140,7 @@ public class AlbumsActivity extends BaseBrowseActivity {
 		}
 
 		fadeUp = AnimationUtils.loadAnimation(this, R.anim.fade_up);
+		artwork = ArtworkCache.getInstance(this);
 
 		this.registerForContextMenu(this.getListView());
 
@@ -242,7 +239,8 @@ public class AlbumsActivity extends BaseBrowseActivity {
 
 		protected Context context;
 		protected LayoutInflater inflater;
-		protected final List<Response> results = new LinkedList<Response>();
+		protected final ResultTable results = new ResultTable(new String[] { "minm" },
+				new String[] { "miid", "mper", "mimc" });
 
 		public AlbumsAdapter(Context context) {
 			this.context = context;
@@ -276,7 +274,7 @@ public class AlbumsActivity extends BaseBrowseActivity {
 			if (position == 0)
 				return null;
 			else
-				return results.get(position - 1);
+				return results.getRow(position - 1);
 		}
 
 		@Override
@@ -305,22 +303,28 @@ public class AlbumsActivity extends BaseBrowseActivity {
 					// if (convertView == null)
 					convertView = this.inflater.inflate(R.layout.item_album,
 							parent, false);
-					Response child = (Response) this.getItem(position);
-					String title = child.getString("minm");
+					final int row = position - 1;
+					String title = results.getString(row, "minm");
 					String caption = AlbumsActivity.this.getResources()
 							.getString(R.string.albums_album_caption,
-									child.getNumberLong("mimc"));
+									results.getLong(row, "mimc"));
 
 					((TextView) convertView.findViewById(android.R.id.text1))
 							.setText(title);
 					((TextView) convertView.findViewById(android.R.id.text2))
 							.setText(caption);
 
-					// go load image art
+					// use the shared artwork cache if it already has the art
+					final int itemid = (int) results.getLong(row, "miid");
+					final Bitmap cached = artwork.peek(session,
+							ArtworkCache.KIND_ALBUM, itemid, imageSize);
 					((ImageView) convertView.findViewById(android.R.id.icon))
-							.setImageBitmap(blank);
-					new LoadPhotoTask().execute(Integer.valueOf(position),
-							Integer.valueOf((int) child.getNumberLong("miid")));
+							.setImageBitmap(cached != null ? cached : blank);
+
+					// otherwise go load image art
+					if (cached == null)
+						new LoadPhotoTask().execute(Integer.valueOf(position),
+								Integer.valueOf(itemid));
 				}
 			} catch (Exception e) {
 				Log.w(TAG, "getView:" + e.getMessage());
@@ -332,8 +336,6 @@ public class AlbumsActivity extends BaseBrowseActivity {
 
 	}
 
-	protected SparseArray<SoftReference<Bitmap>> memcache = new SparseArray<SoftReference<Bitmap>>();
-
 	private class LoadPhotoTask extends AsyncTask<Object, Void, Object[]> {
 		@Override
 		public Object[] doInBackground(Object... params) {
@@ -344,36 +346,15 @@ public class AlbumsActivity extends BaseBrowseActivity {
 			Bitmap bitmap = null;
 			try {
 
-				// first check if we have an in-memory cache of this bitmap
-				if (memcache.get(itemid) != null) {
-					bitmap = memcache.get(itemid).get();
-				}
-
-				if (bitmap != null) {
-					Log.d(TAG,
-							String.format("MEMORY cache hit for %s",
-									itemid.toString()));
-				} else {
+				// fetch the album cover from the shared cache or itunes
+				bitmap = artwork.get(session, ArtworkCache.KIND_ALBUM, itemid,
+						imageSize);
 
-					// fetch the album cover from itunes
-					byte[] raw = RequestHelper.request(String.format(
-							"%s/databases/%d/groups/%d/extra_data/artwork?session-id=%s&mw="
-									+ imageSize + "&mh=" + imageSize
-									+ "&group-type=albums",
-							session.getRequestBase(), session.databaseId,
-							itemid, session.sessionId), false);
-					bitmap = BitmapFactory.decodeByteArray(raw, 0, raw.length);
-
-					// if SOMEHOW (404, etc) this image was still null, then
-					// save as
-					// blank
-					if (bitmap == null)
-						bitmap = blank;
-
-					// try removing any stale references
-					memcache.remove(itemid);
-					memcache.put(itemid, new SoftReference<Bitmap>(bitmap));
-				}
+				// if SOMEHOW (404, etc) this image was still null, then
+				// save as
+				// blank
+				if (bitmap == null)
+					bitmap = blank;
 			} catch (Exception e) {
 				Log.w(TAG, "LoadPhotoTask:" + e.getMessage());
 			}
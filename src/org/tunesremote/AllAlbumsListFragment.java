@@ -30,37 +30,40 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.*;
 import android.support.v4.app.ListFragment;
 import android.util.DisplayMetrics;
 import android.util.Log;
-import android.util.SparseArray;
 import android.view.*;
 import android.view.animation.AnimationUtils;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.BaseAdapter;
 import android.widget.ImageView;
+import android.widget.SectionIndexer;
 import android.widget.TextView;
 import org.tunesremote.LibraryBrowseActivity.ConnectionListener;
-import org.tunesremote.daap.RequestHelper;
+import org.tunesremote.daap.ContentCodes;
+import org.tunesremote.daap.Library;
 import org.tunesremote.daap.Response;
+import org.tunesremote.daap.Session;
+import org.tunesremote.daap.WindowedResults;
+import org.tunesremote.util.ArtworkCache;
+import org.tunesremote.util.ArtworkLoader;
 import org.tunesremote.util.Helper;
 
-import java.lang.ref.SoftReference;
-import java.text.Normalizer;
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
-
 public class AllAlbumsListFragment extends ListFragment implements
 		ConnectionListener, AdapterView.OnItemClickListener {
 
 	public static final String TAG = AllAlbumsListFragment.class.toString();
+	private static final int PAGE_SIZE = 100, MAX_PAGES = 8;
+	private static final int MIID = ContentCodes.tag("miid");
 
 	LibraryBrowseActivity host;
 	AlbumsAdapter adapter;
 	Bitmap blank;
+	ArtworkCache artwork;
+	ArtworkLoader loader;
 
 	protected int imageSize = 66;
 
@@ -78,8 +81,8 @@ public class AllAlbumsListFragment extends ListFragment implements
 	public void onServiceConnected() {
 		host = (LibraryBrowseActivity) getActivity();
 		if (host != null) {
-			if (adapter.results.isEmpty()) {
-				host.library.readAlbums(adapter);
+			if (adapter.results == null) {
+				adapter.open(host.library);
 			}
 		} else {
 			// Not quite ready, snooze for a bit
@@ -112,6 +115,31 @@ public class AllAlbumsListFragment extends ListFragment implements
 		imageSize = outMetrics.densityDpi * 66;
 		imageSize = imageSize > 132 ? 132 : imageSize;
 
+		artwork = ArtworkCache.getInstance(getActivity());
+		loader = new ArtworkLoader(artwork, ArtworkCache.KIND_ALBUM, imageSize,
+				blank, new ArtworkLoader.Source() {
+					public Session getSession() {
+						return host == null ? null : host.session;
+					}
+
+					public int getArtworkId(int position) {
+						final WindowedResults results = adapter.results;
+						final Response resp = results == null ? null : results
+								.peek(position);
+						return resp == null ? -1 : (int) resp.getLong(MIID);
+					}
+				}) {
+			@Override
+			protected void display(ImageView view, Bitmap bitmap) {
+				// fade fresh art in over the placeholder
+				view.setVisibility(View.INVISIBLE);
+				view.setImageBitmap(bitmap);
+				view.startAnimation(AnimationUtils.loadAnimation(getActivity(),
+						R.anim.fade_up));
+			}
+		};
+		getListView().setOnScrollListener(adapter);
+
 		registerForContextMenu(getListView());
 
 		host = (LibraryBrowseActivity) getActivity();
@@ -126,6 +154,8 @@ public class AllAlbumsListFragment extends ListFragment implements
 			host.getMenuInflater().inflate(R.menu.context_albums, menu);
 			AdapterView.AdapterContextMenuInfo info = (AdapterView.AdapterContextMenuInfo) menuInfo;
 			Response resp = (Response) adapter.getItem(info.position);
+			if (resp == null)
+				return;
 			menu.setHeaderTitle(resp.getString("minm"));
 
 		} catch (Exception e) {
@@ -160,6 +190,8 @@ public class AllAlbumsListFragment extends ListFragment implements
 
 		try {
 			final Response resp = (Response) adapter.getItem(info.position);
+			if (resp == null)
+				return super.onContextItemSelected(item);
 			final String albumid = resp.getNumberString("mper");
 
 			if (id == R.id.context_album_play) {
@@ -195,6 +227,8 @@ public class AllAlbumsListFragment extends ListFragment implements
 		try {
 			// launch activity to browse track details for this albums
 			final Response resp = (Response) adapter.getItem(i);
+			if (resp == null)
+				return;
 			final String albumid = resp.getNumberString("mper");
 
 			Intent intent = new Intent(host, TracksActivity.class);
@@ -209,12 +243,12 @@ public class AllAlbumsListFragment extends ListFragment implements
 		}
 	}
 
-	public class AlbumsAdapter extends BaseAdapter implements TagListener {
+	public class AlbumsAdapter extends BaseAdapter implements SectionIndexer,
+			WindowedResults.Listener, AbsListView.OnScrollListener {
 
 		protected Context context;
 		protected LayoutInflater inflater;
-		protected final List<Response> results = new LinkedList<Response>();
-		protected List<String> nice = new ArrayList<String>();
+		protected WindowedResults results;
 
 		public AlbumsAdapter(Context context) {
 			this.context = context;
@@ -223,39 +257,31 @@ public class AllAlbumsListFragment extends ListFragment implements
 
 		}
 
-		public void foundTag(String tag, final Response resp) {
-			if (resp == null) {
-				return;
-			}
-
-			getActivity().runOnUiThread(new Runnable() {
-
-				@TargetApi(9)
-				public void run() {
-					// add a found search result to our list
-					try {
-						if (resp.containsKey("minm")) {
-							results.add(resp);
-							nice.add(Normalizer.normalize(
-									resp.getString("minm"),
-									Normalizer.Form.NFKD).replaceAll(
-									"\\p{InCombiningDiacriticalMarks}+", ""));
-						}
-					} catch (Exception ex) {
-						Log.w(TAG, "foundTag:" + ex.getMessage());
-					}
-				}
-
-			});
+		public void open(final Library library) {
+			// read the album list a page at a time around what is on screen
+			results = new WindowedResults(library.albumPages(), this, PAGE_SIZE, MAX_PAGES);
+			results.open();
 		}
 
-		public void searchDone() {
+		public void resultsChanged() {
 			resultsUpdated.removeMessages(-1);
 			resultsUpdated.sendEmptyMessage(-1);
 		}
 
+		public Object[] getSections() {
+			return results == null ? new Object[0] : results.getSections();
+		}
+
+		public int getPositionForSection(int section) {
+			return results == null ? 0 : results.getPositionForSection(section);
+		}
+
+		public int getSectionForPosition(int position) {
+			return results == null ? 0 : results.getSectionForPosition(position);
+		}
+
 		public Object getItem(int position) {
-			return results.get(position);
+			return results == null ? null : results.get(position);
 		}
 
 		@Override
@@ -264,7 +290,7 @@ public class AllAlbumsListFragment extends ListFragment implements
 		}
 
 		public int getCount() {
-			return results.size();
+			return results == null ? 0 : results.size();
 		}
 
 		public long getItemId(int position) {
@@ -278,6 +304,16 @@ public class AllAlbumsListFragment extends ListFragment implements
 					convertView = this.inflater.inflate(R.layout.item_album,
 							parent, false);
 				Response child = (Response) this.getItem(position);
+				if (child == null) {
+					// page still loading, show an empty row for now
+					((TextView) convertView.findViewById(android.R.id.text1))
+							.setText("");
+					((TextView) convertView.findViewById(android.R.id.text2))
+							.setText("");
+					loader.unbind((ImageView) convertView
+							.findViewById(android.R.id.icon));
+					return convertView;
+				}
 				String title = child.getString("minm");
 				String caption = child.getString("asaa");
 
@@ -286,11 +322,11 @@ public class AllAlbumsListFragment extends ListFragment implements
 				((TextView) convertView.findViewById(android.R.id.text2))
 						.setText(caption);
 
-				// go load image art
-				((ImageView) convertView.findViewById(android.R.id.icon))
-						.setImageBitmap(blank);
-				new LoadPhotoTask().execute(Integer.valueOf(position),
-						Integer.valueOf((int) child.getNumberLong("miid")));
+				// show cached art now, otherwise queue it behind what is
+				// on screen
+				final int itemid = (int) child.getNumberLong("miid");
+				loader.bind((ImageView) convertView
+						.findViewById(android.R.id.icon), position, itemid);
 			} catch (Exception e) {
 				Log.w(TAG, "getView:" + e.getMessage());
 			}
@@ -299,97 +335,17 @@ public class AllAlbumsListFragment extends ListFragment implements
 
 		}
 
-	}
-
-	protected SparseArray<SoftReference<Bitmap>> memcache = new SparseArray<SoftReference<Bitmap>>();
-
-	private class LoadPhotoTask extends AsyncTask<Object, Void, Object[]> {
-		@Override
-		public Object[] doInBackground(Object... params) {
-
-			Integer position = (Integer) params[0];
-			Integer itemid = (Integer) params[1];
-			boolean stored = false;
-
-			Bitmap bitmap = null;
-			try {
-
-				// first check if we have an in-memory cache of this bitmap
-				if (memcache.get(itemid) != null) {
-					bitmap = memcache.get(itemid).get();
-					stored = true;
-				}
-
-				if (bitmap != null) {
-					Log.d(TAG,
-							String.format("MEMORY cache hit for %s",
-									itemid.toString()));
-				} else {
-
-					// fetch the album cover from itunes
-					byte[] raw = RequestHelper.request(String.format(
-							"%s/databases/%d/groups/%d/extra_data/artwork?session-id=%s&mw="
-									+ imageSize + "&mh=" + imageSize
-									+ "&group-type=albums",
-							host.session.getRequestBase(),
-							host.session.databaseId, itemid,
-							host.session.sessionId), false);
-					bitmap = BitmapFactory.decodeByteArray(raw, 0, raw.length);
-
-					// if SOMEHOW (404, etc) this image was still null, then
-					// save as
-					// blank
-					if (bitmap == null)
-						bitmap = blank;
-
-					// try removing any stale references
-					memcache.remove(itemid);
-					memcache.put(itemid, new SoftReference<Bitmap>(bitmap));
-				}
-			} catch (Exception e) {
-				Log.w(TAG, "LoadPhotoTask:" + e.getMessage());
-			}
-
-			return new Object[]{position, bitmap, stored};
+		public void onScroll(AbsListView view, int firstVisibleItem,
+		                     int visibleItemCount, int totalItemCount) {
+			loader.onScroll(firstVisibleItem, visibleItemCount,
+					totalItemCount);
 		}
 
-		@Override
-		protected void onPostExecute(Object[] result) {
-			try {
-				if (result == null) {
-					return;
-				}
-				// update gui to show the newly-fetched albumart
-				final int position = ((Integer) result[0]).intValue();
-				final Bitmap bitmap = (Bitmap) result[1];
-				final boolean stored = (Boolean) result[2];
-
-				// skip if bitmap wasnt found
-				if (bitmap == null)
-					return;
-
-				// skip updating this item if outside of bounds
-				if (position < getListView().getFirstVisiblePosition()
-						|| position > getListView().getLastVisiblePosition())
-					return;
-
-				// find actual position and update view
-				int visible = position
-						- getListView().getFirstVisiblePosition();
-				View view = getListView().getChildAt(visible);
-				ImageView v = (ImageView) view.findViewById(android.R.id.icon);
-				if (!stored)
-					v.setVisibility(View.INVISIBLE);
-				v.setImageBitmap(bitmap);
-				if (!stored)
-					v.startAnimation(AnimationUtils.loadAnimation(
-							getActivity(), R.anim.fade_up));
-
-			} catch (Exception e) {
-				// we probably ran into an item thats now collapsed, just ignore
-				Log.d(TAG, "end:" + e.getMessage());
-			}
+		public void onScrollStateChanged(AbsListView view, int scrollState) {
+			loader.onScrollStateChanged(
+					scrollState == AbsListView.OnScrollListener.SCROLL_STATE_IDLE);
 		}
+
 	}
 
 }
@@ -38,17 +38,18 @@ import android.view.*;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
 import android.widget.BaseAdapter;
+import android.widget.SectionIndexer;
 import android.widget.TextView;
 import org.tunesremote.LibraryBrowseActivity.ConnectionListener;
+import org.tunesremote.daap.Library;
 import org.tunesremote.daap.Response;
-
-import java.util.LinkedList;
-import java.util.List;
+import org.tunesremote.daap.WindowedResults;
 
 public class ArtistsListFragment extends ListFragment implements
 		ConnectionListener, OnItemClickListener {
 
 	public static final String TAG = ArtistsListFragment.class.toString();
+	private static final int PAGE_SIZE = 200, MAX_PAGES = 8;
 
 	LibraryBrowseActivity host;
 	ArtistsAdapter adapter;
@@ -66,8 +67,8 @@ public class ArtistsListFragment extends ListFragment implements
 		host = (LibraryBrowseActivity) getActivity();
 		if (host != null) {
 
-			if (adapter.results.isEmpty()) {
-				host.library.readArtists(adapter);
+			if (adapter.results == null) {
+				adapter.open(host.library);
 			}
 
 		} else {
@@ -126,6 +127,8 @@ public class ArtistsListFragment extends ListFragment implements
 		// create context menu to play entire artist
 		try {
 			Response resp = (Response) adapter.getItem(info.position);
+			if (resp == null)
+				return;
 			final String artist = resp.getString("mlit");
 			menu.setHeaderTitle(artist);
 
@@ -164,14 +167,13 @@ public class ArtistsListFragment extends ListFragment implements
 
 	}
 
-	public class ArtistsAdapter extends BaseAdapter implements TagListener {
+	public class ArtistsAdapter extends BaseAdapter implements SectionIndexer,
+			WindowedResults.Listener {
 
 		protected Context context;
 		protected LayoutInflater inflater;
 
-		protected List<Response> results = new LinkedList<Response>();
-
-		// public List<String> nice = new ArrayList<String>();
+		protected WindowedResults results;
 
 		public ArtistsAdapter(Context context) {
 			this.context = context;
@@ -180,41 +182,35 @@ public class ArtistsListFragment extends ListFragment implements
 
 		}
 
-		public void foundTag(String tag, final Response resp) {
-			if (resp == null) {
-				return;
-			}
-
-			getActivity().runOnUiThread(new Runnable() {
-
-				public void run() {
-					try {
-						// add a found search result to our list
-						if (resp.containsKey("mlit")) {
-							String mlit = resp.getString("mlit");
-							if (mlit.length() > 0 && !mlit.startsWith("mshc")) {
-								results.add(resp);
-							}
-						}
-					} catch (Exception e) {
-						Log.w(TAG, "foundTag:" + e.getMessage());
-					}
-				}
-
-			});
+		public void open(final Library library) {
+			// read the artist list a page at a time around what is on screen
+			results = new WindowedResults(library.artistPages(), this, PAGE_SIZE, MAX_PAGES);
+			results.open();
 		}
 
-		public void searchDone() {
+		public void resultsChanged() {
 			try {
 				resultsUpdated.removeMessages(-1);
 				resultsUpdated.sendEmptyMessage(-1);
 			} catch (Exception e) {
-				Log.w(TAG, "searchDone:" + e.getMessage());
+				Log.w(TAG, "resultsChanged:" + e.getMessage());
 			}
 		}
 
+		public Object[] getSections() {
+			return results == null ? new Object[0] : results.getSections();
+		}
+
+		public int getPositionForSection(int section) {
+			return results == null ? 0 : results.getPositionForSection(section);
+		}
+
+		public int getSectionForPosition(int position) {
+			return results == null ? 0 : results.getSectionForPosition(position);
+		}
+
 		public Object getItem(int position) {
-			return results.get(position);
+			return results == null ? null : results.get(position);
 		}
 
 		@Override
@@ -223,7 +219,7 @@ public class ArtistsListFragment extends ListFragment implements
 		}
 
 		public int getCount() {
-			return results.size();
+			return results == null ? 0 : results.size();
 		}
 
 		public long getItemId(int position) {
@@ -240,7 +236,8 @@ public class ArtistsListFragment extends ListFragment implements
 				// otherwise show normal search result
 				Response resp = (Response) this.getItem(position);
 
-				String title = resp.getString("mlit");
+				// rows of pages still loading stay empty for now
+				String title = resp == null ? "" : resp.getString("mlit");
 				((TextView) convertView.findViewById(android.R.id.text1))
 						.setText(title);
 			} catch (Exception e) {
@@ -264,6 +261,8 @@ public class ArtistsListFragment extends ListFragment implements
 	                        long arg3) {
 		try {
 			Response resp = (Response) adapter.getItem(position);
+			if (resp == null)
+				return;
 			final String artist = resp.getString("mlit");
 
 			Intent intent = new Intent(host, AlbumsActivity.class);
@@ -26,7 +26,9 @@
 package org.tunesremote;
 
 import org.tunesremote.daap.Session;
+import org.tunesremote.util.LibraryDatabase;
 import org.tunesremote.util.PairingDatabase;
+import org.tunesremote.util.ThreadExecutor;
 
 import android.app.Service;
 import android.content.Intent;
@@ -50,6 +52,7 @@ public class BackendService extends Service {
    protected String lastaddress = null;
    protected static SharedPreferences prefs;
    protected PairingDatabase pairdb;
+   protected LibraryDatabase librarydb;
    private final IBinder binder = new BackendBinder();
 
    public Session getSession() {
@@ -116,6 +119,7 @@ public class BackendService extends Service {
       Log.d(TAG, String.format("Session with address=%s, library=%s, code=%s", address, library, code));
 
       this.session = new Session(address, code);
+      this.session.setSnapshot(librarydb);
 
       // if we made it past this point, then we logged in successfully yay
       Log.d(TAG, "yay found session!  were gonna update our db a new code maybe?");
@@ -142,6 +146,7 @@ public class BackendService extends Service {
    public void onCreate() {
       Log.d(TAG, "starting backend service");
       this.pairdb = new PairingDatabase(this);
+      this.librarydb = new LibraryDatabase(this);
    }
 
    @Override
@@ -150,8 +155,10 @@ public class BackendService extends Service {
       // store information about last-connected library
 
       Log.d(TAG, "stopping backend service");
+      Log.d(TAG, "threads " + ThreadExecutor.getStats());
 
       this.pairdb.close();
+      this.librarydb.close();
    }
 
    public class BackendBinder extends Binder {
@@ -32,6 +32,7 @@ import org.tunesremote.daap.Response;
 import org.tunesremote.daap.Session;
 import org.tunesremote.daap.Speaker;
 import org.tunesremote.daap.Status;
+import org.tunesremote.util.HandlerListener;
 import org.tunesremote.util.Helper;
 import org.tunesremote.util.NotificationService;
 import org.tunesremote.util.ThreadExecutor;
@@ -54,6 +55,7 @@ import android.gesture.GestureLibraries;
 import android.gesture.GestureLibrary;
 import android.gesture.GestureOverlayView;
 import android.gesture.Prediction;
+import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.ColorDrawable;
@@ -172,11 +174,9 @@ public class ControlActivity extends Activity implements GestureOverlayView.OnGe
                               new Intent(ControlActivity.this, LibraryActivity.class), 1);
 
                   } else {
-                     // for some reason we are not correctly disposing of
-                     // the session threads we create so we purge any
-                     // existing ones before creating a new one
-                     status = session.singletonStatus(statusUpdate);
-                     status.updateHandler(statusUpdate);
+                     // share the session status with anything else
+                     // showing playback, like the notification
+                     status = session.registerStatus(statusListener);
 
                      // push update through to make sure we get updated
                      statusUpdate.sendEmptyMessage(Status.UPDATE_SPEAKERS);
@@ -196,7 +196,7 @@ public class ControlActivity extends Activity implements GestureOverlayView.OnGe
       public void onServiceDisconnected(ComponentName className) {
          // make sure we clean up our handler-specific status
          Log.w(TAG, "onServiceDisconnected");
-         status.updateHandler(null);
+         status.removeListener(statusListener);
          backend = null;
          status = null;
       }
@@ -224,22 +224,22 @@ public class ControlActivity extends Activity implements GestureOverlayView.OnGe
                shouldUpdate = true;
 
             // only update coverart if different than already shown
-            Log.d(TAG, String.format("Artwork for albumid=%s, value=%s, what=%d", status.albumId, status.coverCache,
-                     msg.what));
+            final Bitmap cover = status.getCover(Bitmap.class);
+            Log.d(TAG, String.format("Artwork for albumid=%s, value=%s, what=%d", status.albumId, cover, msg.what));
             if (shouldUpdate) {
                if (status.coverEmpty) {
                   // fade down if no coverart
                   coverImage.setImageDrawable(new ColorDrawable(Color.BLACK));
-               } else if (status.coverCache != null) {
+               } else if (cover != null) {
                   // fade over to new coverart
                   Drawable one = coverImage.getDrawable();
                   if (one != null) {
                      TransitionDrawable trans = new TransitionDrawable(new Drawable[] { one,
-                              new BitmapDrawable(getResources(), status.coverCache) });
+                              new BitmapDrawable(getResources(), cover) });
                      coverImage.setImageDrawable(trans);
                      trans.startTransition(1000);
                   } else {
-                     coverImage.setImageDrawable(new BitmapDrawable(getResources(), status.coverCache));
+                     coverImage.setImageDrawable(new BitmapDrawable(getResources(), cover));
                   }
                   one = null;
                }
@@ -298,6 +298,8 @@ public class ControlActivity extends Activity implements GestureOverlayView.OnGe
       }
    };
 
+   protected final Status.Listener statusListener = new HandlerListener(statusUpdate);
+
    public android.telephony.PhoneStateListener psListener = new android.telephony.PhoneStateListener() {
       private boolean wasPlaying = false;
 
@@ -412,7 +414,7 @@ public class ControlActivity extends Activity implements GestureOverlayView.OnGe
       Log.w(TAG, "Stopping TunesRemote...");
       try {
          if (session != null) {
-            session.purgeSingletonStatus();
+            session.unregisterStatus(statusListener);
          }
 
          this.unbindService(connection);
@@ -427,7 +429,7 @@ public class ControlActivity extends Activity implements GestureOverlayView.OnGe
       Log.w(TAG, "Destroying TunesRemote...");
       try {
          if (session != null) {
-            session.purgeSingletonStatus();
+            session.unregisterStatus(statusListener);
             session.logout();
             session = null;
          }
@@ -466,7 +468,7 @@ public class ControlActivity extends Activity implements GestureOverlayView.OnGe
 
       public void onStopTrackingTouch(SeekBar seekBar) {
          final int newVolume = seekBar.getProgress();
-         ThreadExecutor.runTask(new Runnable() {
+         ThreadExecutor.runTask(ThreadExecutor.LANE_CONTROL, new Runnable() {
             public void run() {
                try {
                   // Volume of the loudest speaker
@@ -543,7 +545,7 @@ public class ControlActivity extends Activity implements GestureOverlayView.OnGe
          }
          speaker.setActive(active);
 
-         ThreadExecutor.runTask(new Runnable() {
+         ThreadExecutor.runTask(ThreadExecutor.LANE_CONTROL, new Runnable() {
             public void run() {
                try {
                   status.setSpeakers(SPEAKERS);
@@ -1013,7 +1015,7 @@ public class ControlActivity extends Activity implements GestureOverlayView.OnGe
    }
 
    protected void incrementVolume(final long increment) {
-      ThreadExecutor.runTask(new Runnable() {
+      ThreadExecutor.runTask(ThreadExecutor.LANE_CONTROL, new Runnable() {
          public void run() {
             checkCachedVolume();
 
@@ -0,0 +1,125 @@
+/*
+    TunesRemote+ - http://code.google.com/p/tunesremote-plus/
+    
+    Copyright (C) 2008 Jeffrey Sharkey, http://jsharkey.org/
+    Copyright (C) 2010 TunesRemote+, http://code.google.com/p/tunesremote-plus/
+    
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    The Initial Developer of the Original Code is Jeffrey Sharkey.
+    Portions created by Jeffrey Sharkey are
+    Copyright (C) 2008. Jeffrey Sharkey, http://jsharkey.org/
+    All Rights Reserved.
+ */
+package org.tunesremote;
+
+import org.tunesremote.daap.RequestMetrics;
+import org.tunesremote.util.ThreadExecutor;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.graphics.Typeface;
+import android.os.Bundle;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.MenuItem.OnMenuItemClickListener;
+import android.widget.HorizontalScrollView;
+import android.widget.ScrollView;
+import android.widget.TextView;
+
+/**
+ * Debug screen showing the per-endpoint request metrics and thread lane
+ * statistics, with a menu to share them as text or start counting afresh.
+ */
+public class MetricsActivity extends Activity {
+
+	public final static String TAG = MetricsActivity.class.toString();
+
+	protected TextView text;
+
+	@Override
+	public void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+		setTitle(R.string.metrics_title);
+
+		text = new TextView(this);
+		text.setTypeface(Typeface.MONOSPACE);
+		text.setTextSize(11);
+		text.setPadding(8, 8, 8, 8);
+
+		// rows are wide, let them scroll sideways rather than wrap
+		final HorizontalScrollView across = new HorizontalScrollView(this);
+		across.addView(text);
+		final ScrollView down = new ScrollView(this);
+		down.addView(across);
+		setContentView(down);
+	}
+
+	@Override
+	public void onResume() {
+		super.onResume();
+		refresh();
+	}
+
+	protected void refresh() {
+		text.setText(getReport());
+	}
+
+	/**
+	 * @return the metrics as plain text, the same as what is shared
+	 */
+	public static String getReport() {
+		return RequestMetrics.dump() + "\nthreads:\n  "
+				+ ThreadExecutor.getStats().replace("\n", "\n  ") + "\n";
+	}
+
+	@Override
+	public boolean onCreateOptionsMenu(Menu menu) {
+		super.onCreateOptionsMenu(menu);
+
+		MenuItem refresh = menu.add(R.string.metrics_menu_refresh);
+		refresh.setIcon(android.R.drawable.ic_menu_rotate);
+		refresh.setOnMenuItemClickListener(new OnMenuItemClickListener() {
+			public boolean onMenuItemClick(MenuItem item) {
+				refresh();
+				return true;
+			}
+		});
+
+		MenuItem share = menu.add(R.string.metrics_menu_share);
+		share.setIcon(android.R.drawable.ic_menu_share);
+		share.setOnMenuItemClickListener(new OnMenuItemClickListener() {
+			public boolean onMenuItemClick(MenuItem item) {
+				Intent intent = new Intent(Intent.ACTION_SEND);
+				intent.setType("text/plain");
+				intent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.metrics_title));
+				intent.putExtra(Intent.EXTRA_TEXT, getReport());
+				startActivity(Intent.createChooser(intent, getString(R.string.metrics_menu_share)));
+				return true;
+			}
+		});
+
+		MenuItem reset = menu.add(R.string.metrics_menu_reset);
+		reset.setIcon(android.R.drawable.ic_menu_delete);
+		reset.setOnMenuItemClickListener(new OnMenuItemClickListener() {
+			public boolean onMenuItemClick(MenuItem item) {
+				RequestMetrics.reset();
+				refresh();
+				return true;
+			}
+		});
+
+		return true;
+	}
+}
@@ -24,11 +24,9 @@
  */
 package org.tunesremote;
 
-import java.util.LinkedList;
-import java.util.List;
-
 import org.tunesremote.daap.Library;
 import org.tunesremote.daap.Response;
+import org.tunesremote.daap.ResultTable;
 import org.tunesremote.daap.Session;
 import org.tunesremote.util.ThreadExecutor;
 
@@ -157,7 +155,7 @@ public class NowPlayingActivity extends ListActivity {
 
       this.getListView().setOnItemClickListener(new OnItemClickListener() {
          public void onItemClick(AdapterView<?> parent, View view, final int position, long id) {
-            ThreadExecutor.runTask(new Runnable() {
+            ThreadExecutor.runTask(ThreadExecutor.LANE_CONTROL, new Runnable() {
 
                public void run() {
                   if (iTunes) {
@@ -209,7 +207,7 @@ public class NowPlayingActivity extends ListActivity {
       clearcue.setIcon(android.R.drawable.ic_menu_revert);
       clearcue.setOnMenuItemClickListener(new OnMenuItemClickListener() {
          public boolean onMenuItemClick(MenuItem item) {
-            ThreadExecutor.runTask(new Runnable() {
+            ThreadExecutor.runTask(ThreadExecutor.LANE_CONTROL, new Runnable() {
 
                public void run() {
                   try {
@@ -245,7 +243,8 @@ public class NowPlayingActivity extends ListActivity {
       protected Context context;
       protected LayoutInflater inflater;
 
-      protected List<Response> results = new LinkedList<Response>();
+      protected final ResultTable results = new ResultTable(new String[] { "minm", "asar", "asal" }, new String[] {
+            "miid", "astm", "astn" });
 
       public NowPlayingAdapter(Context context) {
          this.context = context;
@@ -258,7 +257,7 @@ public class NowPlayingActivity extends ListActivity {
       }
 
       public Object getItem(int position) {
-         return results.get(position);
+         return results.getRow(position);
       }
 
       public long getItemId(int position) {
@@ -272,12 +271,10 @@ public class NowPlayingActivity extends ListActivity {
          try {
 
             // otherwise show normal search result
-            Response resp = (Response) this.getItem(position);
-
-            final String title = resp.getString("minm");
-            final String artist = resp.getString("asar");
-            final String length = Response.convertTime(resp.getNumberLong("astm"));
-            final long trackId = resp.getNumberLong("miid");
+            final String title = results.getString(position, "minm");
+            final String artist = results.getString(position, "asar");
+            final String length = Response.convertTime(results.getLong(position, "astm"));
+            final long trackId = results.getLong(position, "miid");
             final long currentTrackId = ControlActivity.status.getTrackId();
 
             TextView txtTitle = ((TextView) convertView.findViewById(android.R.id.text1));
@@ -81,7 +81,11 @@ public class PairingActivity extends Activity {
 
       // this activity should start the pairing service
       // the pairing server will report to us when someone tries pairing
-      pairingServer = new PairingServer(paired);
+      pairingServer = new PairingServer(new PairingServer.Listener() {
+         public void paired(String code) {
+            paired.sendMessage(Message.obtain(paired, -1, code));
+         }
+      });
 
       final Hashtable<String, String> values = new Hashtable<String, String>();
       values.put("DvNm", Build.MODEL);
@@ -140,7 +144,7 @@ public class PairingActivity extends Activity {
          public void run() {
             try {
                Log.i(TAG, "Stopping PairingServer...");
-               pairingServer.destroy();
+               pairingServer.shutdown();
                pairingServer = null;
                LibraryActivity.getZeroConf().unregisterService(pairservice);
             } catch (Exception e) {
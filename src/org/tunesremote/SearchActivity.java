@@ -35,28 +35,27 @@ import android.graphics.Bitmap;
 import android.os.*;
 import android.provider.SearchRecentSuggestions;
 import android.util.Log;
-import android.util.SparseArray;
 import android.view.*;
 import android.view.MenuItem.OnMenuItemClickListener;
 import android.widget.*;
 import android.widget.AbsListView.OnScrollListener;
 import android.widget.AdapterView.OnItemClickListener;
 import org.tunesremote.daap.Library;
-import org.tunesremote.daap.RequestHelper;
 import org.tunesremote.daap.Response;
+import org.tunesremote.daap.ResultTable;
 import org.tunesremote.daap.Session;
+import org.tunesremote.util.ArtworkCache;
+import org.tunesremote.util.ArtworkLoader;
 import org.tunesremote.util.RecentProvider;
 import org.tunesremote.util.ThreadExecutor;
 
-import java.lang.ref.SoftReference;
-import java.util.LinkedList;
-import java.util.List;
-
 public class SearchActivity extends Activity {
 
 	public final static String TAG = SearchActivity.class.toString();
 	public final static int FORCE_TOP = 2, REMOVE_FOOTER = 3,
 			NO_RESULTS_FOUND = 4;
+	// same size requestThumbnail always asked itunes for
+	protected final static int THUMBNAIL_SIZE = 55;
 
 	protected BackendService backend;
 	protected Session session;
@@ -65,6 +64,8 @@ public class SearchActivity extends Activity {
 	protected ListView list;
 	protected SearchAdapter adapter;
 	protected Bitmap blank;
+	protected ArtworkCache artwork;
+	protected ArtworkLoader loader;
 
 	public ServiceConnection connection = new ServiceConnection() {
 		public void onServiceConnected(ComponentName className,
@@ -151,10 +152,7 @@ public class SearchActivity extends Activity {
 		super.onStop();
 		try {
 			this.unbindService(connection);
-			synchronized (adapter.scrollWait) {
-				adapter.scrolling = false;
-				adapter.scrollWait.notifyAll();
-			}
+			Log.d(TAG, "artwork " + loader.getStats());
 		} catch (Exception e) {
 			Log.e(TAG, "SearchActivity OnStop Exception:" + e.getMessage());
 		}
@@ -175,6 +173,18 @@ public class SearchActivity extends Activity {
 		suggestions.saveRecentQuery(query, null);
 
 		this.blank = Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888);
+		this.artwork = ArtworkCache.getInstance(this);
+		this.loader = new ArtworkLoader(artwork, ArtworkCache.KIND_ITEM,
+				THUMBNAIL_SIZE, blank, new ArtworkLoader.Source() {
+					public Session getSession() {
+						return session;
+					}
+
+					public int getArtworkId(int position) {
+						return adapter == null ? -1 : (int) adapter.results
+								.getLong(position, "miid");
+					}
+				});
 
 		this.registerForContextMenu(this.list);
 
@@ -251,7 +261,9 @@ public class SearchActivity extends Activity {
 		protected Library library;
 		protected String search;
 
-		protected List<Response> results = new LinkedList<Response>();
+		protected final ResultTable results = new ResultTable(new String[] {
+				"minm", "asar", "asal" }, new String[] { "miid", "mper",
+				"astm", "asur", "astn" });
 		protected long totalResults = 1;
 
 		public final View footerView;
@@ -285,9 +297,7 @@ public class SearchActivity extends Activity {
 		}
 
 		public Object getItem(int position) {
-			if (position < results.size())
-				return results.get(position);
-			return null;
+			return results.getRow(position);
 		}
 
 		@Override
@@ -349,26 +359,21 @@ public class SearchActivity extends Activity {
 
 			try {
 				// otherwise show normal search result
-				Response resp = (Response) this.getItem(position);
-
-				String title = resp.getString("minm");
+				String title = results.getString(position, "minm");
 				String caption = String.format("%s - %s",
-						resp.getString("asar"), resp.getString("asal"));
+						results.getString(position, "asar"),
+						results.getString(position, "asal"));
 
 				((TextView) convertView.findViewById(android.R.id.text1))
 						.setText(title);
 				((TextView) convertView.findViewById(android.R.id.text2))
 						.setText(caption);
 
-				// TODO: fetch artwork from local cache
-
-				// start a usertask to fetch the album art
-				// blank out any current art first
-				((ImageView) convertView.findViewById(android.R.id.icon))
-						.setImageBitmap(blank);
-
-				new LoadPhotoTask().execute(Integer.valueOf(position),
-						Integer.valueOf((int) resp.getNumberLong("miid")));
+				// show cached art now, otherwise queue it behind what is
+				// on screen
+				final int itemid = (int) results.getLong(position, "miid");
+				loader.bind((ImageView) convertView
+						.findViewById(android.R.id.icon), position, itemid);
 
 			} catch (Exception e) {
 				Log.d(TAG, String.format("onCreate Error: %s", e.getMessage()));
@@ -380,6 +385,9 @@ public class SearchActivity extends Activity {
 
 		public void onScroll(AbsListView view, int firstVisibleItem,
 		                     int visibleItemCount, int totalItemCount) {
+			loader.onScroll(firstVisibleItem, visibleItemCount,
+					totalItemCount);
+
 			// trigger more search results when hitting the last item
 			if (this.fetchRequested)
 				return;
@@ -388,113 +396,11 @@ public class SearchActivity extends Activity {
 
 		}
 
-		public boolean scrolling = false;
-		public Object scrollWait = new Object();
-
 		public void onScrollStateChanged(AbsListView view, int scrollState) {
-			if (scrollState == OnScrollListener.SCROLL_STATE_IDLE) {
-				synchronized (scrollWait) {
-					scrolling = false;
-					scrollWait.notifyAll();
-				}
-			} else {
-				synchronized (scrollWait) {
-					scrolling = true;
-				}
-			}
+			loader.onScrollStateChanged(
+					scrollState == OnScrollListener.SCROLL_STATE_IDLE);
 		}
 
 	}
 
-	protected SparseArray<SoftReference<Bitmap>> memcache = new SparseArray<SoftReference<Bitmap>>();
-
-	private class LoadPhotoTask extends AsyncTask<Object, Void, Object[]> {
-		@Override
-		public Object[] doInBackground(Object... params) {
-
-			Integer position = (Integer) params[0];
-			Integer itemid = (Integer) params[1];
-
-			Bitmap bitmap = null;
-			try {
-
-				// first check if we have an in-memory cache of this bitmap
-				if (memcache.get(itemid) != null) {
-					bitmap = memcache.get(itemid).get();
-				}
-
-				if (bitmap == null) {
-
-					// if scrolling, wait until weve finished
-					if (adapter.scrolling) {
-						// Log.w(TAG,
-						// "waiting because someone says were scrolling");
-						synchronized (adapter.scrollWait) {
-							adapter.scrollWait.wait();
-						}
-
-						// dont bother fetching if weve left screen
-						if (position < list.getFirstVisiblePosition()
-								|| position > list.getLastVisiblePosition()) {
-							// Log.w(TAG, "requested isnt on screen anymore");
-							return new Object[]{};
-						}
-
-					}
-
-					// fetch the album cover from itunes
-					bitmap = RequestHelper.requestThumbnail(session, itemid);
-
-					// if SOMEHOW (404, etc) this image was still null, then
-					// save as
-					// blank
-					if (bitmap == null)
-						bitmap = blank;
-
-					// try removing any stale references
-					memcache.remove(itemid);
-					memcache.put(itemid, new SoftReference<Bitmap>(bitmap));
-
-				}
-
-			} catch (Exception e) {
-				Log.d(TAG, String.format("onCreate Error: %s", e.getMessage()));
-			}
-
-			return new Object[]{position, bitmap};
-
-		}
-
-		@Override
-		protected void onPostExecute(Object[] result) {
-			try {
-				if (result == null || result.length == 0)
-					return;
-
-				// update gui to show the newly-fetched albumart
-				int position = ((Integer) result[0]).intValue();
-				Bitmap bitmap = (Bitmap) result[1];
-
-				// skip if bitmap wasnt found
-				if (bitmap == null)
-					return;
-
-				// skip updating this item if outside of bounds
-				if (position < list.getFirstVisiblePosition()
-						|| position > list.getLastVisiblePosition())
-					return;
-
-				// find actual position and update view
-				int visible = position - list.getFirstVisiblePosition();
-				View view = list.getChildAt(visible);
-				((ImageView) view.findViewById(android.R.id.icon))
-						.setImageBitmap(bitmap);
-			} catch (Exception e) {
-				Log.w(TAG, String.format("onPostExecute Error: %s",
-						e.getMessage()));
-			}
-
-		}
-	}
-
 }
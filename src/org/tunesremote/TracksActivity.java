@@ -30,7 +30,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Color;
 import android.os.*;
 import android.util.DisplayMetrics;
@@ -45,11 +44,9 @@ import android.widget.BaseAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 import org.tunesremote.daap.*;
+import org.tunesremote.util.ArtworkCache;
 import org.tunesremote.util.ThreadExecutor;
 
-import java.util.LinkedList;
-import java.util.List;
-
 public class TracksActivity extends BaseBrowseActivity {
 
 	public final static String TAG = TracksActivity.class.toString();
@@ -297,7 +294,8 @@ public class TracksActivity extends BaseBrowseActivity {
 
 		protected Context context;
 		protected LayoutInflater inflater;
-		protected List<Response> results = new LinkedList<Response>();
+		protected final ResultTable results = new ResultTable(new String[] { "minm", "asar", "asaa", "asal" },
+				new String[] { "miid", "mper", "mcti", "astm", "astn" });
 
 		public TracksAdapter(Context context) {
 			this.context = context;
@@ -327,7 +325,7 @@ public class TracksActivity extends BaseBrowseActivity {
 		}
 
 		public Object getItem(int position) {
-			return results.get(position);
+			return results.getRow(position);
 		}
 
 		@Override
@@ -351,12 +349,10 @@ public class TracksActivity extends BaseBrowseActivity {
 			try {
 
 				// otherwise show normal search result
-				final Response resp = (Response) this.getItem(position);
-
-				final String title = resp.getString("minm");
-				final String length = Response.convertTime(resp.getNumberLong("astm"));
+				final String title = results.getString(position, "minm");
+				final String length = Response.convertTime(results.getLong(position, "astm"));
 
-				final long trackId = resp.getNumberLong("miid");
+				final long trackId = results.getLong(position, "miid");
 				final long currentTrackId = ControlActivity.status.getTrackId();
 
 				TextView txtTitle = ((TextView) convertView.findViewById(android.R.id.text1));
@@ -399,12 +395,9 @@ public class TracksActivity extends BaseBrowseActivity {
 			Bitmap bitmap = null;
 			try {
 
-				// fetch the album cover from itunes
-				byte[] raw = RequestHelper.request(String.format(
-						"%s/databases/%d/groups/%d/extra_data/artwork?session-id=%s&mw=" + coverSize + "&mh=" + coverSize
-								+ "&group-type=albums", session.getRequestBase(), session.databaseId, params[0],
-						session.sessionId), false);
-				bitmap = BitmapFactory.decodeByteArray(raw, 0, raw.length);
+				// fetch the album cover from the shared cache or itunes
+				bitmap = ArtworkCache.getInstance(TracksActivity.this).get(session, ArtworkCache.KIND_ALBUM,
+						params[0], coverSize);
 
 				// if SOMEHOW (404, etc) this image was still null, then
 				// save as
@@ -0,0 +1,73 @@
+/*
+    TunesRemote+ - http://code.google.com/p/tunesremote-plus/
+    
+    Copyright (C) 2008 Jeffrey Sharkey, http://jsharkey.org/
+    Copyright (C) 2010 TunesRemote+, http://code.google.com/p/tunesremote-plus/
+    
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    The Initial Developer of the Original Code is Jeffrey Sharkey.
+    Portions created by Jeffrey Sharkey are
+    Copyright (C) 2008. Jeffrey Sharkey, http://jsharkey.org/
+    All Rights Reserved.
+ */
+package org.tunesremote.daap;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with jitter for retrying requests against a server that
+ * may be asleep or unreachable. Each failure doubles the delay up to a cap,
+ * and the delay is randomised between half and all of that value so several
+ * clients do not retry in lockstep.
+ */
+public class Backoff {
+
+   private final long base;
+   private final long cap;
+   private final Random random = new Random();
+   private int attempts = 0;
+
+   /**
+    * @param base the delay after the first failure in milliseconds
+    * @param cap the longest delay in milliseconds
+    */
+   public Backoff(long base, long cap) {
+      this.base = base;
+      this.cap = cap;
+   }
+
+   /**
+    * Records a failure.
+    * <p>
+    * @return how long to wait before the next attempt in milliseconds
+    */
+   public synchronized long next() {
+      final long delay = Math.min(cap, base << Math.min(attempts, 30));
+      attempts++;
+      final long half = delay / 2;
+      return half + (long) (random.nextDouble() * (delay - half));
+   }
+
+   /**
+    * Records a success, the next failure starts from the base delay again.
+    */
+   public synchronized void reset() {
+      attempts = 0;
+   }
+
+   public synchronized int getAttempts() {
+      return attempts;
+   }
+}
@@ -0,0 +1,151 @@
+/*
+    TunesRemote+ - http://code.google.com/p/tunesremote-plus/
+    
+    Copyright (C) 2008 Jeffrey Sharkey, http://jsharkey.org/
+    Copyright (C) 2010 TunesRemote+, http://code.google.com/p/tunesremote-plus/
+    
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    The Initial Developer of the Original Code is Jeffrey Sharkey.
+    Portions created by Jeffrey Sharkey are
+    Copyright (C) 2008. Jeffrey Sharkey, http://jsharkey.org/
+    All Rights Reserved.
+ */
+package org.tunesremote.daap;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import org.tunesremote.util.ThreadExecutor;
+
+/**
+ * Ordered pipeline for the control commands of one Session. Commands run one
+ * at a time in the order they were fired, so mashing next or previous skips
+ * exactly as many tracks as were tapped.
+ * <p>
+ * Commands that set an absolute value, like the volume, carry a key. A new
+ * command replaces a waiting one with the same key, so dragging a slider
+ * only sends the latest value. The new value always goes out after every
+ * command fired before it. Instead of refreshing the status after every
+ * command, one refresh is issued once the queue runs dry.
+ */
+public class CommandQueue {
+
+   public final static String TAG = CommandQueue.class.toString();
+
+   private final Session session;
+   private final LinkedList<Command> pending = new LinkedList<Command>();
+   private boolean running = false;
+   private boolean refresh = false;
+
+   private int submitted = 0, coalesced = 0, executed = 0, refreshes = 0;
+
+   public CommandQueue(Session session) {
+      this.session = session;
+   }
+
+   /**
+    * Queues a command.
+    * <p>
+    * @param key identifies commands that replace each other, null if every
+    *           command has to run
+    * @param action the requests to make
+    * @param notify true if the status should be refreshed afterwards
+    */
+   public void submit(String key, Runnable action, boolean notify) {
+      synchronized (this) {
+         submitted++;
+         if (key != null) {
+            final Command last = pending.isEmpty() ? null : pending.getLast();
+            if (last != null && key.equals(last.key)) {
+               // nothing waits in between, send the newest value instead
+               last.action = action;
+               last.notify |= notify;
+               coalesced++;
+               return;
+            }
+            // an older value behind other commands is dropped rather than
+            // updated, updating it would send the new value ahead of them
+            for (Iterator<Command> it = pending.iterator(); it.hasNext();) {
+               final Command command = it.next();
+               if (key.equals(command.key)) {
+                  it.remove();
+                  notify |= command.notify;
+                  coalesced++;
+                  break;
+               }
+            }
+         }
+         pending.add(new Command(key, action, notify));
+         if (running)
+            return;
+         running = true;
+      }
+      ThreadExecutor.runTask(ThreadExecutor.LANE_CONTROL, drain);
+   }
+
+   private final Runnable drain = new Runnable() {
+      public void run() {
+         while (true) {
+            final Command command;
+            synchronized (CommandQueue.this) {
+               command = pending.poll();
+               if (command == null) {
+                  if (!refresh) {
+                     running = false;
+                     return;
+                  }
+                  refresh = false;
+                  refreshes++;
+               } else {
+                  refresh |= command.notify;
+                  executed++;
+               }
+            }
+
+            if (command == null) {
+               // the burst is over, one status refresh covers all of it
+               session.notifyStatus();
+               continue;
+            }
+
+            try {
+               command.action.run();
+            } catch (Exception e) {
+               Log.w(TAG, "Command Exception:" + e.getMessage());
+            }
+         }
+      }
+   };
+
+   /**
+    * @return a one line summary of how much work the queue saved
+    */
+   public synchronized String getStats() {
+      return String.format("submitted=%d coalesced=%d executed=%d refreshes=%d pending=%d", submitted, coalesced,
+               executed, refreshes, pending.size());
+   }
+
+   private static class Command {
+      private final String key;
+      private Runnable action;
+      private boolean notify;
+
+      private Command(String key, Runnable action, boolean notify) {
+         this.key = key;
+         this.action = action;
+         this.notify = notify;
+      }
+   }
+}
@@ -0,0 +1,289 @@
+/*
+    TunesRemote+ - http://code.google.com/p/tunesremote-plus/
+    
+    Copyright (C) 2008 Jeffrey Sharkey, http://jsharkey.org/
+    Copyright (C) 2010 TunesRemote+, http://code.google.com/p/tunesremote-plus/
+    
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    The Initial Developer of the Original Code is Jeffrey Sharkey.
+    Portions created by Jeffrey Sharkey are
+    Copyright (C) 2008. Jeffrey Sharkey, http://jsharkey.org/
+    All Rights Reserved.
+ */
+
+package org.tunesremote.daap;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps persistent HTTP/1.1 connections open to one DACP server so that
+ * transport taps, status fetches and artwork requests do not pay a new TCP
+ * handshake each time. Regular requests share a bounded set of sockets, the
+ * playstatusupdate long-poll gets a socket of its own so it never holds up
+ * (or is held up by) anything else.
+ * <p>
+ * Pools are registered per host by {@link Session} and looked up by
+ * {@link RequestHelper} from the request URL, requests to hosts without a pool
+ * (pairing, for example) keep going through HttpURLConnection.
+ */
+public class ConnectionPool {
+
+   public final static String TAG = ConnectionPool.class.toString();
+
+   // upper bound of sockets open to the server for regular requests
+   private final static int MAX_CONNECTIONS = 4;
+   // idle sockets older than this have most likely been dropped by iTunes
+   private final static long MAX_IDLE_AGE = 5 * 60 * 1000;
+   // a request waiting this long for a socket gives up rather than hang
+   private final static long ACQUIRE_TIMEOUT = 30 * 1000;
+
+   private final static Map<String, ConnectionPool> pools = new HashMap<String, ConnectionPool>();
+
+   private final String host;
+   private final int port;
+   private final LinkedList<DacpConnection> idle = new LinkedList<DacpConnection>();
+   private final Semaphore permits = new Semaphore(MAX_CONNECTIONS, true);
+   private DacpConnection longPoll = null;
+   // the long-poll connection waiting on the server right now
+   private DacpConnection polling = null;
+   private boolean closed = false;
+
+   private final AtomicInteger opened = new AtomicInteger(0);
+   private final AtomicInteger reused = new AtomicInteger(0);
+   private final AtomicInteger discarded = new AtomicInteger(0);
+   private final AtomicInteger retried = new AtomicInteger(0);
+
+   private ConnectionPool(String host, int port) {
+      this.host = host;
+      this.port = port;
+   }
+
+   private static String key(String host, int port) {
+      return host + ":" + port;
+   }
+
+   private static int port(URL url) {
+      return url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+   }
+
+   /**
+    * Opens a new pool for a server, replacing any pool a previous session to
+    * the same server left behind.
+    */
+   public static ConnectionPool register(String host, int port) {
+      final ConnectionPool pool = new ConnectionPool(host, port);
+      final ConnectionPool previous;
+      synchronized (pools) {
+         previous = pools.put(key(host, port), pool);
+      }
+      if (previous != null)
+         previous.close();
+      return pool;
+   }
+
+   /**
+    * Finds the pool responsible for a request URL.
+    * <p>
+    * @return the pool or null if the server has no open pool
+    */
+   public static ConnectionPool forUrl(URL url) {
+      synchronized (pools) {
+         return pools.get(key(url.getHost(), port(url)));
+      }
+   }
+
+   /**
+    * Performs a GET request on a pooled connection. A reused connection the
+    * server has silently closed is retried once on a fresh one, but only when
+    * the socket was closed or reset before any byte of the response arrived.
+    * Commands such as nextitem and playpause are not idempotent, so a request
+    * that timed out or broke off mid-response is never sent twice.
+    * <p>
+    * @param url the full request URL
+    * @param longPoll true for the playstatusupdate long-poll
+    * @param timeout the read timeout in milliseconds, 0 to wait forever
+    * @return the response, its body must be closed by the caller
+    * @throws IOException if the request failed
+    */
+   public DacpConnection.Result get(URL url, boolean longPoll, int timeout) throws IOException {
+      final DacpConnection connection = acquire(longPoll);
+      final boolean fresh = connection.getRequests() == 0;
+      try {
+         return send(connection, url, timeout);
+      } catch (DacpConnection.UnansweredException e) {
+         if (fresh || connection.isAborted())
+            throw e;
+         Log.d(TAG, "Stale connection, retrying: " + e.getMessage());
+         retried.incrementAndGet();
+      }
+      return send(acquire(longPoll), url, timeout);
+   }
+
+   private DacpConnection.Result send(DacpConnection connection, URL url, int timeout) throws IOException {
+      boolean sent = false;
+      try {
+         final DacpConnection.Result result = connection.get(url, timeout);
+         sent = true;
+         return result;
+      } finally {
+         // whatever went wrong, the socket and its permit must not leak
+         if (!sent)
+            release(connection, false);
+      }
+   }
+
+   private DacpConnection acquire(boolean longPoll) throws IOException {
+      if (longPoll) {
+         DacpConnection connection;
+         synchronized (this) {
+            connection = this.longPoll;
+            this.longPoll = null;
+         }
+         if (connection != null && connection.isOpen())
+            reused.incrementAndGet();
+         else
+            connection = open(true);
+         synchronized (this) {
+            polling = connection;
+         }
+         return connection;
+      }
+
+      try {
+         if (!permits.tryAcquire(ACQUIRE_TIMEOUT, TimeUnit.MILLISECONDS))
+            throw new IOException("Timed out waiting for a connection");
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted waiting for a connection");
+      }
+
+      synchronized (this) {
+         while (!idle.isEmpty()) {
+            final DacpConnection connection = idle.removeFirst();
+            if (connection.isOpen() && connection.getIdleTime() < MAX_IDLE_AGE) {
+               reused.incrementAndGet();
+               return connection;
+            }
+            connection.close();
+         }
+      }
+
+      try {
+         return open(false);
+      } catch (IOException e) {
+         permits.release();
+         throw e;
+      }
+   }
+
+   private DacpConnection open(boolean longPoll) throws IOException {
+      final DacpConnection connection = new DacpConnection(this, host, port, longPoll);
+      opened.incrementAndGet();
+      return connection;
+   }
+
+   /**
+    * Called once a response body has been closed.
+    * <p>
+    * @param connection the connection that served the request
+    * @param reusable true if the socket is positioned at the next response
+    */
+   void release(DacpConnection connection, boolean reusable) {
+      synchronized (this) {
+         if (connection == polling)
+            polling = null;
+         if (reusable && !closed) {
+            if (connection.isLongPoll()) {
+               if (this.longPoll == null) {
+                  this.longPoll = connection;
+                  return;
+               }
+            } else {
+               idle.addFirst(connection);
+               permits.release();
+               return;
+            }
+         }
+      }
+
+      discarded.incrementAndGet();
+      Log.d(TAG, String.format("closing connection after %d requests", connection.getRequests()));
+      connection.close();
+      if (!connection.isLongPoll())
+         permits.release();
+   }
+
+   /**
+    * Closes the socket of the long-poll waiting on the server, if any, so the
+    * thread blocked reading it fails straight away instead of waiting until
+    * iTunes has something to say, which can be never while paused.
+    */
+   public void abortLongPoll() {
+      final DacpConnection connection;
+      synchronized (this) {
+         connection = polling;
+         polling = null;
+      }
+      if (connection != null)
+         connection.abort();
+   }
+
+   /**
+    * Closes all idle sockets, connections still serving a request are closed
+    * as soon as they are released.
+    */
+   public void close() {
+      synchronized (pools) {
+         if (pools.get(key(host, port)) == this)
+            pools.remove(key(host, port));
+      }
+      synchronized (this) {
+         closed = true;
+         for (DacpConnection connection : idle)
+            connection.close();
+         idle.clear();
+         if (longPoll != null) {
+            longPoll.close();
+            longPoll = null;
+         }
+      }
+      Log.d(TAG, getStats());
+   }
+
+   /**
+    * @return a one line summary of the connection reuse of this pool
+    */
+   public String getStats() {
+      final int opened = this.opened.get();
+      final int reused = this.reused.get();
+      return String.format("%s:%d opened=%d reused=%d retried=%d discarded=%d reuse=%d%%", host, port, opened,
+               reused, retried.get(), discarded.get(), (opened + reused) == 0 ? 0 : reused * 100 / (opened + reused));
+   }
+
+   public int getOpened() {
+      return opened.get();
+   }
+
+   public int getReused() {
+      return reused.get();
+   }
+}
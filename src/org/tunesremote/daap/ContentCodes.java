@@ -0,0 +1,176 @@
+/*
+    TunesRemote+ - http://code.google.com/p/tunesremote-plus/
+    
+    Copyright (C) 2008 Jeffrey Sharkey, http://jsharkey.org/
+    Copyright (C) 2010 TunesRemote+, http://code.google.com/p/tunesremote-plus/
+    
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    The Initial Developer of the Original Code is Jeffrey Sharkey.
+    Portions created by Jeffrey Sharkey are
+    Copyright (C) 2008. Jeffrey Sharkey, http://jsharkey.org/
+    All Rights Reserved.
+ */
+
+package org.tunesremote.daap;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Static table of the DMAP/DAAP/DACP content codes we know how to decode. Tags
+ * are packed into an int (the 4 ASCII bytes read big-endian, exactly as they
+ * appear on the wire) so the parser can classify a node without creating a
+ * String or running a regex for it.
+ * <p>
+ * The table is a small open-addressed hash built once at class load, lookups
+ * are a multiply, a shift and usually a single probe.
+ */
+public final class ContentCodes {
+
+   public final static int TYPE_UNKNOWN = 0;
+   public final static int TYPE_BRANCH = 1;
+   public final static int TYPE_STRING = 2;
+   public final static int TYPE_UINT8 = 3;
+   public final static int TYPE_UINT16 = 4;
+   public final static int TYPE_UINT32 = 5;
+   public final static int TYPE_UINT64 = 6;
+   public final static int TYPE_RAW = 7;
+   public final static int TYPE_DATE = 8;
+   public final static int TYPE_VERSION = 9;
+
+   private final static String[] BRANCHES = { "abal", "abar", "abro", "adbs", "agal", "agar", "aply", "apso", "arif",
+            "arsv", "avdb", "caci", "casp", "cmgt", "cmpa", "cmst", "mccr", "mdcl", "mlcl", "mlit", "mlog", "mshl",
+            "msrv", "mudl", "mupd" };
+
+   private final static String[] STRINGS = { "aeCR", "aeEN", "aeNN", "agrp", "asaa", "asal", "asar", "ascm", "ascn",
+            "ascp", "asct", "asdt", "asfm", "asgn", "asky", "asls", "assa", "assc", "assl", "assn", "asss", "assu",
+            "asul", "cana", "cang", "cann", "canl", "cmnm", "cmty", "mcna", "mcnm", "minm", "msts" };
+
+   private final static String[] UINT8 = { "abpl", "aePP", "aePS", "aeSP", "asbo", "ascr", "asdb", "asdk", "asgp", "asrv",
+            "asur", "caar", "caas", "caia", "caps", "carp", "cash", "cafs", "cavs", "ceGS", "mikd", "msal", "msas",
+            "msau", "msbr", "msex", "msix", "msqy", "msrs", "msup", "mslr", "mspi", "muty" };
+
+   private final static String[] UINT16 = { "asbr", "asbt", "asdc", "asdn", "asgr", "astc", "astn", "asyr", "mcty" };
+
+   private final static String[] UINT32 = { "aeES", "aeHV", "aeMK", "aeNV", "aeSI", "aeSN", "aeSU", "ascd", "ascs",
+            "assp", "assr", "asst", "assz", "astm", "cant", "cast", "cmsr", "cmvo", "mcti", "mctc", "miid",
+            "mimc", "mlid", "mpco", "mrco", "msdc", "mstm", "mstt", "mtco", "musr" };
+
+   private final static String[] UINT64 = { "aeGI", "asai", "asri", "cmpg", "mper", "msma" };
+
+   private final static String[] DATES = { "asda", "asdm", "asdp", "mstc" };
+
+   private final static String[] VERSIONS = { "aeSV", "apro", "mpro" };
+
+   private final static String[] RAWS = { "canp" };
+
+   private final static int BITS = 9;
+   private final static int SIZE = 1 << BITS;
+   private final static int MASK = SIZE - 1;
+
+   private final static int[] tags = new int[SIZE];
+   private final static byte[] types = new byte[SIZE];
+   private final static String[] names = new String[SIZE];
+
+   static {
+      register(BRANCHES, TYPE_BRANCH);
+      register(STRINGS, TYPE_STRING);
+      register(UINT8, TYPE_UINT8);
+      register(UINT16, TYPE_UINT16);
+      register(UINT32, TYPE_UINT32);
+      register(UINT64, TYPE_UINT64);
+      register(DATES, TYPE_DATE);
+      register(VERSIONS, TYPE_VERSION);
+      register(RAWS, TYPE_RAW);
+   }
+
+   private ContentCodes() {
+   }
+
+   private static void register(String[] codes, int type) {
+      for (String code : codes) {
+         final int tag = tag(code);
+         int slot = slot(tag);
+         while (tags[slot] != 0 && tags[slot] != tag)
+            slot = (slot + 1) & MASK;
+         tags[slot] = tag;
+         types[slot] = (byte) type;
+         names[slot] = code;
+      }
+   }
+
+   private static int slot(int tag) {
+      return (tag * 0x9E3779B9) >>> (32 - BITS);
+   }
+
+   private static int find(int tag) {
+      int slot = slot(tag);
+      while (tags[slot] != 0) {
+         if (tags[slot] == tag)
+            return slot;
+         slot = (slot + 1) & MASK;
+      }
+      return -1;
+   }
+
+   /**
+    * Packs a 4 character content code into its wire form.
+    * <p>
+    * @param code the content code such as "mlit"
+    * @return the packed int tag
+    */
+   public static int tag(String code) {
+      return (code.charAt(0) & 0xff) << 24 | (code.charAt(1) & 0xff) << 16 | (code.charAt(2) & 0xff) << 8
+               | (code.charAt(3) & 0xff);
+   }
+
+   /**
+    * Looks up the declared type of a packed tag.
+    * <p>
+    * @param tag the packed int tag
+    * @return one of the TYPE_ constants, TYPE_UNKNOWN if we have never heard
+    *         of this tag
+    */
+   public static int type(int tag) {
+      final int slot = find(tag);
+      return slot < 0 ? TYPE_UNKNOWN : types[slot];
+   }
+
+   /**
+    * Returns the 4 character name of a packed tag. Known tags always return
+    * the same String instance so parsed responses share their keys.
+    * <p>
+    * @param tag the packed int tag
+    * @return the content code name
+    */
+   public static String name(int tag) {
+      final int slot = find(tag);
+      if (slot >= 0)
+         return names[slot];
+      final byte[] raw = { (byte) (tag >>> 24), (byte) (tag >>> 16), (byte) (tag >>> 8), (byte) tag };
+      try {
+         return new String(raw, "UTF-8");
+      } catch (UnsupportedEncodingException e) {
+         return new String(raw);
+      }
+   }
+
+   /**
+    * True for the fixed width integer types, including dates and versions
+    * which are sent as plain unsigned integers.
+    */
+   public static boolean isNumber(int type) {
+      return type >= TYPE_UINT8 && type <= TYPE_UINT64 || type == TYPE_DATE || type == TYPE_VERSION;
+   }
+}
@@ -0,0 +1,393 @@
+/*
+    TunesRemote+ - http://code.google.com/p/tunesremote-plus/
+    
+    Copyright (C) 2008 Jeffrey Sharkey, http://jsharkey.org/
+    Copyright (C) 2010 TunesRemote+, http://code.google.com/p/tunesremote-plus/
+    
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    The Initial Developer of the Original Code is Jeffrey Sharkey.
+    Portions created by Jeffrey Sharkey are
+    Copyright (C) 2008. Jeffrey Sharkey, http://jsharkey.org/
+    All Rights Reserved.
+ */
+
+package org.tunesremote.daap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URL;
+
+/**
+ * A single persistent HTTP/1.1 connection to a DACP server. Only what iTunes
+ * actually speaks is implemented: GET requests, Content-Length and chunked
+ * bodies, and the Connection header. A connection serves one request at a
+ * time and goes back to its {@link ConnectionPool} once the body has been
+ * read to the end and closed.
+ */
+public class DacpConnection {
+
+   private final static int CONNECT_TIMEOUT = 10000;
+   private final static int LENGTH_UNKNOWN = -1;
+   private final static int LENGTH_CHUNKED = -2;
+   private final static int DRAIN_LIMIT = 64 * 1024;
+
+   private final ConnectionPool pool;
+   private final Socket socket;
+   private final InputStream input;
+   private final OutputStream output;
+   private final boolean longPoll;
+   private final long created = System.currentTimeMillis();
+   private long lastUsed = created;
+   private int requests = 0;
+   private boolean reusable = true;
+   // closed on purpose by another thread, the request must not be retried
+   private volatile boolean aborted = false;
+   private final long connectMillis;
+
+   DacpConnection(ConnectionPool pool, String host, int port, boolean longPoll) throws IOException {
+      this.pool = pool;
+      this.longPoll = longPoll;
+      this.socket = new Socket();
+      this.socket.setTcpNoDelay(true);
+      this.socket.setKeepAlive(true);
+      this.socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+      this.connectMillis = System.currentTimeMillis() - created;
+      this.input = new BufferedInputStream(socket.getInputStream(), 8192);
+      this.output = new BufferedOutputStream(socket.getOutputStream(), 1024);
+   }
+
+   /**
+    * Thrown when the server closed or reset the connection before a single
+    * byte of the response arrived, which is how an idle keep-alive socket the
+    * server dropped looks. The server never answered, so the request may be
+    * sent again on another connection.
+    */
+   static class UnansweredException extends IOException {
+      private static final long serialVersionUID = 1L;
+
+      UnansweredException(String message) {
+         super(message);
+      }
+   }
+
+   /**
+    * Response of a request sent over this connection.
+    */
+   public static class Result {
+      public final int code;
+      public final String encoding;
+      public final InputStream body;
+      /** time spent opening the socket, 0 when it was reused */
+      public final long connectMillis;
+
+      Result(int code, String encoding, InputStream body, long connectMillis) {
+         this.code = code;
+         this.encoding = encoding;
+         this.body = body;
+         this.connectMillis = connectMillis;
+      }
+   }
+
+   /**
+    * Sends a GET request and reads the response headers. The returned body
+    * must be closed by the caller, which releases the connection back to the
+    * pool when the body was fully consumed.
+    * <p>
+    * @param url the full request URL
+    * @param timeout the read timeout in milliseconds, 0 to wait forever
+    * @return the response status, encoding and body stream
+    * @throws IOException if the request could not be completed
+    */
+   Result get(URL url, int timeout) throws IOException {
+      requests++;
+      lastUsed = System.currentTimeMillis();
+      socket.setSoTimeout(timeout);
+
+      final StringBuilder request = new StringBuilder(256);
+      request.append("GET ").append(url.getFile()).append(" HTTP/1.1\r\n");
+      request.append("Host: ").append(url.getHost()).append(':')
+               .append(url.getPort() == -1 ? url.getDefaultPort() : url.getPort()).append("\r\n");
+      request.append("Viewer-Only-Client: 1\r\n");
+      request.append("Client-Daap-Version: 3.10\r\n");
+      // allow both GZip and Deflate (ZLib) encodings
+      request.append("Accept-Encoding: gzip, deflate\r\n");
+      request.append("Connection: keep-alive\r\n\r\n");
+      // a timeout is not caught here: the server may be acting on the
+      // request and only slow to answer
+      final int first;
+      try {
+         output.write(request.toString().getBytes("ISO-8859-1"));
+         output.flush();
+         first = input.read();
+      } catch (SocketException e) {
+         throw new UnansweredException("Connection reset by server: " + e.getMessage());
+      }
+      if (first == -1)
+         throw new UnansweredException("Connection closed by server");
+
+      // status line, for example "HTTP/1.1 200 OK"
+      final String rest = readLine();
+      final String status = (char) first + (rest != null ? rest : "");
+      final int space = status.indexOf(' ');
+      if (!status.startsWith("HTTP/") || space < 0 || status.length() < space + 4)
+         throw new IOException("Bad HTTP status line: " + status);
+      final int code = parseNumber(status.substring(space + 1, space + 4), 10, status);
+      reusable = status.startsWith("HTTP/1.1");
+
+      long length = LENGTH_UNKNOWN;
+      String encoding = null;
+      String line;
+      while ((line = readLine()) != null && line.length() > 0) {
+         final int colon = line.indexOf(':');
+         if (colon < 0)
+            continue;
+         final String name = line.substring(0, colon).trim();
+         final String value = line.substring(colon + 1).trim();
+         if (name.equalsIgnoreCase("Content-Length")) {
+            length = parseNumber(value, 10, line);
+         } else if (name.equalsIgnoreCase("Transfer-Encoding") && value.equalsIgnoreCase("chunked")) {
+            length = LENGTH_CHUNKED;
+         } else if (name.equalsIgnoreCase("Content-Encoding")) {
+            encoding = value;
+         } else if (name.equalsIgnoreCase("Connection")) {
+            reusable = value.equalsIgnoreCase("keep-alive") || (reusable && !value.equalsIgnoreCase("close"));
+         }
+      }
+      if (line == null)
+         throw new EOFException("Connection closed while reading headers");
+
+      if (code == 204 || code == 304)
+         length = 0;
+      if (length == LENGTH_UNKNOWN)
+         reusable = false;
+
+      return new Result(code, encoding, new BodyInputStream(length), requests == 1 ? connectMillis : 0);
+   }
+
+   /**
+    * Parses a number the server sent, a malformed one fails the request like
+    * any other bad response.
+    */
+   private static int parseNumber(String value, int radix, String line) throws IOException {
+      try {
+         final long number = Long.parseLong(value, radix);
+         if (number < 0 || number > Integer.MAX_VALUE)
+            throw new IOException("Number out of range in response: " + line);
+         return (int) number;
+      } catch (NumberFormatException e) {
+         throw new IOException("Bad number in response: " + line);
+      }
+   }
+
+   private String readLine() throws IOException {
+      final StringBuilder line = new StringBuilder(64);
+      int c;
+      while ((c = input.read()) != -1) {
+         if (c == '\n') {
+            final int end = line.length();
+            if (end > 0 && line.charAt(end - 1) == '\r')
+               line.setLength(end - 1);
+            return line.toString();
+         }
+         line.append((char) c);
+      }
+      return line.length() > 0 ? line.toString() : null;
+   }
+
+   boolean isOpen() {
+      return reusable && !socket.isClosed() && !socket.isInputShutdown();
+   }
+
+   /**
+    * @return how many requests this connection has served so far
+    */
+   public int getRequests() {
+      return requests;
+   }
+
+   /**
+    * @return milliseconds since this connection last sent a request
+    */
+   public long getIdleTime() {
+      return System.currentTimeMillis() - lastUsed;
+   }
+
+   public long getCreated() {
+      return created;
+   }
+
+   boolean isLongPoll() {
+      return longPoll;
+   }
+
+   /**
+    * Closes the socket from another thread to break off a request in flight.
+    */
+   void abort() {
+      aborted = true;
+      close();
+   }
+
+   boolean isAborted() {
+      return aborted;
+   }
+
+   void close() {
+      reusable = false;
+      try {
+         socket.close();
+      } catch (IOException e) {
+         // nothing left to do with a dead socket
+      }
+   }
+
+   /**
+    * Delimits one response body on the shared socket stream. Reading stops at
+    * the end of the body so the next response can be read from the same
+    * socket.
+    */
+   private class BodyInputStream extends InputStream {
+
+      // bytes left in the body, or in the current chunk when chunked
+      private long remaining;
+      private final boolean chunked;
+      private boolean done = false;
+      private boolean closed = false;
+
+      BodyInputStream(long length) {
+         this.chunked = (length == LENGTH_CHUNKED);
+         this.remaining = chunked ? 0 : length;
+         if (length == 0)
+            done = true;
+      }
+
+      private boolean fill() throws IOException {
+         if (done)
+            return false;
+         if (!chunked) {
+            if (remaining == 0) {
+               done = true;
+               return false;
+            }
+            return true;
+         }
+         if (remaining > 0)
+            return true;
+         // read the next chunk header, skipping the CRLF ending the last one
+         String size = readLine();
+         if (size != null && size.length() == 0)
+            size = readLine();
+         if (size == null)
+            throw new EOFException("Connection closed inside chunked body");
+         final int ext = size.indexOf(';');
+         remaining = parseNumber((ext < 0 ? size : size.substring(0, ext)).trim(), 16, size);
+         if (remaining == 0) {
+            // consume any trailers up to the final blank line
+            String trailer;
+            while ((trailer = readLine()) != null && trailer.length() > 0) {
+            }
+            done = true;
+            return false;
+         }
+         return true;
+      }
+
+      @Override
+      public int read() throws IOException {
+         if (!fill())
+            return -1;
+         final int b = readSocket(null, 0, 1);
+         if (b == -1)
+            return endOfSocket();
+         if (remaining > 0)
+            remaining--;
+         return b;
+      }
+
+      @Override
+      public int read(byte[] buffer, int offset, int count) throws IOException {
+         if (count == 0)
+            return 0;
+         if (!fill())
+            return -1;
+         if (remaining > 0)
+            count = (int) Math.min(count, remaining);
+         final int read = readSocket(buffer, offset, count);
+         if (read == -1)
+            return endOfSocket();
+         if (remaining > 0)
+            remaining -= read;
+         return read;
+      }
+
+      /**
+       * Reads off the socket, a read that failed or timed out leaves the
+       * stream somewhere inside the response so the socket is not reused.
+       */
+      private int readSocket(byte[] buffer, int offset, int count) throws IOException {
+         try {
+            return buffer == null ? input.read() : input.read(buffer, offset, count);
+         } catch (IOException e) {
+            reusable = false;
+            throw e;
+         }
+      }
+
+      private int endOfSocket() throws IOException {
+         reusable = false;
+         if (remaining == LENGTH_UNKNOWN) {
+            done = true;
+            return -1;
+         }
+         throw new EOFException("Connection closed inside response body");
+      }
+
+      @Override
+      public int available() throws IOException {
+         if (done)
+            return 0;
+         final int available = input.available();
+         return remaining > 0 ? (int) Math.min(available, remaining) : available;
+      }
+
+      @Override
+      public void close() throws IOException {
+         if (closed)
+            return;
+         closed = true;
+         if (!done && reusable) {
+            // decompressors can stop short of the last few bytes, read them
+            // so the socket is left at the start of the next response
+            try {
+               final byte[] buffer = new byte[1024];
+               long drained = 0;
+               int read;
+               while (drained < DRAIN_LIMIT && (read = read(buffer, 0, buffer.length)) != -1)
+                  drained += read;
+            } catch (IOException e) {
+               reusable = false;
+            }
+         }
+         pool.release(DacpConnection.this, done && reusable);
+      }
+   }
+}
@@ -0,0 +1,46 @@
+/*
+    TunesRemote+ - http://code.google.com/p/tunesremote-plus/
+    
+    Copyright (C) 2008 Jeffrey Sharkey, http://jsharkey.org/
+    Copyright (C) 2010 TunesRemote+, http://code.google.com/p/tunesremote-plus/
+    
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    The Initial Developer of the Original Code is Jeffrey Sharkey.
+    Portions created by Jeffrey Sharkey are
+    Copyright (C) 2008. Jeffrey Sharkey, http://jsharkey.org/
+    All Rights Reserved.
+ */
+package org.tunesremote.daap;
+
+/**
+ * Thrown when the server answers a request with an HTTP error status, so
+ * callers can tell an expired session (403 or 503) apart from other
+ * failures.
+ */
+public class HttpResponseException extends Exception {
+
+   private static final long serialVersionUID = 1L;
+
+   private final int responseCode;
+
+   public HttpResponseException(int responseCode) {
+      super("HTTP Error Response Code: " + responseCode);
+      this.responseCode = responseCode;
+   }
+
+   public int getResponseCode() {
+      return responseCode;
+   }
+}
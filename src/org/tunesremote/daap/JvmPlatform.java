@@ -0,0 +1,117 @@
+/*
+    TunesRemote+ - http://code.google.com/p/tunesremote-plus/
+    
+    Copyright (C) 2008 Jeffrey Sharkey, http://jsharkey.org/
+    Copyright (C) 2010 TunesRemote+, http://code.google.com/p/tunesremote-plus/
+    
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    The Initial Developer of the Original Code is Jeffrey Sharkey.
+    Portions created by Jeffrey Sharkey are
+    Copyright (C) 2008. Jeffrey Sharkey, http://jsharkey.org/
+    All Rights Reserved.
+ */
+package org.tunesremote.daap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The plain JVM binding, used when nothing else is installed. Logging goes
+ * to java.util.logging under the tag's class name, so it is configured the
+ * same way as the mDNS code's. Timed callbacks run on one daemon thread.
+ * Artwork is not decoded, a headless client has nothing to draw, so the
+ * image is handed back as its encoded bytes.
+ */
+public final class JvmPlatform implements Platform.Binding<byte[]> {
+
+   private final ScheduledThreadPoolExecutor timer;
+   // pending runs of each task, so cancel can find them
+   private final Map<Runnable, List<ScheduledFuture<?>>> pending = new HashMap<Runnable, List<ScheduledFuture<?>>>();
+
+   public JvmPlatform() {
+      timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+         public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, "platform-dispatch");
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+   }
+
+   public void log(int level, String tag, String message, Throwable error) {
+      // tags are Class.toString(), "class org.tunesremote..."
+      final String name = tag != null && tag.startsWith("class ") ? tag.substring(6) : tag;
+      final Logger logger = Logger.getLogger(String.valueOf(name));
+      final Level mapped = level >= Platform.ERROR ? Level.SEVERE : level == Platform.WARN ? Level.WARNING
+               : level == Platform.INFO ? Level.INFO : level == Platform.DEBUG ? Level.FINE : Level.FINER;
+      if (logger.isLoggable(mapped))
+         // name the tag as the source, inferring it would always find this
+         // class
+         logger.logp(mapped, name, null, message != null ? message : String.valueOf(error), error);
+   }
+
+   public void setPriority(int priority) {
+      // nice 0 is normal, 19 the lowest
+      final int span = Thread.NORM_PRIORITY - Thread.MIN_PRIORITY;
+      final int clamped = Math.max(0, Math.min(Platform.PRIORITY_LOWEST, priority));
+      Thread.currentThread().setPriority(Thread.NORM_PRIORITY - clamped * span / Platform.PRIORITY_LOWEST);
+   }
+
+   public void post(final Runnable task, long delayMillis) {
+      synchronized (pending) {
+         final ScheduledFuture<?>[] self = new ScheduledFuture<?>[1];
+         self[0] = timer.schedule(new Runnable() {
+            public void run() {
+               synchronized (pending) {
+                  final List<ScheduledFuture<?>> runs = pending.get(task);
+                  if (runs == null || !runs.remove(self[0]))
+                     return;
+                  if (runs.isEmpty())
+                     pending.remove(task);
+               }
+               task.run();
+            }
+         }, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+         List<ScheduledFuture<?>> runs = pending.get(task);
+         if (runs == null) {
+            runs = new ArrayList<ScheduledFuture<?>>(1);
+            pending.put(task, runs);
+         }
+         runs.add(self[0]);
+      }
+   }
+
+   public void cancel(Runnable task) {
+      synchronized (pending) {
+         final List<ScheduledFuture<?>> runs = pending.remove(task);
+         if (runs == null)
+            return;
+         for (ScheduledFuture<?> run : runs)
+            run.cancel(false);
+      }
+   }
+
+   public byte[] decode(byte[] raw, int width, int height, boolean thumbnail) {
+      return raw;
+   }
+}
@@ -32,13 +32,12 @@ import java.util.regex.Pattern;
 import org.tunesremote.PlaylistListener;
 import org.tunesremote.TagListener;
 
-import android.util.Log;
-
 public class Library {
 
    public final static String TAG = Library.class.toString();
    public final static int RESULT_INCREMENT = 50;
    public final static Pattern MLIT_PATTERN = Pattern.compile("mlit");
+   public final static String SNAPSHOT_META = "dmap.itemname,dmap.itemid,dmap.persistentid,daap.songartist,daap.songalbumartist,daap.songalbum,daap.songalbumid,daap.songtime,daap.songuserrating,daap.songtracknumber,daap.songdiscnumber";
 
    // library keeps track of albums/tracks from itunes also caches requests as
    // needed
@@ -59,6 +58,16 @@ public class Library {
     * @return the count of records returned or -1 if nothing found
     */
    public long readSearch(TagListener listener, String search, long start, long items) {
+      // answer from the local index when the snapshot is current, otherwise
+      // ask iTunes
+      readySnapshot();
+      final SearchIndex index = session.getSearchIndex();
+      if (index != null) {
+         final long total = index.search(search, start, items, listener);
+         Log.d(TAG, String.format("readSearch() local start=%d, items=%d, total=%d", start, items, total));
+         return total;
+      }
+
       long total = -1;
       try {
          String encodedSearch = Library.escapeUrlString(search);
@@ -66,8 +75,7 @@ public class Library {
                   .format("%s/databases/%d/containers/%d/items?session-id=%s&meta=dmap.itemname,dmap.itemid,dmap.persistentid,daap.songartist,daap.songalbum,daap.songtime,daap.songuserrating,daap.songtracknumber&type=music&sort=name&include-sort-headers=1&query=(('com.apple.itunes.mediakind:1','com.apple.itunes.mediakind:4','com.apple.itunes.mediakind:8')+('dmap.itemname:*%s*','daap.songartist:*%s*','daap.songalbum:*%s*'))&index=%d-%d",
                            session.getRequestBase(), session.databaseId, session.libraryId, session.sessionId,
                            encodedSearch, encodedSearch, encodedSearch, start, items);
-         byte[] raw = RequestHelper.request(query, false);
-         Response resp = ResponseParser.performParse(raw, listener, MLIT_PATTERN);
+         Response resp = RequestHelper.requestParsed(query, listener, MLIT_PATTERN);
          // apso or adbs
          Response nested = resp.getNested("apso");
          if (nested == null)
@@ -83,31 +91,196 @@ public class Library {
       return total;
    }
 
+   /**
+    * Gets the local snapshot of this library if one has been synced, and
+    * makes sure it gets brought up to date in the background.
+    */
+   protected LibrarySnapshot readySnapshot() {
+      final LibrarySnapshot snapshot = session.getSnapshot();
+      session.syncSnapshot();
+      if (snapshot != null && snapshot.isReady(session.databasePersistentId))
+         return snapshot;
+      return null;
+   }
+
    public void readArtists(TagListener listener) {
-      // check if we have a local cache create a wrapping taglistener to create
-      // local cache
+      // check if we have a local cache
+      final LibrarySnapshot snapshot = readySnapshot();
+      if (snapshot != null) {
+         snapshot.readArtists(session.databasePersistentId, listener);
+         return;
+      }
+
       try {
          Log.d(TAG, "readArtists() requesting...");
 
          // request ALL artists for performance
          // GET
          // /databases/%d/browse/artists?session-id=%s&include-sort-headers=1&index=%d-%d
-         byte[] raw = RequestHelper.request(
+         // parse list as it streams in, passing off events in the process
+         int hits = RequestHelper.requestSearch(
                   String.format("%s/databases/%d/browse/artists?session-id=%s&include-sort-headers=1",
-                           session.getRequestBase(), session.databaseId, session.sessionId), false);
-
-         // parse list, passing off events in the process
-         int hits = ResponseParser.performSearch(raw, listener, MLIT_PATTERN, true);
+                           session.getRequestBase(), session.databaseId, session.sessionId), listener, MLIT_PATTERN,
+                  true);
          Log.d(TAG, String.format("readArtists() total=%d", hits));
-         raw = null;
 
       } catch (Exception e) {
          Log.w(TAG, "readArtists Exception:" + e.getMessage());
       }
    }
 
+   /**
+    * @return the artist list a page at a time, see
+    *         {@link #readArtists(TagListener, long, long, LibrarySnapshot)}
+    */
+   public WindowedResults.PageSource artistPages() {
+      return new PinnedPages() {
+         protected long readPage(LibrarySnapshot snapshot, TagListener listener, long start, long items) {
+            return readArtists(listener, start, items, snapshot);
+         }
+      };
+   }
+
+   /**
+    * @return the album list a page at a time, see
+    *         {@link #readAlbums(TagListener, long, long, LibrarySnapshot)}
+    */
+   public WindowedResults.PageSource albumPages() {
+      return new PinnedPages() {
+         protected long readPage(LibrarySnapshot snapshot, TagListener listener, long start, long items) {
+            return readAlbums(listener, start, items, snapshot);
+         }
+      };
+   }
+
+   /**
+    * Picks the snapshot or the server on the first read and keeps reading
+    * every later page from it, so a snapshot finishing its sync while the
+    * list is open cannot mix two orderings in one window.
+    */
+   private abstract class PinnedPages implements WindowedResults.PageSource {
+      private boolean pinned = false;
+      private LibrarySnapshot snapshot = null;
+
+      public long readPage(TagListener listener, long start, long items) {
+         final LibrarySnapshot source;
+         synchronized (this) {
+            if (!pinned) {
+               snapshot = readySnapshot();
+               pinned = true;
+            }
+            source = snapshot;
+         }
+         return readPage(source, listener, start, items);
+      }
+
+      protected abstract long readPage(LibrarySnapshot snapshot, TagListener listener, long start, long items);
+   }
+
+   /**
+    * Reads one page of the artist list. The sort headers are reported first
+    * as an mshl branch, then every artist as an mlit Response holding the
+    * name as its mlit string.
+    * <p>
+    * @param listener the TagListener to report headers and artists to
+    * @param start the index of the first artist
+    * @param items how many artists to read, 0 for just the total and headers
+    * @param snapshot the snapshot to read from, null for the server
+    * @return the total number of artists, -1 if the request failed
+    */
+   private long readArtists(TagListener listener, long start, long items, LibrarySnapshot snapshot) {
+      if (snapshot != null)
+         return snapshot.readArtists(session.databasePersistentId, start, items, listener);
+
+      long total = -1;
+      try {
+         // http://192.168.254.128:3689/databases/36/browse/artists?session-id=1034286700&include-sort-headers=1&index=0-99
+         final Response resp = RequestHelper.requestParsed(String.format(
+                  "%s/databases/%d/browse/artists?session-id=%s&include-sort-headers=1&index=%s",
+                  session.getRequestBase(), session.databaseId, session.sessionId, indexRange(start, items)), false,
+                  true);
+         final Response abro = resp.getNested("abro");
+         total = abro.getNumberLong("mtco");
+         readHeaders(abro, listener);
+         final Response abar = abro.getNested("abar");
+         if (items > 0 && abar != null) {
+            // browse lists carry the names as plain mlit strings, report
+            // them wrapped the same way a streamed search does
+            final int mlit = ContentCodes.tag("mlit");
+            for (String name : abar.findStringArray(mlit)) {
+               final Response artist = new Response();
+               artist.add(mlit, name);
+               listener.foundTag("mlit", artist);
+            }
+         }
+      } catch (Exception e) {
+         Log.w(TAG, "readArtists Exception:" + e.getMessage());
+      }
+      listener.searchDone();
+
+      Log.d(TAG, String.format("readArtists() finished start=%d, items=%d, total=%d", start, items, total));
+      return total;
+   }
+
+   /**
+    * Reads one page of the album list sorted by album. The sort headers are
+    * reported first as an mshl branch, then every album as an mlit branch.
+    * <p>
+    * @param listener the TagListener to report headers and albums to
+    * @param start the index of the first album
+    * @param items how many albums to read, 0 for just the total and headers
+    * @param snapshot the snapshot to read from, null for the server
+    * @return the total number of albums, -1 if the request failed
+    */
+   private long readAlbums(TagListener listener, long start, long items, LibrarySnapshot snapshot) {
+      if (snapshot != null)
+         return snapshot.readAlbums(session.databasePersistentId, start, items, listener);
+
+      long total = -1;
+      try {
+         // http://192.168.254.128:3689/databases/36/groups?session-id=1034286700&meta=dmap.itemname,dmap.itemid,dmap.persistentid,daap.songartist&type=music&group-type=albums&sort=album&include-sort-headers=1&index=0-99
+         final Response resp = RequestHelper.requestParsed(String.format(
+                  "%s/databases/%d/groups?session-id=%s&meta=dmap.itemname,dmap.itemid,dmap.persistentid,daap.songartist&type=music&group-type=albums&sort=album&include-sort-headers=1&index=%s",
+                  session.getRequestBase(), session.databaseId, session.sessionId, indexRange(start, items)), false);
+         final Response agal = resp.getNested("agal");
+         total = agal.getNumberLong("mtco");
+         readHeaders(agal, listener);
+         final Response mlcl = agal.getNested("mlcl");
+         if (items > 0 && mlcl != null) {
+            for (Response mlit : mlcl.findArray("mlit"))
+               listener.foundTag("mlit", mlit);
+         }
+      } catch (Exception e) {
+         Log.w(TAG, "readAlbums Exception:" + e.getMessage());
+      }
+      listener.searchDone();
+
+      Log.d(TAG, String.format("readAlbums() finished start=%d, items=%d, total=%d", start, items, total));
+      return total;
+   }
+
+   /**
+    * @return the inclusive index range for a page, a single item when only
+    *         the total is wanted
+    */
+   private static String indexRange(long start, long items) {
+      return String.format("%d-%d", start, start + Math.max(items, 1) - 1);
+   }
+
+   private static void readHeaders(Response listing, TagListener listener) throws Exception {
+      final Response mshl = listing.getNested("mshl");
+      if (mshl != null)
+         listener.foundTag("mshl", mshl);
+   }
+
    public void readAlbums(TagListener listener, String artist) {
 
+      final LibrarySnapshot snapshot = readySnapshot();
+      if (snapshot != null) {
+         snapshot.readAlbums(session.databasePersistentId, artist, listener);
+         return;
+      }
+
       final String encodedArtist = Library.escapeUrlString(artist);
 
       try {
@@ -115,14 +288,12 @@ public class Library {
          // make albums request for this artist
          // http://192.168.254.128:3689/databases/36/groups?session-id=1034286700&meta=dmap.itemname,dmap.itemid,dmap.persistentid,daap.songartist&type=music&group-type=albums&sort=artist&include-sort-headers=1
 
-         byte[] raw = RequestHelper
-                  .request(String
+         // parse list as it streams in, passing off events in the process
+         RequestHelper
+                  .requestSearch(String
                            .format("%s/databases/%d/groups?session-id=%s&meta=dmap.itemname,dmap.itemid,dmap.persistentid,daap.songartist&type=music&group-type=albums&sort=artist&include-sort-headers=1&query='daap.songartist:%s'",
                                     session.getRequestBase(), session.databaseId, session.sessionId, encodedArtist),
-                           false);
-
-         // parse list, passing off events in the process
-         ResponseParser.performSearch(raw, listener, MLIT_PATTERN, false);
+                           listener, MLIT_PATTERN, false);
 
       } catch (Exception e) {
          Log.w(TAG, "readAlbums Exception:" + e.getMessage());
@@ -131,18 +302,21 @@ public class Library {
    }
 
    public void readAlbums(TagListener listener) {
-      try {
-         byte[] raw = null;
+      final LibrarySnapshot snapshot = readySnapshot();
+      if (snapshot != null) {
+         snapshot.readAlbums(session.databasePersistentId, listener);
+         return;
+      }
 
+      try {
          // make partial album list request
          // http://192.168.254.128:3689/databases/36/groups?session-id=1034286700&meta=dmap.itemname,dmap.itemid,dmap.persistentid,daap.songartist&type=music&group-type=albums&sort=artist&include-sort-headers=1&index=0-50
-         raw = RequestHelper
-                  .request(String
+         // parse list as it streams in, passing off events in the process
+         final int hits = RequestHelper
+                  .requestSearch(String
                            .format("%s/databases/%d/groups?session-id=%s&meta=dmap.itemname,dmap.itemid,dmap.persistentid,daap.songartist&type=music&group-type=albums&sort=album&include-sort-headers=1",
-                                    session.getRequestBase(), session.databaseId, session.sessionId), false);
-
-         // parse list, passing off events in the process
-         final int hits = ResponseParser.performSearch(raw, listener, MLIT_PATTERN, false);
+                                    session.getRequestBase(), session.databaseId, session.sessionId), listener,
+                           MLIT_PATTERN, false);
          Log.i(TAG, "readAlbums Total:" + hits);
       } catch (Exception e) {
          Log.w(TAG, "readAlbums Exception:" + e.getMessage());
@@ -150,6 +324,10 @@ public class Library {
    }
 
    public void readTracks(String albumid, TagListener listener) {
+      final LibrarySnapshot snapshot = readySnapshot();
+      if (snapshot != null && snapshot.readTracks(session.databasePersistentId, albumid, listener))
+         return;
+
       try {
          String temp = String
                   .format("%s/databases/%d/containers/%d/items?session-id=%s&meta=dmap.itemname,dmap.itemid,daap.songartist,daap.songalbum,daap.songalbum,daap.songtime,daap.songuserrating,daap.songtracknumber&type=music&sort=album&query='daap.songalbumid:%s'",
@@ -157,10 +335,8 @@ public class Library {
 
          // make tracks list request
          // http://192.168.254.128:3689/databases/36/containers/113/items?session-id=1301749047&meta=dmap.itemname,dmap.itemid,daap.songartist,daap.songalbum,daap.songalbum,daap.songtime,daap.songtracknumber&type=music&sort=album&query='daap.songalbumid:11624070975347817354'
-         byte[] raw = RequestHelper.request(temp, false);
-
-         // parse list, passing off events in the process
-         ResponseParser.performSearch(raw, listener, MLIT_PATTERN, false);
+         // parse list as it streams in, passing off events in the process
+         RequestHelper.requestSearch(temp, listener, MLIT_PATTERN, false);
 
       } catch (Exception e) {
          Log.w(TAG, "readTracks Exception:" + e.getMessage());
@@ -170,27 +346,78 @@ public class Library {
 
    public void readAllTracks(String artist, TagListener listener) {
 
-      // check if we have a local cache create a wrapping taglistener to create
-      // local cache
+      // check if we have a local cache
+      final LibrarySnapshot snapshot = readySnapshot();
+      if (snapshot != null) {
+         snapshot.readAllTracks(session.databasePersistentId, artist, listener);
+         return;
+      }
+
       final String encodedArtist = Library.escapeUrlString(artist);
 
       try {
          // make tracks list request
          // http://192.168.254.128:3689/databases/36/containers/113/items?session-id=1301749047&meta=dmap.itemname,dmap.itemid,daap.songartist,daap.songalbum,daap.songalbum,daap.songtime,daap.songtracknumber&type=music&sort=album&query='daap.songalbumid:11624070975347817354'
-         byte[] raw = RequestHelper
-                  .request(String
+         // parse list as it streams in, passing off events in the process
+         RequestHelper
+                  .requestSearch(String
                            .format("%s/databases/%d/containers/%d/items?session-id=%s&meta=dmap.itemname,dmap.itemid,daap.songartist,daap.songalbum,daap.songalbum,daap.songtime,daap.songuserrating,daap.songtracknumber&type=music&sort=album&query='daap.songartist:%s'",
                                     session.getRequestBase(), session.databaseId, session.libraryId, session.sessionId,
-                                    encodedArtist), false);
-
-         // parse list, passing off events in the process
-         ResponseParser.performSearch(raw, listener, MLIT_PATTERN, false);
+                                    encodedArtist), listener,
+                  MLIT_PATTERN, false);
 
       } catch (Exception e) {
          Log.w(TAG, "readTracks Exception:" + e.getMessage());
       }
    }
 
+   /**
+    * Asks the server for the current library revision, using revision-number=1
+    * makes iTunes answer straight away instead of waiting for a change.
+    * <p>
+    * @return the server revision number
+    * @throws Exception if the request fails
+    */
+   public long readRevision() throws Exception {
+      // http://192.168.254.128:3689/update?session-id=1034286700&revision-number=1
+      final Response resp = RequestHelper.requestParsed(
+               String.format("%s/update?session-id=%s&revision-number=1", session.getRequestBase(), session.sessionId),
+               false);
+      return resp.getNested("mupd").getNumberLong("musr");
+   }
+
+   /**
+    * Streams the tracks that changed between two library revisions, reporting
+    * updated tracks as mlit and deleted track ids as mudl branches.
+    * <p>
+    * @param revision the revision to sync up to
+    * @param delta the revision the caller already has, 0 for every track
+    * @param listener the TagListener to report mlit and mudl branches to
+    * @return the number of branches reported
+    * @throws Exception if the request fails
+    */
+   public int readTrackDelta(long revision, long delta, TagListener listener) throws Exception {
+      // http://192.168.254.128:3689/databases/36/containers/113/items?session-id=1034286700&revision-number=62&delta=61&type=music&meta=dmap.itemname,...
+      String query = String.format("%s/databases/%d/containers/%d/items?session-id=%s&revision-number=%d&meta=%s&type=music",
+               session.getRequestBase(), session.databaseId, session.libraryId, session.sessionId, revision,
+               SNAPSHOT_META);
+      if (delta > 0)
+         query += String.format("&delta=%d", delta);
+      return RequestHelper.requestSearch(query, listener, LibrarySync.DELTA_PATTERN, false);
+   }
+
+   /**
+    * Streams the full album (group) list in album order, bypassing any local
+    * snapshot.
+    */
+   public int readAlbumGroups(TagListener listener) throws Exception {
+      return RequestHelper
+               .requestSearch(String
+                        .format("%s/databases/%d/groups?session-id=%s&meta=dmap.itemname,dmap.itemid,dmap.persistentid,daap.songartist&type=music&group-type=albums&sort=album&include-sort-headers=1",
+                                 session.getRequestBase(), session.databaseId, session.sessionId), listener,
+                        MLIT_PATTERN, false);
+   }
+
    public void readPlaylists(PlaylistListener listener) {
       for (Playlist ply : this.session.playlists) {
          listener.foundPlaylist(ply);
@@ -202,13 +429,12 @@ public class Library {
       Log.d(TAG, " in readPlaylists");
       try {
          // http://192.168.254.128:3689/databases/36/containers/1234/items?session-id=2025037772&meta=dmap.itemname,dmap.itemid,daap.songartist,daap.songalbum,dmap.containeritemid,com.apple.tunes.has-video
-         byte[] raw = RequestHelper
-                  .request(String
+         // parse list as it streams in, passing off events in the process
+         RequestHelper
+                  .requestSearch(String
                            .format("%s/databases/%d/containers/%s/items?session-id=%s&meta=dmap.itemname,dmap.itemid,daap.songartst,daap.songalbum,daap.songtime,dmap.containeritemid,com.apple.tunes.has-video",
-                                    session.getRequestBase(), session.databaseId, playlistid, session.sessionId), false);
-
-         // parse list, passing off events in the process
-         ResponseParser.performSearch(raw, listener, MLIT_PATTERN, false);
+                                    session.getRequestBase(), session.databaseId, playlistid, session.sessionId), listener,
+                  MLIT_PATTERN, false);
 
       } catch (Exception e) {
          Log.w(TAG, "readPlaylists Exception:" + e.getMessage());
@@ -232,15 +458,14 @@ public class Library {
          // dmap.containeritemid,com.apple.itunes.has-video,daap.songdisabled,
          // com.apple.itunes.mediakind,daap.songdescription
          // &type=music&session-id=345827905
-         byte[] raw = RequestHelper.request(
+         // parse list as it streams in, passing off events in the process
+         RequestHelper.requestSearch(
                   String.format("%s/databases/%d/containers/%s/items?"
                            + "meta=dmap.itemname,dmap.itemid,daap.songartist,daap.songalbum,"
                            + "dmap.containeritemid,com.apple.itunes.has-video,daap.songdisabled,"
                            + "com.apple.itunes.mediakind,daap.songdescription" + "&type=music&session-id=%s",
-                           session.getRequestBase(), session.radioDatabaseId, playlistid, session.sessionId), false);
-
-         // parse list, passing off events in the process
-         ResponseParser.performSearch(raw, listener, MLIT_PATTERN, false);
+                           session.getRequestBase(), session.radioDatabaseId, playlistid, session.sessionId), listener,
+                  MLIT_PATTERN, false);
 
       } catch (Exception e) {
          Log.w(TAG, "readRadioPlaylist Exception:" + e.getMessage());
@@ -255,10 +480,8 @@ public class Library {
                   .format("%s/ctrl-int/1/items?session-id=%s&meta=dmap.itemname,dmap.itemid,daap.songartist,daap.songalbum,daap.songalbum,daap.songtime,daap.songuserrating,daap.songtracknumber&type=music&sort=album&query='daap.songalbumid:%s'",
                            session.getRequestBase(), session.sessionId, albumid);
 
-         byte[] raw = RequestHelper.request(query, false);
-
-         // parse list, passing off events in the process
-         ResponseParser.performSearch(raw, listener, MLIT_PATTERN, false);
+         // parse list as it streams in, passing off events in the process
+         RequestHelper.requestSearch(query, listener, MLIT_PATTERN, false);
          return false;
 
       } catch (Exception e) {
@@ -287,7 +510,7 @@ public class Library {
             new_item.put("minm", resp.getString("cann"));
             new_item.put("asal", resp.getString("canl"));
             new_item.put("asar", resp.getString("cana"));
-            new_item.put("astm", resp.getString("cast"));
+            new_item.put("astm", resp.getNumberLong("cast"));
 
             listener.foundTag("mlit", new_item);
          }
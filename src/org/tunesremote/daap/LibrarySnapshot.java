@@ -0,0 +1,119 @@
+/*
+    TunesRemote+ - http://code.google.com/p/tunesremote-plus/
+    
+    Copyright (C) 2008 Jeffrey Sharkey, http://jsharkey.org/
+    Copyright (C) 2010 TunesRemote+, http://code.google.com/p/tunesremote-plus/
+    
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    The Initial Developer of the Original Code is Jeffrey Sharkey.
+    Portions created by Jeffrey Sharkey are
+    Copyright (C) 2008. Jeffrey Sharkey, http://jsharkey.org/
+    All Rights Reserved.
+ */
+
+package org.tunesremote.daap;
+
+import org.tunesremote.TagListener;
+
+/**
+ * Local copy of a music library that browse screens can read from instantly
+ * instead of downloading the whole listing again. Every call takes the
+ * library persistent id so one store can hold several paired libraries.
+ * <p>
+ * Reads report synthesized Responses to the TagListener shaped like the ones
+ * the matching {@link Library} server call produces, so adapters do not need
+ * to know where their rows came from. Writes are only made by
+ * {@link LibrarySync} between {@link #beginSync} and {@link #endSync} on a
+ * single thread.
+ */
+public interface LibrarySnapshot {
+
+   /**
+    * @return true once a complete sync of this library has been stored
+    */
+   public boolean isReady(String library);
+
+   /**
+    * @return the server revision the stored snapshot corresponds to, 0 if none
+    */
+   public long getRevision(String library);
+
+   public void readArtists(String library, TagListener listener);
+
+   public void readAlbums(String library, TagListener listener);
+
+   /**
+    * Reads one page of the artist list, see
+    * {@link Library#artistPages()}.
+    *
+    * @return the total number of artists
+    */
+   public long readArtists(String library, long start, long items, TagListener listener);
+
+   /**
+    * Reads one page of the album list, see
+    * {@link Library#albumPages()}.
+    *
+    * @return the total number of albums
+    */
+   public long readAlbums(String library, long start, long items, TagListener listener);
+
+   public void readAlbums(String library, String artist, TagListener listener);
+
+   /**
+    * @return false without reading anything if the album id is not one the
+    *         snapshot can look up, the server has to be asked instead
+    */
+   public boolean readTracks(String library, String albumid, TagListener listener);
+
+   public void readAllTracks(String library, String artist, TagListener listener);
+
+   /**
+    * Reads every stored track, used to build the {@link SearchIndex}.
+    */
+   public void readAllTracks(String library, TagListener listener);
+
+   /**
+    * Starts writing a sync, a full sync drops everything stored for the
+    * library first. The sync is bound to the calling thread, which must call
+    * {@link #endSync(String, long, boolean)} from a finally block.
+    */
+   public void beginSync(String library, boolean full);
+
+   /**
+    * Inserts or replaces one track from an items listing mlit.
+    */
+   public void putTrack(String library, Response mlit);
+
+   public void deleteTrack(String library, long id);
+
+   /**
+    * Drops the stored album list before it is downloaded again.
+    */
+   public void clearAlbums(String library);
+
+   /**
+    * Appends one album from a groups listing mlit, albums are read back in
+    * the order they were put.
+    */
+   public void putAlbum(String library, Response mlit);
+
+   /**
+    * Finishes a sync, committing it and recording the revision on success or
+    * rolling everything back otherwise.
+    */
+   public void endSync(String library, long revision, boolean success);
+
+}
@@ -0,0 +1,114 @@
+/*
+    TunesRemote+ - http://code.google.com/p/tunesremote-plus/
+    
+    Copyright (C) 2008 Jeffrey Sharkey, http://jsharkey.org/
+    Copyright (C) 2010 TunesRemote+, http://code.google.com/p/tunesremote-plus/
+    
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    The Initial Developer of the Original Code is Jeffrey Sharkey.
+    Portions created by Jeffrey Sharkey are
+    Copyright (C) 2008. Jeffrey Sharkey, http://jsharkey.org/
+    All Rights Reserved.
+ */
+
+package org.tunesremote.daap;
+
+import java.util.regex.Pattern;
+
+import org.tunesremote.TagListener;
+
+/**
+ * Brings a {@link LibrarySnapshot} up to date with the server. The first sync
+ * of a library downloads every track, later syncs only ask iTunes for the
+ * items that changed since the stored revision (the DAAP delta request) and
+ * apply the updates and deletions it reports. The album list has no delta
+ * form, so it is downloaded again only when tracks actually changed.
+ */
+public class LibrarySync implements Runnable {
+
+   public final static String TAG = LibrarySync.class.toString();
+   public final static Pattern DELTA_PATTERN = Pattern.compile("(mlit|mudl)");
+
+   private final static int MIID = ContentCodes.tag("miid");
+
+   private final Session session;
+   private final LibrarySnapshot snapshot;
+   private final Library library;
+
+   public LibrarySync(Session session, LibrarySnapshot snapshot) {
+      this.session = session;
+      this.snapshot = snapshot;
+      this.library = new Library(session);
+   }
+
+   public void run() {
+      final String id = session.databasePersistentId;
+      try {
+         final long revision = library.readRevision();
+         final long stored = snapshot.getRevision(id);
+         final boolean full = !snapshot.isReady(id) || stored <= 0;
+         if (!full && stored == revision) {
+            Log.d(TAG, String.format("snapshot of %s is current at revision %d", id, revision));
+            session.setSearchIndex(SearchIndex.build(snapshot, id));
+            return;
+         }
+
+         Log.d(TAG, String.format("syncing %s from revision %d to %d, full=%b", id, stored, revision, full));
+         boolean success = false;
+         snapshot.beginSync(id, full);
+         try {
+            final int[] changes = new int[1];
+            library.readTrackDelta(revision, full ? 0 : stored, new TagListener() {
+               public void foundTag(String tag, Response resp) {
+                  if (tag.equals("mudl")) {
+                     for (long deleted : resp.findLongArray(MIID)) {
+                        snapshot.deleteTrack(id, deleted);
+                        changes[0]++;
+                     }
+                  } else {
+                     snapshot.putTrack(id, resp);
+                     changes[0]++;
+                  }
+               }
+
+               public void searchDone() {
+               }
+            });
+
+            if (full || changes[0] > 0) {
+               snapshot.clearAlbums(id);
+               library.readAlbumGroups(new TagListener() {
+                  public void foundTag(String tag, Response resp) {
+                     snapshot.putAlbum(id, resp);
+                  }
+
+                  public void searchDone() {
+                  }
+               });
+            }
+
+            success = true;
+            Log.d(TAG, String.format("synced %s to revision %d with %d changes", id, revision, changes[0]));
+         } finally {
+            // the transaction belongs to this thread, it must end here
+            // whatever was thrown
+            snapshot.endSync(id, success ? revision : 0, success);
+         }
+         session.setSearchIndex(SearchIndex.build(snapshot, id));
+      } catch (Exception e) {
+         Log.w(TAG, "LibrarySync Exception:" + e.getMessage());
+      }
+   }
+}
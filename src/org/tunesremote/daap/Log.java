@@ -0,0 +1,68 @@
+/*
+    TunesRemote+ - http://code.google.com/p/tunesremote-plus/
+    
+    Copyright (C) 2008 Jeffrey Sharkey, http://jsharkey.org/
+    Copyright (C) 2010 TunesRemote+, http://code.google.com/p/tunesremote-plus/
+    
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    The Initial Developer of the Original Code is Jeffrey Sharkey.
+    Portions created by Jeffrey Sharkey are
+    Copyright (C) 2008. Jeffrey Sharkey, http://jsharkey.org/
+    All Rights Reserved.
+ */
+package org.tunesremote.daap;
+
+/**
+ * Logging for the protocol code, the same calls as android.util.Log but
+ * handed to whichever {@link Platform.Logger} is installed, so the code runs
+ * unchanged off Android.
+ */
+public final class Log {
+
+   private Log() {
+   }
+
+   public static void v(String tag, String message) {
+      Platform.logger().log(Platform.VERBOSE, tag, message, null);
+   }
+
+   public static void d(String tag, String message) {
+      Platform.logger().log(Platform.DEBUG, tag, message, null);
+   }
+
+   public static void i(String tag, String message) {
+      Platform.logger().log(Platform.INFO, tag, message, null);
+   }
+
+   public static void w(String tag, String message) {
+      Platform.logger().log(Platform.WARN, tag, message, null);
+   }
+
+   public static void w(String tag, Throwable error) {
+      Platform.logger().log(Platform.WARN, tag, null, error);
+   }
+
+   public static void w(String tag, String message, Throwable error) {
+      Platform.logger().log(Platform.WARN, tag, message, error);
+   }
+
+   public static void e(String tag, String message) {
+      Platform.logger().log(Platform.ERROR, tag, message, null);
+   }
+
+   public static void e(String tag, String message, Throwable error) {
+      Platform.logger().log(Platform.ERROR, tag, message, error);
+   }
+}
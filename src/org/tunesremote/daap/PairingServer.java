@@ -33,10 +33,6 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.Random;
 
-import android.os.Handler;
-import android.os.Message;
-import android.util.Log;
-
 public class PairingServer extends Thread {
 
    // the pairing service waits for any incoming requests from itunes
@@ -44,6 +40,14 @@ public class PairingServer extends Thread {
    public final static String TAG = PairingServer.class.toString();
    public final static int PORT = 1024;
 
+   /**
+    * Told about each pairing, on the server thread, with the code iTunes
+    * should be paired with.
+    */
+   public interface Listener {
+      void paired(String code);
+   }
+
    protected final static byte[] CHAR_TABLE = new byte[] { (byte) '0', (byte) '1', (byte) '2', (byte) '3', (byte) '4',
             (byte) '5', (byte) '6', (byte) '7', (byte) '8', (byte) '9', (byte) 'A', (byte) 'B', (byte) 'C', (byte) 'D',
             (byte) 'E', (byte) 'F' };
@@ -54,18 +58,20 @@ public class PairingServer extends Thread {
             (byte) 0xe2, (byte) 0x80, (byte) 0x99, 0x73, 0x20, 0x69, 0x50, 0x6f, 0x64, 0x63, 0x6d, 0x74, 0x79, 0x00,
             0x00, 0x00, 0x04, 0x69, 0x50, 0x6f, 0x64 };
 
-   // this is a hack so that we always return to the "latest" handler
-   protected static Handler paired;
+   // this is a hack so that we always return to the "latest" listener
+   protected static Listener paired;
 
    protected ServerSocket server;
    protected final Random random = new Random();
 
-   public PairingServer(Handler paired) {
+   public PairingServer(Listener paired) {
       PairingServer.paired = paired;
    }
 
-   @Override
-   public void destroy() {
+   /**
+    * Closes the listening socket and stops the server thread.
+    */
+   public void shutdown() {
       Log.d(TAG, "Destroying PairingServer " + PORT);
       try {
          if ((this.server != null) && (!this.server.isClosed())) {
@@ -128,9 +134,9 @@ public class PairingServer extends Thread {
 
                Log.i(TAG, "someone paired with me!");
 
-               // trigger a handler that says weve been paired pass back the
-               // random code we generated
-               paired.sendMessage(Message.obtain(paired, -1, niceCode));
+               // tell the listener weve been paired pass back the random
+               // code we generated
+               paired.paired(niceCode);
 
             } finally {
                if (output != null) {
@@ -0,0 +1,156 @@
+/*
+    TunesRemote+ - http://code.google.com/p/tunesremote-plus/
+    
+    Copyright (C) 2008 Jeffrey Sharkey, http://jsharkey.org/
+    Copyright (C) 2010 TunesRemote+, http://code.google.com/p/tunesremote-plus/
+    
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    The Initial Developer of the Original Code is Jeffrey Sharkey.
+    Portions created by Jeffrey Sharkey are
+    Copyright (C) 2008. Jeffrey Sharkey, http://jsharkey.org/
+    All Rights Reserved.
+ */
+package org.tunesremote.daap;
+
+/**
+ * The few things the protocol code needs from the system it runs on, each
+ * behind a small port: a log, thread priorities, a thread for timed
+ * callbacks and a decoder for artwork. The app installs its Android binding
+ * as soon as it starts. Anything else, such as a benchmark or a soak test on
+ * a desktop JVM, gets the plain JVM binding without doing anything.
+ * <p>
+ * Single ports can be swapped on their own, for example to collect log
+ * lines in a test.
+ */
+public final class Platform {
+
+   // log levels, the same numbers android.util.Log uses
+   public final static int VERBOSE = 2, DEBUG = 3, INFO = 4, WARN = 5, ERROR = 6;
+
+   // thread priorities as nice values, the same numbers android.os.Process
+   // uses, lower runs first
+   public final static int PRIORITY_DEFAULT = 0, PRIORITY_BACKGROUND = 10, PRIORITY_LOWEST = 19;
+
+   public interface Logger {
+      /**
+       * @param error the exception to log with the message, may be null
+       */
+      void log(int level, String tag, String message, Throwable error);
+   }
+
+   public interface Threads {
+      /**
+       * Sets the priority of the calling thread.
+       */
+      void setPriority(int priority);
+   }
+
+   public interface Dispatcher {
+      /**
+       * Runs a task after a delay on the thread listeners expect updates on,
+       * the UI thread on Android.
+       */
+      void post(Runnable task, long delayMillis);
+
+      /**
+       * Drops every pending run of a task.
+       */
+      void cancel(Runnable task);
+   }
+
+   /**
+    * @param <T> the image type the platform draws, a Bitmap on android
+    */
+   public interface ImageDecoder<T> {
+      /**
+       * @param width the width it will be shown at, 0 for full size
+       * @param height the height it will be shown at, 0 for full size
+       * @param thumbnail true if a cheaper lower quality decode is fine
+       * @return the image in the form the platform draws, null if the data
+       *         can not be decoded
+       */
+      T decode(byte[] raw, int width, int height, boolean thumbnail);
+   }
+
+   /**
+    * All four ports in one, what a platform binding provides.
+    */
+   public interface Binding<T> extends Logger, Threads, Dispatcher, ImageDecoder<T> {
+   }
+
+   private static volatile Logger logger;
+   private static volatile Threads threads;
+   private static volatile Dispatcher dispatcher;
+   private static volatile ImageDecoder<?> images;
+
+   private Platform() {
+   }
+
+   public static synchronized void install(Binding<?> binding) {
+      logger = binding;
+      threads = binding;
+      dispatcher = binding;
+      images = binding;
+   }
+
+   public static void setLogger(Logger logger) {
+      ensureInstalled();
+      Platform.logger = logger;
+   }
+
+   public static void setThreads(Threads threads) {
+      ensureInstalled();
+      Platform.threads = threads;
+   }
+
+   public static void setDispatcher(Dispatcher dispatcher) {
+      ensureInstalled();
+      Platform.dispatcher = dispatcher;
+   }
+
+   public static void setImageDecoder(ImageDecoder<?> images) {
+      ensureInstalled();
+      Platform.images = images;
+   }
+
+   public static Logger logger() {
+      if (logger == null)
+         ensureInstalled();
+      return logger;
+   }
+
+   public static Threads threads() {
+      if (threads == null)
+         ensureInstalled();
+      return threads;
+   }
+
+   public static Dispatcher dispatcher() {
+      if (dispatcher == null)
+         ensureInstalled();
+      return dispatcher;
+   }
+
+   public static ImageDecoder<?> images() {
+      if (images == null)
+         ensureInstalled();
+      return images;
+   }
+
+   private static synchronized void ensureInstalled() {
+      if (logger == null)
+         install(new JvmPlatform());
+   }
+}
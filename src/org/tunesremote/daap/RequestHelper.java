@@ -25,18 +25,18 @@
 
 package org.tunesremote.daap;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.os.Process;
-import android.util.Log;
+import org.tunesremote.TagListener;
 
 public class RequestHelper {
 
@@ -89,8 +89,68 @@ public class RequestHelper {
    }
 
    public static Response requestParsed(String url, boolean keepalive) throws Exception {
+      return requestParsed(url, keepalive, false);
+   }
+
+   public static Response requestParsed(String url, boolean keepalive, boolean haltmlit) throws Exception {
       Log.d(TAG, url);
-      return ResponseParser.performParse(request(url, keepalive));
+      final RequestMetrics.Sample sample = RequestMetrics.start(url);
+      final InputStream inputStream = openStream(url, keepalive, sample);
+      try {
+         sample.parseStarted();
+         return ResponseParser.performParse(inputStream, haltmlit);
+      } finally {
+         sample.parseFinished();
+         inputStream.close();
+      }
+   }
+
+   /**
+    * Performs the HTTP request and searches the response while it is still
+    * being downloaded, so the listener sees the first records before the
+    * whole response has arrived and the response is never held in memory.
+    * <p>
+    * @param url the HTTP URL to connect to
+    * @param listener the TagListener to report found branches to
+    * @param listenFor the branches the listener is interested in
+    * @param haltmlit true to treat mlit as a string instead of a branch
+    * @return the number of branches reported to the listener
+    * @throws Exception if any error occurs
+    */
+   public static int requestSearch(String url, TagListener listener, Pattern listenFor, boolean haltmlit)
+            throws Exception {
+      final RequestMetrics.Sample sample = RequestMetrics.start(url);
+      final InputStream inputStream = openStream(url, false, sample);
+      try {
+         sample.parseStarted();
+         return ResponseParser.performSearch(inputStream, listener, listenFor, haltmlit);
+      } finally {
+         sample.parseFinished();
+         inputStream.close();
+      }
+   }
+
+   /**
+    * Performs the HTTP request and parses the response while it is still being
+    * downloaded, reporting interesting branches to the listener as they are
+    * found.
+    * <p>
+    * @param url the HTTP URL to connect to
+    * @param listener the TagListener to report found branches to
+    * @param listenFor the branches the listener is interested in
+    * @return the parsed Response
+    * @throws Exception if any error occurs
+    */
+   public static Response requestParsed(String url, TagListener listener, Pattern listenFor) throws Exception {
+      final RequestMetrics.Sample sample = RequestMetrics.start(url);
+      final InputStream inputStream = openStream(url, false, sample);
+      try {
+         sample.parseStarted();
+         return ResponseParser.performParse(inputStream, listener, listenFor);
+      } finally {
+         sample.parseFinished();
+         inputStream.close();
+      }
    }
 
    public static void attemptRequest(String url) {
@@ -112,12 +172,79 @@ public class RequestHelper {
     * @throws Exception if any error occurs
     */
    public static byte[] request(String remoteUrl, boolean keepalive) throws Exception {
+      byte[] buffer = new byte[1024];
+
+      InputStream inputStream = openStream(remoteUrl, keepalive, RequestMetrics.start(remoteUrl));
+
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+      try {
+         int bytesRead;
+         while ((bytesRead = inputStream.read(buffer)) != -1) {
+            os.write(buffer, 0, bytesRead);
+         }
+      } finally {
+         if (os != null) {
+            os.flush();
+            os.close();
+         }
+         if (inputStream != null) {
+            inputStream.close();
+         }
+      }
+
+      return os.toByteArray();
+
+   }
+
+   /**
+    * Opens the HTTP connection and returns the decompressed response body as
+    * a buffered stream. The caller is responsible for closing the stream.
+    * <p>
+    * @param remoteUrl the HTTP URL to connect to
+    * @param keepalive true if keepalive false if not
+    * @param sample records how the request went, it is finished when the
+    *           returned stream is closed or the request fails
+    * @return the InputStream of the response body
+    * @throws Exception if any error occurs
+    */
+   private static InputStream openStream(String remoteUrl, boolean keepalive, RequestMetrics.Sample sample)
+            throws Exception {
       Log.d(TAG, String.format("started request(remote=%s)", remoteUrl));
-      Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+      try {
+         return openStream(new URL(remoteUrl), keepalive, sample);
+      } catch (Exception e) {
+         sample.failed(e);
+         throw e;
+      }
+   }
 
-      byte[] buffer = new byte[1024];
+   private static InputStream openStream(URL url, boolean keepalive, RequestMetrics.Sample sample)
+            throws Exception {
+      // reuse a keep-alive socket when the session has a pool for this server
+      final ConnectionPool pool = ConnectionPool.forUrl(url);
+      if (pool != null) {
+         final DacpConnection.Result result = pool.get(url, keepalive, keepalive ? 0 : 10000);
+         sample.connected(result.connectMillis);
+         sample.headers();
+         if (result.code >= HttpURLConnection.HTTP_UNAUTHORIZED) {
+            result.body.close();
+            throw new HttpResponseException(result.code);
+         }
+         try {
+            return decode(result.encoding, result.body, sample);
+         } catch (Exception e) {
+            // a gzip stream reads its header straight away, if that fails
+            // nobody else holds the body to give the connection back
+            try {
+               result.body.close();
+            } catch (IOException closing) {
+               // the request has failed already
+            }
+            sample.failed(e);
+            throw e;
+         }
+      }
 
-      URL url = new URL(remoteUrl);
       HttpURLConnection connection = (HttpURLConnection) url.openConnection();
       connection.setAllowUserInteraction(false);
       connection.setRequestProperty("Viewer-Only-Client", "1");
@@ -132,65 +259,67 @@ public class RequestHelper {
          connection.setReadTimeout(0);
       }
       connection.connect();
+      sample.connected();
 
       if (connection.getResponseCode() >= HttpURLConnection.HTTP_UNAUTHORIZED)
-         throw new Exception("HTTP Error Response Code: " + connection.getResponseCode());
+         throw new HttpResponseException(connection.getResponseCode());
+      sample.headers();
 
       // obtain the encoding returned by the server
-      String encoding = connection.getContentEncoding();
+      return decode(connection.getContentEncoding(), connection.getInputStream(), sample);
+   }
 
+   private static InputStream decode(String encoding, InputStream raw, RequestMetrics.Sample sample)
+            throws Exception {
+      final InputStream body = sample.wire(raw);
       InputStream inputStream = null;
 
       // create the appropriate stream wrapper based on the encoding type
       if (encoding != null && encoding.equalsIgnoreCase("gzip")) {
-         inputStream = new GZIPInputStream(connection.getInputStream());
+         inputStream = new GZIPInputStream(body);
       } else if (encoding != null && encoding.equalsIgnoreCase("deflate")) {
-         inputStream = new InflaterInputStream(connection.getInputStream(), new Inflater(true));
+         inputStream = new InflaterInputStream(body, new Inflater(true));
       } else {
-         inputStream = connection.getInputStream();
+         inputStream = body;
       }
 
-      ByteArrayOutputStream os = new ByteArrayOutputStream();
-      try {
-         int bytesRead;
-         while ((bytesRead = inputStream.read(buffer)) != -1) {
-            os.write(buffer, 0, bytesRead);
-         }
-      } finally {
-         if (os != null) {
-            os.flush();
-            os.close();
-         }
-         if (inputStream != null) {
-            inputStream.close();
-         }
-      }
-
-      return os.toByteArray();
-
+      // the parser reads tag headers a few bytes at a time, count below the
+      // buffer so metrics are taken once per refill
+      return new BufferedInputStream(sample.body(inputStream), 8192);
    }
 
-   public static Bitmap requestThumbnail(Session session, int itemid) throws Exception {
-      return requestThumbnail(session, itemid, "");
+   public static <T> T requestThumbnail(Session session, int itemid, Platform.ImageDecoder<T> images)
+            throws Exception {
+      return requestThumbnail(session, itemid, "", images);
    }
 
-   public static Bitmap requestThumbnail(Session session, int itemid, String type) throws Exception {
+   public static <T> T requestThumbnail(Session session, int itemid, String type, Platform.ImageDecoder<T> images)
+            throws Exception {
       // http://192.168.254.128:3689/databases/38/items/2854/extra_data/artwork?session-id=788509571&revision-number=196&mw=55&mh=55
       try {
          byte[] raw = request(
                   String.format("%s/databases/%d/items/%d/extra_data/artwork?session-id=%s&mw=55&mh=55%s",
                            session.getRequestBase(), session.databaseId, itemid, session.sessionId, type), false);
-         return BitmapFactory.decodeByteArray(raw, 0, raw.length);
+         return images.decode(raw, 55, 55, true);
       } catch (java.lang.OutOfMemoryError e) {
          Log.w(TAG, "Bitmap OOM:" + e.getMessage());
          return null;
       }
    }
 
-   public static Bitmap requestBitmap(String remote) throws Exception {
+   public static <T> T requestBitmap(String remote, Platform.ImageDecoder<T> images) throws Exception {
+      return requestBitmap(remote, 0, 0, images);
+   }
+
+   /**
+    * Fetches an image and decodes it no larger than needed for the given
+    * size, 0 for full size.
+    */
+   public static <T> T requestBitmap(String remote, int width, int height, Platform.ImageDecoder<T> images)
+            throws Exception {
       try {
          byte[] raw = request(remote, false);
-         return BitmapFactory.decodeByteArray(raw, 0, raw.length);
+         return images.decode(raw, width, height, false);
       } catch (java.lang.OutOfMemoryError e) {
          Log.w(TAG, "Bitmap OOM:" + e.getMessage());
          return null;
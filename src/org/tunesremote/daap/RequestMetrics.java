@@ -0,0 +1,373 @@
+/*
+    TunesRemote+ - http://code.google.com/p/tunesremote-plus/
+    
+    Copyright (C) 2008 Jeffrey Sharkey, http://jsharkey.org/
+    Copyright (C) 2010 TunesRemote+, http://code.google.com/p/tunesremote-plus/
+    
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    The Initial Developer of the Original Code is Jeffrey Sharkey.
+    Portions created by Jeffrey Sharkey are
+    Copyright (C) 2008. Jeffrey Sharkey, http://jsharkey.org/
+    All Rights Reserved.
+ */
+package org.tunesremote.daap;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counts where request time goes, per kind of DACP endpoint. Every request
+ * made through RequestHelper records its connect time, time to the response
+ * headers, total time until the body is closed, bytes on the wire and after
+ * decompression, how long the parser spent on it (not counting time waiting
+ * for data) and any error. Latencies are kept in power of two millisecond
+ * buckets so memory stays fixed however many requests are made.
+ * <p>
+ * {@link #dump()} renders everything as text for the metrics screen, bug
+ * reports and comparing runs against large libraries.
+ */
+public class RequestMetrics {
+
+   public final static String[] ENDPOINTS = { "login", "logout", "server-info", "databases", "update",
+            "playstatusupdate", "ctrl-int", "items", "groups", "browse", "containers", "artwork", "other" };
+
+   private final static Endpoint[] endpoints = new Endpoint[ENDPOINTS.length];
+   static {
+      for (int i = 0; i < endpoints.length; i++)
+         endpoints[i] = new Endpoint(ENDPOINTS[i]);
+   }
+
+   private RequestMetrics() {
+   }
+
+   /**
+    * Starts timing a request.
+    */
+   public static Sample start(String url) {
+      return new Sample(endpoints[classify(url)]);
+   }
+
+   /**
+    * Works out which endpoint a request URL belongs to.
+    *
+    * @return an index into {@link #ENDPOINTS}
+    */
+   public static int classify(String url) {
+      int start = url.indexOf("://");
+      start = start < 0 ? 0 : url.indexOf('/', start + 3);
+      if (start < 0)
+         return ENDPOINTS.length - 1;
+      int end = url.indexOf('?', start);
+      if (end < 0)
+         end = url.length();
+      final String path = url.substring(start, end);
+
+      if (path.endsWith("/extra_data/artwork") || path.endsWith("/nowplayingartwork"))
+         return indexOf("artwork");
+      if (path.startsWith("/ctrl-int/")) {
+         if (path.endsWith("/playstatusupdate"))
+            return indexOf("playstatusupdate");
+         if (path.endsWith("/items"))
+            return indexOf("items");
+         return indexOf("ctrl-int");
+      }
+      if (path.equals("/login") || path.equals("/logout") || path.equals("/server-info") || path.equals("/update")
+               || path.equals("/databases"))
+         return indexOf(path.substring(1));
+      if (path.contains("/browse/"))
+         return indexOf("browse");
+      if (path.endsWith("/groups"))
+         return indexOf("groups");
+      if (path.endsWith("/items"))
+         return indexOf("items");
+      if (path.endsWith("/containers"))
+         return indexOf("containers");
+      return ENDPOINTS.length - 1;
+   }
+
+   private static int indexOf(String name) {
+      for (int i = 0; i < ENDPOINTS.length; i++) {
+         if (ENDPOINTS[i].equals(name))
+            return i;
+      }
+      return ENDPOINTS.length - 1;
+   }
+
+   /**
+    * Forgets everything recorded so far, to measure one screen or action.
+    */
+   public static void reset() {
+      for (Endpoint endpoint : endpoints)
+         endpoint.reset();
+   }
+
+   /**
+    * @return every endpoint that has seen a request, as plain text
+    */
+   public static String dump() {
+      final StringBuilder out = new StringBuilder();
+      for (Endpoint endpoint : endpoints)
+         endpoint.dump(out);
+      if (out.length() == 0)
+         out.append("no requests recorded\n");
+      return out.toString();
+   }
+
+   /**
+    * One request being timed. Not thread safe, a request is made on one
+    * thread.
+    */
+   public static class Sample {
+      private final Endpoint endpoint;
+      private final long started = System.nanoTime();
+      private long connect = -1, headers = -1;
+      private long wire = 0, body = 0, reading = 0, parse = 0, parseStarted = 0, readAtParse = 0;
+      private boolean finished = false;
+
+      Sample(Endpoint endpoint) {
+         this.endpoint = endpoint;
+      }
+
+      /** The connection is established, or was reused. */
+      public void connected() {
+         connect = System.nanoTime() - started;
+      }
+
+      /**
+       * A pooled connection was used, opening it took this long, 0 if it was
+       * already open.
+       */
+      public void connected(long millis) {
+         connect = millis * 1000000L;
+      }
+
+      /** The status line and headers have arrived. */
+      public void headers() {
+         headers = System.nanoTime() - started;
+      }
+
+      public void failed(Exception e) {
+         if (finished)
+            return;
+         finished = true;
+         final String error;
+         if (e instanceof HttpResponseException)
+            error = Integer.toString(((HttpResponseException) e).getResponseCode());
+         else if (e instanceof SocketTimeoutException)
+            error = "timeout";
+         else if (e instanceof ConnectException)
+            error = "refused";
+         else
+            error = e.getClass().getSimpleName();
+         endpoint.record(this, error);
+      }
+
+      /**
+       * Counts the bytes as they arrive off the network, before
+       * decompression.
+       */
+      public InputStream wire(InputStream raw) {
+         return new FilterInputStream(raw) {
+            @Override
+            public int read() throws IOException {
+               final int b = super.read();
+               if (b >= 0)
+                  wire++;
+               return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int count) throws IOException {
+               final int read = super.read(buffer, offset, count);
+               if (read > 0)
+                  wire += read;
+               return read;
+            }
+         };
+      }
+
+      /**
+       * Counts decompressed bytes and the time spent waiting for them, and
+       * records the request when the stream is closed. Wrap this below any
+       * buffering so the timing calls happen once per refill, not per byte.
+       */
+      public InputStream body(InputStream decoded) {
+         return new FilterInputStream(decoded) {
+            @Override
+            public int read() throws IOException {
+               final long start = System.nanoTime();
+               try {
+                  final int b = super.read();
+                  if (b >= 0)
+                     body++;
+                  return b;
+               } catch (IOException e) {
+                  failed(e);
+                  throw e;
+               } finally {
+                  reading += System.nanoTime() - start;
+               }
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int count) throws IOException {
+               final long start = System.nanoTime();
+               try {
+                  final int read = super.read(buffer, offset, count);
+                  if (read > 0)
+                     body += read;
+                  return read;
+               } catch (IOException e) {
+                  failed(e);
+                  throw e;
+               } finally {
+                  reading += System.nanoTime() - start;
+               }
+            }
+
+            @Override
+            public void close() throws IOException {
+               try {
+                  super.close();
+               } finally {
+                  finish();
+               }
+            }
+         };
+      }
+
+      public void parseStarted() {
+         parseStarted = System.nanoTime();
+         readAtParse = reading;
+      }
+
+      /**
+       * Ends parse timing, the time spent blocked reading the response is
+       * taken back out so only the parser's own work is counted.
+       */
+      public void parseFinished() {
+         if (parseStarted != 0)
+            parse += (System.nanoTime() - parseStarted) - (reading - readAtParse);
+         parseStarted = 0;
+      }
+
+      void finish() {
+         if (finished)
+            return;
+         finished = true;
+         endpoint.record(this, null);
+      }
+   }
+
+   /**
+    * Counts in power of two millisecond buckets: under 1ms, under 2ms, under
+    * 4ms and so on up to a minute and over.
+    */
+   static class Histogram {
+      private final static int BUCKETS = 18;
+      private final long[] buckets = new long[BUCKETS];
+      private long count = 0, sum = 0, max = 0;
+
+      void record(long millis) {
+         int bucket = 0;
+         while (bucket < BUCKETS - 1 && millis >= (1L << bucket))
+            bucket++;
+         buckets[bucket]++;
+         count++;
+         sum += millis;
+         if (millis > max)
+            max = millis;
+      }
+
+      /**
+       * @return the upper bound of the bucket the percentile falls in
+       */
+      long percentile(int percent) {
+         final long rank = (count * percent + 99) / 100;
+         long seen = 0;
+         for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i];
+            if (seen >= rank && seen > 0)
+               return i == BUCKETS - 1 ? max : (1L << i);
+         }
+         return max;
+      }
+
+      void dump(StringBuilder out, String name) {
+         if (count == 0)
+            return;
+         out.append(String.format("  %-8s n=%d avg=%dms p50<%dms p90<%dms p99<%dms max=%dms\n", name, count, sum
+                  / count, percentile(50), percentile(90), percentile(99), max));
+      }
+   }
+
+   static class Endpoint {
+      private final String name;
+      private long requests, failures, wire, body;
+      private Histogram connect, headers, total, parse;
+      private final Map<String, Integer> errors = new TreeMap<String, Integer>();
+
+      Endpoint(String name) {
+         this.name = name;
+         reset();
+      }
+
+      synchronized void reset() {
+         requests = failures = wire = body = 0;
+         connect = new Histogram();
+         headers = new Histogram();
+         total = new Histogram();
+         parse = new Histogram();
+         errors.clear();
+      }
+
+      synchronized void record(Sample sample, String error) {
+         requests++;
+         if (sample.connect >= 0)
+            connect.record(sample.connect / 1000000L);
+         if (sample.headers >= 0)
+            headers.record(sample.headers / 1000000L);
+         total.record((System.nanoTime() - sample.started) / 1000000L);
+         if (sample.parse > 0)
+            parse.record(sample.parse / 1000000L);
+         wire += sample.wire;
+         body += sample.body;
+         if (error != null) {
+            failures++;
+            final Integer count = errors.get(error);
+            errors.put(error, count == null ? 1 : count + 1);
+         }
+      }
+
+      synchronized void dump(StringBuilder out) {
+         if (requests == 0)
+            return;
+         out.append(String.format("%s: %d requests, %d failed", name, requests, failures));
+         if (!errors.isEmpty())
+            out.append(' ').append(errors);
+         out.append('\n');
+         connect.dump(out, "connect");
+         headers.dump(out, "ttfb");
+         total.dump(out, "total");
+         parse.dump(out, "parse");
+         out.append(String.format("  bytes    wire=%d body=%d avg body=%d\n", wire, body, body / requests));
+      }
+   }
+}
@@ -26,44 +26,151 @@
 package org.tunesremote.daap;
 
 import java.math.BigInteger;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Response class to help parse DACP Responses from the server.
  * <p>
+ * A Response is one DMAP branch node. Its children are kept in wire order in
+ * parallel arrays: numeric values are stored as primitive longs, everything
+ * else (strings, raw bytes, nested branches) as objects. Repeated tags such as
+ * mlit or mdcl simply appear several times in order, so no synthetic keys are
+ * needed and findArray never has to sort.
+ * <p>
+ * The String keyed accessors are kept for existing callers and simply pack the
+ * key with {@link ContentCodes#tag(String)} before doing the int keyed lookup.
  */
-public class Response extends HashMap<String, Object> {
+public class Response {
+
+   private final static int INITIAL_CAPACITY = 8;
+   private final static BigInteger NOT_FOUND = BigInteger.valueOf(-1);
+
+   private int[] tags = new int[INITIAL_CAPACITY];
+   private long[] numbers = new long[INITIAL_CAPACITY];
+   private Object[] values = new Object[INITIAL_CAPACITY];
+   private int size = 0;
+
+   private int grow() {
+      if (size == tags.length) {
+         final int capacity = size * 2;
+         final int[] newTags = new int[capacity];
+         final long[] newNumbers = new long[capacity];
+         final Object[] newValues = new Object[capacity];
+         System.arraycopy(tags, 0, newTags, 0, size);
+         System.arraycopy(numbers, 0, newNumbers, 0, size);
+         System.arraycopy(values, 0, newValues, 0, size);
+         tags = newTags;
+         numbers = newNumbers;
+         values = newValues;
+      }
+      return size++;
+   }
+
+   private int indexOf(int tag) {
+      for (int i = 0; i < size; i++) {
+         if (tags[i] == tag)
+            return i;
+      }
+      return -1;
+   }
+
+   /**
+    * Appends a numeric child node.
+    */
+   public void add(int tag, long number) {
+      final int i = grow();
+      tags[i] = tag;
+      numbers[i] = number;
+   }
+
+   /**
+    * Appends a string, raw byte[] or nested Response child node.
+    */
+   public void add(int tag, Object value) {
+      final int i = grow();
+      tags[i] = tag;
+      values[i] = value;
+   }
+
+   public void put(String key, Object value) {
+      this.add(ContentCodes.tag(key), value);
+   }
+
+   public void put(String key, long number) {
+      this.add(ContentCodes.tag(key), number);
+   }
+
+   public int size() {
+      return size;
+   }
+
+   public boolean contains(int tag) {
+      return indexOf(tag) >= 0;
+   }
 
-   private static final long serialVersionUID = -6250046829864074559L;
+   public boolean containsKey(String key) {
+      return contains(ContentCodes.tag(key));
+   }
+
+   public Response getNested(int tag) {
+      for (int i = 0; i < size; i++) {
+         if (tags[i] == tag && values[i] instanceof Response)
+            return (Response) values[i];
+      }
+      return null;
+   }
 
    public Response getNested(String key) throws Exception {
-      return (Response) this.get(key);
+      return getNested(ContentCodes.tag(key));
    }
 
-   public String getString(String key) throws Exception {
-      Object obj = this.get(key);
-      if (obj instanceof String)
-         return (String) obj;
+   public String getString(int tag) {
+      final int i = indexOf(tag);
+      if (i >= 0 && values[i] instanceof String)
+         return (String) values[i];
       else
          return "";
    }
 
-   public BigInteger getNumber(String key) throws Exception {
-      Object obj = this.get(key);
-      if (obj instanceof BigInteger)
-         return (BigInteger) obj;
+   public String getString(String key) throws Exception {
+      return getString(ContentCodes.tag(key));
+   }
+
+   /**
+    * Gets a numeric child node.
+    * <p>
+    * @param tag the packed content code
+    * @return the unsigned value as stored in a long (so uint64 values above
+    *         Long.MAX_VALUE come back negative) or -1 if not found
+    */
+   public long getLong(int tag) {
+      final int i = indexOf(tag);
+      if (i >= 0 && values[i] == null)
+         return numbers[i];
       else
-         return new BigInteger("-1");
+         return -1;
+   }
+
+   public BigInteger getNumber(String key) throws Exception {
+      final int i = indexOf(ContentCodes.tag(key));
+      if (i < 0 || values[i] != null)
+         return NOT_FOUND;
+      final long number = numbers[i];
+      if (number >= 0)
+         return BigInteger.valueOf(number);
+      // uint64 with the top bit set
+      return BigInteger.valueOf(number >>> 1).shiftLeft(1).or(BigInteger.valueOf(number & 1));
    }
 
    public long getNumberLong(String key) throws Exception {
-      return getNumber(key).longValue();
+      return getLong(ContentCodes.tag(key));
    }
 
    public String getNumberString(String key) throws Exception {
+      final long number = getNumberLong(key);
+      if (number >= 0)
+         return Long.toString(number);
       return getNumber(key).toString();
    }
 
@@ -71,28 +178,66 @@ public class Response extends HashMap<String, Object> {
       return Long.toHexString(getNumberLong(key));
    }
 
-   public byte[] getRaw(String key) throws Exception {
-      Object obj = this.get(key);
-      return (byte[]) obj;
+   public byte[] getRaw(int tag) {
+      final int i = indexOf(tag);
+      if (i >= 0 && values[i] instanceof byte[])
+         return (byte[]) values[i];
+      else
+         return null;
    }
 
-   public List<Response> findArray(String prefix) throws Exception {
-      List<Response> found = new LinkedList<Response>();
-
-      // find all values with same key prefix
-      // sort keys to make sure we return in original order
+   public byte[] getRaw(String key) throws Exception {
+      return getRaw(ContentCodes.tag(key));
+   }
 
-      String[] keys = this.keySet().toArray(new String[] {});
-      Arrays.sort(keys);
+   /**
+    * Collects every nested branch with the given tag in the order the server
+    * sent them.
+    */
+   public List<Response> findArray(int tag) {
+      final List<Response> found = new ArrayList<Response>();
+      for (int i = 0; i < size; i++) {
+         if (tags[i] == tag && values[i] instanceof Response)
+            found.add((Response) values[i]);
+      }
+      return found;
+   }
 
-      for (String key : keys) {
-         if (key.startsWith(prefix))
-            found.add((Response) this.get(key));
+   /**
+    * Collects every numeric child with the given tag in order, used for
+    * listings of plain ids such as the mudl deleted items list.
+    */
+   public long[] findLongArray(int tag) {
+      int count = 0;
+      for (int i = 0; i < size; i++) {
+         if (tags[i] == tag && values[i] == null)
+            count++;
+      }
+      final long[] found = new long[count];
+      for (int i = 0, j = 0; i < size; i++) {
+         if (tags[i] == tag && values[i] == null)
+            found[j++] = numbers[i];
       }
+      return found;
+   }
 
+   /**
+    * Collects every string child with the given tag in order, used for the
+    * browse listings where mlit holds a plain name.
+    */
+   public List<String> findStringArray(int tag) {
+      final List<String> found = new ArrayList<String>();
+      for (int i = 0; i < size; i++) {
+         if (tags[i] == tag && values[i] instanceof String)
+            found.add((String) values[i]);
+      }
       return found;
    }
 
+   public List<Response> findArray(String prefix) throws Exception {
+      return findArray(ContentCodes.tag(prefix));
+   }
+
    /**
     * Convert milliseconds to m:ss string format for track lengths.
     * <p>
@@ -29,13 +29,11 @@ import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
-import java.math.BigInteger;
+import java.io.InputStream;
 import java.util.regex.Pattern;
 
 import org.tunesremote.TagListener;
 
-import android.util.Log;
-
 /**
  * Class responsible for parsing binary HTTP responses from a DACP Server.
  * <p>
@@ -43,33 +41,73 @@ import android.util.Log;
 public class ResponseParser {
 
    public final static String TAG = ResponseParser.class.toString();
-   public final static Pattern BRANCHES = Pattern
-            .compile("(casp|cmst|mlog|agal|mccr|mlcl|mdcl|mshl|mlit|abro|abar|agar|apso|caci|avdb|cmgt|aply|adbs)");
-   public final static Pattern STRINGS = Pattern
-            .compile("(minm|cann|cana|cang|canl|asaa|asal|asar|ascn|asgn|assa|assu|mcnm|mcna)");
-   public final static Pattern RAWS = Pattern.compile("(canp)");
+   private final static int MLIT = ContentCodes.tag("mlit");
+   private final static int MSHL = ContentCodes.tag("mshl");
+   private final static int END_OF_STREAM = 0;
 
    public static int performSearch(byte[] raw, TagListener listener, Pattern listenFor, boolean haltmlit)
             throws IOException {
+      return performSearch(new ByteArrayInputStream(raw), listener, listenFor, haltmlit);
+   }
+
+   /**
+    * Searches a DACP response straight off of an InputStream, reporting every
+    * interesting branch to the listener as soon as it has been read. Only the
+    * branch currently being decoded is ever held in memory, so this is the
+    * preferred way of reading large library listings.
+    * <p>
+    * @param in the (already decompressed) response stream
+    * @param listener the TagListener to report found branches to
+    * @param listenFor the branches the listener is interested in
+    * @param haltmlit true to treat mlit as a string instead of a branch
+    * @return the number of branches reported to the listener
+    * @throws IOException if the stream can not be read
+    */
+   public static int performSearch(InputStream in, TagListener listener, Pattern listenFor, boolean haltmlit)
+            throws IOException {
       Log.d(TAG, "ResponseParser performSearch...");
-      final DataInputStream stream = new DataInputStream(new ByteArrayInputStream(raw));
-      final int hits = ResponseParser.search(stream, listener, listenFor, stream.available(), haltmlit);
+      final DataInputStream stream = new DataInputStream(in);
+      final int hits = ResponseParser.search(stream, listener, listenFor, Integer.MAX_VALUE, haltmlit);
       listener.searchDone();
       return hits;
    }
 
    public static Response performParse(byte[] raw, TagListener listener, Pattern listenFor) throws IOException {
+      return performParse(new ByteArrayInputStream(raw), listener, listenFor);
+   }
+
+   public static Response performParse(InputStream in, TagListener listener, Pattern listenFor) throws IOException {
       Log.d(TAG, "ResponseParser performParse...");
-      final DataInputStream stream = new DataInputStream(new ByteArrayInputStream(raw));
-      final Response resp = ResponseParser.parse(stream, listener, listenFor, stream.available());
+      final DataInputStream stream = new DataInputStream(in);
+      final Response resp = ResponseParser.parse(stream, listener, listenFor, Integer.MAX_VALUE);
       listener.searchDone();
       return resp;
    }
 
    public static Response performParse(byte[] raw) throws IOException {
+      return performParse(new ByteArrayInputStream(raw));
+   }
+
+   public static Response performParse(InputStream in) throws IOException {
+      Log.d(TAG, "ResponseParser performParse...");
+      final DataInputStream stream = new DataInputStream(in);
+      return ResponseParser.parse(stream, null, null, Integer.MAX_VALUE, false);
+   }
+
+   /**
+    * Parses a whole response where mlit is a plain string, like the browse
+    * listings of artists. The mlit entries inside the mshl sort headers are
+    * still read as branches.
+    * <p>
+    * @param in the (already decompressed) response stream
+    * @param haltmlit true to treat mlit as a string instead of a branch
+    * @return the parsed response
+    * @throws IOException if the stream can not be read
+    */
+   public static Response performParse(InputStream in, boolean haltmlit) throws IOException {
       Log.d(TAG, "ResponseParser performParse...");
-      final DataInputStream stream = new DataInputStream(new ByteArrayInputStream(raw));
-      return ResponseParser.parse(stream, null, null, stream.available());
+      final DataInputStream stream = new DataInputStream(in);
+      return ResponseParser.parse(stream, null, null, Integer.MAX_VALUE, haltmlit);
    }
 
    private static int search(DataInputStream raw, TagListener listener, Pattern listenFor, int handle, boolean haltmlit)
@@ -78,8 +116,9 @@ public class ResponseParser {
 
       // loop until done with the section we have been assigned
       while (handle > 0) {
-         final String key = ResponseParser.readString(raw, 4);
-         // Log.d(TAG, key);
+         final int tag = ResponseParser.readTag(raw);
+         if (tag == END_OF_STREAM)
+            return hits;
          int length = -1;
          try {
             length = raw.readInt();
@@ -89,13 +128,14 @@ public class ResponseParser {
          handle -= 8 + length;
 
          // check if we need to handle mlit special-case where it doesnt branch
-         if (haltmlit && key.equals("mlit")) {
+         if (haltmlit && tag == MLIT) {
             final Response resp = new Response();
-            resp.put(key, ResponseParser.readString(raw, length));
-            listener.foundTag(key, resp);
+            resp.add(tag, ResponseParser.readString(raw, length));
+            listener.foundTag(ContentCodes.name(tag), resp);
             hits++;
 
-         } else if (BRANCHES.matcher(key).matches()) {
+         } else if (ContentCodes.type(tag) == ContentCodes.TYPE_BRANCH) {
+            final String key = ContentCodes.name(tag);
             if (listenFor.matcher(key).matches()) {
                // parse and report if interesting branches
                listener.foundTag(key, ResponseParser.parse(raw, listener, listenFor, length));
@@ -107,7 +147,7 @@ public class ResponseParser {
 
          } else {
             // otherwise discard data
-            ResponseParser.readString(raw, length);
+            ResponseParser.skip(raw, length);
          }
       }
 
@@ -116,41 +156,51 @@ public class ResponseParser {
 
    private static Response parse(DataInputStream raw, TagListener listener, Pattern listenFor, int handle)
             throws IOException {
+      return parse(raw, listener, listenFor, handle, false);
+   }
+
+   private static Response parse(DataInputStream raw, TagListener listener, Pattern listenFor, int handle,
+            boolean haltmlit) throws IOException {
       final Response resp = new Response();
-      int progress = 0;
 
       // loop until done with the section weve been assigned
       while (handle > 0) {
-         final String key = ResponseParser.readString(raw, 4);
+         final int tag = ResponseParser.readTag(raw);
+         if (tag == END_OF_STREAM)
+            break;
          final int length = raw.readInt();
          handle -= 8 + length;
-         progress += 8 + length;
 
-         // handle key collisions by using index notation
-         final String nicekey = resp.containsKey(key) ? String.format("%s[%06d]", key, progress) : key;
+         final int type = ContentCodes.type(tag);
 
-         if (BRANCHES.matcher(key).matches()) {
-            // recurse off to handle branches
-            final Response branch = ResponseParser.parse(raw, listener, listenFor, length);
-            resp.put(nicekey, branch);
+         // repeated tags are simply appended, the Response keeps wire order
+         if (haltmlit && tag == MLIT) {
+            // mlit special-case where it doesnt branch
+            resp.add(tag, ResponseParser.readString(raw, length));
+         } else if (type == ContentCodes.TYPE_BRANCH) {
+            // recurse off to handle branches, sort headers always branch
+            final Response branch = ResponseParser.parse(raw, listener, listenFor, length, haltmlit && tag != MSHL);
+            resp.add(tag, branch);
 
             // pass along to listener if needed
-            if (listener != null)
+            if (listener != null) {
+               final String key = ContentCodes.name(tag);
                if (listenFor.matcher(key).matches())
                   listener.foundTag(key, branch);
+            }
 
-         } else if (STRINGS.matcher(key).matches()) {
+         } else if (type == ContentCodes.TYPE_STRING) {
             // force handling as string
-            resp.put(nicekey, ResponseParser.readString(raw, length));
-         } else if (RAWS.matcher(key).matches()) {
+            resp.add(tag, ResponseParser.readString(raw, length));
+         } else if (type == ContentCodes.TYPE_RAW) {
             // force handling as raw
-            resp.put(nicekey, ResponseParser.readRaw(raw, length));
+            resp.add(tag, ResponseParser.readRaw(raw, length));
          } else if (length == 1 || length == 2 || length == 4 || length == 8) {
             // handle parsing unsigned bytes, ints, longs
-            resp.put(nicekey, new BigInteger(1, ResponseParser.readRaw(raw, length)));
+            resp.add(tag, ResponseParser.readNumber(raw, length));
          } else {
             // fallback to just parsing as string
-            resp.put(nicekey, ResponseParser.readString(raw, length));
+            resp.add(tag, ResponseParser.readString(raw, length));
          }
 
       }
@@ -158,16 +208,50 @@ public class ResponseParser {
       return resp;
    }
 
+   /**
+    * Reads the next tag packed into an int. Network streams end right after
+    * the last tag rather than at a known length, so a clean end of stream on a
+    * tag boundary is reported as END_OF_STREAM instead of an exception.
+    */
+   private static int readTag(DataInputStream raw) throws IOException {
+      final int first = raw.read();
+      if (first == -1)
+         return END_OF_STREAM;
+      return first << 24 | raw.readUnsignedByte() << 16 | raw.readUnsignedShort();
+   }
+
+   private static long readNumber(DataInputStream raw, int length) throws IOException {
+      switch (length) {
+      case 1:
+         return raw.readUnsignedByte();
+      case 2:
+         return raw.readUnsignedShort();
+      case 4:
+         return raw.readInt() & 0xffffffffL;
+      default:
+         return raw.readLong();
+      }
+   }
+
    private static byte[] readRaw(DataInputStream raw, int length) throws IOException {
       byte[] buf = new byte[length];
-      raw.read(buf, 0, length);
+      raw.readFully(buf, 0, length);
       return buf;
    }
 
    private static String readString(DataInputStream raw, int length) throws IOException {
       byte[] key = new byte[length];
-      raw.read(key, 0, length);
+      raw.readFully(key, 0, length);
       return new String(key, "UTF-8");
    }
 
+   private static void skip(DataInputStream raw, int length) throws IOException {
+      while (length > 0) {
+         final int skipped = raw.skipBytes(length);
+         if (skipped <= 0)
+            throw new EOFException();
+         length -= skipped;
+      }
+   }
+
 }
@@ -0,0 +1,203 @@
+/*
+    TunesRemote+ - http://code.google.com/p/tunesremote-plus/
+    
+    Copyright (C) 2008 Jeffrey Sharkey, http://jsharkey.org/
+    Copyright (C) 2010 TunesRemote+, http://code.google.com/p/tunesremote-plus/
+    
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    The Initial Developer of the Original Code is Jeffrey Sharkey.
+    Portions created by Jeffrey Sharkey are
+    Copyright (C) 2008. Jeffrey Sharkey, http://jsharkey.org/
+    All Rights Reserved.
+ */
+package org.tunesremote.daap;
+
+import java.util.HashMap;
+
+/**
+ * Compact, random access store for the rows of a listing, used by the browse
+ * adapters instead of a list of Responses. Only the columns an adapter asks
+ * for are kept: numbers in one primitive array per column and strings as
+ * int codes into a dictionary shared by all string columns, since artist and
+ * album names repeat on almost every row.
+ * <p>
+ * Rows are appended by the thread reading the listing while the UI thread
+ * reads them. Appends are serialized, every array is fully written before
+ * the row count that makes it visible is published, and arrays are only
+ * ever replaced by larger copies, so readers never lock.
+ */
+public class ResultTable {
+
+   private final static int INITIAL_CAPACITY = 64;
+
+   private final int[] stringTags;
+   private final int[] numberTags;
+
+   /**
+    * Everything a reader needs, swapped as a whole when it grows.
+    */
+   private static class Columns {
+      private final int capacity;
+      private final int[][] strings;
+      private final long[][] numbers;
+      private final String[] dictionary;
+
+      private Columns(int capacity, int[][] strings, long[][] numbers, String[] dictionary) {
+         this.capacity = capacity;
+         this.strings = strings;
+         this.numbers = numbers;
+         this.dictionary = dictionary;
+      }
+   }
+
+   private volatile Columns columns;
+   private volatile int size = 0;
+
+   // only touched by the appending thread while holding the lock
+   private final HashMap<String, Integer> codes = new HashMap<String, Integer>();
+   private int dictionarySize = 0;
+
+   /**
+    * @param strings the string tags to keep, like minm or asar
+    * @param numbers the numeric tags to keep, like miid or astm
+    */
+   public ResultTable(String[] strings, String[] numbers) {
+      this.stringTags = new int[strings.length];
+      for (int i = 0; i < strings.length; i++)
+         stringTags[i] = ContentCodes.tag(strings[i]);
+      this.numberTags = new int[numbers.length];
+      for (int i = 0; i < numbers.length; i++)
+         numberTags[i] = ContentCodes.tag(numbers[i]);
+      this.columns = allocate(INITIAL_CAPACITY, new String[INITIAL_CAPACITY]);
+   }
+
+   private Columns allocate(int capacity, String[] dictionary) {
+      return new Columns(capacity, new int[stringTags.length][capacity], new long[numberTags.length][capacity], dictionary);
+   }
+
+   /**
+    * Appends the kept columns of a row, missing strings are stored as empty
+    * and missing numbers as -1 just like Response reports them.
+    */
+   public synchronized void add(Response resp) {
+      final int row = size;
+      Columns current = columns;
+
+      // make room for the row and any new dictionary entries first
+      final int[] encoded = new int[stringTags.length];
+      String[] dictionary = current.dictionary;
+      for (int i = 0; i < stringTags.length; i++) {
+         final String value = resp.getString(stringTags[i]);
+         Integer code = codes.get(value);
+         if (code == null) {
+            if (dictionarySize == dictionary.length) {
+               // Arrays.copyOf is not there before API 9
+               final String[] grown = new String[dictionarySize * 2];
+               System.arraycopy(dictionary, 0, grown, 0, dictionarySize);
+               dictionary = grown;
+            }
+            dictionary[dictionarySize] = value;
+            code = Integer.valueOf(dictionarySize++);
+            codes.put(value, code);
+         }
+         encoded[i] = code.intValue();
+      }
+      if (row == current.capacity || dictionary != current.dictionary) {
+         final int grown = row == current.capacity ? current.capacity * 2 : current.capacity;
+         final Columns next = allocate(grown, dictionary);
+         for (int i = 0; i < stringTags.length; i++)
+            System.arraycopy(current.strings[i], 0, next.strings[i], 0, row);
+         for (int i = 0; i < numberTags.length; i++)
+            System.arraycopy(current.numbers[i], 0, next.numbers[i], 0, row);
+         columns = next;
+         current = next;
+      }
+
+      for (int i = 0; i < stringTags.length; i++)
+         current.strings[i][row] = encoded[i];
+      for (int i = 0; i < numberTags.length; i++)
+         current.numbers[i][row] = resp.getLong(numberTags[i]);
+
+      // publishing the size makes the row visible to readers
+      size = row + 1;
+   }
+
+   /**
+    * Empties the table but keeps its arrays, so a reader still holding the
+    * old size reads stale rows rather than past the end.
+    */
+   public synchronized void clear() {
+      size = 0;
+      codes.clear();
+      dictionarySize = 0;
+   }
+
+   public int size() {
+      return size;
+   }
+
+   public boolean isEmpty() {
+      return size == 0;
+   }
+
+   /**
+    * @return the string value of a kept column, "" for rows out of range
+    */
+   public String getString(int position, String key) {
+      final int column = indexOf(stringTags, ContentCodes.tag(key));
+      if (position < 0 || position >= size || column < 0)
+         return "";
+      final Columns current = columns;
+      return current.dictionary[current.strings[column][position]];
+   }
+
+   /**
+    * @return the numeric value of a kept column, -1 if missing
+    */
+   public long getLong(int position, String key) {
+      final int column = indexOf(numberTags, ContentCodes.tag(key));
+      if (position < 0 || position >= size || column < 0)
+         return -1;
+      return columns.numbers[column][position];
+   }
+
+   /**
+    * Rebuilds a row as a Response for code that wants the usual accessors,
+    * like context menus. Scrolling should use the column getters instead.
+    *
+    * @return the row, null if out of range
+    */
+   public Response getRow(int position) {
+      if (position < 0 || position >= size)
+         return null;
+      final Columns current = columns;
+      final Response resp = new Response();
+      for (int i = 0; i < stringTags.length; i++)
+         resp.add(stringTags[i], current.dictionary[current.strings[i][position]]);
+      for (int i = 0; i < numberTags.length; i++) {
+         if (current.numbers[i][position] != -1)
+            resp.add(numberTags[i], current.numbers[i][position]);
+      }
+      return resp;
+   }
+
+   private static int indexOf(int[] tags, int tag) {
+      for (int i = 0; i < tags.length; i++) {
+         if (tags[i] == tag)
+            return i;
+      }
+      return -1;
+   }
+}
@@ -0,0 +1,363 @@
+/*
+    TunesRemote+ - http://code.google.com/p/tunesremote-plus/
+    
+    Copyright (C) 2008 Jeffrey Sharkey, http://jsharkey.org/
+    Copyright (C) 2010 TunesRemote+, http://code.google.com/p/tunesremote-plus/
+    
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    The Initial Developer of the Original Code is Jeffrey Sharkey.
+    Portions created by Jeffrey Sharkey are
+    Copyright (C) 2008. Jeffrey Sharkey, http://jsharkey.org/
+    All Rights Reserved.
+ */
+package org.tunesremote.daap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Locale;
+
+import org.tunesremote.TagListener;
+
+/**
+ * In memory word prefix index over the tracks of a {@link LibrarySnapshot},
+ * used to answer search-as-you-type queries without asking iTunes for every
+ * page. Every word of a track's name, artist and album is indexed, a track
+ * matches when each word of the query is a prefix of one of its words.
+ * <p>
+ * Results are ranked by where the words matched (name before artist before
+ * album, whole words and first words ahead of partial ones) and then by name.
+ * An index is immutable once built, a new one is built after every sync.
+ */
+public class SearchIndex {
+
+   public final static String TAG = SearchIndex.class.toString();
+
+   private final static int FIELD_NAME = 0, FIELD_ARTIST = 1, FIELD_ALBUM = 2;
+   private final static int[] FIELD_WEIGHT = { 8, 6, 4 };
+   private final static int FIRST_WORD_BONUS = 2, WHOLE_WORD_BONUS = 3;
+
+   private final static int MINM = ContentCodes.tag("minm"), MIID = ContentCodes.tag("miid"),
+            MPER = ContentCodes.tag("mper"), ASAR = ContentCodes.tag("asar"), ASAL = ContentCodes.tag("asal"),
+            ASTM = ContentCodes.tag("astm"), ASUR = ContentCodes.tag("asur"), ASTN = ContentCodes.tag("astn");
+
+   // track columns, indexed by document number
+   private final int count;
+   private final long[] ids;
+   private final long[] persistentIds;
+   private final String[] names;
+   private final String[] artists;
+   private final String[] albums;
+   private final long[] times;
+   private final long[] ratings;
+   private final long[] trackNumbers;
+   private final int[] nameRank;
+
+   // sorted unique words and their postings, each posting packs the document
+   // number with the field it came from and whether it was the first word
+   private final String[] words;
+   private final int[][] postings;
+
+   // ranked documents of the last query so paging through it is free
+   private String lastQuery = null;
+   private int[] lastResults = null;
+
+   // per query scratch space, reused between keystrokes
+   private final int[] score, matched, best, touched, byRank;
+
+   private SearchIndex(Builder builder) {
+      this.count = builder.count;
+      this.ids = resize(builder.ids, count);
+      this.persistentIds = resize(builder.persistentIds, count);
+      this.names = builder.names.toArray(new String[count]);
+      this.artists = builder.artists.toArray(new String[count]);
+      this.albums = builder.albums.toArray(new String[count]);
+      this.times = resize(builder.times, count);
+      this.ratings = resize(builder.ratings, count);
+      this.trackNumbers = resize(builder.trackNumbers, count);
+
+      // rank every document by name so ties sort the way iTunes would
+      final long[] byName = new long[count];
+      final String[] lower = new String[count];
+      for (int i = 0; i < count; i++)
+         lower[i] = names[i] == null ? "" : names[i].toLowerCase(Locale.US);
+      final Integer[] order = new Integer[count];
+      for (int i = 0; i < count; i++)
+         order[i] = Integer.valueOf(i);
+      Arrays.sort(order, new Comparator<Integer>() {
+         public int compare(Integer a, Integer b) {
+            return lower[a.intValue()].compareTo(lower[b.intValue()]);
+         }
+      });
+      this.nameRank = new int[count];
+      this.byRank = new int[count];
+      for (int i = 0; i < count; i++) {
+         nameRank[order[i].intValue()] = i;
+         byRank[i] = order[i].intValue();
+      }
+      this.score = new int[count];
+      this.matched = new int[count];
+      this.best = new int[count];
+      this.touched = new int[count];
+
+      // sort (word, posting) pairs and fold them into one posting list per word
+      final int pairs = builder.pairWords.size();
+      final Integer[] sorted = new Integer[pairs];
+      for (int i = 0; i < pairs; i++)
+         sorted[i] = Integer.valueOf(i);
+      final ArrayList<String> pairWords = builder.pairWords;
+      Arrays.sort(sorted, new Comparator<Integer>() {
+         public int compare(Integer a, Integer b) {
+            return pairWords.get(a.intValue()).compareTo(pairWords.get(b.intValue()));
+         }
+      });
+      final ArrayList<String> uniqueWords = new ArrayList<String>();
+      final ArrayList<int[]> lists = new ArrayList<int[]>();
+      int start = 0;
+      while (start < pairs) {
+         final String word = pairWords.get(sorted[start].intValue());
+         int end = start + 1;
+         while (end < pairs && pairWords.get(sorted[end].intValue()).equals(word))
+            end++;
+         final int[] list = new int[end - start];
+         for (int i = start; i < end; i++)
+            list[i - start] = builder.pairPostings[sorted[i].intValue()];
+         uniqueWords.add(word);
+         lists.add(list);
+         start = end;
+      }
+      this.words = uniqueWords.toArray(new String[uniqueWords.size()]);
+      this.postings = lists.toArray(new int[lists.size()][]);
+   }
+
+   /**
+    * Builds an index from every track stored in a snapshot.
+    * <p>
+    * @return the new index, or null if the snapshot could not be read
+    */
+   public static SearchIndex build(LibrarySnapshot snapshot, String library) {
+      final long started = System.currentTimeMillis();
+      final Builder builder = new Builder();
+      try {
+         snapshot.readAllTracks(library, builder);
+      } catch (Exception e) {
+         Log.w(TAG, "build Exception:" + e.getMessage());
+         return null;
+      }
+      final SearchIndex index = new SearchIndex(builder);
+      Log.d(TAG, String.format("built index of %d tracks and %d words in %dms", index.count, index.words.length,
+               System.currentTimeMillis() - started));
+      return index;
+   }
+
+   public int size() {
+      return count;
+   }
+
+   /**
+    * Reports one page of ranked results to the listener as mlit Responses
+    * shaped like the ones {@link Library#readSearch} gets from iTunes.
+    * <p>
+    * @return the total number of matching tracks
+    */
+   public long search(String search, long start, long items, TagListener listener) {
+      final int[] results = find(search);
+      final int end = (int) Math.min(results.length, start + items);
+      for (int i = (int) start; i < end; i++) {
+         final int doc = results[i];
+         final Response resp = new Response();
+         resp.add(MINM, names[doc]);
+         resp.add(MIID, ids[doc]);
+         resp.add(MPER, persistentIds[doc]);
+         resp.add(ASAR, artists[doc]);
+         resp.add(ASAL, albums[doc]);
+         resp.add(ASTM, times[doc]);
+         resp.add(ASUR, ratings[doc]);
+         resp.add(ASTN, trackNumbers[doc]);
+         listener.foundTag("mlit", resp);
+      }
+      listener.searchDone();
+      return results.length;
+   }
+
+   /**
+    * @return the matching document numbers, best match first
+    */
+   protected synchronized int[] find(String search) {
+      if (search.equals(lastQuery))
+         return lastResults;
+
+      final String[] terms = split(search.toLowerCase(Locale.US));
+      Arrays.fill(score, 0);
+      Arrays.fill(matched, 0);
+
+      for (int t = 0; t < terms.length; t++) {
+         final String term = terms[t];
+         int touchedCount = 0;
+
+         // every word starting with the term is contiguous in the sorted table
+         for (int w = lowerBound(term); w < words.length && words[w].startsWith(term); w++) {
+            final boolean whole = words[w].length() == term.length();
+            for (int posting : postings[w]) {
+               final int doc = posting >>> 3;
+               int value = FIELD_WEIGHT[(posting >>> 1) & 3];
+               if ((posting & 1) != 0)
+                  value += FIRST_WORD_BONUS;
+               if (whole)
+                  value += WHOLE_WORD_BONUS;
+               if (best[doc] == 0)
+                  touched[touchedCount++] = doc;
+               if (value > best[doc])
+                  best[doc] = value;
+            }
+         }
+
+         // only documents that matched every earlier term stay candidates
+         for (int i = 0; i < touchedCount; i++) {
+            final int doc = touched[i];
+            if (matched[doc] == t) {
+               matched[doc]++;
+               score[doc] += best[doc];
+            }
+            best[doc] = 0;
+         }
+      }
+
+      // sort by score then by name rank, both packed into one primitive key
+      int hits = 0;
+      for (int doc = 0; doc < count; doc++)
+         if (terms.length > 0 && matched[doc] == terms.length)
+            hits++;
+      final long[] keys = new long[hits];
+      int k = 0;
+      for (int doc = 0; doc < count; doc++)
+         if (terms.length > 0 && matched[doc] == terms.length)
+            keys[k++] = ((long) (Integer.MAX_VALUE - score[doc]) << 32) | nameRank[doc];
+      Arrays.sort(keys);
+
+      final int[] results = new int[hits];
+      for (int i = 0; i < hits; i++)
+         results[i] = byRank[(int) (keys[i] & 0xffffffffL)];
+
+      lastQuery = search;
+      lastResults = results;
+      return results;
+   }
+
+   private int lowerBound(String term) {
+      int low = 0, high = words.length;
+      while (low < high) {
+         final int mid = (low + high) >>> 1;
+         if (words[mid].compareTo(term) < 0)
+            low = mid + 1;
+         else
+            high = mid;
+      }
+      return low;
+   }
+
+   /**
+    * Splits lowercased text into words on anything that is not a letter or
+    * digit.
+    */
+   protected static String[] split(String text) {
+      final ArrayList<String> result = new ArrayList<String>();
+      int start = -1;
+      for (int i = 0; i <= text.length(); i++) {
+         final boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+         if (word && start < 0) {
+            start = i;
+         } else if (!word && start >= 0) {
+            result.add(text.substring(start, i));
+            start = -1;
+         }
+      }
+      return result.toArray(new String[result.size()]);
+   }
+
+   // Arrays.copyOf is not there before API 9
+   private static long[] resize(long[] array, int length) {
+      final long[] resized = new long[length];
+      System.arraycopy(array, 0, resized, 0, Math.min(array.length, length));
+      return resized;
+   }
+
+   private static int[] resize(int[] array, int length) {
+      final int[] resized = new int[length];
+      System.arraycopy(array, 0, resized, 0, Math.min(array.length, length));
+      return resized;
+   }
+
+   /**
+    * Collects tracks from the snapshot into growable columns.
+    */
+   private static class Builder implements TagListener {
+      private int count = 0;
+      private long[] ids = new long[1024];
+      private long[] persistentIds = new long[1024];
+      private long[] times = new long[1024];
+      private long[] ratings = new long[1024];
+      private long[] trackNumbers = new long[1024];
+      private final ArrayList<String> names = new ArrayList<String>();
+      private final ArrayList<String> artists = new ArrayList<String>();
+      private final ArrayList<String> albums = new ArrayList<String>();
+      private final ArrayList<String> pairWords = new ArrayList<String>();
+      private int[] pairPostings = new int[4096];
+      private final HashMap<String, String> unique = new HashMap<String, String>();
+
+      public void foundTag(String tag, Response resp) {
+         if (count == ids.length) {
+            ids = resize(ids, count * 2);
+            persistentIds = resize(persistentIds, count * 2);
+            times = resize(times, count * 2);
+            ratings = resize(ratings, count * 2);
+            trackNumbers = resize(trackNumbers, count * 2);
+         }
+         final int doc = count++;
+         ids[doc] = resp.getLong(MIID);
+         persistentIds[doc] = resp.getLong(MPER);
+         times[doc] = resp.getLong(ASTM);
+         ratings[doc] = resp.getLong(ASUR);
+         trackNumbers[doc] = resp.getLong(ASTN);
+         names.add(resp.getString(MINM));
+         artists.add(resp.getString(ASAR));
+         albums.add(resp.getString(ASAL));
+         addWords(doc, FIELD_NAME, resp.getString(MINM));
+         addWords(doc, FIELD_ARTIST, resp.getString(ASAR));
+         addWords(doc, FIELD_ALBUM, resp.getString(ASAL));
+      }
+
+      private void addWords(int doc, int field, String text) {
+         if (text == null)
+            return;
+         final String[] split = split(text.toLowerCase(Locale.US));
+         for (int i = 0; i < split.length; i++) {
+            if (pairWords.size() == pairPostings.length)
+               pairPostings = resize(pairPostings, pairPostings.length * 2);
+            pairPostings[pairWords.size()] = (doc << 3) | (field << 1) | (i == 0 ? 1 : 0);
+            String word = unique.get(split[i]);
+            if (word == null) {
+               word = split[i];
+               unique.put(word, word);
+            }
+            pairWords.add(word);
+         }
+      }
+
+      public void searchDone() {
+      }
+   }
+}
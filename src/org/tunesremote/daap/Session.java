@@ -25,19 +25,21 @@
 
 package org.tunesremote.daap;
 
-import android.os.Handler;
-import android.util.Log;
 import org.tunesremote.util.ThreadExecutor;
 
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Session {
 	public final static String TAG = Session.class.toString();
 
 	private final String host;
-	private Status singleton = null, notification = null;
-	public String sessionId;
+	private final ConnectionPool connections;
+	private final CommandQueue commands = new CommandQueue(this);
+	private Status status = null;
+	private final String pairingGuid;
+	public volatile String sessionId;
 	public long databaseId, radioDatabaseId, musicId, libraryId; 
 	public String databasePersistentId, radioPersistentId;
 	public final List<Playlist> playlists = new LinkedList<Playlist>();
@@ -45,15 +47,20 @@ public class Session {
 	public String radioDatabaseName = null;
 	private List<Playlist> radioGenres = null;
 
+	private LibrarySnapshot snapshot = null;
+	private final AtomicBoolean snapshotSynced = new AtomicBoolean(false);
+	private volatile SearchIndex searchIndex = null;
+
 	public Session(String host, String pairingGuid) throws Exception {
 		// start a session with the itunes server
 		this.host = host;
+		this.pairingGuid = pairingGuid;
+
+		// keep sockets to the server open for the lifetime of this session
+		this.connections = ConnectionPool.register(host, 3689);
 
-		// http://192.168.254.128:3689/login?pairing-guid=0x0000000000000001
 		Log.d(TAG, String.format("trying login for host=%s and guid=%s", host, pairingGuid));
-		Response login = RequestHelper.requestParsed(
-				String.format("%s/login?pairing-guid=0x%s", this.getRequestBase(), pairingGuid), false);
-		this.sessionId = login.getNested("mlog").getNumberString("mlid");
+		this.sessionId = this.login();
 		Log.d(TAG, String.format("found session-id=%s", this.sessionId));
 
 		// http://192.168.254.128:3689/databases?session-id=1301749047
@@ -108,64 +115,124 @@ public class Session {
 		Log.d(TAG, String.format("found music-id=%s", this.musicId));
 	}
 
-	private Status createStatus(Handler handler) {
-		final Status stat = new Status(this, handler);
-		stat.fetchUpdate();
-		return stat;
+	private String login() throws Exception {
+		// http://192.168.254.128:3689/login?pairing-guid=0x0000000000000001
+		Response login = RequestHelper.requestParsed(
+				String.format("%s/login?pairing-guid=0x%s", this.getRequestBase(), pairingGuid), false);
+		return login.getNested("mlog").getNumberString("mlid");
 	}
 
-	public Status singletonStatus(Handler handler) {
-		if (singleton == null || singleton.destroyThread.get())
-			singleton = this.createStatus(handler);
-		return singleton;
+	/**
+	 * Logs in again after the server has expired our session-id, which
+	 * iTunes does after it sleeps or restarts. Databases and playlists keep
+	 * their ids so only the session-id changes.
+	 *
+	 * @param expired the session-id the failing request used
+	 * @return true if there is a fresh session-id to retry with
+	 */
+	public synchronized boolean relogin(String expired) {
+		if (!expired.equals(this.sessionId))
+			return true;
+		try {
+			this.sessionId = this.login();
+			Log.w(TAG, String.format("logged in again, session-id=%s replaces %s", this.sessionId, expired));
+			return true;
+		} catch (Exception e) {
+			Log.w(TAG, "relogin Exception:" + e.getMessage());
+			return false;
+		}
 	}
 
-	public Status notificationStatus(Handler handler) {
-		if (notification == null || notification.destroyThread.get())
-			notification = this.createStatus(handler);
-		return notification;
+	/**
+	 * Gets the now playing Status shared by everything showing playback for
+	 * this session and registers a Listener for its updates.
+	 */
+	public synchronized Status registerStatus(Status.Listener listener) {
+		if (status == null || status.isDestroyed()) {
+			status = new Status(this);
+			status.fetchUpdate();
+		}
+		status.addListener(listener);
+		return status;
 	}
 
-	public String getRequestBase() {
-		return String.format("http://%s:3689", host);
+	/**
+	 * Stops sending Status updates to a Listener, the shared Status stops
+	 * following the server once the last Listener is gone.
+	 */
+	public synchronized void unregisterStatus(Status.Listener listener) {
+		if (status != null)
+			status.removeListener(listener);
 	}
 
-	public void purgeSingletonStatus() {
-		if (singleton != null) {
-			singleton.destroy();
-			singleton = null;
-		}
+	public LibrarySnapshot getSnapshot() {
+		return snapshot;
 	}
 
-	public void purgeNotificationStatus() {
-		if (notification != null) {
-			notification.destroy();
-			notification = null;
-		}
+	public void setSnapshot(LibrarySnapshot snapshot) {
+		this.snapshot = snapshot;
+	}
+
+	/**
+	 * Brings the local library snapshot up to date in the background. This
+	 * only happens once per session, the first time the library is browsed.
+	 */
+	public void syncSnapshot() {
+		if (snapshot == null || !snapshotSynced.compareAndSet(false, true))
+			return;
+		ThreadExecutor.runTask(ThreadExecutor.LANE_PREFETCH, new LibrarySync(this, snapshot));
+	}
+
+	/**
+	 * @return the search index over the snapshot, only set once the snapshot
+	 *         is known to match the server revision
+	 */
+	public SearchIndex getSearchIndex() {
+		return searchIndex;
+	}
+
+	public void setSearchIndex(SearchIndex searchIndex) {
+		this.searchIndex = searchIndex;
+	}
+
+	/**
+	 * Breaks off the playstatusupdate long-poll waiting on the server.
+	 */
+	void abortLongPoll() {
+		connections.abortLongPoll();
+	}
+
+	public String getRequestBase() {
+		return String.format("http://%s:3689", host);
 	}
 
 	protected void notifyStatus() {
-		if (singleton != null)
-			singleton.fetchUpdate();
-		if (notification != null)
-			notification.fetchUpdate();
+		final Status status = this.status;
+		if (status != null)
+			status.fetchUpdate();
 	}
 
 	// some control helper functions
 	// these should also invalidate any status listeners
 
 	protected void fireAction(final String url, final boolean notify) {
-		ThreadExecutor.runTask(new Runnable() {
+		commands.submit(null, request(url), notify);
+	}
+
+	/**
+	 * Fires an action that sets an absolute value, a waiting action for the
+	 * same property is replaced so only the newest value gets sent.
+	 */
+	protected void fireProperty(final String property, final String url, final boolean notify) {
+		commands.submit(property, request(url), notify);
+	}
+
+	private Runnable request(final String url) {
+		return new Runnable() {
 			public void run() {
-				try {
-					RequestHelper.attemptRequest(url);
-					if (notify)
-						notifyStatus();
-				} catch (Exception e) {
-					Log.e(TAG, "Fire Action Exception:" + e.getMessage());
-				}
+				RequestHelper.attemptRequest(url);
 			}
-		});
+		};
 	}
 
 	/**
@@ -174,7 +241,29 @@ public class Session {
 	 */
 	public void logout() {
 		Log.w(TAG, String.format("Logging Out session-id=%s", this.sessionId));
-		this.fireAction(String.format("%s/logout?session-id=%s", this.getRequestBase(), this.sessionId), false);
+		if (status != null)
+			status.destroy();
+		final String url = String.format("%s/logout?session-id=%s", this.getRequestBase(), this.sessionId);
+		ThreadExecutor.runTask(ThreadExecutor.LANE_CONTROL, new Runnable() {
+			public void run() {
+				RequestHelper.attemptRequest(url);
+				connections.close();
+			}
+		});
+	}
+
+	/**
+	 * @return a one line summary of how well sockets to the server are reused
+	 */
+	public String getConnectionStats() {
+		return connections.getStats();
+	}
+
+	/**
+	 * @return a one line summary of how control commands were coalesced
+	 */
+	public String getCommandStats() {
+		return commands.getStats();
 	}
 
 	public void controlPause() {
@@ -202,29 +291,34 @@ public class Session {
 
 	public void controlVolume(long volume) {
 		// http://192.168.254.128:3689/ctrl-int/1/setproperty?dmcp.volume=100.000000&session-id=130883770
-		this.fireAction(String.format("%s/ctrl-int/1/setproperty?dmcp.volume=%s&session-id=%s", this.getRequestBase(),
-				volume, this.sessionId), false);
+		this.fireProperty("dmcp.volume", String.format("%s/ctrl-int/1/setproperty?dmcp.volume=%s&session-id=%s",
+				this.getRequestBase(), volume, this.sessionId), false);
 	}
 
 	public void controlProgress(int progressSeconds) {
 		// http://192.168.254.128:3689/ctrl-int/1/setproperty?dacp.playingtime=82784&session-id=130883770
-		this.fireAction(String.format("%s/ctrl-int/1/setproperty?dacp.playingtime=%d&session-id=%s",
-				this.getRequestBase(), progressSeconds * 1000, this.sessionId), true);
+		this.fireProperty("dacp.playingtime",
+				String.format("%s/ctrl-int/1/setproperty?dacp.playingtime=%d&session-id=%s",
+						this.getRequestBase(), progressSeconds * 1000, this.sessionId), true);
 	}
 
 	public void controlShuffle(int shuffleMode) {
 		// /ctrl-int/1/setproperty?dacp.shufflestate=1&session-id=1873217009
-		this.fireAction(String.format("%s/ctrl-int/1/setproperty?dacp.shufflestate=%d&session-id=%s",
-				this.getRequestBase(), shuffleMode, this.sessionId), false);
-		singleton.shuffleStatus = shuffleMode;
+		this.fireProperty("dacp.shufflestate",
+				String.format("%s/ctrl-int/1/setproperty?dacp.shufflestate=%d&session-id=%s",
+						this.getRequestBase(), shuffleMode, this.sessionId), false);
+		if (status != null)
+			status.shuffleStatus = shuffleMode;
 	}
 
 	public void controlRepeat(int repeatMode) {
 		// /ctrl-int/1/setproperty?dacp.repeatstate=2&session-id=1873217009
 		// HTTP/1.1
-		this.fireAction(String.format("%s/ctrl-int/1/setproperty?dacp.repeatstate=%d&session-id=%s",
-				this.getRequestBase(), repeatMode, this.sessionId), false);
-		singleton.repeatStatus = repeatMode;
+		this.fireProperty("dacp.repeatstate",
+				String.format("%s/ctrl-int/1/setproperty?dacp.repeatstate=%d&session-id=%s",
+						this.getRequestBase(), repeatMode, this.sessionId), false);
+		if (status != null)
+			status.repeatStatus = repeatMode;
 	}
 
 	/**
@@ -235,7 +329,7 @@ public class Session {
 	 * @param trackId the id of the track to update the rating for
 	 */
 	public void controlRating(final long rating, final long trackId) {
-		this.fireAction(String.format(
+		this.fireProperty("dacp.userrating:" + trackId, String.format(
 				"%s/ctrl-int/1/setproperty?dacp.userrating=%d&song-spec='dmap.itemid:%d'&session-id=%s",
 				this.getRequestBase(), rating, trackId, this.sessionId), false);
 	}
@@ -258,7 +352,7 @@ public class Session {
 		// /ctrl-int/1/playspec?database-spec='dmap.persistentid:16621530181618731553'&playlist-spec='dmap.persistentid:9378496334192532210'&dacp.shufflestate=1&session-id=514488449
 		// (zero based index into playlist)
 
-		ThreadExecutor.runTask(new Runnable() {
+		commands.submit(null, new Runnable() {
 			public void run() {
 				try {
 					RequestHelper.attemptRequest(String.format("%s/ctrl-int/1/cue?command=clear&session-id=%s",
@@ -267,29 +361,27 @@ public class Session {
 							"%s/ctrl-int/1/cue?command=play&query='daap.songalbumid:%s'&index=%d&sort=album&session-id=%s",
 							getRequestBase(), albumId, tracknum, sessionId));
 
-					notifyStatus();
 				} catch (Exception e) {
 					Log.w(TAG, "Session Exception:" + e.getMessage());
 				}
 			}
-		});
+		}, true);
 
 	}
 
 	public void controlQueueAlbum(final String albumId) {
-		ThreadExecutor.runTask(new Runnable() {
+		commands.submit(null, new Runnable() {
 			public void run() {
 				try {
 					RequestHelper.attemptRequest(String.format(
 							"%s/ctrl-int/1/cue?command=add&query='daap.songalbumid:%s'&session-id=%s", getRequestBase(),
 							albumId, sessionId));
 
-					notifyStatus();
 				} catch (Exception e) {
 					Log.w(TAG, "Session Exception:" + e.getMessage());
 				}
 			}
-		});
+		}, true);
 	}
 
 	public void controlPlayArtist(String artist, int index) {
@@ -300,7 +392,7 @@ public class Session {
 		final String encodedArtist = Library.escapeUrlString(artist);
 		final int encodedIndex = index;
 
-		ThreadExecutor.runTask(new Runnable() {
+		commands.submit(null, new Runnable() {
 			public void run() {
 				try {
 					RequestHelper.attemptRequest(String.format("%s/ctrl-int/1/cue?command=clear&session-id=%s",
@@ -309,48 +401,45 @@ public class Session {
 							"%s/ctrl-int/1/cue?command=play&query='daap.songartist:%s'&index=%d&sort=album&session-id=%s",
 							getRequestBase(), encodedArtist, encodedIndex, sessionId));
 
-					notifyStatus();
 				} catch (Exception e) {
 					Log.w(TAG, "Session Exception:" + e.getMessage());
 				}
 			}
-		});
+		}, true);
 	}
 
 	public void controlQueueArtist(String artist) {
 		final String encodedArtist = Library.escapeUrlString(artist);
 
-		ThreadExecutor.runTask(new Runnable() {
+		commands.submit(null, new Runnable() {
 			public void run() {
 				try {
 					RequestHelper.attemptRequest(String.format(
 							"%s/ctrl-int/1/cue?command=add&query='daap.songartist:%s'&session-id=%s", getRequestBase(),
 							encodedArtist, sessionId));
-					notifyStatus();
 				} catch (Exception e) {
 					Log.w(TAG, "Session Exception:" + e.getMessage());
 				}
 			}
-		});
+		}, true);
 	}
 
 	public void controlQueueTrack(final String trackId) {
-		ThreadExecutor.runTask(new Runnable() {
+		commands.submit(null, new Runnable() {
 			public void run() {
 				try {
 					RequestHelper.attemptRequest(String.format(
 							"%s/ctrl-int/1/cue?command=add&query='dmap.itemid:%s'&session-id=%s", getRequestBase(),
 							trackId, sessionId));
-					notifyStatus();
 				} catch (Exception e) {
 					Log.w(TAG, "Session Exception:" + e.getMessage());
 				}
 			}
-		});
+		}, true);
 	}
 
 	public void controlPlayTrack(final String trackId) {
-		ThreadExecutor.runTask(new Runnable() {
+		commands.submit(null, new Runnable() {
 			public void run() {
 				try {
 					RequestHelper.attemptRequest(String.format("%s/ctrl-int/1/cue?command=clear&session-id=%s",
@@ -358,19 +447,18 @@ public class Session {
 					RequestHelper.attemptRequest(String.format(
 							"%s/ctrl-int/1/cue?command=play&query='dmap.itemid:%s'&session-id=%s", getRequestBase(),
 							trackId, sessionId));
-					notifyStatus();
 				} catch (Exception e) {
 					Log.w(TAG, "Session Exception:" + e.getMessage());
 				}
 			}
-		});
+		}, true);
 	}
 
 	public void controlPlaySearch(final String search, final int index) {
 		// /ctrl-int/1/cue?command=play&query=(('com.apple.itunes.mediakind:1','com.apple.itunes.mediakind:4','com.apple.itunes.mediakind:8')+'dmap.itemname:*F*')&index=4&sort=name&session-id=1550976127
 		final String encodedSearch = Library.escapeUrlString(search);
 
-		ThreadExecutor.runTask(new Runnable() {
+		commands.submit(null, new Runnable() {
 			public void run() {
 				try {
 					RequestHelper.attemptRequest(String.format("%s/ctrl-int/1/cue?command=clear&session-id=%s",
@@ -378,37 +466,35 @@ public class Session {
 					RequestHelper.attemptRequest(String
 							.format("%s/ctrl-int/1/cue?command=play&query=(('com.apple.itunes.mediakind:1','com.apple.itunes.mediakind:4','com.apple.itunes.mediakind:8')+('dmap.itemname:*%s*','daap.songartist:*%s*','daap.songalbum:*%s*'))&type=music&sort=name&index=%d&session-id=%s",
 									getRequestBase(), encodedSearch, encodedSearch, encodedSearch, index, sessionId));
-					notifyStatus();
 				} catch (Exception e) {
 					Log.w(TAG, "Session Exception:" + e.getMessage());
 				}
 			}
-		});
+		}, true);
 	}
 
 	public void controlPlayPlaylist(final String playlistPersistentId, final String containerItemId) {
 		// /ctrl-int/1/playspec?database-spec='dmap.persistentid:0x9031099074C14E05'&container-spec='dmap.persistentid:0xA1E1854E0B9A1B'&container-item-spec='dmap.containeritemid:0x1b47'&session-id=7491138
 		final String databasePersistentId = this.databasePersistentId;
 
-		ThreadExecutor.runTask(new Runnable() {
+		commands.submit(null, new Runnable() {
 			public void run() {
 				try {
 					RequestHelper.attemptRequest(String
 							.format("%s/ctrl-int/1/playspec?database-spec='dmap.persistentid:0x%s'&container-spec='dmap.persistentid:0x%s'&container-item-spec='dmap.containeritemid:0x%s'&session-id=%s",
 									getRequestBase(), databasePersistentId, playlistPersistentId, containerItemId,
 									sessionId));
-					notifyStatus();
 				} catch (Exception e) {
 					Log.w(TAG, "Session Exception:" + e.getMessage());
 				}
 			}
-		});
+		}, true);
 	}
 
 	public void controlPlayIndex(final String albumid, final int tracknum) {
 		// Attempt to play from current now playing list, otherwise try to play
 		// album
-		ThreadExecutor.runTask(new Runnable() {
+		commands.submit(null, new Runnable() {
 			public void run() {
 				try {
 					RequestHelper.request(String.format("%s/ctrl-int/1/cue?command=play&index=%d&sort=album&session-id=%s",
@@ -425,21 +511,22 @@ public class Session {
 										getRequestBase(), albumid, tracknum, sessionId));
 					}
 				}
-				notifyStatus();
 			}
-		});
+		}, true);
 	}
 
 	public void controlVisualiser(boolean enabled) {
 		// GET /ctrl-int/1/setproperty?dacp.visualizer=1&session-id=283658916
-		this.fireAction(String.format("%s/ctrl-int/1/setproperty?dacp.visualizer=%d&session-id=%s",
-				this.getRequestBase(), enabled ? 1 : 0, this.sessionId), true);
+		this.fireProperty("dacp.visualizer",
+				String.format("%s/ctrl-int/1/setproperty?dacp.visualizer=%d&session-id=%s",
+						this.getRequestBase(), enabled ? 1 : 0, this.sessionId), true);
 	}
 
 	public void controlFullscreen(boolean enabled) {
 		// GET /ctrl-int/1/setproperty?dacp.fullscreen=1&session-id=283658916
-		this.fireAction(String.format("%s/ctrl-int/1/setproperty?dacp.fullscreen=%d&session-id=%s",
-				this.getRequestBase(), enabled ? 1 : 0, this.sessionId), true);
+		this.fireProperty("dacp.fullscreen",
+				String.format("%s/ctrl-int/1/setproperty?dacp.fullscreen=%d&session-id=%s",
+						this.getRequestBase(), enabled ? 1 : 0, this.sessionId), true);
 	}
 
 	// Query the media server about the content codes it handles
@@ -496,19 +583,18 @@ public class Session {
 	public void playSpec(final long databaseId, final long containerId, final long itemId) {
 		// GET
 		// /ctrl-int/1/playspec?database-spec='dmap.itemid:0x6073'&container-spec='dmap.itemid:0x607B'&item-spec='dmap.itemid:0x7cbe'&session-id=345827905
-		ThreadExecutor.runTask(new Runnable() {
+		commands.submit(null, new Runnable() {
 			public void run() {
 				try {
 					RequestHelper.attemptRequest(String.format("%s/ctrl-int/1/playspec?"
 							+ "database-spec='dmap.itemid:0x%x'" + "&container-spec='dmap.itemid:0x%x'"
 							+ "&item-spec='dmap.itemid:0x%x'" + "&session-id=%s", getRequestBase(), databaseId,
 							containerId, itemId, sessionId));
-					notifyStatus();
 				} catch (Exception e) {
 					Log.w(TAG, "Session Exception:" + e.getMessage());
 				}
 			}
-		});
+		}, true);
 	}
 
 	public void controlPlayRadio(final long genreId, final long itemId) {
@@ -25,24 +25,44 @@
 
 package org.tunesremote.daap;
 
-import android.graphics.Bitmap;
-import android.os.Handler;
-import android.util.Log;
+import org.tunesremote.TagListener;
 import org.tunesremote.util.ThreadExecutor;
 
+import java.math.BigInteger;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Status handles status information, including background timer thread also
- * subscribes to keep-alive event updates.
+ * Status handles now playing information for a Session. There is one Status
+ * per Session, shared by every screen and service that shows playback, so
+ * they all see the same state. It keeps a single playstatusupdate long-poll
+ * open while at least one Listener is registered and fans every change out
+ * to all of them.
  * <p/>
+ * Progress is not counted by a thread, it is worked out from the time the
+ * last update arrived whenever it is asked for. While playing, a tick is
+ * posted to the {@link Platform#dispatcher()} once a second so registered
+ * listeners can redraw their progress.
  */
 public class Status {
 
 	public final static String TAG = Status.class.toString();
 
+	/**
+	 * Receives the UPDATE_ events of a Status. Called from whichever thread
+	 * noticed the change, so implementations hand over to their own thread
+	 * before touching anything that is not thread safe.
+	 */
+	public interface Listener {
+		void statusChanged(int what);
+	}
+
 	/**
 	 * Constants
 	 */
@@ -59,13 +79,21 @@ public class Status {
 	public final static int UPDATE_COVER = 5;
 	public final static int UPDATE_RATING = 6;
 	public static final int UPDATE_SPEAKERS = 7;
-	private final static int MAX_FAILURES = 10;
+	private final static int HTTP_FORBIDDEN = 403, HTTP_UNAVAILABLE = 503;
+	private final static long BACKOFF_BASE = 1000, BACKOFF_CAP = 5 * 60 * 1000;
+	private final static long TICK_INTERVAL = 1000;
+	// the current album, the one before it and a couple coming up
+	private final static int COVER_SLOTS = 4;
+	// play queue items read at a time when looking for the next track
+	private final static int QUEUE_WINDOW = 8;
+	private final static int MIID = ContentCodes.tag("miid"), ASAI = ContentCodes.tag("asai");
 
 	/**
 	 * Fields
 	 */
 	public boolean coverEmpty = true;
-	public Bitmap coverCache = null;
+	// whatever the installed Platform.ImageDecoder makes of the artwork
+	private volatile Object coverCache = null;
 	public String albumId = "";
 	protected int repeatStatus = REPEAT_OFF, shuffleStatus = SHUFFLE_OFF, playStatus = STATE_PAUSED;
 	protected boolean visualizer = false, fullscreen = false, geniusSelectable = false;
@@ -76,11 +104,28 @@ public class Status {
 	private long containerItemId = 0;
 	private long trackId = 0;
 	private String trackName = "", trackArtist = "", trackAlbum = "", trackGenre = "";
-	private long progressTotal = 0, progressRemain = 0;
+	private long progressTotal = 0, progressRemain = 0, progressAnchor = 0;
+	private boolean endRequested = false;
 	private final Session session;
-	private Handler update = null;
-	private final AtomicInteger failures = new AtomicInteger(0);
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+	private final AtomicBoolean polling = new AtomicBoolean(false);
+	private final Backoff backoff = new Backoff(BACKOFF_BASE, BACKOFF_CAP);
+	private final AtomicInteger polls = new AtomicInteger(0), timeouts = new AtomicInteger(0),
+			expired = new AtomicInteger(0), relogins = new AtomicInteger(0), refused = new AtomicInteger(0),
+			errors = new AtomicInteger(0);
 	private long revision = 1;
+	// keepalive thread only: the session a relogin got us that has not
+	// answered a poll yet
+	private String freshSession = null;
+	private final Map<String, Object> covers = new LinkedHashMap<String, Object>(COVER_SLOTS, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+			return size() > COVER_SLOTS;
+		}
+	};
+	private volatile boolean queueUnsupported = false;
+	// where the playing item was last found in the play queue
+	private volatile int queueIndex = 0;
 	public static String lastActivity, lastPlaylistId, lastPlaylistPersistentId;
 	public static String[] lastAlbum;
 
@@ -89,135 +134,213 @@ public class Status {
 	public static int screenHeight = 320;
 
 	/**
-	 * Constructor accepts a Session and UI Handler to update the UI.
+	 * Constructor accepts the Session to follow, listeners are registered
+	 * afterwards with {@link #addListener(Listener)}.
 	 *
 	 * @param session
-	 * @param update
 	 */
-	public Status(Session session, Handler update) {
+	public Status(Session session) {
 		this.session = session;
-		this.update = update;
-
-		// create two threads, one for backend keep-alive updates
-		// and a second one to update running time and fire gui events
+	}
 
-		this.progress.start();
-		this.keepalive.start();
+	/**
+	 * Registers a Listener for update events and starts following the server
+	 * if this is the first one.
+	 */
+	public void addListener(Listener listener) {
+		if (listener == null || destroyThread.get())
+			return;
+		if (!listeners.contains(listener))
+			listeners.add(listener);
+		if (polling.compareAndSet(false, true))
+			startPolling();
+		scheduleTick();
+	}
 
-		// keep our status updated with server however we need to
-		// end thread when getting any 404 responses, etc
+	/**
+	 * Unregisters a Listener, the long-poll is stopped once nobody is left to
+	 * tell about updates.
+	 */
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+		if (listeners.isEmpty())
+			destroy();
 	}
 
-	public void updateHandler(Handler handler) {
-		this.update = handler;
+	private void notifyListeners(int what) {
+		for (Listener listener : listeners)
+			listener.statusChanged(what);
 	}
 
-	protected final Thread progress = new Thread(new Runnable() {
+	// moves progress on the screen once a second while playing
+	private final Runnable tick = new Runnable() {
 		public void run() {
-			while (true) {
-				// when in playing state, keep moving progress forward
-				while (playStatus == STATE_PLAYING) {
-					// Log.d(TAG, "thread entering playing loop");
-					if (destroyThread.get())
-						break;
-					long anchor = System.currentTimeMillis();
-					try {
-						Thread.sleep(1000);
-					} catch (InterruptedException e) {
-						// someone jolted us awake during playing, which means
-						// track
-						// changed
-						Log.d(TAG, "someone jolted us during STATE_PLAYING loop");
-						continue;
-					}
-
-					if (destroyThread.get())
-						break;
-
-					// update progress and gui
-					progressRemain -= (System.currentTimeMillis() - anchor);
-					if (update != null)
-						update.sendEmptyMessage(UPDATE_PROGRESS);
-
-					// trigger a forced update if we seem to gone past end of
-					// song
-					if (progressRemain <= 0) {
-						Log.d(TAG, "suggesting that we fetch new song");
-						fetchUpdate();
-					}
-				}
-
-				// keep sleeping while in paused state
-				while (playStatus == STATE_PAUSED) {
-					Log.d(TAG, "thread entering paused loop");
-					try {
-						Thread.sleep(10000);
-					} catch (InterruptedException e) {
-						// someone probably jolted us awake with a status update
-						Log.d(TAG, "someone jolted us during STATE_PAUSED loop");
-					}
+			if (destroyThread.get() || listeners.isEmpty() || playStatus != STATE_PLAYING)
+				return;
+			notifyListeners(UPDATE_PROGRESS);
+
+			// trigger a forced update if we seem to gone past end of song
+			final long remain = getRemainingMillis();
+			if (remain <= 0 && !endRequested) {
+				Log.d(TAG, "suggesting that we fetch new song");
+				endRequested = true;
+				fetchUpdate();
+			}
 
-					if (destroyThread.get())
-						break;
-				}
+			// land the next tick on a whole second of progress
+			final long delay = remain % TICK_INTERVAL;
+			Platform.dispatcher().post(this, delay > 0 ? delay : TICK_INTERVAL);
+		}
+	};
 
-				// one final sleep to make sure we behave nicely in case of
-				// unknown
-				// status
-				try {
-					Thread.sleep(1000);
-				} catch (InterruptedException e) {
-					Log.d(TAG, "someone jolted us during OVERALL loop");
-				}
+	private void scheduleTick() {
+		Platform.dispatcher().cancel(tick);
+		if (playStatus == STATE_PLAYING && !destroyThread.get())
+			Platform.dispatcher().post(tick, 0);
+	}
 
-				if (destroyThread.get())
-					break;
-			}
-			Log.w(TAG, "Status Progress Thread Killed!");
-		}
-	});
+	/**
+	 * Runs the long-poll on a thread of its own. It blocks for as long as
+	 * itunes has nothing to say, on a lane it would hold a thread the status
+	 * refreshes and rating fetches need.
+	 */
+	private void startPolling() {
+		final Thread thread = new Thread(keepalive, "TunesRemote status poll");
+		thread.setDaemon(true);
+		thread.start();
+	}
 
-	protected final Thread keepalive = new Thread(new Runnable() {
+	// one long-poll per session, each request is held open by itunes until
+	// something changes and then the poll runs again
+	private final Runnable keepalive = new Runnable() {
 		public void run() {
-			while (true) {
+			while (!destroyThread.get()) {
+				final String sessionId = session.sessionId;
 				try {
-					// sleep a few seconds to make sure we dont kill stuff
-					Thread.sleep(1000);
-					if (destroyThread.get())
-						break;
-
 					// try fetching next revision update using socket keepalive
 					// approach
 					// using the next revision-number will make itunes keepalive
 					// until something happens
 					// http://192.168.254.128:3689/ctrl-int/1/playstatusupdate?revision-number=1&session-id=1034286700
+					polls.incrementAndGet();
 					parseUpdate(RequestHelper.requestParsed(
 							String.format("%s/ctrl-int/1/playstatusupdate?revision-number=%d&session-id=%s",
-									session.getRequestBase(), revision, session.sessionId), true));
+									session.getRequestBase(), revision, sessionId), true));
+					backoff.reset();
+					freshSession = null;
 				} catch (Exception e) {
-					Log.d(TAG, String.format("Exception in keepalive thread, so killing try# %d", failures.get()), e);
-					if (failures.incrementAndGet() > MAX_FAILURES)
-						destroy();
+					if (destroyThread.get())
+						break;
+					if (!recover(sessionId, e)) {
+						// free this thread and poll again once the backoff is over
+						final long delay = backoff.next();
+						Log.d(TAG, String.format("keepalive poll failed %d times, retrying in %dms: %s",
+								backoff.getAttempts(), delay, e));
+						Platform.dispatcher().post(retry, delay);
+						return;
+					}
 				}
 			}
-			Log.w(TAG, "Status KeepAlive Thread Killed!");
+			polling.set(false);
+			Log.w(TAG, "Status KeepAlive Poll Stopped!");
 		}
-	});
+	};
+
+	private final Runnable retry = new Runnable() {
+		public void run() {
+			if (destroyThread.get())
+				polling.set(false);
+			else
+				startPolling();
+		}
+	};
+
+	/**
+	 * Sorts out why a poll failed and fixes what can be fixed straight away.
+	 *
+	 * @return true if the poll should be retried immediately, false if it
+	 *         should back off first
+	 */
+	private boolean recover(String sessionId, Exception e) {
+		if (e instanceof HttpResponseException) {
+			final int code = ((HttpResponseException) e).getResponseCode();
+			if (code == HTTP_FORBIDDEN || code == HTTP_UNAVAILABLE) {
+				// itunes forgot our session, usually after sleeping. when the
+				// session it just gave us fails as well it is busy rather than
+				// forgetful, so log in again but back off before polling
+				expired.incrementAndGet();
+				final boolean again = sessionId.equals(freshSession);
+				if (session.relogin(sessionId)) {
+					relogins.incrementAndGet();
+					freshSession = session.sessionId;
+					if (!again) {
+						fetchUpdate();
+						return true;
+					}
+				}
+				return false;
+			}
+			errors.incrementAndGet();
+		} else if (e instanceof SocketTimeoutException) {
+			timeouts.incrementAndGet();
+		} else if (e instanceof ConnectException) {
+			// nobody listening, itunes is closed or the machine is asleep
+			refused.incrementAndGet();
+		} else {
+			errors.incrementAndGet();
+		}
+		return false;
+	}
+
+	/**
+	 * @return a one line summary of how the long-poll has been doing
+	 */
+	public String getStats() {
+		return String.format("polls=%d timeouts=%d expired=%d relogins=%d refused=%d errors=%d backoff=%d",
+				polls.get(), timeouts.get(), expired.get(), relogins.get(), refused.get(), errors.get(),
+				backoff.getAttempts());
+	}
+
+	public int getTimeouts() {
+		return timeouts.get();
+	}
+
+	public int getExpired() {
+		return expired.get();
+	}
+
+	public int getRelogins() {
+		return relogins.get();
+	}
+
+	public int getRefused() {
+		return refused.get();
+	}
+
+	public int getErrors() {
+		return errors.get();
+	}
 
 	public void destroy() {
-		// destroy our internal thread
-		Log.w(TAG, "trying to destroy internal status thread");
-		if (this.destroyThread.get())
+		// stop following the server
+		Log.w(TAG, "trying to destroy status updates");
+		if (this.destroyThread.getAndSet(true))
 			return;
-		this.destroyThread.set(true);
-		this.progress.interrupt();
-		this.keepalive.interrupt();
+		Platform.dispatcher().cancel(tick);
+		Platform.dispatcher().cancel(retry);
+		listeners.clear();
+		// the poll only looks at the flag once itunes answers
+		session.abortLongPoll();
+	}
+
+	public boolean isDestroyed() {
+		return destroyThread.get();
 	}
 
 	public void fetchUpdate() {
 		Log.d(TAG, "Fetching Update From Server...");
 		// force a status update, will pass along to parseUpdate()
-		ThreadExecutor.runTask(new Runnable() {
+		ThreadExecutor.runTask(ThreadExecutor.LANE_STATUS, new Runnable() {
 			public void run() {
 				try {
 					// using revision-number=1 will make sure we return
@@ -228,16 +351,13 @@ public class Status {
 									session.getRequestBase(), 1, session.sessionId), false));
 				} catch (Exception e) {
 					Log.w(TAG, e);
-					if (failures != null && failures.incrementAndGet() > MAX_FAILURES) {
-						destroy();
-					}
 				}
 			}
 		});
 
 	}
 
-	protected void parseUpdate(Response resp) throws Exception {
+	protected synchronized void parseUpdate(Response resp) throws Exception {
 		// keep track of the worst update that could happen
 		int updateType = UPDATE_PROGRESS;
 
@@ -274,9 +394,6 @@ public class Status {
 			this.visualizer = visualizer;
 			this.fullscreen = fullscreen;
 			this.geniusSelectable = geniusSelectable;
-
-			Log.d(TAG, "about to interrupt #1");
-			this.progress.interrupt();
 		}
 
 		final String trackName = resp.getString("cann");
@@ -296,54 +413,209 @@ public class Status {
 			this.trackAlbum = trackAlbum;
 			this.trackGenre = trackGenre;
 
-			// clear any coverart cache
+			// drop the shown cover, the album cache brings it straight back
+			// when the next track is from the same album
 			this.coverCache = null;
 			this.fetchCover();
 
 			// clear rating
 			this.rating = -1;
 			this.fetchRating();
-
-			// tell our progress updating thread about a new track
-			// this makes sure he doesnt count progress from last song against
-			// this
-			// new one
-			Log.d(TAG, "about to interrupt #2");
-			this.progress.interrupt();
 		}
 
+		// remember when this progress was true, it is moved forward from here
+		// whenever someone asks for it
 		this.progressRemain = resp.getNumberLong("cant");
 		this.progressTotal = resp.getNumberLong("cast");
+		this.progressAnchor = System.currentTimeMillis();
+		this.endRequested = false;
+		scheduleTick();
 
-		// send off updated event to gui
-		if (update != null)
-			this.update.sendEmptyMessage(updateType);
+		// send off updated event to everyone listening
+		notifyListeners(updateType);
 	}
 
+	/**
+	 * Shows the cover for the current album. A cover already held for this
+	 * album and size is used straight away, the caller's UPDATE_TRACK shows
+	 * it, otherwise it is downloaded and UPDATE_COVER sent. Either way the
+	 * next queued item's cover is then fetched ahead of time.
+	 */
 	public void fetchCover() {
-		if (coverCache == null) {
-			// spawn thread to fetch coverart
-			ThreadExecutor.runTask(new Runnable() {
-				public void run() {
-					try {
-						if (screenHeight > 640) {
-							screenHeight = 640;
-						}
-						// http://192.168.254.128:3689/ctrl-int/1/nowplayingartwork?mw=320&mh=320&session-id=1940361390
-						coverCache = RequestHelper.requestBitmap(String.format("%s/ctrl-int/1/nowplayingartwork?mw="
-								+ screenHeight + "&mh=" + screenHeight + "&session-id=%s", session.getRequestBase(),
-								session.sessionId));
-					} catch (Exception e) {
-						Log.e(TAG, "Fetch Cover Exception:" + e.getMessage());
-					}
-					coverEmpty = (coverCache == null);
-					if (update != null)
-						update.sendEmptyMessage(UPDATE_COVER);
+		if (coverCache != null)
+			return;
+		if (screenHeight > 640) {
+			screenHeight = 640;
+		}
+		final int size = screenHeight;
+		final String albumId = this.albumId;
+		final long trackId = this.trackId;
+		final Object cached = getCover(albumId, size);
+		if (cached != null) {
+			coverCache = cached;
+			coverEmpty = false;
+			prefetchNextCover(trackId, albumId, size);
+			return;
+		}
+
+		// spawn thread to fetch coverart
+		ThreadExecutor.runTask(ThreadExecutor.LANE_ARTWORK, new Runnable() {
+			public void run() {
+				Object cover = null;
+				try {
+					// http://192.168.254.128:3689/ctrl-int/1/nowplayingartwork?mw=320&mh=320&session-id=1940361390
+					cover = RequestHelper.requestBitmap(String.format("%s/ctrl-int/1/nowplayingartwork?mw=" + size
+							+ "&mh=" + size + "&session-id=%s", session.getRequestBase(), session.sessionId), size,
+							size, Platform.images());
+				} catch (Exception e) {
+					Log.e(TAG, "Fetch Cover Exception:" + e.getMessage());
 				}
-			});
+				putCover(albumId, size, cover);
+
+				// the track may have moved on while we were downloading
+				if (!albumId.equals(Status.this.albumId))
+					return;
+				coverCache = cover;
+				coverEmpty = (cover == null);
+				notifyListeners(UPDATE_COVER);
+				prefetchNextCover(trackId, albumId, size);
+			}
+		});
+	}
+
+	private static String unsigned(long number) {
+		// album ids are uint64, match what getNumberString gives for asai
+		if (number >= 0)
+			return Long.toString(number);
+		return BigInteger.valueOf(number >>> 1).shiftLeft(1).or(BigInteger.valueOf(number & 1)).toString();
+	}
+
+	private static String coverKey(String albumId, int size) {
+		// streams and loose files report no album, never share their art
+		if (albumId == null || albumId.length() == 0 || "0".equals(albumId))
+			return null;
+		return albumId + "-" + size;
+	}
+
+	private Object getCover(String albumId, int size) {
+		final String key = coverKey(albumId, size);
+		if (key == null)
+			return null;
+		synchronized (covers) {
+			return covers.get(key);
 		}
 	}
 
+	private void putCover(String albumId, int size, Object cover) {
+		final String key = coverKey(albumId, size);
+		if (key == null || cover == null)
+			return;
+		synchronized (covers) {
+			covers.put(key, cover);
+		}
+	}
+
+	/**
+	 * Looks up the item after the current one in the play queue through the
+	 * ctrl-int/1/items extension and downloads its cover if it is from a
+	 * different album, so the track change can show it without waiting.
+	 * Servers that refuse the extension are only asked once.
+	 */
+	private void prefetchNextCover(final long trackId, final String albumId, final int size) {
+		if (queueUnsupported)
+			return;
+		ThreadExecutor.runTask(ThreadExecutor.LANE_PREFETCH, new Runnable() {
+			public void run() {
+				final long[] next = { -1 };
+				final String[] nextAlbum = { null };
+				try {
+					readNextInQueue(trackId, next, nextAlbum);
+				} catch (HttpResponseException e) {
+					Log.w(TAG, "prefetchNextCover Exception:" + e.getMessage());
+					if (e.getResponseCode() != HTTP_UNAVAILABLE)
+						queueUnsupported = true;
+					return;
+				} catch (Exception e) {
+					Log.w(TAG, "prefetchNextCover Exception:" + e.getMessage());
+					return;
+				}
+
+				if (next[0] < 0 || nextAlbum[0] == null || nextAlbum[0].equals(albumId)
+						|| getCover(nextAlbum[0], size) != null)
+					return;
+				try {
+					// http://192.168.254.128:3689/databases/38/items/2854/extra_data/artwork?session-id=788509571&mw=320&mh=320
+					putCover(nextAlbum[0], size, RequestHelper.requestBitmap(String.format(
+							"%s/databases/%d/items/%d/extra_data/artwork?session-id=%s&mw=%d&mh=%d",
+							session.getRequestBase(), databaseId, next[0], session.sessionId, size, size), size, size,
+							Platform.images()));
+				} catch (Exception e) {
+					Log.w(TAG, "prefetchNextCover Exception:" + e.getMessage());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Finds the item after the playing one in the play queue. Tracks mostly
+	 * move on by one, so the few items from where the last one was are read
+	 * first. If the queue was replaced or skipped around in it is read again
+	 * from the top in growing windows until the playing item turns up.
+	 */
+	private void readNextInQueue(long trackId, long[] next, String[] nextAlbum) throws Exception {
+		final int[] position = { -1 };
+		int first = Math.max(queueIndex - 1, 0);
+		int size = QUEUE_WINDOW;
+		int count = readQueue(trackId, first, size, position, next, nextAlbum);
+		if (position[0] < 0 && first > 0) {
+			first = 0;
+			count = readQueue(trackId, first, size, position, next, nextAlbum);
+		}
+		// a short window is the end of the queue, a long one means the server
+		// ignored the range and sent all of it
+		while ((position[0] < 0 || next[0] < 0) && count == size) {
+			first += size;
+			size *= 2;
+			count = readQueue(trackId, first, size, position, next, nextAlbum);
+		}
+		if (position[0] >= 0)
+			queueIndex = position[0];
+	}
+
+	/**
+	 * Reads one window of the play queue, looking for the playing item and
+	 * the one after it.
+	 *
+	 * @param position the queue index of the playing item, -1 until found
+	 * @return how many items the server sent
+	 */
+	private int readQueue(final long trackId, final int first, final int size, final int[] position,
+			final long[] next, final String[] nextAlbum) throws Exception {
+		final boolean searching = (position[0] < 0);
+		final int count = RequestHelper.requestSearch(String.format(
+				"%s/ctrl-int/1/items?session-id=%s&meta=dmap.itemid,daap.songalbumid&type=music&index=%d-%d",
+				session.getRequestBase(), session.sessionId, first, first + size - 1), new TagListener() {
+			private int seen = 0;
+
+			public void foundTag(String tag, Response resp) {
+				if (position[0] < 0) {
+					if (resp.getLong(MIID) == trackId)
+						position[0] = seen;
+				} else if (next[0] < 0) {
+					next[0] = resp.getLong(MIID);
+					nextAlbum[0] = resp.contains(ASAI) ? unsigned(resp.getLong(ASAI)) : null;
+				}
+				seen++;
+			}
+
+			public void searchDone() {
+			}
+		}, Library.MLIT_PATTERN, false);
+		if (searching && position[0] >= 0 && count <= size)
+			position[0] += first;
+		return count;
+	}
+
 	private void extractNowPlaying(byte[] bs) {
 		// This is a PITA in Java....
 		databaseId = 0;
@@ -374,7 +646,7 @@ public class Status {
 	// fetch rating of current playing item
 	public void fetchRating() {
 		// spawn thread to fetch rating
-		ThreadExecutor.runTask(new Runnable() {
+		ThreadExecutor.runTask(ThreadExecutor.LANE_STATUS, new Runnable() {
 			public void run() {
 				try {
 					Response resp = RequestHelper.requestParsed(
@@ -382,15 +654,13 @@ public class Status {
 									"%s/databases/%d/items?session-id=%s&meta=daap.songuserrating&type=music&query='dmap.itemid:%d'",
 									session.getRequestBase(), databaseId, session.sessionId, trackId), false);
 
-					if (update != null) {
-						// 2 different responses possible!
-						Response entry = resp.getNested("adbs"); // iTunes style
-						if (entry == null) {
-							entry = resp.getNested("apso"); // MonkeyTunes style
-						}
-						rating = entry.getNested("mlcl").getNested("mlit").getNumberLong("asur");
-						update.sendEmptyMessage(UPDATE_RATING);
+					// 2 different responses possible!
+					Response entry = resp.getNested("adbs"); // iTunes style
+					if (entry == null) {
+						entry = resp.getNested("apso"); // MonkeyTunes style
 					}
+					rating = entry.getNested("mlcl").getNested("mlit").getNumberLong("asur");
+					notifyListeners(UPDATE_RATING);
 
 				} catch (Exception e) {
 					Log.e(TAG, "Fetch Rating Exception:" + e.getMessage());
@@ -424,9 +694,7 @@ public class Status {
 			String temp = String.format("%s/ctrl-int/1/getspeakers?session-id=%s", session.getRequestBase(),
 					session.sessionId);
 
-			byte[] raw = RequestHelper.request(temp, false);
-
-			Response response = ResponseParser.performParse(raw);
+			Response response = RequestHelper.requestParsed(temp, false);
 
 			Response casp = response.getNested("casp");
 			if (casp != null) {
@@ -583,12 +851,23 @@ public class Status {
 		RequestHelper.request(url, false);
 	}
 
+	/**
+	 * @return milliseconds left in the track right now, counted down from the
+	 *         last update while playing
+	 */
+	private long getRemainingMillis() {
+		long remain = this.progressRemain;
+		if (this.playStatus == STATE_PLAYING)
+			remain -= System.currentTimeMillis() - this.progressAnchor;
+		return Math.max(0, remain);
+	}
+
 	public int getProgress() {
-		return (int) ((this.progressTotal - this.progressRemain) / 1000);
+		return (int) ((this.progressTotal - getRemainingMillis()) / 1000);
 	}
 
 	public int getRemaining() {
-		return (int) (this.progressRemain / 1000);
+		return (int) (getRemainingMillis() / 1000);
 	}
 
 	public int getProgressTotal() {
@@ -639,6 +918,15 @@ public class Status {
 		return this.rating;
 	}
 
+	/**
+	 * @return the current cover as the installed platform decoded it, null if
+	 *         there is none or it is not of that type
+	 */
+	public <T> T getCover(Class<T> type) {
+		final Object cover = coverCache;
+		return type.isInstance(cover) ? type.cast(cover) : null;
+	}
+
 	public String getAlbumId() {
 		return this.albumId;
 	}
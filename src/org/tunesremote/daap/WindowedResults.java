@@ -0,0 +1,282 @@
+/*
+    TunesRemote+ - http://code.google.com/p/tunesremote-plus/
+    
+    Copyright (C) 2008 Jeffrey Sharkey, http://jsharkey.org/
+    Copyright (C) 2010 TunesRemote+, http://code.google.com/p/tunesremote-plus/
+    
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    The Initial Developer of the Original Code is Jeffrey Sharkey.
+    Portions created by Jeffrey Sharkey are
+    Copyright (C) 2008. Jeffrey Sharkey, http://jsharkey.org/
+    All Rights Reserved.
+ */
+package org.tunesremote.daap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.tunesremote.TagListener;
+import org.tunesremote.util.ThreadExecutor;
+
+/**
+ * Sparse, windowed view of a long library listing such as every album. Only
+ * the total and the sort headers are read up front, rows are then loaded in
+ * fixed size pages around the position the list is showing and pages far
+ * away from it are dropped again. The list can draw its first frame as soon
+ * as the total is known and memory stays bounded however big the library.
+ * <p>
+ * Rows that are not loaded yet come back as null, the listener is told
+ * whenever pages arrive so the list can redraw them.
+ */
+public class WindowedResults {
+
+   public final static String TAG = WindowedResults.class.toString();
+
+   /**
+    * Reads one page of a listing, both the album and the artist listing of
+    * {@link Library} fit this.
+    */
+   public interface PageSource {
+      /**
+       * @param items how many rows to read, 0 for just the total and headers
+       * @return the total number of rows, -1 if the request failed
+       */
+      public long readPage(TagListener listener, long start, long items);
+   }
+
+   /**
+    * Told on a background thread when the total or a page has arrived.
+    */
+   public interface Listener {
+      public void resultsChanged();
+   }
+
+   private final static int MSHC = ContentCodes.tag("mshc"), MSHI = ContentCodes.tag("mshi");
+
+   // wait after a page comes back empty, doubled for every failure in a row
+   private final static long RETRY_MILLIS = 2000, MAX_RETRY_MILLIS = 60000;
+
+   private final PageSource source;
+   private final Listener listener;
+   private final int pageSize;
+   private final int maxPages;
+
+   private int total = 0;
+   private boolean opened = false;
+   private Response[][] pages = new Response[0][];
+   private int loadedPages = 0;
+   private final Set<Integer> loading = new HashSet<Integer>();
+   private final Map<Integer, Long> retryAt = new HashMap<Integer, Long>();
+   private int failures = 0;
+   private int window = 0;
+
+   private String[] sections = new String[0];
+   private int[] sectionPositions = new int[0];
+
+   /**
+    * @param pageSize rows per page request
+    * @param maxPages pages kept in memory, centered on the viewed position
+    */
+   public WindowedResults(PageSource source, Listener listener, int pageSize, int maxPages) {
+      this.source = source;
+      this.listener = listener;
+      this.pageSize = pageSize;
+      this.maxPages = maxPages;
+   }
+
+   /**
+    * Fetches the total and the sort headers in the background, followed by
+    * the first page.
+    */
+   public void open() {
+      ThreadExecutor.runTask(new Runnable() {
+         public void run() {
+            final List<Response> headers = new ArrayList<Response>();
+            final long count = source.readPage(new TagListener() {
+               public void foundTag(String tag, Response resp) {
+                  if (tag.equals("mshl"))
+                     headers.addAll(resp.findArray(ContentCodes.tag("mlit")));
+               }
+
+               public void searchDone() {
+               }
+            }, 0, 0);
+
+            synchronized (WindowedResults.this) {
+               total = (int) Math.max(count, 0);
+               pages = new Response[(total + pageSize - 1) / pageSize][];
+               readSections(headers);
+               opened = true;
+            }
+            Log.d(TAG, String.format("opened total=%d pages=%d sections=%d", total, pages.length, sections.length));
+            listener.resultsChanged();
+            if (total > 0)
+               request(0);
+         }
+      });
+   }
+
+   private void readSections(List<Response> headers) {
+      sections = new String[headers.size()];
+      sectionPositions = new int[headers.size()];
+      for (int i = 0; i < sections.length; i++) {
+         final Response header = headers.get(i);
+         sections[i] = String.valueOf((char) header.getLong(MSHC));
+         sectionPositions[i] = (int) header.getLong(MSHI);
+      }
+   }
+
+   public synchronized boolean isOpened() {
+      return opened;
+   }
+
+   public synchronized int size() {
+      return total;
+   }
+
+   /**
+    * Gets a row, loading its page and the pages either side of it when
+    * missing. Asking for a row also moves the window of pages kept in
+    * memory.
+    *
+    * @return the row, null while it is still loading
+    */
+   public synchronized Response get(int position) {
+      if (position < 0 || position >= total)
+         return null;
+      final int page = position / pageSize;
+      window = page;
+
+      request(page);
+      // load a page ahead in whichever direction the list is heading
+      if (position % pageSize >= pageSize / 2)
+         request(page + 1);
+      else
+         request(page - 1);
+
+      final Response[] rows = pages[page];
+      if (rows == null)
+         return null;
+      return rows[position - page * pageSize];
+   }
+
+   /**
+    * Gets a row only if its page is already in memory, without moving the
+    * window or loading anything.
+    *
+    * @return the row, null if it is not loaded
+    */
+   public synchronized Response peek(int position) {
+      if (position < 0 || position >= total)
+         return null;
+      final Response[] rows = pages[position / pageSize];
+      return rows == null ? null : rows[position % pageSize];
+   }
+
+   private synchronized void request(final int page) {
+      if (page < 0 || page >= pages.length || pages[page] != null)
+         return;
+      final Long after = retryAt.get(page);
+      if (after != null && System.currentTimeMillis() < after)
+         return;
+      if (!loading.add(page))
+         return;
+      ThreadExecutor.runTask(new Runnable() {
+         public void run() {
+            // skip pages the list has scrolled far past while we waited
+            if (!isNearWindow(page)) {
+               synchronized (WindowedResults.this) {
+                  loading.remove(page);
+               }
+               return;
+            }
+
+            final int start = page * pageSize;
+            final int count = Math.min(pageSize, size() - start);
+            final Response[] rows = new Response[count];
+            final int[] found = new int[1];
+            source.readPage(new TagListener() {
+               public void foundTag(String tag, Response resp) {
+                  if (tag.equals("mlit") && found[0] < count)
+                     rows[found[0]++] = resp;
+               }
+
+               public void searchDone() {
+               }
+            }, start, count);
+
+            synchronized (WindowedResults.this) {
+               loading.remove(page);
+               if (found[0] == 0) {
+                  // leave the page alone for a while, otherwise every redraw
+                  // asks a failing server for it again
+                  final long delay = Math.min(RETRY_MILLIS << Math.min(failures, 5), MAX_RETRY_MILLIS);
+                  failures++;
+                  retryAt.put(page, System.currentTimeMillis() + delay);
+                  Log.w(TAG, String.format("page %d came back empty, retrying in %dms", page, delay));
+                  return;
+               }
+               failures = 0;
+               retryAt.remove(page);
+               pages[page] = rows;
+               loadedPages++;
+               evict();
+            }
+            listener.resultsChanged();
+         }
+      });
+   }
+
+   private synchronized boolean isNearWindow(int page) {
+      return Math.abs(page - window) <= maxPages / 2;
+   }
+
+   // drop the pages furthest from the window until we are back under budget
+   private void evict() {
+      while (loadedPages > maxPages) {
+         int furthest = -1;
+         for (int page = 0; page < pages.length; page++) {
+            if (pages[page] != null && (furthest < 0 || Math.abs(page - window) > Math.abs(furthest - window)))
+               furthest = page;
+         }
+         pages[furthest] = null;
+         loadedPages--;
+      }
+   }
+
+   /**
+    * @return the first letters from the sort headers, for fast scrolling
+    */
+   public synchronized String[] getSections() {
+      return sections;
+   }
+
+   public synchronized int getPositionForSection(int section) {
+      if (sectionPositions.length == 0)
+         return 0;
+      return sectionPositions[Math.max(0, Math.min(section, sectionPositions.length - 1))];
+   }
+
+   public synchronized int getSectionForPosition(int position) {
+      int section = 0;
+      while (section + 1 < sectionPositions.length && sectionPositions[section + 1] <= position)
+         section++;
+      return section;
+   }
+}
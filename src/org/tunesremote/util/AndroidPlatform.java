@@ -0,0 +1,70 @@
+/*
+    TunesRemote+ - http://code.google.com/p/tunesremote-plus/
+    
+    Copyright (C) 2008 Jeffrey Sharkey, http://jsharkey.org/
+    Copyright (C) 2010 TunesRemote+, http://code.google.com/p/tunesremote-plus/
+    
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    The Initial Developer of the Original Code is Jeffrey Sharkey.
+    Portions created by Jeffrey Sharkey are
+    Copyright (C) 2008. Jeffrey Sharkey, http://jsharkey.org/
+    All Rights Reserved.
+ */
+
+package org.tunesremote.util;
+
+import org.tunesremote.daap.Platform;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Binds the protocol code to android: logcat for logging, nice values for
+ * thread priority, the main looper for timed work and BitmapDecoder for
+ * artwork. Installed once when the application starts.
+ */
+public class AndroidPlatform implements Platform.Binding<Bitmap> {
+
+   private final Handler main = new Handler(Looper.getMainLooper());
+
+   public static void install() {
+      Platform.install(new AndroidPlatform());
+   }
+
+   public void log(int level, String tag, String message, Throwable error) {
+      if (error != null)
+         message = (message == null ? "" : message + '\n') + Log.getStackTraceString(error);
+      Log.println(level, tag, message == null ? "" : message);
+   }
+
+   public void setPriority(int priority) {
+      Process.setThreadPriority(priority);
+   }
+
+   public void post(Runnable task, long delayMillis) {
+      main.postDelayed(task, delayMillis);
+   }
+
+   public void cancel(Runnable task) {
+      main.removeCallbacks(task);
+   }
+
+   public Bitmap decode(byte[] raw, int width, int height, boolean thumbnail) {
+      return BitmapDecoder.decode(raw, width, height, thumbnail);
+   }
+}
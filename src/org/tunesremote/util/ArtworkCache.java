@@ -0,0 +1,406 @@
+/*
+    TunesRemote+ - http://code.google.com/p/tunesremote-plus/
+    
+    Copyright (C) 2008 Jeffrey Sharkey, http://jsharkey.org/
+    Copyright (C) 2010 TunesRemote+, http://code.google.com/p/tunesremote-plus/
+    
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    The Initial Developer of the Original Code is Jeffrey Sharkey.
+    Portions created by Jeffrey Sharkey are
+    Copyright (C) 2008. Jeffrey Sharkey, http://jsharkey.org/
+    All Rights Reserved.
+ */
+package org.tunesremote.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.tunesremote.daap.RequestHelper;
+import org.tunesremote.daap.Session;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+/**
+ * Album artwork cache shared by every browse screen. Decoded bitmaps are kept
+ * in a byte-budgeted LRU in memory, the compressed images iTunes sent are kept
+ * in a size-capped directory under the application cache dir so they survive
+ * GC and restarts. Concurrent requests for the same image are collapsed onto a
+ * single download.
+ * <p>
+ * Entries are keyed by library persistent id, artwork kind, item id and
+ * requested size, so different libraries and thumbnail sizes never collide.
+ * <p>
+ * A bitmap dropped from memory goes back to the {@link BitmapDecoder} pool
+ * only once no view shows it. Views bound through an {@link ArtworkLoader}
+ * are counted; bitmaps handed out by {@link #get} and {@link #peek} may be
+ * shown anywhere for any length of time and are never pooled.
+ */
+public class ArtworkCache {
+
+   public final static String TAG = ArtworkCache.class.toString();
+
+   public final static String KIND_ALBUM = "album";
+   public final static String KIND_ITEM = "item";
+
+   // a large album list shows a few hundred 66-132px thumbnails at most
+   private final static int DISK_BUDGET = 20 * 1024 * 1024;
+
+   private static ArtworkCache instance = null;
+
+   private final LruCache<String, Bitmap> memory;
+   private final File directory;
+   private final ConcurrentHashMap<String, FutureTask<Bitmap>> inflight = new ConcurrentHashMap<String, FutureTask<Bitmap>>();
+   private final Set<String> missing = Collections.synchronizedSet(new HashSet<String>());
+   private long diskUsed = -1;
+
+   // guarded by shown: how many loader views show each bitmap, bitmaps handed
+   // out to callers that never say when they stop showing them, bitmaps
+   // dropped from memory while still shown and bitmaps given to the pool
+   private final Map<Bitmap, Integer> shown = new WeakHashMap<Bitmap, Integer>();
+   private final Map<Bitmap, Boolean> shared = new WeakHashMap<Bitmap, Boolean>();
+   private final Map<Bitmap, Boolean> dropped = new WeakHashMap<Bitmap, Boolean>();
+   private final Map<Bitmap, Boolean> pooled = new WeakHashMap<Bitmap, Boolean>();
+
+   public static synchronized ArtworkCache getInstance(Context context) {
+      if (instance == null)
+         instance = new ArtworkCache(context.getApplicationContext());
+      return instance;
+   }
+
+   private ArtworkCache(Context context) {
+      // an eighth of the heap is the usual share for a bitmap cache
+      final int budget = (int) Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE);
+      this.memory = new LruCache<String, Bitmap>(budget) {
+         @Override
+         protected int sizeOf(String key, Bitmap bitmap) {
+            return bitmap.getRowBytes() * bitmap.getHeight();
+         }
+
+         @Override
+         protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+            if (evicted)
+               drop(oldValue);
+         }
+      };
+      this.directory = new File(context.getCacheDir(), "artwork");
+      Log.d(TAG, String.format("memory budget=%d bytes, disk budget=%d bytes", budget, DISK_BUDGET));
+   }
+
+   public static String key(Session session, String kind, int itemid, int size) {
+      return String.format("%s-%s-%d-%d", session.databasePersistentId, kind, itemid, size);
+   }
+
+   /**
+    * Looks for an already decoded bitmap without touching disk or network, so
+    * it is safe to call from getView.
+    * <p>
+    * @return the bitmap or null if it is not in memory
+    */
+   public Bitmap peek(Session session, String kind, int itemid, int size) {
+      return share(memory.get(key(session, kind, itemid, size)));
+   }
+
+   /**
+    * Gets the artwork from memory, disk or the server, in that order. This
+    * blocks and must be called off the UI thread.
+    * <p>
+    * @param session the session to download missing artwork with
+    * @param kind KIND_ALBUM for album (group) art, KIND_ITEM for track art
+    * @param itemid the album or track id
+    * @param size the requested width and height in pixels
+    * @return the bitmap or null if the server has no artwork
+    */
+   public Bitmap get(Session session, String kind, int itemid, int size) {
+      return share(fetch(session, kind, itemid, size));
+   }
+
+   /**
+    * Looks for an already decoded bitmap and counts it as shown by one more
+    * view, for {@link ArtworkLoader} on the UI thread.
+    * <p>
+    * @return the bitmap or null if it is not in memory
+    */
+   Bitmap acquire(Session session, String kind, int itemid, int size) {
+      synchronized (shown) {
+         // looked up under the lock so the bitmap cannot be pooled between
+         // leaving memory and being counted
+         final Bitmap bitmap = memory.get(key(session, kind, itemid, size));
+         return bitmap != null && hold(bitmap) ? bitmap : null;
+      }
+   }
+
+   /**
+    * Like {@link #get} but counts the bitmap as held by the caller, for
+    * {@link ArtworkLoader} workers.
+    * <p>
+    * @return the bitmap or null if there is none or it was reused meanwhile
+    */
+   Bitmap fetchHeld(Session session, String kind, int itemid, int size) {
+      final Bitmap bitmap = fetch(session, kind, itemid, size);
+      if (bitmap == null)
+         return null;
+      synchronized (shown) {
+         return hold(bitmap) ? bitmap : null;
+      }
+   }
+
+   /**
+    * Counts a bitmap the caller already holds as shown by one more view.
+    */
+   void retain(Bitmap bitmap) {
+      synchronized (shown) {
+         hold(bitmap);
+      }
+   }
+
+   /**
+    * Undoes one {@link #acquire}, {@link #fetchHeld} or {@link #retain}. The
+    * last release of a bitmap no longer in memory pools it.
+    */
+   void release(Bitmap bitmap) {
+      synchronized (shown) {
+         final Integer count = shown.get(bitmap);
+         if (count == null)
+            return;
+         if (count > 1) {
+            shown.put(bitmap, count - 1);
+            return;
+         }
+         shown.remove(bitmap);
+         if (dropped.remove(bitmap) != null)
+            pool(bitmap);
+      }
+   }
+
+   /**
+    * @return true if the bitmap is in memory, without handing it out
+    */
+   boolean contains(Session session, String kind, int itemid, int size) {
+      return memory.get(key(session, kind, itemid, size)) != null;
+   }
+
+   private Bitmap share(Bitmap bitmap) {
+      if (bitmap != null) {
+         synchronized (shown) {
+            shared.put(bitmap, Boolean.TRUE);
+         }
+      }
+      return bitmap;
+   }
+
+   private boolean hold(Bitmap bitmap) {
+      // a pooled bitmap can only be shown again if no decode took it yet
+      if (pooled.remove(bitmap) != null && !BitmapDecoder.reclaim(bitmap))
+         return false;
+      final Integer count = shown.get(bitmap);
+      shown.put(bitmap, count == null ? 1 : count + 1);
+      return true;
+   }
+
+   private void drop(Bitmap bitmap) {
+      synchronized (shown) {
+         if (shown.containsKey(bitmap))
+            dropped.put(bitmap, Boolean.TRUE);
+         else
+            pool(bitmap);
+      }
+   }
+
+   private void pool(Bitmap bitmap) {
+      if (!shared.containsKey(bitmap) && BitmapDecoder.recycle(bitmap))
+         pooled.put(bitmap, Boolean.TRUE);
+   }
+
+   private Bitmap fetch(final Session session, final String kind, final int itemid, final int size) {
+      final String key = key(session, kind, itemid, size);
+      Bitmap bitmap = memory.get(key);
+      if (bitmap != null || missing.contains(key))
+         return bitmap;
+
+      // only the first caller for a key runs the load, everyone else waits on
+      // the same task
+      FutureTask<Bitmap> task = new FutureTask<Bitmap>(new Callable<Bitmap>() {
+         public Bitmap call() throws Exception {
+            return load(session, kind, itemid, size, key);
+         }
+      });
+      final FutureTask<Bitmap> running = inflight.putIfAbsent(key, task);
+      if (running == null) {
+         try {
+            task.run();
+         } finally {
+            inflight.remove(key);
+         }
+      } else {
+         task = running;
+      }
+
+      try {
+         return task.get();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+         Log.w(TAG, "get:" + e.getCause());
+      }
+      return null;
+   }
+
+   private Bitmap load(Session session, String kind, int itemid, int size, String key) throws Exception {
+      final File file = new File(directory, key);
+      byte[] raw = readFile(file);
+      if (raw != null) {
+         Log.d(TAG, String.format("DISK cache hit for %s", key));
+         // touch the file so trimming keeps recently used artwork
+         file.setLastModified(System.currentTimeMillis());
+      } else {
+         raw = RequestHelper.request(url(session, kind, itemid, size), false);
+         if (raw.length > 0)
+            writeFile(file, raw);
+      }
+
+      Bitmap bitmap = null;
+      try {
+         bitmap = BitmapDecoder.decode(raw, size, size, true);
+      } catch (OutOfMemoryError e) {
+         Log.w(TAG, "Bitmap OOM:" + e.getMessage());
+         memory.evictAll();
+         return null;
+      }
+
+      if (bitmap == null) {
+         // remember artwork the server does not have so we stop asking
+         missing.add(key);
+         file.delete();
+      } else {
+         memory.put(key, bitmap);
+      }
+      return bitmap;
+   }
+
+   private static String url(Session session, String kind, int itemid, int size) {
+      if (KIND_ITEM.equals(kind)) {
+         // http://192.168.254.128:3689/databases/38/items/2854/extra_data/artwork?session-id=788509571&revision-number=196&mw=55&mh=55
+         return String.format("%s/databases/%d/items/%d/extra_data/artwork?session-id=%s&mw=%d&mh=%d",
+                  session.getRequestBase(), session.databaseId, itemid, session.sessionId, size, size);
+      }
+      return String.format("%s/databases/%d/groups/%d/extra_data/artwork?session-id=%s&mw=%d&mh=%d&group-type=albums",
+               session.getRequestBase(), session.databaseId, itemid, session.sessionId, size, size);
+   }
+
+   private byte[] readFile(File file) {
+      if (!file.exists())
+         return null;
+      FileInputStream in = null;
+      try {
+         in = new FileInputStream(file);
+         final byte[] raw = new byte[(int) file.length()];
+         int offset = 0, read;
+         while (offset < raw.length && (read = in.read(raw, offset, raw.length - offset)) != -1)
+            offset += read;
+         return offset == raw.length ? raw : null;
+      } catch (IOException e) {
+         Log.w(TAG, "readFile:" + e.getMessage());
+         return null;
+      } finally {
+         if (in != null) {
+            try {
+               in.close();
+            } catch (IOException e) {
+               // ignore
+            }
+         }
+      }
+   }
+
+   private void writeFile(File file, byte[] raw) {
+      synchronized (directory) {
+         if (diskUsed < 0) {
+            directory.mkdirs();
+            diskUsed = 0;
+            final File[] files = directory.listFiles();
+            if (files != null)
+               for (File f : files)
+                  diskUsed += f.length();
+         }
+
+         final File temp = new File(directory, file.getName() + ".tmp");
+         FileOutputStream out = null;
+         try {
+            out = new FileOutputStream(temp);
+            out.write(raw);
+            out.close();
+            out = null;
+            if (temp.renameTo(file))
+               diskUsed += raw.length;
+         } catch (IOException e) {
+            Log.w(TAG, "writeFile:" + e.getMessage());
+         } finally {
+            if (out != null) {
+               try {
+                  out.close();
+               } catch (IOException e) {
+                  // ignore
+               }
+            }
+            temp.delete();
+         }
+
+         if (diskUsed > DISK_BUDGET)
+            trim();
+      }
+   }
+
+   /**
+    * Deletes the least recently used files until the directory is back under
+    * three quarters of its budget, so we do not trim on every write.
+    */
+   private void trim() {
+      final File[] files = directory.listFiles();
+      if (files == null)
+         return;
+      Arrays.sort(files, new Comparator<File>() {
+         public int compare(File a, File b) {
+            final long diff = a.lastModified() - b.lastModified();
+            return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+         }
+      });
+      long used = 0;
+      for (File f : files)
+         used += f.length();
+      for (int i = 0; i < files.length && used > DISK_BUDGET * 3 / 4; i++) {
+         final long length = files[i].length();
+         if (files[i].delete())
+            used -= length;
+      }
+      Log.d(TAG, String.format("trimmed disk cache from %d to %d bytes", diskUsed, used));
+      diskUsed = used;
+   }
+}
@@ -0,0 +1,338 @@
+/*
+    TunesRemote+ - http://code.google.com/p/tunesremote-plus/
+    
+    Copyright (C) 2008 Jeffrey Sharkey, http://jsharkey.org/
+    Copyright (C) 2010 TunesRemote+, http://code.google.com/p/tunesremote-plus/
+    
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    The Initial Developer of the Original Code is Jeffrey Sharkey.
+    Portions created by Jeffrey Sharkey are
+    Copyright (C) 2008. Jeffrey Sharkey, http://jsharkey.org/
+    All Rights Reserved.
+ */
+package org.tunesremote.util;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+import org.tunesremote.daap.Session;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.widget.ImageView;
+
+/**
+ * Loads list artwork through the shared {@link ArtworkCache} in the order the
+ * user will see it. Each ImageView is bound to one row at a time, so when a
+ * row is recycled its old request is dropped before it ever reaches the
+ * network. Rows on screen are fetched first, then the next few rows in the
+ * direction the list is moving; how far ahead depends on how fast it is
+ * moving. Only a few downloads run at once so a fling never queues hundreds
+ * of stale requests ahead of the rows the user stopped on.
+ * <p>
+ * bind, onScroll and onScrollStateChanged must be called on the UI thread.
+ */
+public class ArtworkLoader {
+
+   public final static String TAG = ArtworkLoader.class.toString();
+
+   // iTunes serves artwork one request at a time per connection anyway
+   private final static int MAX_FETCHES = 3;
+   // rows prefetched when idle, and the most a fling can ask for
+   private final static int MIN_AHEAD = 4, MAX_AHEAD = 40;
+   // prefetch roughly what the list will scroll through in this much time
+   private final static int AHEAD_MILLIS = 750;
+
+   /**
+    * Supplies the rows the loader works on. Called from worker threads.
+    */
+   public interface Source {
+      public Session getSession();
+
+      /**
+       * @return the artwork item id at a position, or -1 if the row is not
+       *         loaded yet
+       */
+      public int getArtworkId(int position);
+   }
+
+   private final ArtworkCache cache;
+   private final String kind;
+   private final int size;
+   private final Bitmap blank;
+   private final Source source;
+   private final Handler handler = new Handler(Looper.getMainLooper());
+
+   // UI thread only: which row each view currently shows, and the artwork it
+   // holds in the cache while showing it
+   private final Map<ImageView, Long> bound = new WeakHashMap<ImageView, Long>();
+   private final Map<ImageView, Bitmap> showing = new WeakHashMap<ImageView, Bitmap>();
+
+   // guarded by this
+   private final TreeMap<Integer, Integer> wanted = new TreeMap<Integer, Integer>();
+   private final Set<Integer> started = new HashSet<Integer>();
+   private final Set<Integer> tried = new HashSet<Integer>();
+   private int first = -1, last = -1, total = 0;
+   private int direction = 1, ahead = MIN_AHEAD;
+   // set when the window moved since a worker last found nothing to prefetch
+   private boolean dirty = false;
+   private int running = 0;
+   private long skipped = 0, fetched = 0, prefetched = 0;
+
+   // UI thread only: velocity tracking
+   private int lastFirst = -1;
+   private long lastTime = 0;
+   private float velocity = 0;
+
+   public ArtworkLoader(ArtworkCache cache, String kind, int size, Bitmap blank, Source source) {
+      this.cache = cache;
+      this.kind = kind;
+      this.size = size;
+      this.blank = blank;
+      this.source = source;
+   }
+
+   /**
+    * Shows the artwork for a row in a view, from memory if possible, otherwise
+    * queues a fetch. Any earlier request made for this view is superseded.
+    */
+   public void bind(ImageView view, int position, int itemid) {
+      final Session session = source.getSession();
+      final Bitmap cached = session == null ? null : cache.acquire(session, kind, itemid, size);
+      final Long previous = bound.put(view, key(position, itemid));
+      view.setImageBitmap(cached != null ? cached : blank);
+      shown(view, cached);
+
+      synchronized (this) {
+         if (previous != null && (int) (previous >> 32) != position)
+            supersede((int) (previous >> 32));
+         if (cached != null || session == null)
+            return;
+         wanted.put(position, itemid);
+      }
+      schedule();
+   }
+
+   /**
+    * Clears the view of a row that has no data yet, dropping its request.
+    */
+   public void unbind(ImageView view) {
+      final Long previous = bound.remove(view);
+      view.setImageBitmap(blank);
+      shown(view, null);
+      if (previous != null) {
+         synchronized (this) {
+            supersede((int) (previous >> 32));
+         }
+      }
+   }
+
+   /**
+    * Forgets everything queued, for when the underlying list is replaced.
+    */
+   public synchronized void clear() {
+      wanted.clear();
+      tried.clear();
+      first = last = -1;
+      lastFirst = -1;
+      velocity = 0;
+   }
+
+   public void onScroll(int firstVisible, int visibleCount, int totalCount) {
+      final long now = SystemClock.uptimeMillis();
+      if (lastFirst >= 0 && now > lastTime && firstVisible != lastFirst) {
+         // smooth the rows per second so one janky frame does not swing it
+         final float rate = (firstVisible - lastFirst) * 1000f / (now - lastTime);
+         velocity = velocity * 0.5f + rate * 0.5f;
+      }
+      if (firstVisible != lastFirst) {
+         lastFirst = firstVisible;
+         lastTime = now;
+      }
+
+      final int travel = (int) (Math.abs(velocity) * AHEAD_MILLIS / 1000);
+      final int lastVisible = firstVisible + Math.max(visibleCount, 1) - 1;
+      final int heading = velocity == 0 ? direction : (velocity > 0 ? 1 : -1);
+      final int reach = Math.min(MAX_AHEAD, Math.max(Math.max(MIN_AHEAD, visibleCount), travel));
+      synchronized (this) {
+         if (first == firstVisible && last == lastVisible && total == totalCount && direction == heading
+                  && ahead == reach)
+            return;
+         first = firstVisible;
+         last = lastVisible;
+         total = totalCount;
+         direction = heading;
+         ahead = reach;
+         dirty = true;
+      }
+      schedule();
+   }
+
+   public void onScrollStateChanged(boolean idle) {
+      if (idle) {
+         velocity = 0;
+         synchronized (this) {
+            ahead = MIN_AHEAD;
+            dirty = true;
+         }
+         schedule();
+      }
+   }
+
+   /**
+    * @return counters for fetched, prefetched and skipped (superseded)
+    *         requests, for logging
+    */
+   public synchronized String getStats() {
+      return String.format("fetched=%d, prefetched=%d, skipped=%d, ahead=%d", fetched, prefetched, skipped, ahead);
+   }
+
+   /**
+    * Called on the UI thread with freshly fetched artwork for a bound view.
+    * Override to animate it in.
+    */
+   protected void display(ImageView view, Bitmap bitmap) {
+      view.setImageBitmap(bitmap);
+   }
+
+   /**
+    * Records what a view shows now, letting the cache pool what it showed
+    * before. The new bitmap must already be counted for the view.
+    */
+   private void shown(ImageView view, Bitmap bitmap) {
+      final Bitmap old = bitmap != null ? showing.put(view, bitmap) : showing.remove(view);
+      if (old != null)
+         cache.release(old);
+   }
+
+   private static long key(int position, int itemid) {
+      return ((long) position << 32) | (itemid & 0xffffffffL);
+   }
+
+   private void supersede(int position) {
+      if (wanted.remove(position) != null)
+         skipped++;
+   }
+
+   private synchronized void schedule() {
+      while (running < MAX_FETCHES && (wanted.size() > started.size() || dirty)) {
+         running++;
+         ThreadExecutor.runTask(ThreadExecutor.LANE_ARTWORK, worker);
+         // one worker is enough to find out whether there is anything ahead
+         dirty = false;
+      }
+   }
+
+   /**
+    * Picks the next row to fetch: rows on screen first, top to bottom, then
+    * the rows ahead of the scroll. Requests for rows that have left the
+    * screen are dropped here.
+    *
+    * @return {position, itemid, prefetch} or null when there is nothing to do
+    */
+   private synchronized int[] next(Session session) {
+      for (Iterator<Map.Entry<Integer, Integer>> it = wanted.entrySet().iterator(); it.hasNext();) {
+         final Map.Entry<Integer, Integer> entry = it.next();
+         final int position = entry.getKey();
+         if (first >= 0 && (position < first || position > last)) {
+            // the view was recycled or scrolled away before we got to it
+            it.remove();
+            skipped++;
+            continue;
+         }
+         if (started.contains(position))
+            continue;
+         it.remove();
+         return new int[] { position, entry.getValue(), 0 };
+      }
+
+      if (first < 0)
+         return null;
+      for (int i = 1; i <= ahead; i++) {
+         final int position = direction > 0 ? last + i : first - i;
+         if (position < 0 || position >= total)
+            break;
+         if (started.contains(position))
+            continue;
+         final int itemid = source.getArtworkId(position);
+         if (itemid < 0 || tried.contains(itemid) || cache.contains(session, kind, itemid, size))
+            continue;
+         return new int[] { position, itemid, 1 };
+      }
+      return null;
+   }
+
+   private final Runnable worker = new Runnable() {
+      public void run() {
+         while (true) {
+            final Session session = source.getSession();
+            final int[] job;
+            synchronized (ArtworkLoader.this) {
+               job = session == null ? null : next(session);
+               if (job == null) {
+                  running--;
+                  return;
+               }
+               started.add(job[0]);
+               tried.add(job[1]);
+               if (job[2] == 0) {
+                  fetched++;
+               } else {
+                  // there may be more rows ahead, let another worker look
+                  prefetched++;
+                  dirty = true;
+               }
+            }
+            schedule();
+
+            // held until delivered so it cannot be pooled on the way
+            final Bitmap bitmap = cache.fetchHeld(session, kind, job[1], size);
+
+            synchronized (ArtworkLoader.this) {
+               started.remove(job[0]);
+               wanted.remove(job[0]);
+            }
+            deliver(job[0], job[1], bitmap);
+         }
+      }
+   };
+
+   private void deliver(final int position, final int itemid, final Bitmap bitmap) {
+      handler.post(new Runnable() {
+         public void run() {
+            final Long key = key(position, itemid);
+            for (Map.Entry<ImageView, Long> entry : bound.entrySet()) {
+               if (key.equals(entry.getValue())) {
+                  if (bitmap != null) {
+                     cache.retain(bitmap);
+                     display(entry.getKey(), bitmap);
+                  } else {
+                     entry.getKey().setImageBitmap(blank);
+                  }
+                  shown(entry.getKey(), bitmap);
+               }
+            }
+            if (bitmap != null)
+               cache.release(bitmap);
+         }
+      });
+   }
+}
@@ -0,0 +1,196 @@
+/*
+    TunesRemote+ - http://code.google.com/p/tunesremote-plus/
+    
+    Copyright (C) 2008 Jeffrey Sharkey, http://jsharkey.org/
+    Copyright (C) 2010 TunesRemote+, http://code.google.com/p/tunesremote-plus/
+    
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    The Initial Developer of the Original Code is Jeffrey Sharkey.
+    Portions created by Jeffrey Sharkey are
+    Copyright (C) 2008. Jeffrey Sharkey, http://jsharkey.org/
+    All Rights Reserved.
+ */
+package org.tunesremote.util;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+/**
+ * Decodes artwork straight to the size it will be shown at. Bounds are read
+ * first so large covers are subsampled by the decoder instead of being
+ * inflated to full size and scaled afterwards, JPEG thumbnails (which have no
+ * alpha) are decoded as RGB_565 at half the memory, and bitmaps dropped from
+ * the artwork cache that no view shows any more are kept in a small pool,
+ * bucketed by size and config, to be decoded into again through inBitmap
+ * instead of allocating a new one per row.
+ */
+public class BitmapDecoder {
+
+   public final static String TAG = BitmapDecoder.class.toString();
+
+   // thumbnails are a few tens of KB, this keeps a couple of screens worth
+   private final static int POOL_BUDGET = (int) Math.min(Runtime.getRuntime().maxMemory() / 32, 4 * 1024 * 1024);
+
+   private static final Map<Long, LinkedList<Bitmap>> pool = new HashMap<Long, LinkedList<Bitmap>>();
+   private static int pooled = 0;
+   private static int reused = 0, allocated = 0;
+
+   /**
+    * Decodes an image no larger than needed for the requested size.
+    * <p>
+    * @param raw the compressed image
+    * @param width the width it will be shown at, 0 for full size
+    * @param height the height it will be shown at, 0 for full size
+    * @param thumbnail true to allow RGB_565 for opaque images
+    * @return the bitmap, or null if it could not be decoded
+    * @throws OutOfMemoryError after emptying the pool
+    */
+   public static Bitmap decode(byte[] raw, int width, int height, boolean thumbnail) {
+      if (raw == null || raw.length == 0)
+         return null;
+
+      final BitmapFactory.Options options = new BitmapFactory.Options();
+      options.inJustDecodeBounds = true;
+      BitmapFactory.decodeByteArray(raw, 0, raw.length, options);
+      if (options.outWidth <= 0 || options.outHeight <= 0)
+         return null;
+
+      options.inSampleSize = sampleSize(options.outWidth, options.outHeight, width, height);
+      if (options.inSampleSize > 1) {
+         // let the decoder say how it rounds the subsampled size
+         BitmapFactory.decodeByteArray(raw, 0, raw.length, options);
+      }
+      options.inJustDecodeBounds = false;
+      options.inPreferredConfig = thumbnail && "image/jpeg".equals(options.outMimeType) ? Bitmap.Config.RGB_565
+               : Bitmap.Config.ARGB_8888;
+
+      // before KitKat (19, newer than the SDK we build against) inBitmap only
+      // works for an exact size match without subsampling, our buckets are
+      // exact sizes so that is all we ask for
+      if (Helper.canUseApi(Build.VERSION_CODES.HONEYCOMB)
+               && (options.inSampleSize == 1 || Helper.canUseApi(19))) {
+         options.inMutable = true;
+         options.inBitmap = take(options.outWidth, options.outHeight, options.inPreferredConfig);
+      }
+
+      try {
+         try {
+            return BitmapFactory.decodeByteArray(raw, 0, raw.length, options);
+         } catch (IllegalArgumentException e) {
+            // the decoder would not reuse the pooled bitmap, allocate instead
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(raw, 0, raw.length, options);
+         }
+      } catch (OutOfMemoryError e) {
+         // give the pool back before the caller deals with it
+         clear();
+         throw e;
+      }
+   }
+
+   /**
+    * Offers a bitmap nobody displays any more for reuse by a later decode.
+    * <p>
+    * @return true if the bitmap went into the pool
+    */
+   public static boolean recycle(Bitmap bitmap) {
+      if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()
+               || !Helper.canUseApi(Build.VERSION_CODES.HONEYCOMB))
+         return false;
+      final int bytes = bitmap.getRowBytes() * bitmap.getHeight();
+      synchronized (pool) {
+         if (pooled + bytes > POOL_BUDGET)
+            return false;
+         final Long key = key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+         LinkedList<Bitmap> bucket = pool.get(key);
+         if (bucket == null) {
+            bucket = new LinkedList<Bitmap>();
+            pool.put(key, bucket);
+         }
+         bucket.addLast(bitmap);
+         pooled += bytes;
+      }
+      return true;
+   }
+
+   /**
+    * Takes a bitmap back out of the pool to show it again.
+    * <p>
+    * @return false if a decode already took it
+    */
+   public static boolean reclaim(Bitmap bitmap) {
+      synchronized (pool) {
+         final LinkedList<Bitmap> bucket = pool.get(key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig()));
+         if (bucket == null || !bucket.remove(bitmap))
+            return false;
+         pooled -= bitmap.getRowBytes() * bitmap.getHeight();
+         return true;
+      }
+   }
+
+   public static void clear() {
+      synchronized (pool) {
+         pool.clear();
+         pooled = 0;
+      }
+   }
+
+   /**
+    * @return pool hit counters for logging
+    */
+   public static String getStats() {
+      synchronized (pool) {
+         return String.format("reused=%d, allocated=%d, pooled=%d bytes", reused, allocated, pooled);
+      }
+   }
+
+   /**
+    * Picks the largest power of two that keeps the decoded image at least as
+    * big as the requested size.
+    */
+   static int sampleSize(int outWidth, int outHeight, int width, int height) {
+      int sample = 1;
+      if (width <= 0 || height <= 0)
+         return sample;
+      while (outWidth / (sample * 2) >= width && outHeight / (sample * 2) >= height)
+         sample *= 2;
+      return sample;
+   }
+
+   private static Bitmap take(int width, int height, Bitmap.Config config) {
+      synchronized (pool) {
+         final LinkedList<Bitmap> bucket = pool.get(key(width, height, config));
+         while (bucket != null && !bucket.isEmpty()) {
+            final Bitmap bitmap = bucket.removeFirst();
+            pooled -= bitmap.getRowBytes() * bitmap.getHeight();
+            if (!bitmap.isRecycled()) {
+               reused++;
+               return bitmap;
+            }
+         }
+         allocated++;
+         return null;
+      }
+   }
+
+   private static Long key(int width, int height, Bitmap.Config config) {
+      return Long.valueOf(((long) width << 32) | ((long) height << 8) | (config == null ? 0xff : config.ordinal()));
+   }
+}
@@ -0,0 +1,58 @@
+/*
+    TunesRemote+ - http://code.google.com/p/tunesremote-plus/
+    
+    Copyright (C) 2008 Jeffrey Sharkey, http://jsharkey.org/
+    Copyright (C) 2010 TunesRemote+, http://code.google.com/p/tunesremote-plus/
+    
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    The Initial Developer of the Original Code is Jeffrey Sharkey.
+    Portions created by Jeffrey Sharkey are
+    Copyright (C) 2008. Jeffrey Sharkey, http://jsharkey.org/
+    All Rights Reserved.
+ */
+
+package org.tunesremote.util;
+
+import org.tunesremote.daap.Status;
+
+import android.os.Handler;
+
+/**
+ * Passes Status updates on to a Handler as empty messages, so screens keep
+ * handling them on their own looper. Two of these are equal when they wrap
+ * the same Handler, unregistering with a fresh one works.
+ */
+public class HandlerListener implements Status.Listener {
+
+   private final Handler handler;
+
+   public HandlerListener(Handler handler) {
+      this.handler = handler;
+   }
+
+   public void statusChanged(int what) {
+      handler.sendEmptyMessage(what);
+   }
+
+   @Override
+   public boolean equals(Object o) {
+      return (o instanceof HandlerListener) && ((HandlerListener) o).handler == handler;
+   }
+
+   @Override
+   public int hashCode() {
+      return System.identityHashCode(handler);
+   }
+}
@@ -0,0 +1,368 @@
+/*
+    TunesRemote+ - http://code.google.com/p/tunesremote-plus/
+    
+    Copyright (C) 2008 Jeffrey Sharkey, http://jsharkey.org/
+    Copyright (C) 2010 TunesRemote+, http://code.google.com/p/tunesremote-plus/
+    
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    The Initial Developer of the Original Code is Jeffrey Sharkey.
+    Portions created by Jeffrey Sharkey are
+    Copyright (C) 2008. Jeffrey Sharkey, http://jsharkey.org/
+    All Rights Reserved.
+ */
+package org.tunesremote.util;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.tunesremote.TagListener;
+import org.tunesremote.daap.LibrarySnapshot;
+import org.tunesremote.daap.Response;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * SQLite backed {@link LibrarySnapshot}. Tracks are stored one row each and
+ * indexed by album and artist, the album list is stored in server order so
+ * its group ids stay available for artwork. Artists are derived from the
+ * tracks.
+ */
+public class LibraryDatabase extends SQLiteOpenHelper implements LibrarySnapshot {
+
+   public final static String TAG = LibraryDatabase.class.toString();
+
+   public final static String DB_NAME = "library";
+   public final static int DB_VERSION = 1;
+
+   public final static String TABLE_TRACK = "track";
+   public final static String TABLE_ALBUM = "album";
+   public final static String TABLE_SYNC = "sync";
+
+   public final static String FIELD_LIBRARY = "library";
+   public final static String FIELD_ID = "id";
+   public final static String FIELD_PERSISTENT_ID = "persistent_id";
+   public final static String FIELD_NAME = "name";
+   public final static String FIELD_ARTIST = "artist";
+   public final static String FIELD_ALBUM_ARTIST = "album_artist";
+   public final static String FIELD_ALBUM = "album";
+   public final static String FIELD_ALBUM_ID = "album_id";
+   public final static String FIELD_TIME = "time";
+   public final static String FIELD_RATING = "rating";
+   public final static String FIELD_TRACK_NUMBER = "track_number";
+   public final static String FIELD_DISC_NUMBER = "disc_number";
+   public final static String FIELD_POSITION = "position";
+   public final static String FIELD_REVISION = "revision";
+   public final static String FIELD_UPDATED = "updated";
+
+   // revision of every synced library, kept in memory so isReady() needs no
+   // query once a library has been seen
+   private final Map<String, Long> revisions = new HashMap<String, Long>();
+   private int albumPosition = 0;
+
+   public LibraryDatabase(Context context) {
+      super(context, DB_NAME, null, DB_VERSION);
+   }
+
+   @Override
+   public void onCreate(SQLiteDatabase db) {
+      db.execSQL("CREATE TABLE " + TABLE_TRACK + " (" + FIELD_LIBRARY + " TEXT, " + FIELD_ID + " INTEGER, "
+               + FIELD_PERSISTENT_ID + " INTEGER, " + FIELD_NAME + " TEXT, " + FIELD_ARTIST + " TEXT, "
+               + FIELD_ALBUM_ARTIST + " TEXT, " + FIELD_ALBUM + " TEXT, " + FIELD_ALBUM_ID + " INTEGER, " + FIELD_TIME
+               + " INTEGER, " + FIELD_RATING + " INTEGER, " + FIELD_TRACK_NUMBER + " INTEGER, " + FIELD_DISC_NUMBER
+               + " INTEGER, PRIMARY KEY (" + FIELD_LIBRARY + ", " + FIELD_ID + "))");
+      db.execSQL("CREATE INDEX track_album ON " + TABLE_TRACK + " (" + FIELD_LIBRARY + ", " + FIELD_ALBUM_ID + ")");
+      db.execSQL("CREATE INDEX track_artist ON " + TABLE_TRACK + " (" + FIELD_LIBRARY + ", " + FIELD_ARTIST + ")");
+      db.execSQL("CREATE TABLE " + TABLE_ALBUM + " (" + FIELD_LIBRARY + " TEXT, " + FIELD_ID + " INTEGER, "
+               + FIELD_PERSISTENT_ID + " INTEGER, " + FIELD_NAME + " TEXT, " + FIELD_ARTIST + " TEXT, "
+               + FIELD_POSITION + " INTEGER, PRIMARY KEY (" + FIELD_LIBRARY + ", " + FIELD_ID + "))");
+      db.execSQL("CREATE INDEX album_position ON " + TABLE_ALBUM + " (" + FIELD_LIBRARY + ", " + FIELD_POSITION
+               + ")");
+      db.execSQL("CREATE INDEX album_persistent ON " + TABLE_ALBUM + " (" + FIELD_LIBRARY + ", "
+               + FIELD_PERSISTENT_ID + ")");
+      db.execSQL("CREATE TABLE " + TABLE_SYNC + " (" + FIELD_LIBRARY + " TEXT PRIMARY KEY, " + FIELD_REVISION
+               + " INTEGER, " + FIELD_UPDATED + " INTEGER)");
+   }
+
+   @Override
+   public void onOpen(SQLiteDatabase db) {
+      super.onOpen(db);
+      // a sync writes the whole library in one transaction, with the write
+      // ahead log the lists keep reading the last commit meanwhile instead
+      // of waiting for it to finish
+      if (!db.isReadOnly() && Helper.canUseApi(Build.VERSION_CODES.HONEYCOMB))
+         db.enableWriteAheadLogging();
+   }
+
+   @Override
+   public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+      // a snapshot can always be downloaded again
+      db.execSQL("DROP TABLE IF EXISTS " + TABLE_TRACK);
+      db.execSQL("DROP TABLE IF EXISTS " + TABLE_ALBUM);
+      db.execSQL("DROP TABLE IF EXISTS " + TABLE_SYNC);
+      onCreate(db);
+   }
+
+   public long getRevision(String library) {
+      synchronized (revisions) {
+         Long revision = revisions.get(library);
+         if (revision == null) {
+            revision = Long.valueOf(0);
+            final Cursor c = getReadableDatabase().query(TABLE_SYNC, new String[] { FIELD_REVISION },
+                     FIELD_LIBRARY + " = ?", new String[] { library }, null, null, null);
+            if (c.moveToFirst())
+               revision = Long.valueOf(c.getLong(0));
+            c.close();
+            revisions.put(library, revision);
+         }
+         return revision.longValue();
+      }
+   }
+
+   public boolean isReady(String library) {
+      return library != null && getRevision(library) > 0;
+   }
+
+   public void readArtists(String library, TagListener listener) {
+      final Cursor c = getReadableDatabase().rawQuery(
+               "SELECT DISTINCT " + FIELD_ARTIST + " FROM " + TABLE_TRACK + " WHERE " + FIELD_LIBRARY + " = ? AND "
+                        + FIELD_ARTIST + " != '' ORDER BY " + FIELD_ARTIST + " COLLATE NOCASE",
+               new String[] { library });
+      try {
+         while (c.moveToNext()) {
+            final Response resp = new Response();
+            resp.put("mlit", c.getString(0));
+            listener.foundTag("mlit", resp);
+         }
+      } finally {
+         c.close();
+      }
+      listener.searchDone();
+   }
+
+   public long readArtists(String library, long start, long items, TagListener listener) {
+      final SQLiteDatabase db = getReadableDatabase();
+      final String where = " FROM " + TABLE_TRACK + " WHERE " + FIELD_LIBRARY + " = ? AND " + FIELD_ARTIST + " != ''";
+      final long total = count(db, "SELECT COUNT(DISTINCT " + FIELD_ARTIST + ")" + where, library);
+      if (items > 0) {
+         final Cursor c = db.rawQuery("SELECT DISTINCT " + FIELD_ARTIST + where + " ORDER BY " + FIELD_ARTIST
+                  + " COLLATE NOCASE LIMIT " + items + " OFFSET " + start, new String[] { library });
+         try {
+            while (c.moveToNext()) {
+               final Response resp = new Response();
+               resp.put("mlit", c.getString(0));
+               listener.foundTag("mlit", resp);
+            }
+         } finally {
+            c.close();
+         }
+      }
+      listener.searchDone();
+      return total;
+   }
+
+   public long readAlbums(String library, long start, long items, TagListener listener) {
+      final SQLiteDatabase db = getReadableDatabase();
+      final long total = count(db, "SELECT COUNT(*) FROM " + TABLE_ALBUM + " WHERE " + FIELD_LIBRARY + " = ?",
+               library);
+      if (items > 0) {
+         readAlbums(db.query(TABLE_ALBUM, new String[] { FIELD_ID, FIELD_PERSISTENT_ID, FIELD_NAME, FIELD_ARTIST },
+                  FIELD_LIBRARY + " = ?", new String[] { library }, null, null, FIELD_POSITION, start + "," + items),
+                  listener);
+      } else {
+         listener.searchDone();
+      }
+      return total;
+   }
+
+   private long count(SQLiteDatabase db, String sql, String library) {
+      final Cursor c = db.rawQuery(sql, new String[] { library });
+      try {
+         return c.moveToFirst() ? c.getLong(0) : 0;
+      } finally {
+         c.close();
+      }
+   }
+
+   public void readAlbums(String library, TagListener listener) {
+      final Cursor c = getReadableDatabase().query(TABLE_ALBUM,
+               new String[] { FIELD_ID, FIELD_PERSISTENT_ID, FIELD_NAME, FIELD_ARTIST }, FIELD_LIBRARY + " = ?",
+               new String[] { library }, null, null, FIELD_POSITION);
+      readAlbums(c, listener);
+   }
+
+   public void readAlbums(String library, String artist, TagListener listener) {
+      final Cursor c = getReadableDatabase().rawQuery(
+               "SELECT a." + FIELD_ID + ", a." + FIELD_PERSISTENT_ID + ", a." + FIELD_NAME + ", a." + FIELD_ARTIST
+                        + ", COUNT(t." + FIELD_ID + ") FROM " + TABLE_ALBUM + " a JOIN " + TABLE_TRACK + " t ON t."
+                        + FIELD_LIBRARY + " = a." + FIELD_LIBRARY + " AND t." + FIELD_ALBUM_ID + " = a."
+                        + FIELD_PERSISTENT_ID + " WHERE a." + FIELD_LIBRARY + " = ? AND t." + FIELD_ARTIST
+                        + " = ? GROUP BY a." + FIELD_ID + " ORDER BY a." + FIELD_NAME + " COLLATE NOCASE",
+               new String[] { library, artist });
+      readAlbums(c, listener);
+   }
+
+   private void readAlbums(Cursor c, TagListener listener) {
+      try {
+         while (c.moveToNext()) {
+            final Response resp = new Response();
+            resp.put("miid", c.getLong(0));
+            resp.put("mper", c.getLong(1));
+            resp.put("minm", c.getString(2));
+            resp.put("asaa", c.getString(3));
+            resp.put("asar", c.getString(3));
+            if (c.getColumnCount() > 4)
+               resp.put("mimc", c.getLong(4));
+            listener.foundTag("mlit", resp);
+         }
+      } finally {
+         c.close();
+      }
+      listener.searchDone();
+   }
+
+   public boolean readTracks(String library, String albumid, TagListener listener) {
+      // album ids arrive as the unsigned decimal form of the persistent id
+      final long album;
+      try {
+         album = new BigInteger(albumid).longValue();
+      } catch (NumberFormatException e) {
+         Log.w(TAG, "readTracks unexpected album id: " + albumid);
+         return false;
+      }
+      readTracks(FIELD_LIBRARY + " = ? AND " + FIELD_ALBUM_ID + " = ?",
+               new String[] { library, Long.toString(album) }, FIELD_DISC_NUMBER + ", " + FIELD_TRACK_NUMBER, listener);
+      return true;
+   }
+
+   public void readAllTracks(String library, String artist, TagListener listener) {
+      readTracks(FIELD_LIBRARY + " = ? AND " + FIELD_ARTIST + " = ?", new String[] { library, artist }, FIELD_ALBUM
+               + " COLLATE NOCASE, " + FIELD_DISC_NUMBER + ", " + FIELD_TRACK_NUMBER, listener);
+   }
+
+   public void readAllTracks(String library, TagListener listener) {
+      readTracks(FIELD_LIBRARY + " = ?", new String[] { library }, null, listener);
+   }
+
+   private void readTracks(String selection, String[] args, String order, TagListener listener) {
+      final Cursor c = getReadableDatabase().query(
+               TABLE_TRACK,
+               new String[] { FIELD_ID, FIELD_PERSISTENT_ID, FIELD_NAME, FIELD_ARTIST, FIELD_ALBUM_ARTIST,
+                        FIELD_ALBUM, FIELD_ALBUM_ID, FIELD_TIME, FIELD_RATING, FIELD_TRACK_NUMBER }, selection, args,
+               null, null, order);
+      try {
+         while (c.moveToNext()) {
+            final Response resp = new Response();
+            resp.put("miid", c.getLong(0));
+            resp.put("mper", c.getLong(1));
+            resp.put("minm", c.getString(2));
+            resp.put("asar", c.getString(3));
+            resp.put("asaa", c.getString(4));
+            resp.put("asal", c.getString(5));
+            resp.put("asai", c.getLong(6));
+            resp.put("astm", c.getLong(7));
+            resp.put("asur", c.getLong(8));
+            resp.put("astn", c.getLong(9));
+            listener.foundTag("mlit", resp);
+         }
+      } finally {
+         c.close();
+      }
+      listener.searchDone();
+   }
+
+   public void beginSync(String library, boolean full) {
+      final SQLiteDatabase db = getWritableDatabase();
+      db.beginTransaction();
+      if (full) {
+         db.delete(TABLE_TRACK, FIELD_LIBRARY + " = ?", new String[] { library });
+         db.delete(TABLE_ALBUM, FIELD_LIBRARY + " = ?", new String[] { library });
+      }
+   }
+
+   public void putTrack(String library, Response mlit) {
+      try {
+         final ContentValues values = new ContentValues();
+         values.put(FIELD_LIBRARY, library);
+         values.put(FIELD_ID, mlit.getNumberLong("miid"));
+         values.put(FIELD_PERSISTENT_ID, mlit.getNumberLong("mper"));
+         values.put(FIELD_NAME, mlit.getString("minm"));
+         values.put(FIELD_ARTIST, mlit.getString("asar"));
+         values.put(FIELD_ALBUM_ARTIST, mlit.getString("asaa"));
+         values.put(FIELD_ALBUM, mlit.getString("asal"));
+         values.put(FIELD_ALBUM_ID, mlit.getNumberLong("asai"));
+         values.put(FIELD_TIME, mlit.getNumberLong("astm"));
+         values.put(FIELD_RATING, mlit.getNumberLong("asur"));
+         values.put(FIELD_TRACK_NUMBER, mlit.getNumberLong("astn"));
+         values.put(FIELD_DISC_NUMBER, mlit.getNumberLong("asdn"));
+         getWritableDatabase().replace(TABLE_TRACK, null, values);
+      } catch (Exception e) {
+         Log.w(TAG, "putTrack:" + e.getMessage());
+      }
+   }
+
+   public void deleteTrack(String library, long id) {
+      getWritableDatabase().delete(TABLE_TRACK, FIELD_LIBRARY + " = ? AND " + FIELD_ID + " = ?",
+               new String[] { library, Long.toString(id) });
+   }
+
+   public void clearAlbums(String library) {
+      getWritableDatabase().delete(TABLE_ALBUM, FIELD_LIBRARY + " = ?", new String[] { library });
+      albumPosition = 0;
+   }
+
+   public void putAlbum(String library, Response mlit) {
+      try {
+         final ContentValues values = new ContentValues();
+         values.put(FIELD_LIBRARY, library);
+         values.put(FIELD_ID, mlit.getNumberLong("miid"));
+         values.put(FIELD_PERSISTENT_ID, mlit.getNumberLong("mper"));
+         values.put(FIELD_NAME, mlit.getString("minm"));
+         values.put(FIELD_ARTIST, mlit.getString("asar"));
+         values.put(FIELD_POSITION, albumPosition++);
+         getWritableDatabase().replace(TABLE_ALBUM, null, values);
+      } catch (Exception e) {
+         Log.w(TAG, "putAlbum:" + e.getMessage());
+      }
+   }
+
+   public void endSync(String library, long revision, boolean success) {
+      final SQLiteDatabase db = getWritableDatabase();
+      try {
+         if (success) {
+            final ContentValues values = new ContentValues();
+            values.put(FIELD_LIBRARY, library);
+            values.put(FIELD_REVISION, revision);
+            values.put(FIELD_UPDATED, System.currentTimeMillis());
+            db.replace(TABLE_SYNC, null, values);
+            db.setTransactionSuccessful();
+         }
+      } finally {
+         db.endTransaction();
+      }
+      if (success) {
+         synchronized (revisions) {
+            revisions.put(library, Long.valueOf(revision));
+         }
+      }
+      Log.d(TAG, String.format("endSync library=%s revision=%d success=%b", library, revision, success));
+   }
+}
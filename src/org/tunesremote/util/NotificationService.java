@@ -89,11 +89,9 @@ public class NotificationService extends Service implements AudioManager.OnAudio
                   nHelper.killNotification();
                return;
             }
-            // for some reason we are not correctly disposing of the
-            // session threads we create so we purge any existing ones
-            // before creating a new one
-            status = session.notificationStatus(statusUpdate);
-            status.updateHandler(statusUpdate);
+            // share the session status with the control screen so both
+            // always show the same track
+            status = session.registerStatus(statusListener);
 
             // push update through to make sure we get updated
             statusUpdate.sendEmptyMessage(Status.UPDATE_TRACK);
@@ -108,7 +106,7 @@ public class NotificationService extends Service implements AudioManager.OnAudio
       public void onServiceDisconnected(ComponentName className) {
          // make sure we clean up our handler-specific status
          Log.w(TAG, "onServiceDisconnected");
-         status.updateHandler(null);
+         status.removeListener(statusListener);
          backend = null;
          status = null;
          bound = false;
@@ -143,6 +141,8 @@ public class NotificationService extends Service implements AudioManager.OnAudio
       }
    };
 
+   protected final Status.Listener statusListener = new HandlerListener(statusUpdate);
+
    @Override
    public int onStartCommand(Intent intent, int flags, int startId) {
 
@@ -226,7 +226,7 @@ public class NotificationService extends Service implements AudioManager.OnAudio
       if (bound) {
          backend = null;
          if (session != null)
-            session.purgeNotificationStatus();
+            session.unregisterStatus(statusListener);
          session = null;
       }
 
@@ -262,6 +262,8 @@ public class NotificationService extends Service implements AudioManager.OnAudio
 
       private final Context mContext;
       private final NotificationManager nManager;
+      // the large icon scaled from the last cover we were given
+      private Bitmap scaledFrom = null, scaledCover = null;
 
       public final static int NOTIFICATION = 1;
 
@@ -274,15 +276,28 @@ public class NotificationService extends Service implements AudioManager.OnAudio
          nManager.cancel(NOTIFICATION);
       }
 
+      /**
+       * Scales the cover to the large icon size only when the cover changes,
+       * not on every play state or track text update.
+       */
+      private Bitmap scaleCover(Bitmap cover, int iconSize) {
+         if (cover == null)
+            return null;
+         if (cover != scaledFrom) {
+            scaledFrom = cover;
+            scaledCover = (cover.getWidth() == iconSize && cover.getHeight() == iconSize) ? cover : Bitmap
+                     .createScaledBitmap(cover, iconSize, iconSize, true);
+         }
+         return scaledCover;
+      }
+
       @TargetApi(16)
       public void updateNotification(String track, String artist, int playState) {
 
          if (Helper.canUseApi(Build.VERSION_CODES.JELLY_BEAN)) {
 
             int iconSize = getResources().getDimensionPixelSize(android.R.dimen.notification_large_icon_height);
-            Bitmap cover = null;
-            if (status.coverCache != null)
-               cover = Bitmap.createScaledBitmap(status.coverCache, iconSize, iconSize, false);
+            final Bitmap cover = scaleCover(status.getCover(Bitmap.class), iconSize);
             // Use the new-style notifications. Because we can only have 2
             // actions, the disconnect action is performed by swiping
             // the notification away.
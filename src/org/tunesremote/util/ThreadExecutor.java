@@ -24,45 +24,178 @@
  */
 package org.tunesremote.util;
 
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-import android.os.Process;
-import android.util.Log;
+import org.tunesremote.daap.Log;
+import org.tunesremote.daap.Platform;
 
 /**
- * ThreadPoolExecutor to reduce resources when running threads. Starts with a
- * pool size of 4 and can grow to 50. Uses java.util.Concurrency cleverness to
- * provide the quality pooling and thread safety.
+ * Runs background work in priority lanes. Each lane has its own small pool
+ * and queue, so a pause tap on the control lane never waits behind a screen
+ * full of artwork, and a burst of library pages cannot starve the status
+ * refreshes. Queues are unbounded, a busy lane makes its own work wait rather
+ * than throwing RejectedExecutionException at the caller.
+ * <p>
+ * Every submit returns a Future that can be cancelled, a cancelled task that
+ * has not started yet is taken out of its queue straight away.
  */
 public class ThreadExecutor {
    private static final String TAG = ThreadExecutor.class.toString();
-   private static final int CORE_POOL_SIZE = 5;
-   private static final int MAXIMUM_POOL_SIZE = 50;
+
+   /** Transport commands and anything else the user is waiting on. */
+   public static final int LANE_CONTROL = 0;
+   /** Now playing state: status refreshes and rating. */
+   public static final int LANE_STATUS = 1;
+   /** Library, playlist and search reads for the screen being shown. */
+   public static final int LANE_METADATA = 2;
+   /** Artwork for rows and covers on screen. */
+   public static final int LANE_ARTWORK = 3;
+   /** Work nobody is looking at yet: prefetch and library sync. */
+   public static final int LANE_PREFETCH = 4;
+
+   private static final String[] NAMES = { "control", "status", "metadata", "artwork", "prefetch" };
+   private static final int[] THREADS = { 2, 2, 4, 3, 2 };
+   private static final int[] PRIORITIES = { Platform.PRIORITY_DEFAULT, Platform.PRIORITY_DEFAULT,
+            Platform.PRIORITY_BACKGROUND, Platform.PRIORITY_BACKGROUND, Platform.PRIORITY_LOWEST };
    private static final int KEEP_ALIVE = 10;
-   private static final BlockingQueue<Runnable> sWorkQueue = new LinkedBlockingQueue<Runnable>(MAXIMUM_POOL_SIZE);
 
-   private static final ThreadFactory sThreadFactory = new ThreadFactory() {
-      private final AtomicInteger mCount = new AtomicInteger(1);
+   private static final Lane[] lanes = new Lane[NAMES.length];
+   static {
+      for (int i = 0; i < lanes.length; i++)
+         lanes[i] = new Lane(i);
+   }
+
+   /**
+    * Runs a task on the metadata lane, for general background work.
+    */
+   public static void runTask(Runnable task) {
+      submit(LANE_METADATA, task);
+   }
+
+   public static void runTask(int lane, Runnable task) {
+      submit(lane, task);
+   }
+
+   /**
+    * Queues a task on a lane.
+    *
+    * @param lane one of the LANE_ constants
+    * @return a Future that can cancel the task, interrupting it if it has
+    *         already started
+    */
+   public static Future<?> submit(int lane, Runnable task) {
+      return lanes[lane].submit(task);
+   }
 
-      public Thread newThread(Runnable r) {
-         final String threadName = "TunesRemote #" + mCount.getAndIncrement();
-         Log.d(TAG, String.format("Creating Thread: %s", threadName));
-         final Thread thread = new Thread(r, threadName);
-         Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
-         return thread;
+   /**
+    * @return queue depth, wait times and counts for every lane, one lane per
+    *         line
+    */
+   public static String getStats() {
+      final StringBuilder stats = new StringBuilder();
+      for (Lane lane : lanes) {
+         if (stats.length() > 0)
+            stats.append('\n');
+         lane.appendStats(stats);
       }
-   };
-   private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(CORE_POOL_SIZE, MAXIMUM_POOL_SIZE,
-            KEEP_ALIVE, TimeUnit.SECONDS, sWorkQueue, sThreadFactory);
+      return stats.toString();
+   }
 
-   public static void runTask(Runnable task) {
-      Log.d(TAG, String.format("Run Executor Task = %d", sWorkQueue.size()));
-      sExecutor.execute(task);
+   private static class Lane {
+      private final int id;
+      private final LinkedBlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>();
+      private final ThreadPoolExecutor executor;
+      private final AtomicInteger maxDepth = new AtomicInteger(0);
+      private final AtomicLong submitted = new AtomicLong(0), started = new AtomicLong(0),
+               cancelled = new AtomicLong(0), waited = new AtomicLong(0), maxWait = new AtomicLong(0);
+
+      Lane(final int id) {
+         this.id = id;
+         this.executor = new ThreadPoolExecutor(THREADS[id], THREADS[id], KEEP_ALIVE, TimeUnit.SECONDS, queue,
+                  new ThreadFactory() {
+                     private final AtomicInteger count = new AtomicInteger(1);
+
+                     public Thread newThread(final Runnable r) {
+                        final String threadName = "TunesRemote " + NAMES[id] + " #" + count.getAndIncrement();
+                        Log.d(TAG, String.format("Creating Thread: %s", threadName));
+                        return new Thread(new Runnable() {
+                           public void run() {
+                              // the priority belongs to the new thread, not to
+                              // whoever happened to submit the task
+                              Platform.threads().setPriority(PRIORITIES[id]);
+                              r.run();
+                           }
+                        }, threadName);
+                     }
+                  });
+         // threads start on demand and then stay, allowCoreThreadTimeOut
+         // would let them go but is not there before API 9
+      }
+
+      Future<?> submit(Runnable task) {
+         final Task future = new Task(this, task);
+         submitted.incrementAndGet();
+         executor.execute(future);
+         final int depth = queue.size();
+         if (depth > maxDepth.get())
+            maxDepth.set(depth);
+         return future;
+      }
+
+      void appendStats(StringBuilder stats) {
+         final long count = started.get();
+         stats.append(String.format("%s: depth=%d/%d, submitted=%d, cancelled=%d, wait avg=%dms max=%dms",
+                  NAMES[id], queue.size(), maxDepth.get(), submitted.get(), cancelled.get(),
+                  count == 0 ? 0 : waited.get() / count, maxWait.get()));
+      }
    }
 
+   private static class Task extends FutureTask<Void> {
+      private final Lane lane;
+      private final long queued = System.currentTimeMillis();
+
+      Task(Lane lane, Runnable task) {
+         super(task, null);
+         this.lane = lane;
+      }
+
+      @Override
+      public void run() {
+         final long wait = System.currentTimeMillis() - queued;
+         lane.started.incrementAndGet();
+         lane.waited.addAndGet(wait);
+         if (wait > lane.maxWait.get())
+            lane.maxWait.set(wait);
+         super.run();
+      }
+
+      @Override
+      public boolean cancel(boolean mayInterruptIfRunning) {
+         final boolean cancelled = super.cancel(mayInterruptIfRunning);
+         if (cancelled) {
+            lane.cancelled.incrementAndGet();
+            lane.queue.remove(this);
+         }
+         return cancelled;
+      }
+
+      @Override
+      protected void done() {
+         if (isCancelled())
+            return;
+         try {
+            get();
+         } catch (Exception e) {
+            // runTask callers never look at the future, do not lose the error
+            Log.w(TAG, "Task Exception:" + e.getCause());
+         }
+      }
+   }
 }
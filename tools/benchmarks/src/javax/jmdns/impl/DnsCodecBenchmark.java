@@ -0,0 +1,146 @@
+/*
+    TunesRemote+ - http://code.google.com/p/tunesremote-plus/
+    
+    Copyright (C) 2008 Jeffrey Sharkey, http://jsharkey.org/
+    Copyright (C) 2010 TunesRemote+, http://code.google.com/p/tunesremote-plus/
+    
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    The Initial Developer of the Original Code is Jeffrey Sharkey.
+    Portions created by Jeffrey Sharkey are
+    Copyright (C) 2008. Jeffrey Sharkey, http://jsharkey.org/
+    All Rights Reserved.
+ */
+package javax.jmdns.impl;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.jmdns.impl.DNSIncoming.MessageInputStream;
+import javax.jmdns.impl.constants.DNSConstants;
+import javax.jmdns.impl.constants.DNSRecordType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Decoding and encoding of mDNS packets: what every packet on the network
+ * costs us while browsing, and what answering and announcing costs.
+ * <p>
+ * Run with "-p packet=/path/to/payload.bin" to measure a captured packet
+ * instead of the built ones.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DnsCodecBenchmark {
+
+    @Param({ "announce", "query", "busy" })
+    public String           packet;
+
+    private DatagramPacket  datagram;
+    private byte[]          data;
+    private List<DNSRecord> records;
+    private DNSOutgoing     outgoing;
+
+    @Setup
+    public void setUp() throws IOException {
+        data = MdnsPackets.load(packet);
+        datagram = new DatagramPacket(data, data.length, InetAddress.getByName(DNSConstants.MDNS_GROUP), DNSConstants.MDNS_PORT);
+
+        // answer with what was in the packet, so captures work too
+        final DNSIncoming incoming = new DNSIncoming(datagram);
+        records = new ArrayList<DNSRecord>(incoming.getAllAnswers());
+        outgoing = encode();
+    }
+
+    /**
+     * Decodes a whole packet as the socket listener does.
+     */
+    @Benchmark
+    public DNSIncoming decode() throws IOException {
+        return new DNSIncoming(datagram);
+    }
+
+    /**
+     * Reads every name in the packet: question and record owners and the
+     * names inside PTR, SRV and NSEC data, which later names point back to.
+     */
+    @Benchmark
+    public void readName(Blackhole blackhole) {
+        final MessageInputStream in = new MessageInputStream(data, data.length);
+        in.skip(4);
+        final int questions = in.readUnsignedShort();
+        final int answers = in.readUnsignedShort() + in.readUnsignedShort() + in.readUnsignedShort();
+        for (int i = 0; i < questions; i++) {
+            blackhole.consume(in.readName());
+            in.skip(4);
+        }
+        for (int i = 0; i < answers; i++) {
+            blackhole.consume(in.readName());
+            final int type = in.readUnsignedShort();
+            in.skip(6);
+            final int length = in.readUnsignedShort();
+            final int end = data.length - in.available() + length;
+            if (type == DNSRecordType.TYPE_SRV.indexValue()) {
+                in.skip(6);
+                blackhole.consume(in.readName());
+            } else if (type == DNSRecordType.TYPE_PTR.indexValue() || type == DNSRecordType.TYPE_CNAME.indexValue() || type == DNSRecordType.TYPE_NSEC.indexValue()) {
+                blackhole.consume(in.readName());
+            }
+            in.skip(end - (data.length - in.available()));
+        }
+    }
+
+    /**
+     * Builds a response holding the packet's records.
+     */
+    @Benchmark
+    public DNSOutgoing addAnswer() throws IOException {
+        return encode();
+    }
+
+    /**
+     * Serializes a built response, done again for every send.
+     */
+    @Benchmark
+    public byte[] data() {
+        return outgoing.data();
+    }
+
+    private DNSOutgoing encode() throws IOException {
+        final DNSOutgoing out = new DNSOutgoing(DNSConstants.FLAGS_QR_RESPONSE | DNSConstants.FLAGS_AA, true, DNSConstants.MAX_MSG_ABSOLUTE);
+        for (DNSRecord record : records) {
+            out.addAnswer(record, 0);
+        }
+        return out;
+    }
+}
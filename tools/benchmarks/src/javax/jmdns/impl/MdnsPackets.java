@@ -0,0 +1,142 @@
+/*
+    TunesRemote+ - http://code.google.com/p/tunesremote-plus/
+    
+    Copyright (C) 2008 Jeffrey Sharkey, http://jsharkey.org/
+    Copyright (C) 2010 TunesRemote+, http://code.google.com/p/tunesremote-plus/
+    
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    The Initial Developer of the Original Code is Jeffrey Sharkey.
+    Portions created by Jeffrey Sharkey are
+    Copyright (C) 2008. Jeffrey Sharkey, http://jsharkey.org/
+    All Rights Reserved.
+ */
+package javax.jmdns.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.jmdns.impl.constants.DNSConstants;
+import javax.jmdns.impl.constants.DNSRecordClass;
+import javax.jmdns.impl.constants.DNSRecordType;
+
+/**
+ * mDNS packets like the ones a remote sees on a home network. Each is built
+ * with the records a real responder sends, so name compression and record
+ * mix match captures, or read from a captured UDP payload on disk.
+ */
+final class MdnsPackets {
+
+    private MdnsPackets() {
+    }
+
+    /**
+     * @param name announce, query or busy for a built packet, otherwise the
+     *            path of a file holding one captured UDP payload
+     */
+    static byte[] load(String name) throws IOException {
+        if (name.equals("announce")) {
+            return announce();
+        } else if (name.equals("query")) {
+            return query();
+        } else if (name.equals("busy")) {
+            return busy();
+        }
+        final InputStream in = new FileInputStream(new File(name));
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[DNSConstants.MAX_MSG_ABSOLUTE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * iTunes answering a remote looking for libraries: pointers for the
+     * library and the pairing service, then its SRV, TXT and address records.
+     */
+    static byte[] announce() throws IOException {
+        final DNSOutgoing out = new DNSOutgoing(DNSConstants.FLAGS_QR_RESPONSE | DNSConstants.FLAGS_AA, true, DNSConstants.MAX_MSG_ABSOLUTE);
+        library(out, "Fake Library", "9031099074C14E05", "Mac-mini", 1);
+        return out.data();
+    }
+
+    /**
+     * A remote browsing for every service it understands, listing the
+     * instances it already knows so responders can stay quiet.
+     */
+    static byte[] query() throws IOException {
+        final DNSOutgoing out = new DNSOutgoing(DNSConstants.FLAGS_QR_QUERY, true, DNSConstants.MAX_MSG_ABSOLUTE);
+        final String[] types = { "_touch-able._tcp.local.", "_daap._tcp.local.", "_home-sharing._tcp.local.", "_appletv-v2._tcp.local.", "_dacp._tcp.local." };
+        for (String type : types) {
+            out.addQuestion(DNSQuestion.newQuestion(type, DNSRecordType.TYPE_PTR, DNSRecordClass.CLASS_IN, false));
+        }
+        for (int i = 0; i < 4; i++) {
+            out.addAnswer(new DNSRecord.Pointer(types[i % 2], DNSRecordClass.CLASS_IN, false, 4500, "Library " + i + "." + types[i % 2]), 0);
+        }
+        return out.data();
+    }
+
+    /**
+     * A busy network answering at once: several libraries, speakers and
+     * other Apple services in one response.
+     */
+    static byte[] busy() throws IOException {
+        final DNSOutgoing out = new DNSOutgoing(DNSConstants.FLAGS_QR_RESPONSE | DNSConstants.FLAGS_AA, true, DNSConstants.MAX_MSG_ABSOLUTE);
+        library(out, "Living Room", "0A1B2C3D4E5F6071", "Living-Room-iMac", 2);
+        library(out, "Office", "1122334455667788", "Office-MacBook", 3);
+        library(out, "Kitchen Apple TV", "8877665544332211", "Kitchen-AppleTV", 4);
+        for (int i = 0; i < 4; i++) {
+            final String host = "Speaker-" + i + ".local.";
+            final String raop = String.format("%012X@Speaker %d._raop._tcp.local.", 0x001122334455L + i, i);
+            out.addAnswer(new DNSRecord.Pointer("_raop._tcp.local.", DNSRecordClass.CLASS_IN, false, 4500, raop), 0);
+            out.addAnswer(new DNSRecord.Service(raop, DNSRecordClass.CLASS_IN, true, 120, 0, 0, 5000 + i, host), 0);
+            out.addAnswer(new DNSRecord.Text(raop, DNSRecordClass.CLASS_IN, true, 4500, text("txtvers=1", "ch=2", "cn=0,1", "et=0,1", "sv=false", "da=true", "sr=44100", "ss=16", "pw=false", "vn=65537", "tp=TCP,UDP", "vs=105.1", "am=AirPort4,107", "sf=0x4")), 0);
+            out.addAnswer(new DNSRecord.IPv4Address(host, DNSRecordClass.CLASS_IN, true, 120, new byte[] { (byte) 192, (byte) 168, 1, (byte) (20 + i) }), 0);
+        }
+        return out.data();
+    }
+
+    private static void library(DNSOutgoing out, String name, String database, String host, int address) throws IOException {
+        final String hostName = host + ".local.";
+        final String daap = name + "._daap._tcp.local.";
+        final String touchable = database + "._touch-able._tcp.local.";
+        out.addAnswer(new DNSRecord.Pointer("_daap._tcp.local.", DNSRecordClass.CLASS_IN, false, 4500, daap), 0);
+        out.addAnswer(new DNSRecord.Pointer("_touch-able._tcp.local.", DNSRecordClass.CLASS_IN, false, 4500, touchable), 0);
+        out.addAdditionalAnswer(null, new DNSRecord.Service(daap, DNSRecordClass.CLASS_IN, true, 120, 0, 0, 3689, hostName));
+        out.addAdditionalAnswer(null, new DNSRecord.Text(daap, DNSRecordClass.CLASS_IN, true, 4500, text("txtvers=1", "Database ID=" + database, "Machine ID=" + database.substring(4), "Machine Name=" + name, "Version=196618", "iTSh Version=196618", "Password=false", "MID=0x" + database, "dmv=131077", "OSsi=0x1F5")));
+        out.addAdditionalAnswer(null, new DNSRecord.Service(touchable, DNSRecordClass.CLASS_IN, true, 120, 0, 0, 3689, hostName));
+        out.addAdditionalAnswer(null, new DNSRecord.Text(touchable, DNSRecordClass.CLASS_IN, true, 4500, text("txtvers=1", "Ver=131075", "DbId=" + database, "CtlN=" + name, "OSsi=0x1F5", "iV=196618", "iTSh Version=196618", "MID=0x" + database, "dmv=131077")));
+        out.addAdditionalAnswer(null, new DNSRecord.IPv4Address(hostName, DNSRecordClass.CLASS_IN, true, 120, new byte[] { (byte) 192, (byte) 168, 1, (byte) address }));
+        out.addAdditionalAnswer(null, new DNSRecord.IPv6Address(hostName, DNSRecordClass.CLASS_IN, true, 120, new byte[] { (byte) 0xfe, (byte) 0x80, 0, 0, 0, 0, 0, 0, 0x02, 0x1b, 0x63, (byte) 0xff, (byte) 0xfe, 0x12, 0x34, (byte) address }));
+    }
+
+    private static byte[] text(String... entries) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (String entry : entries) {
+            final byte[] bytes = entry.getBytes("UTF-8");
+            out.write(bytes.length);
+            out.write(bytes);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+    TunesRemote+ - http://code.google.com/p/tunesremote-plus/
+    
+    Copyright (C) 2008 Jeffrey Sharkey, http://jsharkey.org/
+    Copyright (C) 2010 TunesRemote+, http://code.google.com/p/tunesremote-plus/
+    
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    The Initial Developer of the Original Code is Jeffrey Sharkey.
+    Portions created by Jeffrey Sharkey are
+    Copyright (C) 2008. Jeffrey Sharkey, http://jsharkey.org/
+    All Rights Reserved.
+ */
+package org.tunesremote.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.tunesremote.TagListener;
+import org.tunesremote.daap.ContentCodes;
+import org.tunesremote.daap.Response;
+import org.tunesremote.daap.ResponseParser;
+import org.tunesremote.fake.Listings;
+
+/**
+ * Parsing of the library listings the remote downloads, using the same
+ * payloads the fake server sends. Scores are listings per second, so divide
+ * by the rows for a per row cost.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class DmapParseBenchmark {
+
+   private final static Pattern MLIT_PATTERN = Pattern.compile("mlit");
+   private final static int MLIT = ContentCodes.tag("mlit");
+
+   @Param({ "artists", "albums", "tracks" })
+   public String listing;
+
+   @Param({ "1000", "10000", "100000" })
+   public int rows;
+
+   private byte[] raw;
+   // artist names are plain mlit strings rather than branches
+   private boolean haltmlit;
+   private Response list;
+
+   @Setup
+   public void setUp() throws IOException {
+      if (listing.equals("artists")) {
+         raw = Listings.artistListing(rows, 1);
+         haltmlit = true;
+      } else if (listing.equals("albums")) {
+         raw = Listings.albumListing(rows, 1);
+      } else {
+         raw = Listings.trackListing(rows, 1);
+      }
+      final Response parsed = ResponseParser.performParse(new ByteArrayInputStream(raw), haltmlit);
+      final Response container = parsed.getNested(ContentCodes.tag(listing.equals("artists") ? "abro"
+               : listing.equals("albums") ? "agal" : "apso"));
+      list = container.getNested(ContentCodes.tag(haltmlit ? "abar" : "mlcl"));
+   }
+
+   /**
+    * Streams the listing to a listener, the way the library screens read it.
+    */
+   @Benchmark
+   public int performSearch(final Blackhole blackhole) throws IOException {
+      return ResponseParser.performSearch(raw, new TagListener() {
+         public void foundTag(String tag, Response resp) {
+            blackhole.consume(resp);
+         }
+
+         public void searchDone() {
+         }
+      }, MLIT_PATTERN, haltmlit);
+   }
+
+   /**
+    * Parses the whole listing into one Response tree.
+    */
+   @Benchmark
+   public Response performParse() throws IOException {
+      return ResponseParser.performParse(new ByteArrayInputStream(raw), haltmlit);
+   }
+
+   /**
+    * Collects the rows of an already parsed listing.
+    */
+   @Benchmark
+   public List<?> findArray() {
+      return haltmlit ? list.findStringArray(MLIT) : list.findArray(MLIT);
+   }
+}
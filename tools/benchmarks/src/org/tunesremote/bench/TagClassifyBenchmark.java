@@ -0,0 +1,137 @@
+/*
+    TunesRemote+ - http://code.google.com/p/tunesremote-plus/
+    
+    Copyright (C) 2008 Jeffrey Sharkey, http://jsharkey.org/
+    Copyright (C) 2010 TunesRemote+, http://code.google.com/p/tunesremote-plus/
+    
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    The Initial Developer of the Original Code is Jeffrey Sharkey.
+    Portions created by Jeffrey Sharkey are
+    Copyright (C) 2008. Jeffrey Sharkey, http://jsharkey.org/
+    All Rights Reserved.
+ */
+package org.tunesremote.bench;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tunesremote.daap.ContentCodes;
+import org.tunesremote.fake.Listings;
+
+/**
+ * Tag classification on its own, the regular expressions the parser used to
+ * run against every tag next to the ContentCodes table that replaced them,
+ * over the tags of a track listing in wire order.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TagClassifyBenchmark {
+
+   // as they were in ResponseParser
+   private final static Pattern BRANCHES = Pattern
+            .compile("(casp|cmst|mlog|agal|mccr|mlcl|mdcl|mshl|mlit|abro|abar|agar|apso|caci|avdb|cmgt|aply|adbs)");
+   private final static Pattern STRINGS = Pattern
+            .compile("(minm|cann|cana|cang|canl|asaa|asal|asar|ascn|asgn|assa|assu|mcnm|mcna)");
+   private final static Pattern RAWS = Pattern.compile("(canp)");
+
+   @Param({ "1000", "10000", "100000" })
+   public int rows;
+
+   private int[] tags;
+   private byte[][] keys;
+
+   @Setup
+   public void setUp() {
+      final byte[] raw = Listings.trackListing(rows, 1);
+      tags = new int[raw.length / 8];
+      final int count = walk(raw, 0, raw.length, 0);
+      tags = Arrays.copyOf(tags, count);
+      keys = new byte[count][];
+      for (int i = 0; i < count; i++) {
+         keys[i] = new byte[] { (byte) (tags[i] >>> 24), (byte) (tags[i] >>> 16), (byte) (tags[i] >>> 8),
+                  (byte) tags[i] };
+      }
+   }
+
+   private int walk(byte[] raw, int offset, int end, int count) {
+      while (offset < end) {
+         final int tag = readInt(raw, offset);
+         final int length = readInt(raw, offset + 4);
+         tags[count++] = tag;
+         if (ContentCodes.type(tag) == ContentCodes.TYPE_BRANCH)
+            count = walk(raw, offset + 8, offset + 8 + length, count);
+         offset += 8 + length;
+      }
+      return count;
+   }
+
+   private static int readInt(byte[] raw, int offset) {
+      return (raw[offset] & 0xff) << 24 | (raw[offset + 1] & 0xff) << 16 | (raw[offset + 2] & 0xff) << 8
+               | (raw[offset + 3] & 0xff);
+   }
+
+   /**
+    * The old way: a String per tag, then up to three regex matches.
+    */
+   @Benchmark
+   public int regex() throws UnsupportedEncodingException {
+      int branches = 0;
+      for (byte[] key : keys) {
+         final String name = new String(key, "UTF-8");
+         if (BRANCHES.matcher(name).matches())
+            branches++;
+         else if (STRINGS.matcher(name).matches())
+            branches--;
+         else if (RAWS.matcher(name).matches())
+            branches += 2;
+      }
+      return branches;
+   }
+
+   /**
+    * The packed int tag looked up in the content code table.
+    */
+   @Benchmark
+   public int table() {
+      int branches = 0;
+      for (int tag : tags) {
+         final int type = ContentCodes.type(tag);
+         if (type == ContentCodes.TYPE_BRANCH)
+            branches++;
+         else if (type == ContentCodes.TYPE_STRING)
+            branches--;
+         else if (type == ContentCodes.TYPE_RAW)
+            branches += 2;
+      }
+      return branches;
+   }
+}
@@ -0,0 +1,127 @@
+/*
+    TunesRemote+ - http://code.google.com/p/tunesremote-plus/
+    
+    Copyright (C) 2008 Jeffrey Sharkey, http://jsharkey.org/
+    Copyright (C) 2010 TunesRemote+, http://code.google.com/p/tunesremote-plus/
+    
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    The Initial Developer of the Original Code is Jeffrey Sharkey.
+    Portions created by Jeffrey Sharkey are
+    Copyright (C) 2008. Jeffrey Sharkey, http://jsharkey.org/
+    All Rights Reserved.
+ */
+package org.tunesremote.fake;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+/**
+ * Writes DMAP responses: four character tag, four byte big endian length,
+ * value. Branches are opened and closed around their children and their
+ * lengths filled in on close, so a whole response is built in one pass
+ * without knowing sizes up front.
+ */
+final class DmapWriter {
+
+   private byte[] buffer;
+   private int size = 0;
+   private final int[] open = new int[32];
+   private int depth = 0;
+
+   DmapWriter(int capacity) {
+      this.buffer = new byte[Math.max(capacity, 64)];
+   }
+
+   DmapWriter open(String tag) {
+      header(tag, 0);
+      open[depth++] = size;
+      return this;
+   }
+
+   DmapWriter close() {
+      final int start = open[--depth];
+      final int length = size - start;
+      buffer[start - 4] = (byte) (length >>> 24);
+      buffer[start - 3] = (byte) (length >>> 16);
+      buffer[start - 2] = (byte) (length >>> 8);
+      buffer[start - 1] = (byte) length;
+      return this;
+   }
+
+   DmapWriter string(String tag, String value) {
+      return raw(tag, utf8(value));
+   }
+
+   DmapWriter raw(String tag, byte[] value) {
+      header(tag, value.length);
+      ensure(value.length);
+      System.arraycopy(value, 0, buffer, size, value.length);
+      size += value.length;
+      return this;
+   }
+
+   DmapWriter u8(String tag, long value) {
+      return number(tag, value, 1);
+   }
+
+   DmapWriter u16(String tag, long value) {
+      return number(tag, value, 2);
+   }
+
+   DmapWriter u32(String tag, long value) {
+      return number(tag, value, 4);
+   }
+
+   DmapWriter u64(String tag, long value) {
+      return number(tag, value, 8);
+   }
+
+   byte[] toByteArray() {
+      if (depth != 0)
+         throw new IllegalStateException(depth + " branches still open");
+      return Arrays.copyOf(buffer, size);
+   }
+
+   private DmapWriter number(String tag, long value, int length) {
+      header(tag, length);
+      ensure(length);
+      for (int shift = (length - 1) * 8; shift >= 0; shift -= 8)
+         buffer[size++] = (byte) (value >>> shift);
+      return this;
+   }
+
+   private void header(String tag, int length) {
+      ensure(8);
+      for (int i = 0; i < 4; i++)
+         buffer[size++] = (byte) tag.charAt(i);
+      buffer[size++] = (byte) (length >>> 24);
+      buffer[size++] = (byte) (length >>> 16);
+      buffer[size++] = (byte) (length >>> 8);
+      buffer[size++] = (byte) length;
+   }
+
+   private void ensure(int extra) {
+      if (size + extra > buffer.length)
+         buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+   }
+
+   static byte[] utf8(String value) {
+      try {
+         return value.getBytes("UTF-8");
+      } catch (UnsupportedEncodingException e) {
+         throw new IllegalStateException(e);
+      }
+   }
+}
@@ -0,0 +1,807 @@
+/*
+    TunesRemote+ - http://code.google.com/p/tunesremote-plus/
+    
+    Copyright (C) 2008 Jeffrey Sharkey, http://jsharkey.org/
+    Copyright (C) 2010 TunesRemote+, http://code.google.com/p/tunesremote-plus/
+    
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    The Initial Developer of the Original Code is Jeffrey Sharkey.
+    Portions created by Jeffrey Sharkey are
+    Copyright (C) 2008. Jeffrey Sharkey, http://jsharkey.org/
+    All Rights Reserved.
+ */
+package org.tunesremote.fake;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.imageio.ImageIO;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A stand-in for iTunes that answers the DACP requests the remote makes,
+ * backed by a synthetic library of any size. It is meant for profiling and
+ * for reproducing problems without a real library: responses can be delayed
+ * and throttled to look like a slow network, and traffic from a real server
+ * can be recorded once and replayed afterwards.
+ * <p>
+ * It runs on a desktop JVM only, using the HttpServer that comes with the
+ * JDK, and can be started from the command line or embedded in a benchmark:
+ *
+ * <pre>
+ * java -jar fakeserver.jar [--port 3689] [--tracks 10000] [--seed 1]
+ *          [--latency ms] [--bandwidth bytes/s] [--gzip]
+ *          [--record dir --upstream http://host:3689 | --replay dir]
+ * </pre>
+ *
+ * Point the remote at it with "Add library manually". Any pairing guid is
+ * accepted.
+ */
+public final class FakeDacpServer {
+
+   public final static int DEFAULT_PORT = 3689;
+
+   final static long DATABASE_ID = 1, LIBRARY_ID = 1, MUSIC_ID = 2;
+   final static long DATABASE_PERSISTENT = 0x9031099074C14E05L, LIBRARY_PERSISTENT = 0x00A1E1854E0B9A1BL,
+            MUSIC_PERSISTENT = 0x0B6E66ED9C4F8A21L;
+   final static int LIBRARY_REVISION = 2;
+
+   // how long status and update polls are held open waiting for a change
+   private final static long POLL_MILLIS = 30000;
+   private final static int ARTWORK_SLOTS = 64;
+
+   private final static String DMAP = "application/x-dmap-tagged";
+   private final static Pattern INDEX = Pattern.compile("(\\d+)-(\\d*)");
+   private final static Pattern ALBUM_QUERY = Pattern.compile("'daap\\.songalbumid:(-?\\d+)'");
+   private final static Pattern ARTIST_QUERY = Pattern.compile("'daap\\.songartist:([^'*]*)'");
+   private final static Pattern ITEM_QUERY = Pattern.compile("'dmap\\.itemid:(0x[0-9a-fA-F]+|\\d+)'");
+   private final static Pattern SEARCH_QUERY = Pattern.compile("'dmap\\.itemname:\\*([^'*]*)\\*'");
+   private final static Pattern CONTAINER_ITEM = Pattern.compile("'dmap\\.containeritemid:(0x[0-9a-fA-F]+|\\d+)'");
+   private final static Pattern ITEM_ARTWORK = Pattern.compile("/databases/\\d+/items/(\\d+)/extra_data/artwork");
+   private final static Pattern GROUP_ARTWORK = Pattern.compile("/databases/\\d+/groups/(\\d+)/extra_data/artwork");
+   private final static Pattern CONTAINER_ITEMS = Pattern.compile("/databases/\\d+/containers/(\\d+)/items");
+
+   private final SyntheticLibrary library;
+   private final Shaper shaper;
+   private final TrafficStore store;
+   private final String upstream;
+   private final int port;
+   private final Random random = new Random();
+   private final Set<String> sessions = new HashSet<String>();
+   private final Map<Long, Integer> ratings = new HashMap<Long, Integer>();
+   private final Map<String, byte[]> artwork = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+         return size() > ARTWORK_SLOTS;
+      }
+   };
+
+   // play state, guarded by this
+   private int[] queue = new int[0];
+   private int position = 0;
+   private int playStatus = 2; // 2 stopped, 3 paused, 4 playing
+   private int shuffle = 0, repeat = 0, visualizer = 0, fullscreen = 0;
+   private long volume = 60;
+   private long elapsed = 0, resumed = 0;
+   private long revision = 2;
+
+   private HttpServer server;
+   private ExecutorService handlers;
+   private ScheduledExecutorService clock;
+
+   /**
+    * @param port the port to listen on, 0 for any free one
+    * @param library the library to serve, may be null when replaying
+    * @param shaper how to pace responses
+    * @param store recorded traffic to replay or record to, null to serve the
+    *           library
+    * @param upstream the real server to record from, null to replay
+    */
+   public FakeDacpServer(int port, SyntheticLibrary library, Shaper shaper, TrafficStore store, String upstream) {
+      this.port = port;
+      this.library = library;
+      this.shaper = shaper;
+      this.store = store;
+      this.upstream = upstream;
+   }
+
+   public FakeDacpServer(int port, int tracks, long seed) {
+      this(port, new SyntheticLibrary(tracks, seed), new Shaper(0, 0, false), null, null);
+   }
+
+   public synchronized void start() throws IOException {
+      handlers = Executors.newCachedThreadPool(daemons("fakedacp-http"));
+      clock = Executors.newSingleThreadScheduledExecutor(daemons("fakedacp-clock"));
+      // without this small responses wait on delayed acks and every request
+      // looks 40ms slower than it is
+      if (System.getProperty("sun.net.httpserver.nodelay") == null)
+         System.setProperty("sun.net.httpserver.nodelay", "true");
+      server = HttpServer.create(new InetSocketAddress(port), 64);
+      server.setExecutor(handlers);
+      server.createContext("/", new HttpHandler() {
+         public void handle(HttpExchange exchange) throws IOException {
+            try {
+               FakeDacpServer.this.handle(exchange);
+            } catch (Exception e) {
+               System.err.println(exchange.getRequestURI() + " failed: " + e);
+               shaper.send(exchange, 500, "text/plain", DmapWriter.utf8(String.valueOf(e)));
+            }
+         }
+      });
+      server.start();
+      if (library != null) {
+         clock.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+               tick();
+            }
+         }, 250, 250, TimeUnit.MILLISECONDS);
+      }
+   }
+
+   public synchronized void stop() {
+      if (server == null)
+         return;
+      server.stop(0);
+      handlers.shutdownNow();
+      clock.shutdownNow();
+      server = null;
+      // let held polls answer
+      notifyAll();
+   }
+
+   public synchronized int getPort() {
+      return server == null ? port : server.getAddress().getPort();
+   }
+
+   private void handle(HttpExchange exchange) throws Exception {
+      final URI uri = exchange.getRequestURI();
+      if (store != null) {
+         final TrafficStore.Entry entry = upstream != null ? store.record(upstream, uri) : store.replay(TrafficStore
+                  .key(uri));
+         if (entry == null)
+            shaper.send(exchange, 404, "text/plain", DmapWriter.utf8("not recorded: " + TrafficStore.key(uri)));
+         else
+            shaper.send(exchange, entry.code, entry.type, entry.body);
+         return;
+      }
+
+      final String path = uri.getRawPath();
+      final Map<String, String> params = parameters(uri.getRawQuery());
+
+      if (path.equals("/server-info")) {
+         send(exchange, serverInfo());
+         return;
+      } else if (path.equals("/login")) {
+         send(exchange, login());
+         return;
+      }
+
+      final String session = params.get("session-id");
+      synchronized (this) {
+         if (session == null || !sessions.contains(session)) {
+            shaper.send(exchange, 403, "text/plain", null);
+            return;
+         }
+      }
+
+      final Matcher containerItems = CONTAINER_ITEMS.matcher(path);
+      final Matcher itemArtwork = ITEM_ARTWORK.matcher(path);
+      final Matcher groupArtwork = GROUP_ARTWORK.matcher(path);
+      if (path.equals("/logout")) {
+         synchronized (this) {
+            sessions.remove(session);
+         }
+         send(exchange, null);
+      } else if (path.equals("/update")) {
+         send(exchange, update(params));
+      } else if (path.equals("/databases")) {
+         send(exchange, databases());
+      } else if (path.matches("/databases/\\d+/containers")) {
+         send(exchange, containers());
+      } else if (containerItems.matches()) {
+         send(exchange, items("apso", Long.parseLong(containerItems.group(1)), params));
+      } else if (path.matches("/databases/\\d+/items")) {
+         send(exchange, items("adbs", LIBRARY_ID, params));
+      } else if (path.matches("/databases/\\d+/groups")) {
+         send(exchange, groups(params));
+      } else if (path.matches("/databases/\\d+/browse/artists")) {
+         send(exchange, artists(params));
+      } else if (itemArtwork.matches()) {
+         final int track = Integer.parseInt(itemArtwork.group(1)) - 1;
+         sendArtwork(exchange, track >= 0 && track < library.tracks ? library.trackAlbum[track] : -1, params);
+      } else if (groupArtwork.matches()) {
+         sendArtwork(exchange, Integer.parseInt(groupArtwork.group(1)) - 1, params);
+      } else if (path.equals("/ctrl-int/1/nowplayingartwork")) {
+         final int album;
+         synchronized (this) {
+            album = playStatus == 2 ? -1 : library.trackAlbum[queue[position]];
+         }
+         sendArtwork(exchange, album, params);
+      } else if (path.equals("/ctrl-int/1/playstatusupdate")) {
+         send(exchange, playStatus(parseLong(params.get("revision-number"), 1)));
+      } else if (path.equals("/ctrl-int/1/items")) {
+         send(exchange, queueItems(params));
+      } else if (path.equals("/ctrl-int/1/getproperty")) {
+         send(exchange, properties());
+      } else if (path.equals("/ctrl-int/1/setproperty")) {
+         setProperties(params);
+         send(exchange, null);
+      } else if (path.equals("/ctrl-int/1/getspeakers")) {
+         send(exchange, speakers());
+      } else if (path.startsWith("/ctrl-int/1/")) {
+         command(path.substring("/ctrl-int/1/".length()), params);
+         send(exchange, null);
+      } else {
+         shaper.send(exchange, 404, "text/plain", null);
+      }
+   }
+
+   private void send(HttpExchange exchange, byte[] body) throws IOException {
+      shaper.send(exchange, 200, DMAP, body);
+   }
+
+   private static byte[] serverInfo() {
+      return new DmapWriter(256).open("msrv").u32("mstt", 200).u32("mpro", 0x00020000).u32("apro", 0x0003000a)
+               .string("minm", "Fake Library").u8("mslr", 1).u32("mstm", 1800).u8("msal", 1).u8("msup", 1)
+               .u8("msqy", 1).u8("msbr", 1).u32("msdc", 1).close().toByteArray();
+   }
+
+   private synchronized byte[] login() {
+      final String session = Long.toString(1 + random.nextInt(Integer.MAX_VALUE));
+      sessions.add(session);
+      return new DmapWriter(32).open("mlog").u32("mstt", 200).u32("mlid", Long.parseLong(session)).close()
+               .toByteArray();
+   }
+
+   private byte[] update(Map<String, String> params) throws InterruptedException {
+      // the library never changes, so a poll for a newer revision only ends
+      // when it times out
+      if (parseLong(params.get("revision-number"), 1) >= LIBRARY_REVISION) {
+         synchronized (this) {
+            wait(POLL_MILLIS);
+         }
+      }
+      return new DmapWriter(32).open("mupd").u32("mstt", 200).u32("musr", LIBRARY_REVISION).close().toByteArray();
+   }
+
+   private byte[] databases() {
+      return new DmapWriter(256).open("avdb").u32("mstt", 200).u8("muty", 0).u32("mtco", 1).u32("mrco", 1)
+               .open("mlcl").open("mlit").u32("miid", DATABASE_ID).u64("mper", DATABASE_PERSISTENT)
+               .string("minm", "Fake Library").u32("mimc", library.tracks).u32("mctc", 2).u32("mdbk", 1).close()
+               .close().close().toByteArray();
+   }
+
+   private byte[] containers() {
+      final DmapWriter out = new DmapWriter(256).open("aply").u32("mstt", 200).u8("muty", 0).u32("mtco", 3)
+               .u32("mrco", 3).open("mlcl");
+      out.open("mlit").u32("miid", LIBRARY_ID).u64("mper", LIBRARY_PERSISTENT).string("minm", "Fake Library")
+               .u8("abpl", 1).u32("mimc", library.tracks).close();
+      out.open("mlit").u32("miid", MUSIC_ID).u64("mper", MUSIC_PERSISTENT).string("minm", "Music")
+               .u32("aeSP", 1).u32("mimc", library.tracks).close();
+      out.open("mlit").u32("miid", 3).u64("mper", MUSIC_PERSISTENT + 1).string("minm", "Favourites")
+               .u32("mimc", favourites().length).close();
+      return out.close().close().toByteArray();
+   }
+
+   private int[] favourites() {
+      final int[] tracks = new int[Math.min(25, library.tracks)];
+      for (int i = 0; i < tracks.length; i++)
+         tracks[i] = i * (library.tracks / Math.max(tracks.length, 1));
+      return tracks;
+   }
+
+   /**
+    * Lists tracks in a playlist, filtered by the album, artist, item or name
+    * search in the query and sorted by name when asked. Library deltas are
+    * answered as if nothing changed since the given revision.
+    */
+   private byte[] items(String tag, long container, Map<String, String> params) {
+      int[] tracks;
+      final long delta = parseLong(params.get("delta"), 0);
+      if (delta >= LIBRARY_REVISION) {
+         tracks = new int[0];
+      } else if (container == 3) {
+         tracks = favourites();
+      } else if ("name".equals(params.get("sort"))) {
+         tracks = library.tracksByName;
+      } else {
+         tracks = new int[library.tracks];
+         for (int i = 0; i < tracks.length; i++)
+            tracks[i] = i;
+      }
+      tracks = filterTracks(tracks, params.get("query"));
+
+      final int[] range = range(params.get("index"), tracks.length);
+      final Map<Long, Integer> ratings;
+      synchronized (this) {
+         ratings = new HashMap<Long, Integer>(this.ratings);
+      }
+      return Listings.tracks(library, tag, tracks, range[0], range[1], "1".equals(params
+               .get("include-sort-headers")), ratings);
+   }
+
+   private int[] filterTracks(int[] tracks, String query) {
+      if (query == null)
+         return tracks;
+      Matcher matcher;
+      if ((matcher = ALBUM_QUERY.matcher(query)).find()) {
+         final int album = library.albumByPersistent(parseLong(matcher.group(1), 0));
+         if (album < 0)
+            return new int[0];
+         final int[] result = new int[library.albumCount[album]];
+         for (int i = 0; i < result.length; i++)
+            result[i] = library.albumFirst[album] + i;
+         return result;
+      } else if ((matcher = ITEM_QUERY.matcher(query)).find()) {
+         final long id = parseLong(matcher.group(1), 0);
+         return id >= 1 && id <= library.tracks ? new int[] { (int) id - 1 } : new int[0];
+      }
+
+      final int artist = (matcher = ARTIST_QUERY.matcher(query)).find() ? library.artistByName(matcher.group(1))
+               : -2;
+      final String search = (matcher = SEARCH_QUERY.matcher(query)).find() ? matcher.group(1).toLowerCase() : null;
+      if (artist == -2 && search == null)
+         return tracks;
+      int count = 0;
+      final int[] result = new int[tracks.length];
+      for (int track : tracks) {
+         final int album = library.trackAlbum[track];
+         final String artistName = library.artistName[library.albumArtist[album]];
+         if (artist != -2 && library.albumArtist[album] != artist)
+            continue;
+         if (search != null && !SyntheticLibrary.contains(library.trackName[track], search)
+                  && !SyntheticLibrary.contains(artistName, search)
+                  && !SyntheticLibrary.contains(library.albumName[album], search))
+            continue;
+         result[count++] = track;
+      }
+      return Arrays.copyOf(result, count);
+   }
+
+   /**
+    * Lists albums, all of them or one artist's, sorted by album or by artist.
+    */
+   private byte[] groups(Map<String, String> params) {
+      int[] albums = "artist".equals(params.get("sort")) ? library.albumsByArtist : library.albumsByName;
+      final String query = params.get("query");
+      final Matcher matcher;
+      if (query != null && (matcher = ARTIST_QUERY.matcher(query)).find()) {
+         final int artist = library.artistByName(matcher.group(1));
+         int count = 0;
+         final int[] result = new int[albums.length];
+         for (int album : albums) {
+            if (library.albumArtist[album] == artist)
+               result[count++] = album;
+         }
+         albums = Arrays.copyOf(result, count);
+      }
+
+      final int[] range = range(params.get("index"), albums.length);
+      return Listings.albums(library, albums, range[0], range[1], "1".equals(params.get("include-sort-headers")));
+   }
+
+   private byte[] artists(Map<String, String> params) {
+      final int[] artists = library.artistsByName;
+      final int[] range = range(params.get("index"), artists.length);
+      return Listings.artists(library, artists, range[0], range[1], "1".equals(params.get("include-sort-headers")));
+   }
+
+   private synchronized byte[] playStatus(long known) throws InterruptedException {
+      // like iTunes, hold the poll until something changes
+      final long deadline = System.currentTimeMillis() + POLL_MILLIS;
+      while (known >= revision && server != null) {
+         final long wait = deadline - System.currentTimeMillis();
+         if (wait <= 0)
+            break;
+         wait(wait);
+      }
+
+      final DmapWriter out = new DmapWriter(512).open("cmst").u32("mstt", 200).u32("cmsr", revision)
+               .u8("caps", playStatus).u8("cash", shuffle).u8("carp", repeat).u8("cafs", fullscreen)
+               .u8("cavs", visualizer).u8("cavc", 1).u32("caas", 2).u32("caar", 6);
+      if (playStatus != 2) {
+         final int track = queue[position];
+         final int album = library.trackAlbum[track];
+         final byte[] canp = new byte[16];
+         putInt(canp, 0, DATABASE_ID);
+         putInt(canp, 4, MUSIC_ID);
+         putInt(canp, 8, position + 1);
+         putInt(canp, 12, track + 1);
+         final long total = library.trackTime[track];
+         out.raw("canp", canp).string("cann", library.trackName[track])
+                  .string("cana", library.artistName[library.albumArtist[album]])
+                  .string("canl", library.albumName[album]).string("cang", "Rock")
+                  .u64("asai", library.albumPersistent[album]).u32("cmmk", 1)
+                  .u32("cant", Math.max(0, total - elapsed())).u32("cast", total);
+      }
+      return out.close().toByteArray();
+   }
+
+   private synchronized byte[] queueItems(Map<String, String> params) {
+      final int[] range = range(params.get("index"), queue.length);
+      final DmapWriter out = new DmapWriter(64 + (range[1] - range[0]) * 160).open("apso").u32("mstt", 200)
+               .u8("muty", 0).u32("mtco", queue.length).u32("mrco", range[1] - range[0]).open("mlcl");
+      for (int i = range[0]; i < range[1]; i++) {
+         final Integer rating = ratings.get((long) queue[i] + 1);
+         Listings.track(out, library, queue[i], i, rating == null ? 0 : rating);
+      }
+      return out.close().close().toByteArray();
+   }
+
+   private synchronized byte[] properties() {
+      return new DmapWriter(32).open("cmgt").u32("mstt", 200).u32("cmvo", volume).close().toByteArray();
+   }
+
+   private synchronized void setProperties(Map<String, String> params) {
+      if (params.containsKey("dmcp.volume"))
+         volume = Math.max(0, Math.min(100, (long) Double.parseDouble(params.get("dmcp.volume"))));
+      if (params.containsKey("dacp.playingtime") && playStatus != 2)
+         seek(parseLong(params.get("dacp.playingtime"), 0));
+      if (params.containsKey("dacp.shufflestate"))
+         shuffle = (int) parseLong(params.get("dacp.shufflestate"), 0);
+      if (params.containsKey("dacp.repeatstate"))
+         repeat = (int) parseLong(params.get("dacp.repeatstate"), 0);
+      if (params.containsKey("dacp.visualizer"))
+         visualizer = (int) parseLong(params.get("dacp.visualizer"), 0);
+      if (params.containsKey("dacp.fullscreen"))
+         fullscreen = (int) parseLong(params.get("dacp.fullscreen"), 0);
+      if (params.containsKey("dacp.userrating")) {
+         final Matcher matcher = ITEM_QUERY.matcher(String.valueOf(params.get("song-spec")));
+         if (matcher.find())
+            ratings.put(parseLong(matcher.group(1), 0), (int) parseLong(params.get("dacp.userrating"), 0));
+      }
+      changed();
+   }
+
+   private static byte[] speakers() {
+      return new DmapWriter(128).open("casp").u32("mstt", 200).open("mdcl").u8("caia", 1)
+               .string("minm", "Computer").u64("msma", 0).u32("cmvo", 100).close().close().toByteArray();
+   }
+
+   /**
+    * Applies a playback command: play and pause, skipping, and the cue and
+    * playspec calls that replace the queue.
+    */
+   private synchronized void command(String name, Map<String, String> params) {
+      if (name.equals("playpause")) {
+         if (playStatus == 4)
+            pause();
+         else if (queue.length > 0)
+            play();
+      } else if (name.equals("pause")) {
+         if (playStatus == 4)
+            pause();
+      } else if (name.equals("nextitem")) {
+         skip(1);
+      } else if (name.equals("previtem")) {
+         skip(elapsed() > 3000 ? 0 : -1);
+      } else if (name.equals("cue")) {
+         final String command = params.get("command");
+         final String query = params.get("query");
+         final int[] tracks = query == null ? null : filterTracks("name".equals(params.get("sort"))
+                  ? library.tracksByName : allTracks(), query);
+         if ("clear".equals(command)) {
+            queue = new int[0];
+            playStatus = 2;
+         } else if ("add".equals(command) && tracks != null) {
+            final int[] joined = Arrays.copyOf(queue, queue.length + tracks.length);
+            System.arraycopy(tracks, 0, joined, queue.length, tracks.length);
+            queue = joined;
+         } else if ("play".equals(command)) {
+            if (tracks != null)
+               queue = tracks;
+            start((int) parseLong(params.get("index"), 0));
+         }
+      } else if (name.equals("playspec")) {
+         // container items in the music playlist are numbered by track
+         queue = allTracks();
+         final Matcher item = CONTAINER_ITEM.matcher(String.valueOf(params.get("container-item-spec")));
+         final Matcher id = ITEM_QUERY.matcher(String.valueOf(params.get("item-spec")));
+         if (item.find())
+            start((int) parseLong(item.group(1), 1) - 1);
+         else if (id.find())
+            start((int) parseLong(id.group(1), 1) - 1);
+         else
+            start(0);
+      } else {
+         return;
+      }
+      changed();
+   }
+
+   private int[] allTracks() {
+      final int[] tracks = new int[library.tracks];
+      for (int i = 0; i < tracks.length; i++)
+         tracks[i] = i;
+      return tracks;
+   }
+
+   private void start(int index) {
+      if (queue.length == 0) {
+         playStatus = 2;
+         return;
+      }
+      position = Math.max(0, Math.min(index, queue.length - 1));
+      elapsed = 0;
+      play();
+   }
+
+   private void play() {
+      playStatus = 4;
+      resumed = System.currentTimeMillis();
+   }
+
+   private void pause() {
+      elapsed = elapsed();
+      playStatus = 3;
+   }
+
+   private void seek(long millis) {
+      elapsed = millis;
+      resumed = System.currentTimeMillis();
+   }
+
+   private void skip(int by) {
+      if (queue.length == 0)
+         return;
+      int next = position + by;
+      if (next >= queue.length) {
+         if (repeat == 0) {
+            playStatus = 2;
+            return;
+         }
+         next = 0;
+      }
+      position = Math.max(0, next);
+      elapsed = 0;
+      resumed = System.currentTimeMillis();
+   }
+
+   private long elapsed() {
+      return playStatus == 4 ? elapsed + System.currentTimeMillis() - resumed : elapsed;
+   }
+
+   private void changed() {
+      revision++;
+      notifyAll();
+   }
+
+   /**
+    * Moves on to the next track when the playing one ends.
+    */
+   private synchronized void tick() {
+      if (playStatus == 4 && elapsed() >= library.trackTime[queue[position]]) {
+         skip(repeat == 1 ? 0 : 1);
+         changed();
+      }
+   }
+
+   private void sendArtwork(HttpExchange exchange, int album, Map<String, String> params) throws IOException {
+      if (album < 0 || album >= library.albums()) {
+         shaper.send(exchange, 404, "text/plain", null);
+         return;
+      }
+      final int width = (int) Math.max(16, Math.min(1024, parseLong(params.get("mw"), 300)));
+      final int height = (int) Math.max(16, Math.min(1024, parseLong(params.get("mh"), 300)));
+      final String key = album + "-" + width + "x" + height;
+      byte[] jpeg;
+      synchronized (artwork) {
+         jpeg = artwork.get(key);
+      }
+      if (jpeg == null) {
+         jpeg = drawArtwork(library.albumPersistent[album], width, height);
+         synchronized (artwork) {
+            artwork.put(key, jpeg);
+         }
+      }
+      shaper.send(exchange, 200, "image/jpeg", jpeg);
+   }
+
+   /**
+    * Draws a cover made of two colors picked from the album id, so each
+    * album is recognisable and covers compress like photos rather than flat
+    * fills.
+    */
+   private static byte[] drawArtwork(long seed, int width, int height) throws IOException {
+      final Random random = new Random(seed);
+      final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+      final Graphics2D graphics = image.createGraphics();
+      final Color from = new Color(random.nextInt(0xffffff)), to = new Color(random.nextInt(0xffffff));
+      for (int y = 0; y < height; y++) {
+         final float mix = (float) y / height;
+         graphics.setColor(new Color((int) (from.getRed() * (1 - mix) + to.getRed() * mix), (int) (from.getGreen()
+                  * (1 - mix) + to.getGreen() * mix), (int) (from.getBlue() * (1 - mix) + to.getBlue() * mix)));
+         graphics.drawLine(0, y, width, y);
+      }
+      graphics.setColor(to);
+      graphics.fillOval(width / 4, height / 4, width / 2, height / 2);
+      graphics.dispose();
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      ImageIO.write(image, "jpeg", out);
+      return out.toByteArray();
+   }
+
+   /**
+    * @return the half open range of rows asked for by an index=a-b parameter,
+    *         every row if there is none
+    */
+   private static int[] range(String index, int count) {
+      if (index == null)
+         return new int[] { 0, count };
+      final Matcher matcher = INDEX.matcher(index);
+      if (!matcher.matches())
+         return new int[] { 0, count };
+      final int start = (int) Math.min(Long.parseLong(matcher.group(1)), count);
+      final int end = matcher.group(2).isEmpty() ? count : (int) Math.min(Long.parseLong(matcher.group(2)) + 1,
+               count);
+      return new int[] { start, Math.max(start, end) };
+   }
+
+   /**
+    * Splits a query string. Values are percent decoded but a '+' is kept,
+    * since DACP queries use it to join terms.
+    */
+   static Map<String, String> parameters(String query) {
+      final Map<String, String> params = new HashMap<String, String>();
+      if (query == null)
+         return params;
+      for (String parameter : query.split("&")) {
+         final int equals = parameter.indexOf('=');
+         if (equals > 0)
+            params.put(parameter.substring(0, equals), decode(parameter.substring(equals + 1)));
+         else
+            params.put(parameter, "");
+      }
+      return params;
+   }
+
+   private static String decode(String value) {
+      if (value.indexOf('%') < 0)
+         return value;
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream(value.length());
+      for (int i = 0; i < value.length(); i++) {
+         final char c = value.charAt(i);
+         if (c == '%' && i + 2 < value.length()) {
+            bytes.write(Integer.parseInt(value.substring(i + 1, i + 3), 16));
+            i += 2;
+         } else {
+            bytes.write(c);
+         }
+      }
+      try {
+         return bytes.toString("UTF-8");
+      } catch (IOException e) {
+         return value;
+      }
+   }
+
+   private static long parseLong(String value, long fallback) {
+      if (value == null || value.isEmpty())
+         return fallback;
+      try {
+         if (value.startsWith("0x"))
+            return Long.parseLong(value.substring(2), 16);
+         // album ids are unsigned 64 bit
+         return value.length() >= 19 ? new BigInteger(value).longValue() : Long.parseLong(value);
+      } catch (NumberFormatException e) {
+         return fallback;
+      }
+   }
+
+   private static void putInt(byte[] buffer, int offset, long value) {
+      buffer[offset] = (byte) (value >>> 24);
+      buffer[offset + 1] = (byte) (value >>> 16);
+      buffer[offset + 2] = (byte) (value >>> 8);
+      buffer[offset + 3] = (byte) value;
+   }
+
+   private static ThreadFactory daemons(final String name) {
+      return new ThreadFactory() {
+         private int count = 0;
+
+         public synchronized Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, name + "-" + (++count));
+            thread.setDaemon(true);
+            return thread;
+         }
+      };
+   }
+
+   public static void main(String[] args) throws Exception {
+      int port = DEFAULT_PORT, tracks = 10000;
+      long seed = 1, latency = 0, bandwidth = 0;
+      boolean gzip = false;
+      String record = null, replay = null, upstream = null;
+      for (int i = 0; i < args.length; i++) {
+         final String arg = args[i];
+         if (arg.equals("--gzip")) {
+            gzip = true;
+            continue;
+         } else if (i + 1 >= args.length) {
+            usage("missing value for " + arg);
+         }
+         final String value = args[++i];
+         if (arg.equals("--port"))
+            port = Integer.parseInt(value);
+         else if (arg.equals("--tracks"))
+            tracks = Integer.parseInt(value);
+         else if (arg.equals("--seed"))
+            seed = Long.parseLong(value);
+         else if (arg.equals("--latency"))
+            latency = Long.parseLong(value);
+         else if (arg.equals("--bandwidth"))
+            bandwidth = Long.parseLong(value);
+         else if (arg.equals("--record"))
+            record = value;
+         else if (arg.equals("--replay"))
+            replay = value;
+         else if (arg.equals("--upstream"))
+            upstream = value;
+         else
+            usage("unknown option " + arg);
+      }
+      if (record != null && upstream == null)
+         usage("--record needs --upstream");
+      if (tracks < 1)
+         usage("--tracks must be at least 1");
+
+      final TrafficStore store = record != null ? new TrafficStore(new File(record))
+               : replay != null ? new TrafficStore(new File(replay)) : null;
+      final SyntheticLibrary library = store == null ? new SyntheticLibrary(tracks, seed) : null;
+      final FakeDacpServer server = new FakeDacpServer(port, library, new Shaper(latency, bandwidth, gzip), store,
+               record != null ? upstream : null);
+      server.start();
+      if (library != null)
+         System.out.println(String.format("serving %d tracks, %d albums, %d artists on port %d", library.tracks,
+                  library.albums(), library.artists(), server.getPort()));
+      else
+         System.out.println(String.format("%s %s on port %d", record != null ? "recording to" : "replaying",
+                  record != null ? record : replay, server.getPort()));
+      Thread.currentThread().join();
+   }
+
+   private static void usage(String problem) {
+      System.err.println(problem);
+      System.err.println("usage: FakeDacpServer [--port 3689] [--tracks 10000] [--seed 1] [--latency ms]"
+               + " [--bandwidth bytes/s] [--gzip] [--record dir --upstream http://host:3689 | --replay dir]");
+      System.exit(2);
+   }
+}
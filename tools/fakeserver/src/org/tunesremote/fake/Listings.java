@@ -0,0 +1,165 @@
+/*
+    TunesRemote+ - http://code.google.com/p/tunesremote-plus/
+    
+    Copyright (C) 2008 Jeffrey Sharkey, http://jsharkey.org/
+    Copyright (C) 2010 TunesRemote+, http://code.google.com/p/tunesremote-plus/
+    
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    The Initial Developer of the Original Code is Jeffrey Sharkey.
+    Portions created by Jeffrey Sharkey are
+    Copyright (C) 2008. Jeffrey Sharkey, http://jsharkey.org/
+    All Rights Reserved.
+ */
+package org.tunesremote.fake;
+
+import java.util.Map;
+
+/**
+ * Renders the DMAP listings the fake server answers library requests with:
+ * tracks, album groups and the artist browse list, each optionally followed
+ * by its sort headers. The static listing methods build a whole listing of
+ * a given size for benchmarks that want realistic payloads without a
+ * server.
+ */
+public final class Listings {
+
+   private Listings() {
+   }
+
+   /**
+    * @return a listing of every track in a library of this many tracks, as
+    *         sent for the track search
+    */
+   public static byte[] trackListing(int rows, long seed) {
+      final SyntheticLibrary library = new SyntheticLibrary(rows, seed);
+      return tracks(library, "apso", library.tracksByName, 0, rows, true, null);
+   }
+
+   /**
+    * @return a listing of this many albums sorted by album
+    */
+   public static byte[] albumListing(int rows, long seed) {
+      // one track per album keeps large album lists cheap to generate
+      final SyntheticLibrary library = new SyntheticLibrary(rows, seed, 1, 6);
+      return albums(library, library.albumsByName, 0, rows, true);
+   }
+
+   /**
+    * @return a browse listing of this many artists
+    */
+   public static byte[] artistListing(int rows, long seed) {
+      final SyntheticLibrary library = new SyntheticLibrary(rows, seed, 1, 1);
+      return artists(library, library.artistsByName, 0, rows, true);
+   }
+
+   /**
+    * Writes rows start to end of a track list.
+    * <p>
+    * @param tag apso for playlists, adbs for the database
+    * @param ratings user ratings by track id, may be null
+    */
+   static byte[] tracks(SyntheticLibrary library, String tag, int[] tracks, int start, int end, boolean headers,
+            Map<Long, Integer> ratings) {
+      final DmapWriter out = new DmapWriter(64 + (end - start) * 160).open(tag).u32("mstt", 200).u8("muty", 0)
+               .u32("mtco", tracks.length).u32("mrco", end - start).open("mlcl");
+      for (int i = start; i < end; i++) {
+         final Integer rating = ratings == null ? null : ratings.get((long) tracks[i] + 1);
+         track(out, library, tracks[i], i, rating == null ? 0 : rating);
+      }
+      out.close();
+      if (headers) {
+         final String[] names = new String[tracks.length];
+         for (int i = 0; i < names.length; i++)
+            names[i] = library.trackName[tracks[i]];
+         sortHeaders(out, names);
+      }
+      return out.close().toByteArray();
+   }
+
+   static void track(DmapWriter out, SyntheticLibrary library, int track, int containerItem, int rating) {
+      final int album = library.trackAlbum[track];
+      final String artist = library.artistName[library.albumArtist[album]];
+      out.open("mlit").u8("mikd", 2).u32("miid", track + 1).u64("mper", 0x1000000000L + track)
+               .string("minm", library.trackName[track]).string("asar", artist)
+               .string("asal", library.albumName[album]).string("asaa", artist)
+               .u64("asai", library.albumPersistent[album]).u32("astm", library.trackTime[track])
+               .u16("astn", library.trackNumber[track]).u8("asur", rating).u32("mcti", containerItem + 1).close();
+   }
+
+   /**
+    * Writes rows start to end of an album group list.
+    */
+   static byte[] albums(SyntheticLibrary library, int[] albums, int start, int end, boolean headers) {
+      final DmapWriter out = new DmapWriter(64 + (end - start) * 100).open("agal").u32("mstt", 200).u8("muty", 0)
+               .u32("mtco", albums.length).u32("mrco", end - start).open("mlcl");
+      for (int i = start; i < end; i++) {
+         final int album = albums[i];
+         out.open("mlit").u32("miid", album + 1).u64("mper", library.albumPersistent[album])
+                  .string("minm", library.albumName[album])
+                  .string("asaa", library.artistName[library.albumArtist[album]])
+                  .u32("mimc", library.albumCount[album]).close();
+      }
+      out.close();
+      if (headers) {
+         final String[] names = new String[albums.length];
+         for (int i = 0; i < names.length; i++)
+            names[i] = library.albumName[albums[i]];
+         sortHeaders(out, names);
+      }
+      return out.close().toByteArray();
+   }
+
+   /**
+    * Writes rows start to end of the artist browse list, where each mlit is
+    * just the name.
+    */
+   static byte[] artists(SyntheticLibrary library, int[] artists, int start, int end, boolean headers) {
+      final DmapWriter out = new DmapWriter(64 + (end - start) * 24).open("abro").u32("mstt", 200).u8("muty", 0)
+               .u32("mtco", artists.length).u32("mrco", end - start).open("abar");
+      for (int i = start; i < end; i++)
+         out.string("mlit", library.artistName[artists[i]]);
+      out.close();
+      if (headers) {
+         final String[] names = new String[artists.length];
+         for (int i = 0; i < names.length; i++)
+            names[i] = library.artistName[artists[i]];
+         sortHeaders(out, names);
+      }
+      return out.close().toByteArray();
+   }
+
+   /**
+    * Writes the mshl index of a sorted listing: one entry per first letter
+    * with where it starts and how many rows it covers.
+    */
+   static void sortHeaders(DmapWriter out, String[] names) {
+      out.open("mshl");
+      int start = 0;
+      while (start < names.length) {
+         final char letter = section(names[start]);
+         int end = start + 1;
+         while (end < names.length && section(names[end]) == letter)
+            end++;
+         out.open("mlit").u16("mshc", letter).u32("mshi", start).u32("mshn", end - start).close();
+         start = end;
+      }
+      out.close();
+   }
+
+   private static char section(String name) {
+      final char first = name.isEmpty() ? '#' : Character.toUpperCase(name.charAt(0));
+      return Character.isLetter(first) ? first : '#';
+   }
+}
@@ -0,0 +1,118 @@
+/*
+    TunesRemote+ - http://code.google.com/p/tunesremote-plus/
+    
+    Copyright (C) 2008 Jeffrey Sharkey, http://jsharkey.org/
+    Copyright (C) 2010 TunesRemote+, http://code.google.com/p/tunesremote-plus/
+    
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    The Initial Developer of the Original Code is Jeffrey Sharkey.
+    Portions created by Jeffrey Sharkey are
+    Copyright (C) 2008. Jeffrey Sharkey, http://jsharkey.org/
+    All Rights Reserved.
+ */
+package org.tunesremote.fake;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * Sends responses the way a slow network would: every response waits a
+ * fixed latency before its headers go out and the body is then trickled out
+ * at a fixed number of bytes per second. Zero for either turns it off.
+ */
+final class Shaper {
+
+   private final long latency;
+   private final long bandwidth;
+   private final boolean gzip;
+
+   /**
+    * @param latency milliseconds before a response starts
+    * @param bandwidth body bytes per second, 0 for unlimited
+    * @param gzip compress bodies for clients that accept gzip, like iTunes
+    */
+   Shaper(long latency, long bandwidth, boolean gzip) {
+      this.latency = latency;
+      this.bandwidth = bandwidth;
+      this.gzip = gzip;
+   }
+
+   void send(HttpExchange exchange, int code, String type, byte[] body) throws IOException {
+      try {
+         if (latency > 0)
+            Thread.sleep(latency);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+
+      if (body == null || body.length == 0) {
+         exchange.sendResponseHeaders(code == 200 ? 204 : code, -1);
+         exchange.close();
+         return;
+      }
+
+      if (gzip && acceptsGzip(exchange)) {
+         final ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4 + 64);
+         final GZIPOutputStream out = new GZIPOutputStream(compressed);
+         out.write(body);
+         out.close();
+         body = compressed.toByteArray();
+         exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+      }
+      exchange.getResponseHeaders().set("Content-Type", type);
+      exchange.getResponseHeaders().set("DAAP-Server", "iTunes/11.0 (fake)");
+      exchange.sendResponseHeaders(code, body.length);
+
+      final OutputStream out = exchange.getResponseBody();
+      try {
+         if (bandwidth <= 0) {
+            out.write(body);
+         } else {
+            // send in slices of about 20ms each so the rate is smooth
+            final int slice = (int) Math.max(512, bandwidth / 50);
+            final long started = System.nanoTime();
+            for (int offset = 0; offset < body.length; offset += slice) {
+               final int count = Math.min(slice, body.length - offset);
+               out.write(body, offset, count);
+               out.flush();
+               final long due = started + (offset + count) * 1000000000L / bandwidth;
+               final long wait = (due - System.nanoTime()) / 1000000L;
+               if (wait > 0)
+                  Thread.sleep(wait);
+            }
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      } finally {
+         out.close();
+      }
+   }
+
+   private static boolean acceptsGzip(HttpExchange exchange) {
+      final List<String> accept = exchange.getRequestHeaders().get("Accept-Encoding");
+      if (accept == null)
+         return false;
+      for (String value : accept) {
+         if (value.toLowerCase().contains("gzip"))
+            return true;
+      }
+      return false;
+   }
+}
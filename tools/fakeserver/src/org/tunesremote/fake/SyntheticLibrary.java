@@ -0,0 +1,201 @@
+/*
+    TunesRemote+ - http://code.google.com/p/tunesremote-plus/
+    
+    Copyright (C) 2008 Jeffrey Sharkey, http://jsharkey.org/
+    Copyright (C) 2010 TunesRemote+, http://code.google.com/p/tunesremote-plus/
+    
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    The Initial Developer of the Original Code is Jeffrey Sharkey.
+    Portions created by Jeffrey Sharkey are
+    Copyright (C) 2008. Jeffrey Sharkey, http://jsharkey.org/
+    All Rights Reserved.
+ */
+package org.tunesremote.fake;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * A made up music library of any size. The same size and seed always give
+ * the same library, so runs can be compared. Unless asked otherwise albums
+ * have 8 to 16 tracks and artists 1 to 6 albums, and names are drawn from a
+ * small vocabulary so searches hit realistic numbers of rows.
+ */
+final class SyntheticLibrary {
+
+   private final static String[] WORDS = { "after", "all", "angel", "autumn", "baby", "back", "bad", "beautiful",
+            "black", "blue", "boy", "broken", "burning", "california", "city", "cold", "crazy", "dance", "dark",
+            "day", "dead", "desert", "devil", "dream", "electric", "end", "every", "falling", "fire", "flower",
+            "forever", "free", "ghost", "girl", "glass", "gold", "gone", "good", "green", "heart", "heaven", "high",
+            "home", "honey", "house", "ice", "island", "kids", "king", "last", "light", "little", "lonely", "long",
+            "lost", "love", "machine", "man", "midnight", "mind", "modern", "moon", "morning", "mountain", "new",
+            "night", "ocean", "old", "paper", "paradise", "queen", "rain", "red", "river", "rock", "road", "run",
+            "sad", "saturday", "sea", "secret", "shadow", "silver", "sky", "slow", "song", "soul", "star", "stone",
+            "summer", "sun", "sweet", "time", "tonight", "town", "train", "blues", "velvet", "water", "white", "wild",
+            "wind", "winter", "world", "young", "zero" };
+
+   final int tracks;
+   // per track, indexed by track id - 1
+   final String[] trackName;
+   final int[] trackAlbum, trackTime, trackNumber;
+   // per album, indexed by album id - 1
+   final String[] albumName;
+   final int[] albumArtist, albumFirst, albumCount;
+   final long[] albumPersistent;
+   // per artist
+   final String[] artistName;
+
+   // track indexes sorted by name, album indexes sorted by name or by artist
+   // then name, artist indexes sorted by name
+   final int[] tracksByName, albumsByName, albumsByArtist, artistsByName;
+
+   SyntheticLibrary(int tracks, long seed) {
+      this(tracks, seed, 16, 6);
+   }
+
+   /**
+    * @param albumTracks the most tracks on an album, albums have between
+    *           half that and that many
+    * @param artistAlbums the most albums by one artist
+    */
+   SyntheticLibrary(int tracks, long seed, int albumTracks, int artistAlbums) {
+      final Random random = new Random(seed);
+      final List<int[]> albums = new ArrayList<int[]>();
+      // {first track, count, artist}
+      int artists = 0, first = 0;
+      while (first < tracks) {
+         final int albumsForArtist = 1 + random.nextInt(artistAlbums);
+         for (int i = 0; i < albumsForArtist && first < tracks; i++) {
+            final int size = albumTracks / 2 + random.nextInt(albumTracks - albumTracks / 2 + 1);
+            final int count = Math.min(Math.max(1, size), tracks - first);
+            albums.add(new int[] { first, count, artists });
+            first += count;
+         }
+         artists++;
+      }
+
+      this.tracks = tracks;
+      trackName = new String[tracks];
+      trackAlbum = new int[tracks];
+      trackTime = new int[tracks];
+      trackNumber = new int[tracks];
+      albumName = new String[albums.size()];
+      albumArtist = new int[albums.size()];
+      albumFirst = new int[albums.size()];
+      albumCount = new int[albums.size()];
+      albumPersistent = new long[albums.size()];
+      artistName = new String[artists];
+
+      for (int a = 0; a < artists; a++)
+         artistName[a] = title(random, 1 + random.nextInt(3), a < 40 && random.nextInt(4) == 0 ? "The " : "");
+      for (int a = 0; a < albumName.length; a++) {
+         final int[] album = albums.get(a);
+         albumFirst[a] = album[0];
+         albumCount[a] = album[1];
+         albumArtist[a] = album[2];
+         albumName[a] = title(random, 1 + random.nextInt(4), "");
+         // persistent ids use the full 64 bits like iTunes does
+         albumPersistent[a] = random.nextLong();
+         for (int t = album[0]; t < album[0] + album[1]; t++) {
+            trackName[t] = title(random, 1 + random.nextInt(5), "");
+            trackAlbum[t] = a;
+            trackTime[t] = 90000 + random.nextInt(360000);
+            trackNumber[t] = t - album[0] + 1;
+         }
+      }
+
+      tracksByName = sorted(tracks, new Comparator<Integer>() {
+         public int compare(Integer a, Integer b) {
+            return trackName[a].compareToIgnoreCase(trackName[b]);
+         }
+      });
+      albumsByName = sorted(albumName.length, new Comparator<Integer>() {
+         public int compare(Integer a, Integer b) {
+            return albumName[a].compareToIgnoreCase(albumName[b]);
+         }
+      });
+      albumsByArtist = sorted(albumName.length, new Comparator<Integer>() {
+         public int compare(Integer a, Integer b) {
+            final int artist = artistName[albumArtist[a]].compareToIgnoreCase(artistName[albumArtist[b]]);
+            return artist != 0 ? artist : albumName[a].compareToIgnoreCase(albumName[b]);
+         }
+      });
+      artistsByName = sorted(artists, new Comparator<Integer>() {
+         public int compare(Integer a, Integer b) {
+            return artistName[a].compareToIgnoreCase(artistName[b]);
+         }
+      });
+   }
+
+   int albums() {
+      return albumName.length;
+   }
+
+   int artists() {
+      return artistName.length;
+   }
+
+   /**
+    * @return the album index with this persistent id, -1 if none
+    */
+   int albumByPersistent(long persistent) {
+      for (int a = 0; a < albumPersistent.length; a++) {
+         if (albumPersistent[a] == persistent)
+            return a;
+      }
+      return -1;
+   }
+
+   /**
+    * @return the artist index with this name, -1 if none
+    */
+   int artistByName(String name) {
+      for (int a = 0; a < artistName.length; a++) {
+         if (artistName[a].equalsIgnoreCase(name))
+            return a;
+      }
+      return -1;
+   }
+
+   static boolean contains(String value, String search) {
+      return value.toLowerCase(Locale.US).contains(search);
+   }
+
+   private static String title(Random random, int words, String prefix) {
+      final StringBuilder title = new StringBuilder(prefix);
+      for (int i = 0; i < words; i++) {
+         final String word = WORDS[random.nextInt(WORDS.length)];
+         if (title.length() > 0)
+            title.append(' ');
+         title.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+      }
+      return title.toString();
+   }
+
+   private static int[] sorted(int count, Comparator<Integer> order) {
+      final Integer[] boxed = new Integer[count];
+      for (int i = 0; i < count; i++)
+         boxed[i] = i;
+      Arrays.sort(boxed, order);
+      final int[] result = new int[count];
+      for (int i = 0; i < count; i++)
+         result[i] = boxed[i];
+      return result;
+   }
+}
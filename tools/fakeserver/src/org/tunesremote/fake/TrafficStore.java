@@ -0,0 +1,200 @@
+/*
+    TunesRemote+ - http://code.google.com/p/tunesremote-plus/
+    
+    Copyright (C) 2008 Jeffrey Sharkey, http://jsharkey.org/
+    Copyright (C) 2010 TunesRemote+, http://code.google.com/p/tunesremote-plus/
+    
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    The Initial Developer of the Original Code is Jeffrey Sharkey.
+    Portions created by Jeffrey Sharkey are
+    Copyright (C) 2008. Jeffrey Sharkey, http://jsharkey.org/
+    All Rights Reserved.
+ */
+package org.tunesremote.fake;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A directory of recorded server responses. While recording, requests are
+ * passed through to a real server and every answer is written out; while
+ * replaying the same answers are served back in the order they were
+ * recorded, so a capture from a real library (or a misbehaving server) can be
+ * played to the client as often as needed.
+ * <p>
+ * Requests are matched on path and query without the session-id, which
+ * changes every login, or the pairing guid, which changes every device. A
+ * request seen several times while recording, such as a status poll, replays
+ * its answers in turn and then keeps repeating the last one. The directory
+ * holds one .bin file per answer and an index.tsv of "file, status, content
+ * type, request" lines.
+ */
+final class TrafficStore {
+
+   static final class Entry {
+      final int code;
+      final String type;
+      final byte[] body;
+
+      Entry(int code, String type, byte[] body) {
+         this.code = code;
+         this.type = type;
+         this.body = body;
+      }
+   }
+
+   private final File directory;
+   private final Map<String, List<String[]>> index = new HashMap<String, List<String[]>>();
+   private final Map<String, Integer> played = new HashMap<String, Integer>();
+   private int files = 0;
+
+   TrafficStore(File directory) throws IOException {
+      this.directory = directory;
+      final File file = new File(directory, "index.tsv");
+      if (!file.exists())
+         return;
+      final BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+      try {
+         String line;
+         while ((line = in.readLine()) != null) {
+            final String[] fields = line.split("\t", 4);
+            if (fields.length == 4) {
+               add(fields);
+               files++;
+            }
+         }
+      } finally {
+         in.close();
+      }
+   }
+
+   /**
+    * @return the request path and query with the session-id and pairing guid
+    *         taken out
+    */
+   static String key(URI uri) {
+      final String query = uri.getRawQuery();
+      if (query == null)
+         return uri.getRawPath();
+      final StringBuilder key = new StringBuilder(uri.getRawPath());
+      char separator = '?';
+      for (String parameter : query.split("&")) {
+         if (parameter.startsWith("session-id=") || parameter.startsWith("pairing-guid="))
+            continue;
+         key.append(separator).append(parameter);
+         separator = '&';
+      }
+      return key.toString();
+   }
+
+   /**
+    * @return the next recorded answer for this request, null if it was never
+    *         recorded
+    */
+   synchronized Entry replay(String key) throws IOException {
+      final List<String[]> answers = index.get(key);
+      if (answers == null)
+         return null;
+      final Integer count = played.get(key);
+      final int next = count == null ? 0 : count;
+      played.put(key, next + 1);
+      final String[] fields = answers.get(Math.min(next, answers.size() - 1));
+      return new Entry(Integer.parseInt(fields[1]), fields[2], read(new File(directory, fields[0])));
+   }
+
+   /**
+    * Passes a request through to the real server and keeps its answer.
+    */
+   Entry record(String upstream, URI uri) throws IOException {
+      final HttpURLConnection connection = (HttpURLConnection) new URL(upstream + uri.getRawPath()
+               + (uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery())).openConnection();
+      connection.setRequestProperty("Viewer-Only-Client", "1");
+      connection.setRequestProperty("Client-Daap-Version", "3.10");
+      // keep the capture uncompressed, the replay compresses it again if asked
+      connection.setRequestProperty("Accept-Encoding", "identity");
+      connection.setReadTimeout(0);
+      final int code = connection.getResponseCode();
+      final InputStream in = code >= 400 ? connection.getErrorStream() : connection.getInputStream();
+      final byte[] body = in == null ? new byte[0] : readAll(in);
+      final String type = connection.getContentType() == null ? "application/x-dmap-tagged" : connection
+               .getContentType();
+      final Entry entry = new Entry(code, type, body);
+      save(key(uri), entry);
+      return entry;
+   }
+
+   private synchronized void save(String key, Entry entry) throws IOException {
+      directory.mkdirs();
+      final String name = String.format("%06d.bin", files++);
+      final FileOutputStream out = new FileOutputStream(new File(directory, name));
+      try {
+         out.write(entry.body);
+      } finally {
+         out.close();
+      }
+      final String[] fields = { name, Integer.toString(entry.code), entry.type, key };
+      final Writer index = new OutputStreamWriter(new FileOutputStream(new File(directory, "index.tsv"), true),
+               "UTF-8");
+      try {
+         index.write(fields[0] + "\t" + fields[1] + "\t" + fields[2] + "\t" + fields[3] + "\n");
+      } finally {
+         index.close();
+      }
+      add(fields);
+   }
+
+   private void add(String[] fields) {
+      List<String[]> answers = index.get(fields[3]);
+      if (answers == null) {
+         answers = new ArrayList<String[]>();
+         index.put(fields[3], answers);
+      }
+      answers.add(fields);
+   }
+
+   private static byte[] read(File file) throws IOException {
+      final InputStream in = new FileInputStream(file);
+      try {
+         return readAll(in);
+      } finally {
+         in.close();
+      }
+   }
+
+   private static byte[] readAll(InputStream in) throws IOException {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final byte[] buffer = new byte[8192];
+      int read;
+      while ((read = in.read(buffer)) != -1)
+         out.write(buffer, 0, read);
+      in.close();
+      return out.toByteArray();
+   }
+}